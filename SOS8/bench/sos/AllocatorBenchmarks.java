@@ -0,0 +1,136 @@
+package sos;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * These benchmarks time the OS' memory allocator (@see BuddyAllocator),
+ * which is what SOS.allocBlock calls for every new process.  The allocator
+ * covers a region the size of a large RAM with 64 word pages.
+ *
+ * @see BenchmarkRunner
+ */
+public class AllocatorBenchmarks
+{
+    private static final int REGION_SIZE = 64 * 1024;
+    private static final int UNIT_SIZE = 64;
+
+    /**
+     * the block sizes requested (process sizes from a page to a few dozen)
+     */
+    private static final int[] SIZES = { 64, 100, 256, 300, 512, 1024, 2000 };
+
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's benchmarks to
+     */
+    public static void addTo(List<Benchmark> all)
+    {
+        //Allocate and free a block in an otherwise empty region.  The
+        //allocation splits the region all the way down and the free
+        //coalesces it all the way back up.
+        all.add(new Benchmark("alloc.splitCoalesce")
+        {
+            private BuddyAllocator m_allocator = null;
+
+            @Override
+            public void setup()
+            {
+                m_allocator = new BuddyAllocator(0, REGION_SIZE, UNIT_SIZE);
+            }
+
+            @Override
+            public int run(int ops)
+            {
+                int sum = 0;
+                for (int i = 0; i < ops; i++)
+                {
+                    int addr = m_allocator.alloc(UNIT_SIZE);
+                    m_allocator.free(addr);
+                    sum += addr;
+                }
+                return sum;
+            }
+        });
+
+        //Allocate and free blocks of mixed sizes in a region that has been
+        //fragmented by freeing every other block of a full region
+        all.add(new Benchmark("alloc.fragmented")
+        {
+            private BuddyAllocator m_allocator = null;
+            private int[] m_live = new int[64];
+
+            @Override
+            public void setup()
+            {
+                m_allocator = new BuddyAllocator(0, REGION_SIZE, UNIT_SIZE);
+                Random rand = new Random(42);
+                boolean keep = false;
+                int addr;
+                while ((addr = m_allocator.alloc(SIZES[rand.nextInt(SIZES.length)])) != -1)
+                {
+                    if (!keep)
+                    {
+                        m_allocator.free(addr);
+                        m_allocator.alloc(UNIT_SIZE);
+                    }
+                    keep = !keep;
+                }
+                for (int i = 0; i < m_live.length; i++)
+                {
+                    m_live[i] = -1;
+                }
+            }
+
+            @Override
+            public int run(int ops)
+            {
+                int sum = 0;
+                for (int i = 0; i < ops; i++)
+                {
+                    //Replace one of the benchmark's own blocks
+                    int slot = i & (m_live.length - 1);
+                    if (m_live[slot] != -1)
+                    {
+                        m_allocator.free(m_live[slot]);
+                    }
+                    m_live[slot] = m_allocator.alloc(SIZES[i % SIZES.length]);
+                    sum += m_live[slot];
+                }
+                return sum;
+            }
+        });
+
+        //The check that decides whether compaction would help a failed
+        //allocation
+        all.add(new Benchmark("alloc.fitsAfterCompaction")
+        {
+            private BuddyAllocator m_allocator = null;
+
+            @Override
+            public void setup()
+            {
+                m_allocator = new BuddyAllocator(0, REGION_SIZE, UNIT_SIZE);
+                int addr;
+                int n = 0;
+                while ((addr = m_allocator.alloc(UNIT_SIZE)) != -1)
+                {
+                    if ((n++ % 3) == 0) m_allocator.free(addr);
+                }
+            }
+
+            @Override
+            public int run(int ops)
+            {
+                int sum = 0;
+                for (int i = 0; i < ops; i++)
+                {
+                    if (m_allocator.fitsAfterCompaction(SIZES[i % SIZES.length])) sum++;
+                }
+                return sum;
+            }
+        });
+    }//addTo
+
+}//class AllocatorBenchmarks
@@ -0,0 +1,127 @@
+package sos;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * This class builds a bare simulated machine (RAM, MMU, CPU and OS without
+ * devices or swap) for benchmarks to exercise directly.  Every page is
+ * mapped to a frame up front so nothing page faults.
+ *
+ * @see Benchmark
+ */
+public class BenchMachine
+{
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    public RAM m_RAM = null;
+    public MMU m_MMU = null;
+    public InterruptController m_IC = null;
+    public CPU m_CPU = null;
+    public SOS m_OS = null;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param ramSize  the number of words of RAM
+     * @param virtSize the number of words of virtual memory
+     * @param pageSize the number of words in a page
+     */
+    public BenchMachine(int ramSize, int virtSize, int pageSize)
+    {
+        this(ramSize, virtSize, pageSize, Simulation.createScheduler("starvation", 0));
+    }
+
+    /**
+     * @param scheduler decides which process runs next
+     */
+    public BenchMachine(int ramSize, int virtSize, int pageSize, Scheduler scheduler)
+    {
+        m_RAM = new RAM(ramSize, 0);
+        m_MMU = new MMU(m_RAM, virtSize, pageSize);
+        m_IC = new InterruptController();
+        m_CPU = new CPU(m_RAM, m_IC, m_MMU);
+        m_OS = new SOS(m_CPU, m_RAM, m_MMU, null, scheduler);
+        m_OS.setPrintStats(false);
+        m_OS.setPrintOutput(false);
+    }//ctor
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * loadProcess
+     *
+     * assembles a program and makes it the current process.  When this
+     * returns the CPU's registers are set up to run it.
+     *
+     * @param source    the program's pidgin assembly
+     * @param allocSize the size of the process' address space
+     * @return the program
+     * @throws IOException if the program can't be assembled or loaded
+     */
+    public Program loadProcess(String source, int allocSize) throws IOException
+    {
+        Program prog = assemble(source);
+        if (!m_OS.createProcess(prog, allocSize))
+        {
+            throw new IOException("Could not allocate " + allocSize + " words");
+        }
+        return prog;
+    }//loadProcess
+
+    /**
+     * assemble
+     *
+     * @param source pidgin assembly
+     * @return the assembled program
+     * @throws IOException if the program can't be assembled
+     */
+    public static Program assemble(String source) throws IOException
+    {
+        File file = writeTempFile(source);
+        try
+        {
+            Program prog = new Program();
+            int status = prog.load(file.getPath(), false);
+            if (status != 0)
+            {
+                throw new IOException("Could not assemble program (" + status + ")");
+            }
+            return prog;
+        }
+        finally
+        {
+            file.delete();
+        }
+    }//assemble
+
+    /**
+     * writeTempFile
+     *
+     * @param text the contents of the file
+     * @return a temporary file containing the text (the caller deletes it)
+     * @throws IOException if the file can't be written
+     */
+    public static File writeTempFile(String text) throws IOException
+    {
+        File file = File.createTempFile("sosbench", ".asm");
+        FileWriter out = new FileWriter(file);
+        try
+        {
+            out.write(text);
+        }
+        finally
+        {
+            out.close();
+        }
+        return file;
+    }//writeTempFile
+
+}//class BenchMachine
@@ -0,0 +1,84 @@
+package sos;
+
+/**
+ * This class is one measurement taken by the {@link BenchmarkRunner}.  A
+ * benchmark builds whatever it needs in {@link #setup}, and then
+ * {@link #run} is timed repeatedly with as many operations per call as it
+ * takes to fill a measurement iteration.
+ *
+ * Every run returns a value computed from the work it did.  The runner
+ * folds these values together so that the JIT can't discard the work as
+ * dead code.
+ *
+ * @see BenchmarkRunner
+ */
+public abstract class Benchmark
+{
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * identifies the benchmark in reports (e.g., "cpu.ADD")
+     */
+    private String m_name = null;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param name identifies the benchmark in reports
+     */
+    protected Benchmark(String name)
+    {
+        m_name = name;
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * @return the benchmark's name
+     */
+    public String getName()
+    {
+        return m_name;
+    }
+
+    /**
+     * setup
+     *
+     * builds the objects that the benchmark exercises.  This is called once
+     * before the first run.
+     *
+     * @throws Exception if the benchmark can't be built
+     */
+    public void setup() throws Exception
+    {
+        //Most benchmarks need nothing
+    }
+
+    /**
+     * run
+     *
+     * performs the operation being measured a given number of times
+     *
+     * @param ops the number of operations to perform
+     * @return a value that depends on the work that was done
+     */
+    public abstract int run(int ops);
+
+    /**
+     * teardown
+     *
+     * releases anything acquired by setup.  This is called once after the
+     * last run.
+     */
+    public void teardown()
+    {
+        //Most benchmarks have nothing to release
+    }
+
+}//class Benchmark
@@ -0,0 +1,275 @@
+package sos;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class measures the simulator's hot paths so that every performance
+ * change can be checked against numbers taken before it.  It needs nothing
+ * beyond the JDK.
+ *
+ * Each benchmark is first calibrated (the number of operations per call to
+ * {@link Benchmark#run} is doubled until a call fills an iteration), then
+ * run for some warmup iterations that are thrown away so the JIT can
+ * compile it, and finally timed for the measurement iterations.  The report
+ * gives the mean time per operation with its standard deviation and the
+ * fastest iteration.
+ *
+ * Usage: java sos.BenchmarkRunner [-filter=text] [-warmup=5] [-iterations=10]
+ *        [-time=200] [-csv=file.csv] [-list]
+ *
+ * -filter runs only the benchmarks whose names contain the text and -time
+ * is the length of an iteration in milliseconds.  For numbers that can be
+ * compared from run to run, use the same JVM and a quiet machine, and
+ * compare the CSV files.
+ *
+ * @see Benchmark
+ */
+public class BenchmarkRunner
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    public static final int DEFAULT_WARMUP = 5;
+    public static final int DEFAULT_ITERATIONS = 10;
+    public static final int DEFAULT_ITERATION_MILLIS = 200;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the number of iterations thrown away / measured per benchmark
+     */
+    private int m_warmup = DEFAULT_WARMUP;
+    private int m_iterations = DEFAULT_ITERATIONS;
+
+    /**
+     * the target length of a single iteration in nanoseconds
+     */
+    private long m_iterationNanos = DEFAULT_ITERATION_MILLIS * 1000000L;
+
+    /**
+     * the values returned by every run are folded in here so that the work
+     * they did is never dead code
+     */
+    private volatile int m_sink = 0;
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public void setWarmup(int n)                    { m_warmup = n; }
+    public void setIterations(int n)                { m_iterations = Math.max(n, 1); }
+    public void setIterationMillis(int ms)          { m_iterationNanos = ms * 1000000L; }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * createAll
+     *
+     * @return every benchmark in the suite
+     */
+    public static List<Benchmark> createAll()
+    {
+        List<Benchmark> all = new ArrayList<Benchmark>();
+        CPUBenchmarks.addTo(all);
+        MMUBenchmarks.addTo(all);
+        AllocatorBenchmarks.addTo(all);
+        SchedulerBenchmarks.addTo(all);
+        ProgramBenchmarks.addTo(all);
+        InterruptBenchmarks.addTo(all);
+        return all;
+    }//createAll
+
+    /**
+     * timeRun
+     *
+     * @return how long a single call to bench.run(ops) took in nanoseconds
+     */
+    private long timeRun(Benchmark bench, int ops)
+    {
+        long start = System.nanoTime();
+        int result = bench.run(ops);
+        long elapsed = System.nanoTime() - start;
+        m_sink += result;
+        return elapsed;
+    }//timeRun
+
+    /**
+     * calibrate
+     *
+     * @return the number of operations that fills an iteration
+     */
+    private int calibrate(Benchmark bench)
+    {
+        int ops = 1;
+        long elapsed = timeRun(bench, ops);
+        while ((elapsed < m_iterationNanos / 4) && (ops < (1 << 29)))
+        {
+            ops *= 2;
+            elapsed = timeRun(bench, ops);
+        }
+
+        //Scale up to a full iteration (without overflowing)
+        double scale = m_iterationNanos / (double) Math.max(elapsed, 1);
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE / 2, ops * scale));
+    }//calibrate
+
+    /**
+     * measure
+     *
+     * runs a benchmark from setup to teardown
+     *
+     * @param bench the benchmark
+     * @return the time per operation of each measurement iteration in
+     *         nanoseconds
+     * @throws Exception if the benchmark can't be set up
+     */
+    public double[] measure(Benchmark bench) throws Exception
+    {
+        bench.setup();
+        try
+        {
+            int ops = calibrate(bench);
+            for (int i = 0; i < m_warmup; i++)
+            {
+                timeRun(bench, ops);
+            }
+
+            double[] nanosPerOp = new double[m_iterations];
+            for (int i = 0; i < m_iterations; i++)
+            {
+                nanosPerOp[i] = timeRun(bench, ops) / (double) ops;
+            }
+            return nanosPerOp;
+        }
+        finally
+        {
+            bench.teardown();
+        }
+    }//measure
+
+    /**
+     * mean
+     */
+    public static double mean(double[] values)
+    {
+        double sum = 0;
+        for (double v : values) sum += v;
+        return sum / values.length;
+    }
+
+    /**
+     * stddev
+     */
+    public static double stddev(double[] values)
+    {
+        if (values.length < 2) return 0;
+        double mean = mean(values);
+        double sum = 0;
+        for (double v : values) sum += (v - mean) * (v - mean);
+        return Math.sqrt(sum / (values.length - 1));
+    }
+
+    /**
+     * min
+     */
+    public static double min(double[] values)
+    {
+        double min = Double.MAX_VALUE;
+        for (double v : values) min = Math.min(min, v);
+        return min;
+    }
+
+    /**
+     * main
+     *
+     * runs the suite described by the command line (see the class comment)
+     */
+    public static void main(String[] args)
+    {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        String filter = "";
+        String csvName = null;
+        boolean listOnly = false;
+        for (String arg : args)
+        {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("-filter="))             filter = value;
+            else if (arg.startsWith("-warmup="))        runner.setWarmup(Integer.parseInt(value));
+            else if (arg.startsWith("-iterations="))    runner.setIterations(Integer.parseInt(value));
+            else if (arg.startsWith("-time="))          runner.setIterationMillis(Integer.parseInt(value));
+            else if (arg.startsWith("-csv="))           csvName = value;
+            else if (arg.equals("-list"))               listOnly = true;
+            else
+            {
+                System.out.println("ERROR: Unknown option " + arg);
+                return;
+            }
+        }
+
+        //The benchmarks drive the OS directly so its chatter would swamp the
+        //measurements
+        SOS.m_verbose = false;
+        CPU.m_verbose = false;
+
+        PrintWriter csv = null;
+        try
+        {
+            if (csvName != null)
+            {
+                csv = new PrintWriter(new FileWriter(csvName));
+                csv.println("benchmark,mean_ns,stddev_ns,min_ns,iterations");
+            }
+
+            System.out.println(String.format("%-32s %12s %10s %12s",
+                                             "Benchmark", "ns/op", "+/-", "min ns/op"));
+            for (Benchmark bench : createAll())
+            {
+                if (!bench.getName().contains(filter)) continue;
+                if (listOnly)
+                {
+                    System.out.println(bench.getName());
+                    continue;
+                }
+
+                double[] nanos;
+                try
+                {
+                    nanos = runner.measure(bench);
+                }
+                catch (Exception e)
+                {
+                    System.out.println(String.format("%-32s FAILED: %s", bench.getName(), e));
+                    continue;
+                }
+                System.out.println(String.format("%-32s %12.2f %10.2f %12.2f",
+                                                 bench.getName(), mean(nanos),
+                                                 stddev(nanos), min(nanos)));
+                if (csv != null)
+                {
+                    csv.println(bench.getName() + "," + mean(nanos) + ","
+                                + stddev(nanos) + "," + min(nanos) + ","
+                                + nanos.length);
+                    csv.flush();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("ERROR: Could not write " + csvName + ": " + e);
+        }
+        finally
+        {
+            if (csv != null) csv.close();
+        }
+    }//main
+
+}//class BenchmarkRunner
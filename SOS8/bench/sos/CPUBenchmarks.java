@@ -0,0 +1,90 @@
+package sos;
+
+import java.util.List;
+
+/**
+ * These benchmarks time {@link CPU#executeInstr} for each opcode (except
+ * TRAP, which is a call into the OS).  The CPU runs a single process whose
+ * registers are set so that every branch is taken and every memory access
+ * is in bounds.
+ *
+ * @see BenchmarkRunner
+ */
+public class CPUBenchmarks
+{
+    /**
+     * the address (relative to BASE) that LOAD and SAVE use
+     */
+    private static final int DATA_OFFSET = 100;
+
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's benchmarks to
+     */
+    public static void addTo(List<Benchmark> all)
+    {
+        all.add(new OpcodeBenchmark("cpu.SET",    new int[] { CPU.SET, CPU.R0, 5, 0 }));
+        all.add(new OpcodeBenchmark("cpu.ADD",    new int[] { CPU.ADD, CPU.R0, CPU.R1, CPU.R2 }));
+        all.add(new OpcodeBenchmark("cpu.SUB",    new int[] { CPU.SUB, CPU.R0, CPU.R1, CPU.R2 }));
+        all.add(new OpcodeBenchmark("cpu.MUL",    new int[] { CPU.MUL, CPU.R0, CPU.R1, CPU.R2 }));
+        all.add(new OpcodeBenchmark("cpu.DIV",    new int[] { CPU.DIV, CPU.R0, CPU.R1, CPU.R2 }));
+        all.add(new OpcodeBenchmark("cpu.COPY",   new int[] { CPU.COPY, CPU.R0, CPU.R1, 0 }));
+        all.add(new OpcodeBenchmark("cpu.BRANCH", new int[] { CPU.BRANCH, 0, 0, 0 }));
+        all.add(new OpcodeBenchmark("cpu.BNE",    new int[] { CPU.BNE, CPU.R1, CPU.R2, 0 }));
+        all.add(new OpcodeBenchmark("cpu.BLT",    new int[] { CPU.BLT, CPU.R2, CPU.R1, 0 }));
+        all.add(new OpcodeBenchmark("cpu.LOAD",   new int[] { CPU.LOAD, CPU.R0, CPU.R4, 0 }));
+        all.add(new OpcodeBenchmark("cpu.SAVE",   new int[] { CPU.SAVE, CPU.R1, CPU.R4, 0 }));
+
+        //A push must be matched by a pop or the stack overflows
+        all.add(new OpcodeBenchmark("cpu.PUSH+POP",
+                                    new int[] { CPU.PUSH, CPU.R1, 0, 0 },
+                                    new int[] { CPU.POP, CPU.R0, 0, 0 }));
+    }//addTo
+
+    /**
+     * class OpcodeBenchmark
+     *
+     * executes the same instruction (or pair of instructions) over and over
+     */
+    private static class OpcodeBenchmark extends Benchmark
+    {
+        private int[][] m_instrs = null;
+        private CPU m_CPU = null;
+
+        public OpcodeBenchmark(String name, int[]... instrs)
+        {
+            super(name);
+            m_instrs = instrs;
+        }
+
+        @Override
+        public void setup() throws Exception
+        {
+            BenchMachine machine = new BenchMachine(4096, 4096, 64);
+            machine.loadProcess("SET R0 0\n", 256);
+            m_CPU = machine.m_CPU;
+            m_CPU.setReg(CPU.R0, 0);
+            m_CPU.setReg(CPU.R1, 7);
+            m_CPU.setReg(CPU.R2, 3);
+            m_CPU.setReg(CPU.R3, 0);
+            m_CPU.setReg(CPU.R4, DATA_OFFSET);
+        }
+
+        @Override
+        public int run(int ops)
+        {
+            CPU cpu = m_CPU;
+            int[][] instrs = m_instrs;
+            for (int i = 0; i < ops; i++)
+            {
+                for (int[] instr : instrs)
+                {
+                    cpu.executeInstr(instr);
+                }
+            }
+            return cpu.getReg(CPU.R0) + cpu.getPC();
+        }
+    }//class OpcodeBenchmark
+
+}//class CPUBenchmarks
@@ -0,0 +1,102 @@
+package sos;
+
+import java.util.List;
+
+/**
+ * These benchmarks time the hand off of interrupts through the
+ * {@link InterruptController}, both on a single thread (the cost of the
+ * ring itself) and from a device thread to the CPU's thread.
+ *
+ * @see BenchmarkRunner
+ */
+public class InterruptBenchmarks
+{
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's benchmarks to
+     */
+    public static void addTo(List<Benchmark> all)
+    {
+        all.add(new Benchmark("ic.putGet")
+        {
+            private InterruptController m_IC = null;
+            private int[] m_slot = new int[4];
+
+            @Override
+            public void setup()
+            {
+                m_IC = new InterruptController();
+            }
+
+            @Override
+            public int run(int ops)
+            {
+                int sum = 0;
+                for (int i = 0; i < ops; i++)
+                {
+                    m_IC.putData(InterruptController.INT_READ_DONE, 0, i, i);
+                    m_IC.getData(m_slot);
+                    sum += m_slot[3];
+                }
+                return sum;
+            }
+        });
+
+        //Each operation is one interrupt raised by a device thread and
+        //collected by the benchmark's thread (which plays the CPU)
+        all.add(new Benchmark("ic.handoff")
+        {
+            private InterruptController m_IC = null;
+            private int[] m_slot = new int[4];
+
+            @Override
+            public void setup()
+            {
+                m_IC = new InterruptController();
+            }
+
+            @Override
+            public int run(final int ops)
+            {
+                Thread device = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        for (int i = 0; i < ops; i++)
+                        {
+                            m_IC.putData(InterruptController.INT_WRITE_DONE, 1, i, 0);
+                        }
+                    }
+                });
+                device.start();
+
+                int sum = 0;
+                int received = 0;
+                while (received < ops)
+                {
+                    if (m_IC.getData(m_slot))
+                    {
+                        sum += m_slot[2];
+                        received++;
+                    }
+                    else
+                    {
+                        //Let the device run if there is only one core
+                        Thread.yield();
+                    }
+                }
+                try
+                {
+                    device.join();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return sum;
+            }
+        });
+    }//addTo
+
+}//class InterruptBenchmarks
@@ -0,0 +1,160 @@
+package sos;
+
+import java.util.List;
+
+/**
+ * These benchmarks time address translation and the MMU's read, write and
+ * fetch paths.  The "local" variants stay within a few pages (so every
+ * translation hits in the TLB) while the "strided" variants touch a new page
+ * on every access across more pages than the TLB holds.
+ *
+ * @see BenchmarkRunner
+ */
+public class MMUBenchmarks
+{
+    /**
+     * the size of the benchmark process' address space
+     */
+    private static final int ALLOC_SIZE = 2048;
+
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's benchmarks to
+     */
+    public static void addTo(List<Benchmark> all)
+    {
+        all.add(new MMUBenchmark("mmu.translate.local", 1)
+        {
+            @Override
+            protected int access(MMU mmu, int addr)
+            {
+                return mmu.getPhysicalAddress(addr);
+            }
+        });
+        all.add(new MMUBenchmark("mmu.translate.strided", 0)
+        {
+            @Override
+            protected int access(MMU mmu, int addr)
+            {
+                return mmu.getPhysicalAddress(addr);
+            }
+        });
+        all.add(new MMUBenchmark("mmu.read.local", 1)
+        {
+            @Override
+            protected int access(MMU mmu, int addr)
+            {
+                return mmu.read(addr);
+            }
+        });
+        all.add(new MMUBenchmark("mmu.read.strided", 0)
+        {
+            @Override
+            protected int access(MMU mmu, int addr)
+            {
+                return mmu.read(addr);
+            }
+        });
+        all.add(new MMUBenchmark("mmu.write.local", 1)
+        {
+            @Override
+            protected int access(MMU mmu, int addr)
+            {
+                mmu.write(addr, addr);
+                return addr;
+            }
+        });
+        all.add(new MMUBenchmark("mmu.write.strided", 0)
+        {
+            @Override
+            protected int access(MMU mmu, int addr)
+            {
+                mmu.write(addr, addr);
+                return addr;
+            }
+        });
+        all.add(new MMUBenchmark("mmu.fetch", CPU.INSTRSIZE)
+        {
+            private int[] m_buf = new int[CPU.INSTRSIZE];
+
+            @Override
+            protected int access(MMU mmu, int addr)
+            {
+                return mmu.fetch(addr, m_buf)[0];
+            }
+        });
+    }//addTo
+
+    /**
+     * class MMUBenchmark
+     *
+     * walks through the benchmark process' address space accessing one
+     * address per operation
+     */
+    private abstract static class MMUBenchmark extends Benchmark
+    {
+        /**
+         * the distance between consecutive addresses (0 means a page)
+         */
+        private int m_stride = 0;
+        private MMU m_MMU = null;
+        private int m_base = 0;
+
+        public MMUBenchmark(String name, int stride)
+        {
+            super(name);
+            m_stride = stride;
+        }
+
+        @Override
+        public void setup() throws Exception
+        {
+            BenchMachine machine = new BenchMachine(8192, 8192, 64);
+
+            //Fill the address space with instructions so fetch has
+            //something to decode
+            StringBuilder source = new StringBuilder();
+            for (int i = 0; i < (ALLOC_SIZE / CPU.INSTRSIZE) - 4; i++)
+            {
+                source.append("ADD R0 R1 R2\n");
+            }
+            machine.loadProcess(source.toString(), ALLOC_SIZE);
+            m_MMU = machine.m_MMU;
+            m_base = machine.m_CPU.getBASE();
+            if (m_stride == 0)
+            {
+                m_stride = m_MMU.getPageSize() + 1;
+            }
+        }
+
+        /**
+         * access
+         *
+         * @return a value that depends on the access
+         */
+        protected abstract int access(MMU mmu, int addr);
+
+        @Override
+        public int run(int ops)
+        {
+            MMU mmu = m_MMU;
+            int sum = 0;
+            int offset = 0;
+
+            //Stay below the last instruction so a fetch is always complete
+            int limit = ALLOC_SIZE - (4 * CPU.INSTRSIZE);
+            for (int i = 0; i < ops; i++)
+            {
+                sum += access(mmu, m_base + offset);
+                offset += m_stride;
+                if (offset >= limit)
+                {
+                    offset -= limit;
+                }
+            }
+            return sum;
+        }
+    }//class MMUBenchmark
+
+}//class MMUBenchmarks
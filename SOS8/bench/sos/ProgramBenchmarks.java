@@ -0,0 +1,103 @@
+package sos;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * These benchmarks time {@link Program#load} on generated programs of 1,000
+ * and 10,000 lines.  The programs use labels (including forward
+ * references) and comments so that every part of the parser is exercised.
+ *
+ * @see BenchmarkRunner
+ */
+public class ProgramBenchmarks
+{
+    private static final int[] NUM_LINES = { 1000, 10000 };
+
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's benchmarks to
+     */
+    public static void addTo(List<Benchmark> all)
+    {
+        for (int n : NUM_LINES)
+        {
+            all.add(new LoadBenchmark(n));
+        }
+    }//addTo
+
+    /**
+     * generate
+     *
+     * @param numLines the number of lines in the program
+     * @return a program with labels, branches and comments
+     */
+    public static String generate(int numLines)
+    {
+        StringBuilder source = new StringBuilder();
+        source.append("# generated by ProgramBenchmarks\n");
+        for (int i = 0; i < numLines; i++)
+        {
+            switch (i % 8)
+            {
+                case 0:  source.append(":l").append(i).append('\n');            break;
+                case 1:  source.append("SET R0 ").append(i).append('\n');       break;
+                case 2:  source.append("ADD R0 R1 R2   # sum\n");               break;
+                case 3:  source.append("BLT R0 R2 l").append(i + 5).append('\n'); break;
+                case 4:  source.append("BNE R0 R1 l").append(i - 4).append('\n'); break;
+                case 5:  source.append("PUSH R0\n");                            break;
+                case 6:  source.append("POP R3\n");                             break;
+                default: source.append("SAVE R3 R4\n");                         break;
+            }
+        }
+
+        //The last forward reference may be past the end
+        source.append(":l").append(((numLines + 7) / 8) * 8).append('\n');
+        return source.toString();
+    }//generate
+
+    /**
+     * class LoadBenchmark
+     */
+    private static class LoadBenchmark extends Benchmark
+    {
+        private int m_numLines = 0;
+        private File m_file = null;
+
+        public LoadBenchmark(int numLines)
+        {
+            super("program.load." + numLines);
+            m_numLines = numLines;
+        }
+
+        @Override
+        public void setup() throws Exception
+        {
+            m_file = BenchMachine.writeTempFile(generate(m_numLines));
+        }
+
+        @Override
+        public int run(int ops)
+        {
+            int sum = 0;
+            for (int i = 0; i < ops; i++)
+            {
+                Program prog = new Program();
+                if (prog.load(m_file.getPath(), false) != 0)
+                {
+                    throw new IllegalStateException("Could not load " + m_file);
+                }
+                sum += prog.getSize();
+            }
+            return sum;
+        }
+
+        @Override
+        public void teardown()
+        {
+            m_file.delete();
+        }
+    }//class LoadBenchmark
+
+}//class ProgramBenchmarks
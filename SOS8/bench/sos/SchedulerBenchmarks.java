@@ -0,0 +1,87 @@
+package sos;
+
+import java.util.List;
+
+/**
+ * These benchmarks time {@link SOS#getNextProcess} for each scheduler with
+ * 10, 100 and 10,000 ready processes.  Each operation is one dispatch: the
+ * OS picks a process, the process runs for a quantum, the scheduler is
+ * charged for it and it goes back to the ready state.
+ *
+ * @see BenchmarkRunner
+ */
+public class SchedulerBenchmarks
+{
+    private static final String[] SCHEDULERS = { "starvation", "rr", "mlfq", "lottery", "cfs" };
+    private static final int[] NUM_PROCESSES = { 10, 100, 10000 };
+
+    /**
+     * the number of ticks each process runs for once dispatched.  This is
+     * short so that a long measurement doesn't overflow the CPU's clock.
+     */
+    private static final int QUANTUM = CPU.CLOCK_FREQ;
+
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's benchmarks to
+     */
+    public static void addTo(List<Benchmark> all)
+    {
+        for (String name : SCHEDULERS)
+        {
+            for (int n : NUM_PROCESSES)
+            {
+                all.add(new DispatchBenchmark(name, n));
+            }
+        }
+    }//addTo
+
+    /**
+     * class DispatchBenchmark
+     */
+    private static class DispatchBenchmark extends Benchmark
+    {
+        private String m_schedulerName = null;
+        private int m_numProcesses = 0;
+        private Scheduler m_scheduler = null;
+        private SOS m_OS = null;
+        private CPU m_CPU = null;
+
+        public DispatchBenchmark(String schedulerName, int numProcesses)
+        {
+            super("sched." + schedulerName + "." + numProcesses);
+            m_schedulerName = schedulerName;
+            m_numProcesses = numProcesses;
+        }
+
+        @Override
+        public void setup()
+        {
+            m_scheduler = Simulation.createScheduler(m_schedulerName, 42);
+            BenchMachine machine = new BenchMachine(4096, 4096, 64, m_scheduler);
+            m_OS = machine.m_OS;
+            m_CPU = machine.m_CPU;
+            for (int pid = 0; pid < m_numProcesses; pid++)
+            {
+                m_scheduler.ready(m_OS.new ProcessControlBlock(pid), m_CPU.getTicks());
+            }
+        }
+
+        @Override
+        public int run(int ops)
+        {
+            int sum = 0;
+            for (int i = 0; i < ops; i++)
+            {
+                SOS.ProcessControlBlock proc = m_OS.getNextProcess();
+                m_CPU.addTicks(QUANTUM);
+                m_scheduler.tick(proc, QUANTUM);
+                m_scheduler.ready(proc, m_CPU.getTicks());
+                sum += proc.getProcessId();
+            }
+            return sum;
+        }
+    }//class DispatchBenchmark
+
+}//class SchedulerBenchmarks
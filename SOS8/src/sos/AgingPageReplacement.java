@@ -0,0 +1,87 @@
+package sos;
+
+/**
+ * This page replacement policy keeps an 8 bit age for every page.  Each
+ * sample shifts every age right one bit and moves the page's referenced bit
+ * into the top bit (clearing the referenced bit).  The page with the lowest
+ * age, i.e., the one that has been referenced least in recent samples, is
+ * evicted.
+ *
+ * @see PageReplacementPolicy
+ */
+public class AgingPageReplacement implements PageReplacementPolicy
+{
+    /**
+     * the number of samples a page's history covers
+     */
+    public static final int AGE_BITS = 8;
+
+    /**
+     * the MMU whose page table holds the referenced bits
+     */
+    private MMU m_MMU = null;
+
+    /**
+     * the page held in each frame (-1 if none)
+     */
+    private int[] m_framePages = null;
+
+    /**
+     * the age of each frame's page
+     */
+    private int[] m_ages = null;
+
+    public void init(MMU mmu, int[] framePages)
+    {
+        m_MMU = mmu;
+        m_framePages = framePages;
+        m_ages = new int[framePages.length];
+    }
+
+    public void pageLoaded(int frame)
+    {
+        //A newly loaded page counts as referenced in the latest sample
+        m_ages[frame] = 1 << (AGE_BITS - 1);
+    }
+
+    public void sample()
+    {
+        for(int frame = 0; frame < m_framePages.length; frame++)
+        {
+            if (m_framePages[frame] < 0) continue;
+
+            int virtAddr = m_framePages[frame] << m_MMU.getOffsetSize();
+            int status = m_MMU.getStatus(virtAddr);
+            m_ages[frame] >>= 1;
+            if ((status & MMU.STATUS_REFERENCED) != 0)
+            {
+                m_ages[frame] |= 1 << (AGE_BITS - 1);
+                m_MMU.setStatus(virtAddr, status & ~MMU.STATUS_REFERENCED);
+            }
+        }
+    }//sample
+
+    public int selectVictim()
+    {
+        sample();
+
+        //Ties go to the lowest frame
+        int victim = -1;
+        for(int frame = 0; frame < m_framePages.length; frame++)
+        {
+            if (m_framePages[frame] < 0) continue;
+
+            if ((victim < 0) || (m_ages[frame] < m_ages[victim]))
+            {
+                victim = frame;
+            }
+        }
+        return victim;
+    }//selectVictim
+
+    public String getName()
+    {
+        return "Aging";
+    }
+
+}//class AgingPageReplacement
@@ -0,0 +1,503 @@
+package sos;
+
+/**
+ * This class is the second tier of the CPU's execution engine.  The CPU
+ * profiles how often it enters each basic block (a run of instructions that
+ * ends with a BRANCH, BNE or BLT, or just before a TRAP) and once a block is
+ * hot it is translated into a {@link Block}.  A compiled block has its
+ * register operands validated up front and runs without fetching, translating
+ * or decoding any of its instructions.
+ *
+ * Blocks are stored by the physical address of their first instruction and
+ * never span a page, so they stay valid when the OS remaps pages.  A block is
+ * discarded as soon as any instruction in its frame is written (see
+ * {@link DecodeCache#getGeneration}).  Anything a block can't handle itself
+ * (a TRAP, a divide by zero, an out of bounds access) is left for the
+ * interpreter by ending the block just before that instruction.
+ *
+ * @see CPU
+ * @see DecodeCache
+ */
+public class BlockCache
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    /** the number of times a block must be entered before it is compiled */
+    public static final int DEFAULT_HOT_THRESHOLD = 50;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the MMU used to translate addresses and fetch instructions to compile
+     */
+    private MMU m_MMU = null;
+
+    /**
+     * the decoded instruction cache whose frame generations tell us when a
+     * block is stale
+     */
+    private DecodeCache m_decodeCache = null;
+
+    /**
+     * the number of bits in the offset of a physical address within a frame
+     */
+    private int m_offsetSize = 0;
+
+    /**
+     * contains a 1 in every bit that corresponds to the offset of a physical
+     * address within its frame
+     */
+    private int m_offsetMask = 0;
+
+    /**
+     * compiled blocks indexed by frame and then by offset.  A block whose
+     * code has changed is kept (but not run) so that it can be recompiled
+     * in place once it is hot again.
+     */
+    private Block[][] m_blocks = null;
+
+    /**
+     * the number of times each block start has been entered, indexed by frame
+     * and then by offset
+     */
+    private int[][] m_counts = null;
+
+    /**
+     * how many times a block must be entered before it is compiled
+     */
+    private int m_hotThreshold = DEFAULT_HOT_THRESHOLD;
+
+    /**
+     * whether the CPU should use compiled blocks at all
+     */
+    private boolean m_enabled = true;
+
+    /**
+     * a scratch buffer for fetching instructions to compile
+     */
+    private int[] m_fetchBuffer = new int[CPU.INSTRSIZE];
+
+    /**
+     * statistics for tuning
+     */
+    private int m_compiled = 0;
+    private int m_discarded = 0;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param mmu the MMU whose pages (and decoded instruction cache) the
+     *            compiled blocks come from
+     */
+    public BlockCache(MMU mmu)
+    {
+        m_MMU = mmu;
+        m_decodeCache = mmu.getDecodeCache();
+        m_offsetSize = m_decodeCache.getOffsetSize();
+        m_offsetMask = (1 << m_offsetSize) - 1;
+        m_blocks = new Block[m_decodeCache.getNumFrames()][];
+        m_counts = new int[m_decodeCache.getNumFrames()][];
+    }//ctor
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public int getCompiled()        { return m_compiled; }
+    public int getDiscarded()       { return m_discarded; }
+    public int getHotThreshold()    { return m_hotThreshold; }
+    public void setHotThreshold(int t) { m_hotThreshold = t; }
+
+    /**
+     * isEnabled
+     *
+     * blocks are only used while the decoded instruction cache is on since
+     * that is what tells us a block has been overwritten
+     */
+    public boolean isEnabled()
+    {
+        return m_enabled && m_decodeCache.isEnabled();
+    }
+
+    /**
+     * setEnabled
+     *
+     * turns compiled blocks on or off.  Turning them off also discards every
+     * block and profile count.
+     */
+    public void setEnabled(boolean enabled)
+    {
+        m_enabled = enabled;
+        flush();
+    }
+
+    /**
+     * flush
+     *
+     * discards every block and profile count (e.g., when all of RAM is
+     * replaced)
+     */
+    public void flush()
+    {
+        for(int i = 0; i < m_blocks.length; i++)
+        {
+            m_blocks[i] = null;
+            m_counts[i] = null;
+        }
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * getBlock
+     *
+     * is called by the CPU whenever it reaches the start of a basic block.
+     * This counts the entry and compiles the block once it is hot.
+     *
+     * @param pc the virtual address of the first instruction in the block
+     * @return a compiled block that is safe to run -OR- null if the block
+     *         should be interpreted
+     */
+    public Block getBlock(int pc)
+    {
+        int physPC = m_MMU.getPhysicalAddress(pc);
+        int frameNum = physPC >> m_offsetSize;
+        int offset = physPC & m_offsetMask;
+
+        //Use the compiled block if its frame hasn't been written since
+        Block[] blocks = m_blocks[frameNum];
+        if ((blocks != null) && (blocks[offset] != null) && blocks[offset].m_live)
+        {
+            Block b = blocks[offset];
+            if (b.m_generation == m_decodeCache.getGeneration(frameNum))
+            {
+                return b;
+            }
+
+            //The code has changed so start profiling it again
+            b.m_live = false;
+            m_counts[frameNum][offset] = 0;
+            m_discarded++;
+        }
+
+        //Profile the block
+        if (m_counts[frameNum] == null)
+        {
+            m_counts[frameNum] = new int[m_offsetMask + 1];
+        }
+        m_counts[frameNum][offset]++;
+        if (m_counts[frameNum][offset] < m_hotThreshold)
+        {
+            return null;
+        }
+
+        //It's hot so compile it
+        if (m_blocks[frameNum] == null)
+        {
+            m_blocks[frameNum] = new Block[m_offsetMask + 1];
+        }
+        Block b = compile(pc, frameNum, m_blocks[frameNum][offset]);
+        m_blocks[frameNum][offset] = b;
+        m_compiled++;
+        return b;
+    }//getBlock
+
+    /**
+     * compile
+     *
+     * translates the basic block beginning at a given address.  Translation
+     * stops at the first branch, at the last instruction that fits in the
+     * page, or just before any instruction that only the interpreter can
+     * execute (TRAP or anything malformed).
+     *
+     * @param pc       the virtual address of the first instruction
+     * @param frameNum the physical frame that contains the block
+     * @param stale    a block that was compiled from the same address before
+     *                 its code changed (to be reused) -OR- null
+     * @return the compiled block (which may have no instructions)
+     */
+    private Block compile(int pc, int frameNum, Block stale)
+    {
+        //Record the generation first so that anything written while we're
+        //compiling makes the block stale
+        int generation = m_decodeCache.getGeneration(frameNum);
+        int pageEnd = (pc | m_offsetMask) + 1;
+        int[] code = (stale != null) ? stale.m_code : new int[pageEnd - pc];
+        int length = 0;
+
+        while (pc + CPU.INSTRSIZE <= pageEnd)
+        {
+            int[] instr = m_MMU.fetch(pc, m_fetchBuffer);
+            if (!isCompilable(instr))
+            {
+                break;
+            }
+
+            System.arraycopy(instr, 0, code, length * CPU.INSTRSIZE, CPU.INSTRSIZE);
+            length++;
+            pc += CPU.INSTRSIZE;
+
+            if ((instr[0] == CPU.BRANCH) || (instr[0] == CPU.BNE)
+                || (instr[0] == CPU.BLT))
+            {
+                break;
+            }
+        }//while
+
+        if (stale != null)
+        {
+            stale.m_length = length;
+            stale.m_generation = generation;
+            stale.m_frameNum = frameNum;
+            stale.m_live = true;
+            return stale;
+        }
+        return new Block(code, length, generation, frameNum);
+    }//compile
+
+    /**
+     * isCompilable
+     *
+     * @return true if the given instruction can be run by a compiled block
+     */
+    private boolean isCompilable(int[] instr)
+    {
+        switch (instr[0])
+        {
+            case CPU.SET:
+            case CPU.POP:
+            case CPU.PUSH:
+                return isReg(instr[1]);
+            case CPU.ADD:
+            case CPU.SUB:
+            case CPU.MUL:
+            case CPU.DIV:
+                return isReg(instr[1]) && isReg(instr[2]) && isReg(instr[3]);
+            case CPU.COPY:
+            case CPU.LOAD:
+            case CPU.SAVE:
+                return isReg(instr[1]) && isReg(instr[2]);
+            case CPU.BNE:
+            case CPU.BLT:
+                return isReg(instr[1]) && isReg(instr[2]);
+            case CPU.BRANCH:
+                return true;
+            default:
+                //TRAP and illegal instructions are left to the interpreter
+                return false;
+        }
+    }//isCompilable
+
+    /**
+     * @return true if the given register number is a general purpose register
+     */
+    private static boolean isReg(int reg)
+    {
+        return (reg >= CPU.R0) && (reg < CPU.NUMGENREG);
+    }
+
+    //======================================================================
+    // Nested Classes
+    //----------------------------------------------------------------------
+
+    /**
+     * class Block
+     *
+     * a compiled basic block.  Since its register numbers were checked when
+     * it was compiled it can access the CPU's register file directly.
+     */
+    public static class Block
+    {
+        /** the instructions in the block (INSTRSIZE ints each) */
+        private int[] m_code;
+        /** the number of instructions in the block */
+        private int m_length;
+        /** the generation of the frame when the block was compiled */
+        private int m_generation;
+        /** the frame that contains the block */
+        private int m_frameNum;
+        /** false once the block's code has changed (@see #getBlock) */
+        private boolean m_live = true;
+
+        /**
+         * ctor does nothing special
+         */
+        private Block(int[] code, int length, int generation, int frameNum)
+        {
+            m_code = code;
+            m_length = length;
+            m_generation = generation;
+            m_frameNum = frameNum;
+        }
+
+        /** @return the number of instructions in this block */
+        public int getLength() { return m_length; }
+
+        /**
+         * execute
+         *
+         * runs this block starting at the current PC.  Execution stops early
+         * (leaving the PC at the offending instruction) when an instruction
+         * needs the interpreter to raise a fault, and right after any write
+         * that overwrites code in this block's frame.
+         *
+         * @param regs the CPU's register file
+         * @param mmu  the MMU used for LOAD, SAVE, PUSH and POP
+         * @param dc   the decoded instruction cache
+         * @return the number of instructions that were executed
+         */
+        public int execute(int[] regs, MMU mmu, DecodeCache dc)
+        {
+            int[] code = m_code;
+            int pc = regs[CPU.PC];
+            int executed = 0;
+
+            for(int i = 0; i < m_length * CPU.INSTRSIZE; i += CPU.INSTRSIZE)
+            {
+                //The same check the CPU's run loop makes before every fetch
+                if ((pc >= regs[CPU.LIM]) || (pc >= regs[CPU.SP]))
+                {
+                    break;
+                }
+
+                int a1 = code[i + 1];
+                int a2 = code[i + 2];
+                int a3 = code[i + 3];
+                int addr;
+                switch (code[i])
+                {
+                    case CPU.SET:
+                        regs[a1] = a2;
+                        break;
+                    case CPU.ADD:
+                        regs[a1] = regs[a2] + regs[a3];
+                        break;
+                    case CPU.SUB:
+                        regs[a1] = regs[a2] - regs[a3];
+                        break;
+                    case CPU.MUL:
+                        regs[a1] = regs[a2] * regs[a3];
+                        break;
+                    case CPU.DIV:
+                        if (regs[a3] == 0)
+                        {
+                            regs[CPU.PC] = pc;
+                            return executed;
+                        }
+                        regs[a1] = regs[a2] / regs[a3];
+                        break;
+                    case CPU.COPY:
+                        regs[a1] = regs[a2];
+                        break;
+                    case CPU.LOAD:
+                        addr = regs[CPU.BASE] + regs[a2];
+                        if (!inBounds(regs, addr))
+                        {
+                            regs[CPU.PC] = pc;
+                            return executed;
+                        }
+                        regs[a1] = mmu.read(addr);
+                        break;
+                    case CPU.SAVE:
+                        addr = regs[CPU.BASE] + regs[a2];
+                        if (!inBounds(regs, addr))
+                        {
+                            regs[CPU.PC] = pc;
+                            return executed;
+                        }
+                        mmu.write(addr, regs[a1]);
+                        if (dc.getGeneration(m_frameNum) != m_generation)
+                        {
+                            regs[CPU.PC] = pc + CPU.INSTRSIZE;
+                            return executed + 1;
+                        }
+                        break;
+                    case CPU.PUSH:
+                        if (regs[CPU.SP] <= regs[CPU.BASE])
+                        {
+                            regs[CPU.PC] = pc;
+                            return executed;
+                        }
+                        mmu.write(regs[CPU.SP], regs[a1]);
+                        regs[CPU.SP]--;
+                        if (dc.getGeneration(m_frameNum) != m_generation)
+                        {
+                            regs[CPU.PC] = pc + CPU.INSTRSIZE;
+                            return executed + 1;
+                        }
+                        break;
+                    case CPU.POP:
+                        if (regs[CPU.SP] >= regs[CPU.LIM])
+                        {
+                            regs[CPU.PC] = pc;
+                            return executed;
+                        }
+                        regs[CPU.SP]++;
+                        regs[a1] = mmu.read(regs[CPU.SP]);
+                        break;
+                    case CPU.BRANCH:
+                        return branch(regs, pc, regs[CPU.BASE] + a1, executed);
+                    case CPU.BNE:
+                        if (regs[a1] != regs[a2])
+                        {
+                            return branch(regs, pc, regs[CPU.BASE] + a3, executed);
+                        }
+                        break;
+                    case CPU.BLT:
+                        if (regs[a1] < regs[a2])
+                        {
+                            return branch(regs, pc, regs[CPU.BASE] + a3, executed);
+                        }
+                        break;
+                }//switch
+
+                pc += CPU.INSTRSIZE;
+                executed++;
+            }//for
+
+            regs[CPU.PC] = pc;
+            return executed;
+        }//execute
+
+        /**
+         * branch
+         *
+         * takes a branch at the end of a block unless the target is out of
+         * bounds, in which case the branch is left to the interpreter
+         *
+         * @return the number of instructions executed by the block
+         */
+        private static int branch(int[] regs, int pc, int target, int executed)
+        {
+            if (!inBounds(regs, target))
+            {
+                regs[CPU.PC] = pc;
+                return executed;
+            }
+            regs[CPU.PC] = target;
+            return executed + 1;
+        }//branch
+
+        /**
+         * inBounds
+         *
+         * @return true if the same address would pass
+         *         {@link CPU#boundaryCheck}
+         */
+        private static boolean inBounds(int[] regs, int addr)
+        {
+            return (addr < regs[CPU.LIM]) && (addr < regs[CPU.SP])
+                && (addr >= regs[CPU.BASE]);
+        }
+
+    }//class Block
+
+}//class BlockCache
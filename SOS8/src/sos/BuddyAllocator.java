@@ -0,0 +1,574 @@
+package sos;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * This class manages the free space in a region of memory using the buddy
+ * system.  Every block is a power of 2 multiple of a minimum block size (the
+ * MMU's page size) and sits at an offset from the start of the region that is
+ * a multiple of its own size.  A block's buddy is therefore found by flipping
+ * a single bit of its offset, so freeing a block only has to check (and
+ * possibly merge with) one neighbor per size.
+ *
+ * The free blocks of each size are kept in their own doubly linked list so
+ * that allocating and freeing both take time proportional to the number of
+ * block sizes (i.e., O(log n)) rather than the number of free blocks.
+ *
+ * A region whose size is not a power of 2 starts out as the largest aligned
+ * blocks that fit.  Two blocks that started out separate are never merged.
+ *
+ * @see SOS#allocBlock
+ */
+public class BuddyAllocator
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    /**
+     * marks the end of a list and a unit that does not begin a free block
+     */
+    private static final int NONE = -1;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the address of the first word in the region
+     */
+    private int m_origin = 0;
+
+    /**
+     * the size of the smallest block (a power of 2).  Offsets and sizes are
+     * kept internally in units of this size.
+     */
+    private int m_unitSize = 0;
+
+    /**
+     * log2(m_unitSize)
+     */
+    private int m_unitShift = 0;
+
+    /**
+     * the number of units in the region
+     */
+    private int m_numUnits = 0;
+
+    /**
+     * the first free block of each order (a block of order k is 2^k units).
+     * Indexed by order.
+     */
+    private int[] m_heads = null;
+
+    /**
+     * the links of each free block's list (indexed by the block's first unit)
+     */
+    private int[] m_next = null;
+    private int[] m_prev = null;
+
+    /**
+     * the order of the free block that begins at each unit -OR- NONE
+     */
+    private int[] m_freeOrder = null;
+
+    /**
+     * the order of the allocated block that begins at each unit -OR- NONE
+     */
+    private int[] m_allocOrder = null;
+
+    /**
+     * the number of words each allocated block was requested for (indexed by
+     * the block's first unit)
+     */
+    private int[] m_requested = null;
+
+    /**
+     * usage statistics
+     */
+    private int m_freeWords = 0;
+    private int m_requestedWords = 0;
+    private int m_numAllocs = 0;
+    private int m_numFrees = 0;
+    private int m_numFailures = 0;
+    private int m_numSplits = 0;
+    private int m_numMerges = 0;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param origin   the address of the first word in the region
+     * @param size     the number of words in the region (any partial block
+     *                 at the end is not used)
+     * @param unitSize the size of the smallest block.  If this is not a power
+     *                 of 2 it will be adjusted to the next higher power of 2.
+     */
+    public BuddyAllocator(int origin, int size, int unitSize)
+    {
+        m_origin = origin;
+        m_unitShift = 0;
+        while ((1 << m_unitShift) < unitSize)
+        {
+            m_unitShift++;
+        }
+        m_unitSize = 1 << m_unitShift;
+        m_numUnits = Math.max(size, 0) >> m_unitShift;
+
+        //There must be an order large enough for the whole region
+        int maxOrder = 0;
+        while ((1 << maxOrder) < m_numUnits)
+        {
+            maxOrder++;
+        }
+        m_heads = new int[maxOrder + 1];
+        m_next = new int[m_numUnits];
+        m_prev = new int[m_numUnits];
+        m_freeOrder = new int[m_numUnits];
+        m_allocOrder = new int[m_numUnits];
+        m_requested = new int[m_numUnits];
+
+        reset();
+    }//ctor
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public int getOrigin()          { return m_origin; }
+    public int getUnitSize()        { return m_unitSize; }
+    public int getSize()            { return m_numUnits << m_unitShift; }
+    public int getFreeWords()       { return m_freeWords; }
+    public int getNumAllocs()       { return m_numAllocs; }
+    public int getNumFrees()        { return m_numFrees; }
+    public int getNumFailures()     { return m_numFailures; }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * reset
+     *
+     * frees every block at once.  The region is divided into the largest
+     * aligned blocks that fit.
+     */
+    public void reset()
+    {
+        for(int order = 0; order < m_heads.length; order++)
+        {
+            m_heads[order] = NONE;
+        }
+        for(int unit = 0; unit < m_numUnits; unit++)
+        {
+            m_freeOrder[unit] = NONE;
+            m_allocOrder[unit] = NONE;
+            m_requested[unit] = 0;
+        }
+
+        //Carve the region from the front into the largest blocks whose
+        //offsets are a multiple of their size
+        int unit = 0;
+        while (unit < m_numUnits)
+        {
+            int order = m_heads.length - 1;
+            while (((unit & ((1 << order) - 1)) != 0)
+                   || (unit + (1 << order) > m_numUnits))
+            {
+                order--;
+            }
+            push(unit, order);
+            unit += 1 << order;
+        }
+
+        m_freeWords = m_numUnits << m_unitShift;
+        m_requestedWords = 0;
+    }//reset
+
+    /**
+     * alloc
+     *
+     * allocates one of the smallest free blocks that can hold a given number
+     * of words, splitting a larger block if necessary
+     *
+     * @param size the number of words needed
+     * @return the address of the block -OR- -1 if there is no free block
+     *         large enough
+     */
+    public int alloc(int size)
+    {
+        int order = orderFor(size);
+
+        //Find the smallest free block that is big enough
+        int found = order;
+        while ((found < m_heads.length) && (m_heads[found] == NONE))
+        {
+            found++;
+        }
+        if ((size <= 0) || (found >= m_heads.length))
+        {
+            m_numFailures++;
+            return -1;
+        }
+
+        //Split it until it is the right size.  The upper halves are freed.
+        int unit = m_heads[found];
+        unlink(unit, found);
+        while (found > order)
+        {
+            found--;
+            push(unit + (1 << found), found);
+            m_numSplits++;
+        }
+
+        markAllocated(unit, order, size);
+        return m_origin + (unit << m_unitShift);
+    }//alloc
+
+    /**
+     * reserve
+     *
+     * allocates a specific block (e.g., when rebuilding the allocator's state
+     * after memory has been compacted)
+     *
+     * @param addr the address of the block.  Its offset in the region must be
+     *             a multiple of the block's size.
+     * @param size the number of words needed
+     * @return true if the block was free and is now allocated
+     */
+    public boolean reserve(int addr, int size)
+    {
+        int order = orderFor(size);
+        int unit = (addr - m_origin) >> m_unitShift;
+        if ((size <= 0) || (addr < m_origin) || (unit + (1 << order) > m_numUnits)
+            || ((unit & ((1 << order) - 1)) != 0))
+        {
+            return false;
+        }
+
+        //Find the free block that contains the requested one
+        int found = order;
+        int first = unit;
+        while ((found < m_heads.length) && (m_freeOrder[first] != found))
+        {
+            found++;
+            first = unit & ~((1 << found) - 1);
+        }
+        if (found >= m_heads.length)
+        {
+            return false;
+        }
+
+        //Split it, freeing whichever half does not contain the request
+        unlink(first, found);
+        while (found > order)
+        {
+            found--;
+            int half = first + (1 << found);
+            if (unit >= half)
+            {
+                push(first, found);
+                first = half;
+            }
+            else
+            {
+                push(half, found);
+            }
+            m_numSplits++;
+        }
+
+        markAllocated(unit, order, size);
+        return true;
+    }//reserve
+
+    /**
+     * free
+     *
+     * returns a block to the free lists, merging it with its buddy for as
+     * long as the buddy is also free
+     *
+     * @param addr the address returned when the block was allocated
+     * @return true if the block was allocated (and is now free)
+     */
+    public boolean free(int addr)
+    {
+        int unit = (addr - m_origin) >> m_unitShift;
+        if ((addr < m_origin) || (unit >= m_numUnits) || (m_allocOrder[unit] == NONE))
+        {
+            return false;
+        }
+
+        int order = m_allocOrder[unit];
+        m_allocOrder[unit] = NONE;
+        m_freeWords += 1 << (order + m_unitShift);
+        m_requestedWords -= m_requested[unit];
+        m_requested[unit] = 0;
+        m_numFrees++;
+
+        //Merge with the buddy until it is not free (or is not whole)
+        while (order < m_heads.length - 1)
+        {
+            int buddy = unit ^ (1 << order);
+            if ((buddy >= m_numUnits) || (m_freeOrder[buddy] != order))
+            {
+                break;
+            }
+            unlink(buddy, order);
+            unit = Math.min(unit, buddy);
+            order++;
+            m_numMerges++;
+        }
+        push(unit, order);
+
+        return true;
+    }//free
+
+    /**
+     * getBlockSize
+     *
+     * @param addr the address of an allocated block
+     * @return the number of words in the block -OR- 0 if no block is
+     *         allocated at that address
+     */
+    public int getBlockSize(int addr)
+    {
+        int unit = (addr - m_origin) >> m_unitShift;
+        if ((addr < m_origin) || (unit >= m_numUnits) || (m_allocOrder[unit] == NONE))
+        {
+            return 0;
+        }
+        return 1 << (m_allocOrder[unit] + m_unitShift);
+    }//getBlockSize
+
+    /**
+     * getLargestFree
+     *
+     * @return the size of the largest free block in words
+     */
+    public int getLargestFree()
+    {
+        for(int order = m_heads.length - 1; order >= 0; order--)
+        {
+            if (m_heads[order] != NONE)
+            {
+                return 1 << (order + m_unitShift);
+            }
+        }
+        return 0;
+    }//getLargestFree
+
+    /**
+     * getFreeBlocks
+     *
+     * @return the address and size of every free block (in that order and
+     *         sorted by address) packed into one array
+     */
+    public int[] getFreeBlocks()
+    {
+        int count = 0;
+        for(int unit = 0; unit < m_numUnits; unit++)
+        {
+            if (m_freeOrder[unit] != NONE) count++;
+        }
+
+        int[] result = new int[count * 2];
+        int i = 0;
+        for(int unit = 0; unit < m_numUnits; unit++)
+        {
+            if (m_freeOrder[unit] != NONE)
+            {
+                result[i] = m_origin + (unit << m_unitShift);
+                result[i + 1] = 1 << (m_freeOrder[unit] + m_unitShift);
+                i += 2;
+            }
+        }
+        return result;
+    }//getFreeBlocks
+
+    /**
+     * fitsAfterCompaction
+     *
+     * @param size a number of words
+     * @return true if a block of the given size could be allocated once
+     *         every allocated block has been packed into the bottom of the
+     *         region, largest first
+     */
+    public boolean fitsAfterCompaction(int size)
+    {
+        int block = 1 << (orderFor(size) + m_unitShift);
+        int used = getSize() - m_freeWords;
+        int start = ((used + block - 1) / block) * block;
+        return start + block <= getSize();
+    }//fitsAfterCompaction
+
+    /**
+     * getFragmentationReport
+     *
+     * @return a human readable summary of the free space (by block size) and
+     *         of how much of it is lost to fragmentation.  External
+     *         fragmentation is the share of free space outside the largest
+     *         free block; internal fragmentation is the share of allocated
+     *         space that was not requested.
+     */
+    public String getFragmentationReport()
+    {
+        StringBuilder sb = new StringBuilder();
+        int allocated = (m_numUnits << m_unitShift) - m_freeWords;
+        int largest = getLargestFree();
+
+        sb.append("free=" + m_freeWords + " largest=" + largest);
+        sb.append(" allocated=" + allocated + " requested=" + m_requestedWords);
+        sb.append("\n  free blocks by size:");
+        for(int order = 0; order < m_heads.length; order++)
+        {
+            int count = 0;
+            for(int unit = m_heads[order]; unit != NONE; unit = m_next[unit])
+            {
+                count++;
+            }
+            if (count > 0)
+            {
+                sb.append(" " + (1 << (order + m_unitShift)) + "x" + count);
+            }
+        }
+        sb.append("\n  external=" + percent(m_freeWords - largest, m_freeWords));
+        sb.append(" internal=" + percent(allocated - m_requestedWords, allocated));
+        sb.append(" allocs=" + m_numAllocs + " frees=" + m_numFrees);
+        sb.append(" failures=" + m_numFailures);
+        sb.append(" splits=" + m_numSplits + " merges=" + m_numMerges);
+
+        return sb.toString();
+    }//getFragmentationReport
+
+    /**
+     * @return part/whole as a percentage (0% if whole is 0)
+     */
+    private static String percent(int part, int whole)
+    {
+        if (whole <= 0) return "0%";
+        return "" + ((part * 100L) / whole) + "%";
+    }
+
+    /**
+     * orderFor
+     *
+     * @param size a number of words
+     * @return the order of the smallest block that can hold them
+     */
+    private int orderFor(int size)
+    {
+        int units = (size + m_unitSize - 1) >> m_unitShift;
+        int order = 0;
+        while ((1 << order) < units)
+        {
+            order++;
+        }
+        return order;
+    }//orderFor
+
+    /**
+     * markAllocated
+     *
+     * records a block that has just been taken off the free lists
+     */
+    private void markAllocated(int unit, int order, int size)
+    {
+        m_allocOrder[unit] = order;
+        m_requested[unit] = size;
+        m_freeWords -= 1 << (order + m_unitShift);
+        m_requestedWords += size;
+        m_numAllocs++;
+    }//markAllocated
+
+    /**
+     * push
+     *
+     * adds a block to the front of its free list
+     */
+    private void push(int unit, int order)
+    {
+        m_next[unit] = m_heads[order];
+        m_prev[unit] = NONE;
+        if (m_heads[order] != NONE)
+        {
+            m_prev[m_heads[order]] = unit;
+        }
+        m_heads[order] = unit;
+        m_freeOrder[unit] = order;
+    }//push
+
+    /**
+     * saveState
+     *
+     * writes the free lists, the blocks that are allocated and the counters
+     *
+     * @see Snapshot
+     */
+    public void saveState(DataOutput out) throws IOException
+    {
+        Snapshot.writeInts(out, m_heads);
+        Snapshot.writeInts(out, m_next);
+        Snapshot.writeInts(out, m_prev);
+        Snapshot.writeInts(out, m_freeOrder);
+        Snapshot.writeInts(out, m_allocOrder);
+        Snapshot.writeInts(out, m_requested);
+        out.writeInt(m_freeWords);
+        out.writeInt(m_requestedWords);
+        out.writeInt(m_numAllocs);
+        out.writeInt(m_numFrees);
+        out.writeInt(m_numFailures);
+        out.writeInt(m_numSplits);
+        out.writeInt(m_numMerges);
+    }//saveState
+
+    /**
+     * restoreState
+     *
+     * reads the state written by {@link #saveState} by an allocator for a
+     * region of the same size
+     *
+     * @throws IOException if the region was a different size
+     */
+    public void restoreState(DataInput in) throws IOException
+    {
+        Snapshot.readInts(in, m_heads);
+        Snapshot.readInts(in, m_next);
+        Snapshot.readInts(in, m_prev);
+        Snapshot.readInts(in, m_freeOrder);
+        Snapshot.readInts(in, m_allocOrder);
+        Snapshot.readInts(in, m_requested);
+        m_freeWords = in.readInt();
+        m_requestedWords = in.readInt();
+        m_numAllocs = in.readInt();
+        m_numFrees = in.readInt();
+        m_numFailures = in.readInt();
+        m_numSplits = in.readInt();
+        m_numMerges = in.readInt();
+    }//restoreState
+
+    /**
+     * unlink
+     *
+     * removes a block from its free list
+     */
+    private void unlink(int unit, int order)
+    {
+        if (m_prev[unit] != NONE)
+        {
+            m_next[m_prev[unit]] = m_next[unit];
+        }
+        else
+        {
+            m_heads[order] = m_next[unit];
+        }
+        if (m_next[unit] != NONE)
+        {
+            m_prev[m_next[unit]] = m_prev[unit];
+        }
+        m_freeOrder[unit] = NONE;
+    }//unlink
+
+}//class BuddyAllocator
@@ -0,0 +1,195 @@
+package sos;
+
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * This scheduler shares the CPU fairly in the style of Linux's completely
+ * fair scheduler.  Every process has a virtual runtime that grows with the
+ * CPU time it uses and the Ready process with the smallest virtual runtime
+ * runs next.  A process that has been blocked for a while is not allowed to
+ * bank the time it missed: it rejoins at no less than the smallest virtual
+ * runtime of the Ready processes.
+ */
+public class CFSScheduler implements Scheduler
+{
+    /**
+     * the Ready processes ordered by virtual runtime
+     */
+    private TreeSet<State> m_tree = new TreeSet<State>();
+
+    /**
+     * the scheduling state of every process that has not exited
+     */
+    private HashMap<SOS.ProcessControlBlock, State> m_states =
+        new HashMap<SOS.ProcessControlBlock, State>();
+
+    /**
+     * a lower bound on the virtual runtime of every Ready process (it never
+     * decreases)
+     */
+    private long m_minVruntime = 0;
+
+    /**
+     * the number of processes ever seen (used to break ties)
+     */
+    private int m_nextSeq = 0;
+
+    /**
+     * ready
+     *
+     * adds the process to the tree.  A new process starts at the smallest
+     * virtual runtime so that it can't monopolize the CPU.
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void ready(SOS.ProcessControlBlock proc, int now)
+    {
+        State s = m_states.get(proc);
+        if (s == null)
+        {
+            s = new State(proc, m_minVruntime, m_nextSeq);
+            m_nextSeq++;
+            m_states.put(proc, s);
+        }
+        m_tree.add(s);
+    }//ready
+
+    /**
+     * block
+     *
+     * removes the process from the tree.  It keeps its virtual runtime.
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void block(SOS.ProcessControlBlock proc, int now)
+    {
+        State s = m_states.get(proc);
+        if (s != null)
+        {
+            m_tree.remove(s);
+        }
+    }//block
+
+    /**
+     * unblock
+     *
+     * puts the process back in the tree with its virtual runtime raised to
+     * at least the smallest of the Ready processes'
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void unblock(SOS.ProcessControlBlock proc, int now)
+    {
+        State s = m_states.get(proc);
+        if ((s != null) && !m_tree.contains(s))
+        {
+            s.m_vruntime = Math.max(s.m_vruntime, m_minVruntime);
+        }
+        ready(proc, now);
+    }//unblock
+
+    /**
+     * exit
+     *
+     * removes the process and forgets its virtual runtime
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void exit(SOS.ProcessControlBlock proc, int now)
+    {
+        State s = m_states.remove(proc);
+        if (s != null)
+        {
+            m_tree.remove(s);
+        }
+    }//exit
+
+    /**
+     * tick
+     *
+     * adds the CPU time the process used to its virtual runtime
+     *
+     * @param proc  the running process
+     * @param ticks the number of CPU ticks it has used
+     */
+    @Override
+    public void tick(SOS.ProcessControlBlock proc, int ticks)
+    {
+        State s = m_states.get(proc);
+        if (s == null) return;
+
+        //The tree must be reordered around the process' new runtime
+        boolean queued = m_tree.remove(s);
+        s.m_vruntime += ticks;
+        if (queued)
+        {
+            m_tree.add(s);
+        }
+        if (!m_tree.isEmpty())
+        {
+            m_minVruntime = Math.max(m_minVruntime, m_tree.first().m_vruntime);
+        }
+    }//tick
+
+    /**
+     * selectNext
+     *
+     * @param now the current time in CPU ticks
+     * @return the Ready process with the smallest virtual runtime -OR-
+     *         null if none are Ready
+     */
+    @Override
+    public SOS.ProcessControlBlock selectNext(int now)
+    {
+        return m_tree.isEmpty() ? null : m_tree.first().m_proc;
+    }
+
+    /**
+     * getName
+     *
+     * @return "CFS"
+     */
+    @Override
+    public String getName()
+    {
+        return "CFS";
+    }
+
+    /**
+     * class State
+     *
+     * a process' virtual runtime.  Ties go to the process seen first.
+     */
+    private static class State implements Comparable<State>
+    {
+        private SOS.ProcessControlBlock m_proc;
+        private long m_vruntime;
+        private int m_seq;
+
+        public State(SOS.ProcessControlBlock proc, long vruntime, int seq)
+        {
+            m_proc = proc;
+            m_vruntime = vruntime;
+            m_seq = seq;
+        }
+
+        public int compareTo(State s)
+        {
+            if (m_vruntime != s.m_vruntime)
+            {
+                return (m_vruntime < s.m_vruntime) ? -1 : 1;
+            }
+            return m_seq - s.m_seq;
+        }
+    }//class State
+
+}//class CFSScheduler
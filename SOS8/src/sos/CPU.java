@@ -1,5 +1,10 @@
 package sos;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
 /**
  * This class is the centerpiece of a simulation of the essential hardware of a
  * microcomputer. This includes a processor chip, RAM and I/O devices. It is
@@ -93,6 +98,18 @@ public class CPU implements Runnable {
 	 */
 	private int[] m_instr = null;
 	
+	/**
+	 * a CPU owned buffer that instructions are fetched into when they are not
+	 * already in the decoded instruction cache
+	 */
+	private int[] m_fetchBuffer = new int[INSTRSIZE];
+	
+	/**
+	 * a CPU owned slot that the interrupt controller delivers interrupt data
+	 * into (operation, device, address, data)
+	 */
+	private int[] m_intData = new int[4];
+	
 	/**
 	 * a reference to the trap handler for this CPU. On a real CPU this would
 	 * simply be an address that the PC register is set to.
@@ -116,6 +133,96 @@ public class CPU implements Runnable {
 	 */
 	private int m_ticks = 0;
 	
+	/**
+	 * hot basic blocks that have been compiled so they can run without being
+	 * fetched and decoded one instruction at a time
+	 */
+	private BlockCache m_blockCache = null;
+	
+	/**
+	 * In discrete event mode this is the virtual clock that ticks are charged
+	 * to and that device completions are scheduled on (null in real time
+	 * mode).
+	 */
+	private SimClock m_clock = null;
+	
+	/**
+	 * the value of m_ticks at which the timer raises a clock interrupt (-1 if
+	 * the timer is not armed)
+	 */
+	private int m_timerDeadline = -1;
+	
+	/**
+	 * if true every pending interrupt is handled at each check rather than
+	 * just the oldest one
+	 */
+	private boolean m_drainInterrupts = false;
+	
+	/**
+	 * how many ticks a write completion may be held so that it can be
+	 * delivered to the OS together with later completions from the same
+	 * device (-1 if write completions are delivered one at a time)
+	 */
+	private int m_coalesceWindow = -1;
+	
+	/**
+	 * the write completions being held for each device (indexed by device
+	 * id): the addresses, how many there are and the tick by which they must
+	 * be delivered
+	 */
+	private int[][] m_writeBatches = new int[0][];
+	private int[] m_writeBatchSizes = new int[0];
+	private int[] m_writeBatchDeadlines = new int[0];
+	private int m_numHeldBatches = 0;
+	
+	/**
+	 * interrupt statistics: how many interrupts have been taken from the
+	 * controller and how many batches of write completions were delivered
+	 */
+	private long m_numInterrupts = 0;
+	private long m_numWriteBatches = 0;
+	
+	/**
+	 * how many interrupts of each type have been taken from the controller
+	 */
+	private long m_numReadInterrupts = 0;
+	private long m_numWriteInterrupts = 0;
+	
+	/**
+	 * how many instructions have been retired (interpreted or run as part of
+	 * a compiled block). Unlike m_ticks this does not include the time
+	 * charged for memory latency or context switches.
+	 */
+	private long m_numInstructions = 0;
+	
+	/**
+	 * records events for tracing (null if tracing is off)
+	 */
+	private Probes m_probes = null;
+	
+	/**
+	 * writes an execution trace (null if tracing is off)
+	 */
+	private TraceWriter m_trace = null;
+	
+	/**
+	 * records (or replays) the interrupts taken (null if neither)
+	 */
+	private InterruptLog m_interruptLog = null;
+	
+	/**
+	 * the number of instructions at which the next logged interrupt is
+	 * replayed
+	 */
+	private long m_nextReplay = Long.MAX_VALUE;
+	
+	/**
+	 * the number of instructions at which the checkpoint handler is next
+	 * called and the handler (null if there is none)
+	 */
+	private long m_checkpointAt = Long.MAX_VALUE;
+	private CheckpointHandler m_checkpoint = null;
+	
 	
 	// ======================================================================
 	// Methods
@@ -129,6 +236,9 @@ public class CPU implements Runnable {
 	public void addTicks(int toAdd)
 	{
 		m_ticks += toAdd;
+		if (m_clock != null) {
+			m_clock.advance(toAdd);
+		}
 	}
 	
 	/**
@@ -146,6 +256,8 @@ public class CPU implements Runnable {
 		m_MMU = mmu;
 		//Initiate Interrupt Control
 		m_IC = ic;
+		//Compiled blocks are built from the MMU's decoded instructions
+		m_blockCache = new BlockCache(mmu);
 		
 	}// CPU ctor
 	
@@ -194,6 +306,292 @@ public class CPU implements Runnable {
 		return m_registers;
 	}
 	
+	/**
+	 * setClock
+	 * 
+	 * switches this CPU to discrete event mode. Every tick is also charged to
+	 * the given clock and device events are fired when it reaches them.
+	 * 
+	 * @param clock
+	 *            the virtual clock (null returns to real time mode)
+	 */
+	public void setClock(SimClock clock) {
+		m_clock = clock;
+	}
+	
+	/**
+	 * getClock
+	 * 
+	 * @return the virtual clock or null if running in real time mode
+	 */
+	public SimClock getClock() {
+		return m_clock;
+	}
+	
+	/**
+	 * skipToNextEvent
+	 * 
+	 * is called by the OS when every process is waiting on a device. In
+	 * discrete event mode the clock jumps straight to the next device event;
+	 * in real time mode this does nothing.
+	 */
+	public void skipToNextEvent() {
+		if (m_clock != null) {
+			m_clock.advanceToNextEvent();
+		}
+	}
+	
+	/**
+	 * setInterruptBatching
+	 * 
+	 * chooses how interrupts are taken from the controller
+	 * 
+	 * @param drain
+	 *            if true every pending interrupt is handled at each check
+	 *            rather than just the oldest one
+	 * @param coalesceWindow
+	 *            the number of ticks a write completion may be held so that
+	 *            completions from the same device reach the OS in one call
+	 *            (0 only combines completions that are pending together, -1
+	 *            delivers each one separately)
+	 */
+	public void setInterruptBatching(boolean drain, int coalesceWindow) {
+		m_drainInterrupts = drain;
+		m_coalesceWindow = coalesceWindow;
+		if (m_coalesceWindow < 0) {
+			flushWriteBatches(true);
+		}
+	}
+	
+	/**
+	 * @return the number of interrupts taken from the interrupt controller
+	 */
+	public long getNumInterrupts() {
+		return m_numInterrupts;
+	}
+	
+	/**
+	 * @return the number of batches of coalesced write completions that have
+	 *         been delivered to the OS
+	 */
+	public long getNumWriteBatches() {
+		return m_numWriteBatches;
+	}
+	
+	/**
+	 * @return the number of read completion interrupts taken
+	 */
+	public long getNumReadInterrupts() {
+		return m_numReadInterrupts;
+	}
+	
+	/**
+	 * @return the number of write completion interrupts taken (whether or
+	 *         not they were coalesced)
+	 */
+	public long getNumWriteInterrupts() {
+		return m_numWriteInterrupts;
+	}
+	
+	/**
+	 * @return the number of instructions that have been retired
+	 */
+	public long getNumInstructions() {
+		return m_numInstructions;
+	}
+	
+	/**
+	 * setProbes
+	 * 
+	 * installs probes that record the CPU's (and the OS') events. This must
+	 * be done before the CPU starts running: run only checks for probes once
+	 * so that it pays nothing for them when they are not installed.
+	 * 
+	 * @param probes
+	 *            the probes -OR- null to turn tracing off
+	 */
+	public void setProbes(Probes probes) {
+		m_probes = probes;
+	}
+	
+	/**
+	 * @return the probes recording events -OR- null if tracing is off
+	 */
+	public Probes getProbes() {
+		return m_probes;
+	}
+	
+	/**
+	 * setTrace
+	 * 
+	 * records every instruction (and system call, interrupt and context
+	 * switch) to an execution trace. Like probes this must be done before the
+	 * CPU starts running. The caller is responsible for closing the trace.
+	 * 
+	 * @param trace
+	 *            the trace -OR- null to turn tracing off
+	 */
+	public void setTrace(TraceWriter trace) {
+		m_trace = trace;
+	}
+	
+	/**
+	 * @return the execution trace being written -OR- null if tracing is off
+	 */
+	public TraceWriter getTrace() {
+		return m_trace;
+	}
+	
+	/**
+	 * setInterruptLog
+	 * 
+	 * records every interrupt taken (and when) to a log -OR- replays the
+	 * interrupts in a log instead of taking them from the devices, which
+	 * should then not be running. This must be done before the CPU starts
+	 * running. Compiled blocks are not run while there is a log: interrupts
+	 * (and the timer) are only checked between blocks, so they would be
+	 * taken at different instructions depending on whether the recording
+	 * and the replay ran blocks.
+	 * 
+	 * @param log
+	 *            the log to record to or replay -OR- null for neither
+	 */
+	public void setInterruptLog(InterruptLog log) {
+		m_interruptLog = log;
+		m_nextReplay = Long.MAX_VALUE;
+		if (log != null) {
+			log.setCPU(this);
+			if (log.isReplaying()) {
+				m_nextReplay = log.nextPosition();
+			}
+		}
+	}
+	
+	/**
+	 * @return the interrupt log being recorded or replayed -OR- null if none
+	 */
+	public InterruptLog getInterruptLog() {
+		return m_interruptLog;
+	}
+	
+	/**
+	 * setCheckpoint
+	 * 
+	 * arranges for a handler to be called between instructions once the
+	 * given number have been retired. It is called after every instruction
+	 * (or block) from then on until it reports that it is done.
+	 * 
+	 * @param instructions
+	 *            the number of instructions to run first
+	 * @param handler
+	 *            the handler -OR- null to cancel the checkpoint
+	 */
+	public void setCheckpoint(long instructions, CheckpointHandler handler) {
+		m_checkpoint = handler;
+		m_checkpointAt = (handler == null) ? Long.MAX_VALUE : instructions;
+	}
+	
+	/**
+	 * checkpoint
+	 * 
+	 * calls the checkpoint handler and cancels the checkpoint once it is done
+	 * (unless the handler has set another one)
+	 */
+	private void checkpoint() {
+		long at = m_checkpointAt;
+		if (m_checkpoint.checkpoint() && (m_checkpointAt == at)) {
+			m_checkpointAt = Long.MAX_VALUE;
+			m_checkpoint = null;
+		}
+	}
+	
+	/**
+	 * isQuiescent
+	 * 
+	 * @return true if no interrupt is waiting to be taken (including write
+	 *         completions held for a batch)
+	 */
+	public boolean isQuiescent() {
+		return m_IC.isEmpty() && (m_numHeldBatches == 0);
+	}
+	
+	/**
+	 * saveState
+	 * 
+	 * writes the registers, the tick count, the timer and the counters. The
+	 * CPU must be quiescent (@see #isQuiescent).
+	 * 
+	 * @see Snapshot
+	 */
+	public void saveState(DataOutput out) throws IOException {
+		Snapshot.writeInts(out, m_registers);
+		out.writeInt(m_ticks);
+		out.writeInt(m_timerDeadline);
+		out.writeLong(m_numInstructions);
+		out.writeLong(m_numInterrupts);
+		out.writeLong(m_numWriteBatches);
+		out.writeLong(m_numReadInterrupts);
+		out.writeLong(m_numWriteInterrupts);
+	}// saveState
+	
+	/**
+	 * restoreState
+	 * 
+	 * reads the state written by {@link #saveState}. Every compiled block is
+	 * discarded.
+	 */
+	public void restoreState(DataInput in) throws IOException {
+		Snapshot.readInts(in, m_registers);
+		m_ticks = in.readInt();
+		m_timerDeadline = in.readInt();
+		m_numInstructions = in.readLong();
+		m_numInterrupts = in.readLong();
+		m_numWriteBatches = in.readLong();
+		m_numReadInterrupts = in.readLong();
+		m_numWriteInterrupts = in.readLong();
+		m_blockCache.flush();
+	}// restoreState
+	
+	/**
+	 * memoryAddress
+	 * 
+	 * @param instr
+	 *            an instruction that is about to be executed
+	 * @return the address the instruction will read or write -OR- -1 if it
+	 *         doesn't access memory (other than being fetched)
+	 */
+	private int memoryAddress(int[] instr) {
+		switch (instr[0]) {
+			case LOAD:
+			case SAVE:
+				return getBASE() + getReg(instr[2]);
+			case PUSH:
+				return getSP();
+			case POP:
+				return getSP() + 1;
+			default:
+				return -1;
+		}
+	}// memoryAddress
+	
+	/**
+	 * getInterruptController
+	 * 
+	 * @return the interrupt controller that devices post completions to
+	 */
+	public InterruptController getInterruptController() {
+		return m_IC;
+	}
+	
+	/**
+	 * getBlockCache
+	 * 
+	 * @return the cache of compiled basic blocks used by this CPU
+	 */
+	public BlockCache getBlockCache() {
+		return m_blockCache;
+	}
+	
 	/**
 	 * getReg
 	 * 
@@ -237,6 +635,28 @@ public class CPU implements Runnable {
 		return m_ticks;
 	}
 	
+	/**
+	 * setTimer
+	 * 
+	 * arms the timer so that a clock interrupt is raised once the given
+	 * number of ticks have elapsed. The timer is one shot: the trap handler
+	 * must set it again after the interrupt if it wants another one.
+	 * 
+	 * @param ticks
+	 *            the number of ticks until the interrupt. Zero or less
+	 *            disarms the timer.
+	 */
+	public void setTimer(int ticks) {
+		m_timerDeadline = (ticks > 0) ? m_ticks + ticks : -1;
+	}
+	
+	/**
+	 * @return true if the timer will raise a clock interrupt
+	 */
+	public boolean isTimerArmed() {
+		return m_timerDeadline >= 0;
+	}
+	
 	/**
 	 * setPC
 	 * 
@@ -591,69 +1011,297 @@ public class CPU implements Runnable {
 	 * checkForIOInterrupt
 	 * 
 	 * Checks the databus for signals from the interrupt controller and, if
-	 * found, invokes the appropriate handler in the operating system.
+	 * found, invokes the appropriate handler in the operating system. In
+	 * drain mode every pending interrupt is handled, otherwise just the
+	 * oldest. Held write completions are delivered once their window is up.
 	 * 
 	 */
 	private void checkForIOInterrupt() {
-		// If there is no interrupt to process, do nothing
-		if (m_IC.isEmpty()) {
-			return;
-		}
+		int[] intData = m_intData;
 		
-		// Retreive the interrupt data
-		int[] intData = m_IC.getData();
-		
-		// Report the data if in verbose mode
-		if (m_verbose) {
-			System.out.println("CPU received interrupt: type=" + intData[0]
-					+ " dev=" + intData[1] + " addr=" + intData[2] + " data="
-					+ intData[3]);
+		// When replaying, the interrupts that were taken at this point are
+		// put on the bus now
+		if (m_numInstructions >= m_nextReplay) {
+			m_nextReplay = m_interruptLog.inject(m_numInstructions, m_IC);
 		}
 		
-		// Dispatch the interrupt to the OS
-		switch (intData[0]) {
-			case InterruptController.INT_READ_DONE:
-				m_TH.interruptIOReadComplete(intData[1], intData[2], intData[3]);
-				break;
-			case InterruptController.INT_WRITE_DONE:
-				m_TH.interruptIOWriteComplete(intData[1], intData[2]);
+		while (true) {
+			// In discrete event mode devices complete when the virtual clock
+			// reaches them so let the next one put its data on the bus
+			if (m_clock != null && m_IC.isEmpty()) {
+				m_clock.fireNext();
+			}
+			
+			// Retreive the interrupt data (if there is no interrupt to
+			// process, do nothing)
+			if (!m_IC.getData(intData)) {
 				break;
-			default:
-				System.out.println("CPU ERROR:  Illegal Interrupt Received.");
-				System.exit(-1);
+			}
+			m_numInterrupts++;
+			if (m_interruptLog != null) {
+				m_interruptLog.interruptTaken(m_numInstructions, intData);
+			}
+			if (m_probes != null) {
+				m_probes.record(Probes.INTERRUPT, m_ticks, intData[0], intData[1]);
+			}
+			if (m_trace != null) {
+				m_trace.interrupt(m_ticks, intData[0], intData[1], intData[2], intData[3]);
+			}
+			
+			// Report the data if in verbose mode
+			if (m_verbose) {
+				System.out.println("CPU received interrupt: type=" + intData[0]
+						+ " dev=" + intData[1] + " addr=" + intData[2]
+						+ " data=" + intData[3]);
+			}
+			
+			// Dispatch the interrupt to the OS
+			switch (intData[0]) {
+				case InterruptController.INT_READ_DONE:
+					m_numReadInterrupts++;
+					m_TH.interruptIOReadComplete(intData[1], intData[2],
+							intData[3]);
+					break;
+				case InterruptController.INT_WRITE_DONE:
+					m_numWriteInterrupts++;
+					if (m_coalesceWindow >= 0 && intData[1] >= 0) {
+						holdWriteCompletion(intData[1], intData[2]);
+					} else {
+						m_TH.interruptIOWriteComplete(intData[1], intData[2]);
+					}
+					break;
+				default:
+					System.out.println("CPU ERROR:  Illegal Interrupt Received.");
+					throw new HaltException(-1, "Illegal Interrupt Received");
+			}// switch
+			
+			if (!m_drainInterrupts) {
 				break;
-		}// switch
+			}
+		}// while
+		
+		if (m_numHeldBatches > 0) {
+			flushWriteBatches(false);
+		}
 		
 	}// checkForIOInterrupt
 	
+	/**
+	 * holdWriteCompletion
+	 * 
+	 * adds a write completion to its device's batch. The batch must be
+	 * delivered within m_coalesceWindow ticks of its first completion.
+	 */
+	private void holdWriteCompletion(int devID, int addr) {
+		// Make room for the device
+		if (devID >= m_writeBatches.length) {
+			int n = Math.max(devID + 1, m_writeBatches.length * 2);
+			m_writeBatches = Arrays.copyOf(m_writeBatches, n);
+			m_writeBatchSizes = Arrays.copyOf(m_writeBatchSizes, n);
+			m_writeBatchDeadlines = Arrays.copyOf(m_writeBatchDeadlines, n);
+		}
+		if (m_writeBatches[devID] == null) {
+			m_writeBatches[devID] = new int[4];
+		}
+		
+		int size = m_writeBatchSizes[devID];
+		if (size == 0) {
+			m_writeBatchDeadlines[devID] = m_ticks + m_coalesceWindow;
+			m_numHeldBatches++;
+		}
+		if (size == m_writeBatches[devID].length) {
+			m_writeBatches[devID] = Arrays.copyOf(m_writeBatches[devID], size * 2);
+		}
+		m_writeBatches[devID][size] = addr;
+		m_writeBatchSizes[devID] = size + 1;
+	}// holdWriteCompletion
+	
+	/**
+	 * flushWriteBatches
+	 * 
+	 * delivers the held write completions of each device whose window is up
+	 * to the OS with a single call
+	 * 
+	 * @param all
+	 *            if true every batch is delivered whether or not its window
+	 *            is up
+	 */
+	private void flushWriteBatches(boolean all) {
+		for (int devID = 0; devID < m_writeBatches.length; devID++) {
+			int size = m_writeBatchSizes[devID];
+			if (size > 0 && (all || m_ticks >= m_writeBatchDeadlines[devID])) {
+				m_writeBatchSizes[devID] = 0;
+				m_numHeldBatches--;
+				m_numWriteBatches++;
+				m_TH.interruptIOWritesComplete(devID, m_writeBatches[devID], size);
+			}
+		}
+	}// flushWriteBatches
+	
+	/**
+	 * checkForClockInterrupt
+	 * 
+	 * raises a clock interrupt if the timer is armed and its deadline has
+	 * passed
+	 */
+	private void checkForClockInterrupt() {
+		if ((m_timerDeadline >= 0) && (m_ticks >= m_timerDeadline)) {
+			m_timerDeadline = -1;
+			if (m_probes != null) {
+				m_probes.record(Probes.INTERRUPT, m_ticks, 0, -1);
+			}
+			if (m_trace != null) {
+				m_trace.interrupt(m_ticks, 0, -1, 0, 0);
+			}
+			m_TH.interruptClock();
+		}
+	}// checkForClockInterrupt
+	
 	/**
 	 * Get next instruction from RAM and execute
+	 * 
+	 * Whenever the CPU reaches the start of a basic block it asks the block
+	 * cache for a compiled version. If there is one the whole block is run at
+	 * once, otherwise instructions are fetched and executed one at a time.
+	 * Interrupts (including the timer) are checked after every interpreted
+	 * instruction and after every compiled block. The OS stops the machine
+	 * by throwing a {@link HaltException} out of this method.
+	 * 
+	 * Verbose output, probes, tracing and interrupt logs are handled by a
+	 * copy of this loop (@see #runInstrumented) so that this one has no
+	 * checks for them.
 	 */
 	public void run() {
+		if (m_verbose || (m_probes != null) || (m_trace != null)
+				|| (m_interruptLog != null)) {
+			runInstrumented();
+			return;
+		}
+		
+		DecodeCache dc = m_MMU.getDecodeCache();
+		boolean blockStart = true;
 		
 		// While the PC is less than allocated memory and less than SP
 		while (getPC() < getLIM() && getPC() < getSP()) {
-			m_instr = m_MMU.fetch(getPC());
+			// Run a compiled block if one is ready
+			if (blockStart && m_blockCache.isEnabled()) {
+				BlockCache.Block block = m_blockCache.getBlock(getPC());
+				if (block != null) {
+					int executed = block.execute(m_registers, m_MMU, dc);
+					if (executed > 0) {
+						m_numInstructions += executed;
+						addTicks(executed);
+						checkForIOInterrupt();
+						checkForClockInterrupt();
+						if (m_numInstructions >= m_checkpointAt) {
+							checkpoint();
+						}
+						continue;
+					}
+				}
+			}
+			
+			int expectedPC = getPC() + INSTRSIZE;
+			m_instr = m_MMU.fetch(getPC(), m_fetchBuffer);
 			// Increment PC counter by Instruction Size now
 			// since nowhere lower does it get called again
 			setPC(getPC() + INSTRSIZE);
 			
 	         //increment clock
             addTicks(1);
+			m_numInstructions++;
+			
+			// Parse and execute instruction
+			executeInstr(m_instr);
+			
+			// A branch, a system call or anything else that moves the PC
+			// somewhere unexpected begins a new basic block
+			blockStart = (m_instr[0] == BRANCH) || (m_instr[0] == BNE)
+					|| (m_instr[0] == BLT) || (m_instr[0] == TRAP)
+					|| (getPC() != expectedPC);
+			
+			// check interrupts
+			checkForIOInterrupt();
+			checkForClockInterrupt();
+			if (m_numInstructions >= m_checkpointAt) {
+				checkpoint();
+			}
+		}
+		
+	}// run
+	
+	/**
+	 * runInstrumented
+	 * 
+	 * the same as run except that every instruction can be printed (in
+	 * verbose mode), traced and have its fetch and execution recorded by the
+	 * probes. When any of these is on, or an interrupt log is being recorded
+	 * or replayed, compiled blocks are skipped so that every instruction is
+	 * seen.
+	 */
+	private void runInstrumented() {
+		DecodeCache dc = m_MMU.getDecodeCache();
+		Probes probes = m_probes;
+		TraceWriter trace = m_trace;
+		boolean probeFetch = (probes != null) && probes.isEnabled(Probes.FETCH);
+		boolean probeExecute = (probes != null) && probes.isEnabled(Probes.EXECUTE);
+		boolean useBlocks = !m_verbose && !probeFetch && !probeExecute
+				&& (trace == null) && (m_interruptLog == null);
+		boolean blockStart = true;
+		
+		while (getPC() < getLIM() && getPC() < getSP()) {
+			if (blockStart && useBlocks && m_blockCache.isEnabled()) {
+				BlockCache.Block block = m_blockCache.getBlock(getPC());
+				if (block != null) {
+					int executed = block.execute(m_registers, m_MMU, dc);
+					if (executed > 0) {
+						m_numInstructions += executed;
+						addTicks(executed);
+						checkForIOInterrupt();
+						checkForClockInterrupt();
+						if (m_numInstructions >= m_checkpointAt) {
+							checkpoint();
+						}
+						continue;
+					}
+				}
+			}
+			
+			int expectedPC = getPC() + INSTRSIZE;
+			m_instr = m_MMU.fetch(getPC(), m_fetchBuffer);
+			if (probeFetch) {
+				probes.record(Probes.FETCH, m_ticks, getPC(), m_instr[0]);
+			}
+			if (trace != null) {
+				trace.instruction(m_ticks, getPC(), m_instr, memoryAddress(m_instr));
+			}
+			setPC(getPC() + INSTRSIZE);
+			addTicks(1);
+			m_numInstructions++;
 			
 			if (m_verbose) {
 				regDump();
 				printInstr(m_instr);
 			}
 			
-			// Parse and execute instruction
+			int opcode = m_instr[0];
 			executeInstr(m_instr);
+			if (probeExecute) {
+				probes.record(Probes.EXECUTE, m_ticks, opcode, getPC());
+			}
+			
+			blockStart = (m_instr[0] == BRANCH) || (m_instr[0] == BNE)
+					|| (m_instr[0] == BLT) || (m_instr[0] == TRAP)
+					|| (getPC() != expectedPC);
 			
-			// check interrupts
 			checkForIOInterrupt();
+			checkForClockInterrupt();
+			if (m_numInstructions >= m_checkpointAt) {
+				checkpoint();
+			}
 		}
 		
-	}// run
+	}// runInstrumented
 	
 	/**
 	 * registerTrapHandler
@@ -682,11 +1330,29 @@ public class CPU implements Runnable {
 		
 		void interruptIllegalInstruction(int[] instr);
 		
+		void interruptPageFault(int virtAddr);
+		
 		void systemCall();
 		
 		public void interruptIOReadComplete(int devID, int addr, int data);
 		
 		public void interruptIOWriteComplete(int devID, int addr);
+		
+		public void interruptIOWritesComplete(int devID, int[] addrs, int count);
 	};// interface TrapHandler
 	
+	/**
+	 * CheckpointHandler
+	 * 
+	 * This interface is implemented by anything that needs to act on the
+	 * whole machine between two instructions (@see #setCheckpoint).
+	 */
+	public interface CheckpointHandler {
+		/**
+		 * @return true if the handler is done -OR- false to be called again
+		 *         after the next instruction
+		 */
+		boolean checkpoint();
+	};// interface CheckpointHandler
+	
 };// class CPU
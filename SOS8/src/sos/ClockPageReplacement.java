@@ -0,0 +1,69 @@
+package sos;
+
+/**
+ * This page replacement policy (also known as second chance) sweeps a hand
+ * around the frames.  A page whose referenced bit is set has the bit cleared
+ * and is passed over; the first page found without it is evicted.
+ *
+ * @see PageReplacementPolicy
+ */
+public class ClockPageReplacement implements PageReplacementPolicy
+{
+    /**
+     * the MMU whose page table holds the referenced bits
+     */
+    private MMU m_MMU = null;
+
+    /**
+     * the page held in each frame (-1 if none)
+     */
+    private int[] m_framePages = null;
+
+    /**
+     * the next frame to be considered
+     */
+    private int m_hand = 0;
+
+    public void init(MMU mmu, int[] framePages)
+    {
+        m_MMU = mmu;
+        m_framePages = framePages;
+        m_hand = 0;
+    }
+
+    public void pageLoaded(int frame)
+    {
+        //The page's referenced bit will be set by the access that faulted
+    }
+
+    public void sample()
+    {
+        //The referenced bits are only examined when the hand passes them
+    }
+
+    public int selectVictim()
+    {
+        //Every page can be given a second chance at most once, so this
+        //terminates within two sweeps
+        while (true)
+        {
+            int frame = m_hand;
+            m_hand = (m_hand + 1) % m_framePages.length;
+            if (m_framePages[frame] < 0) continue;
+
+            int virtAddr = m_framePages[frame] << m_MMU.getOffsetSize();
+            int status = m_MMU.getStatus(virtAddr);
+            if ((status & MMU.STATUS_REFERENCED) == 0)
+            {
+                return frame;
+            }
+            m_MMU.setStatus(virtAddr, status & ~MMU.STATUS_REFERENCED);
+        }
+    }//selectVictim
+
+    public String getName()
+    {
+        return "CLOCK";
+    }
+
+}//class ClockPageReplacement
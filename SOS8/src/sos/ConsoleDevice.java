@@ -1,5 +1,11 @@
 package sos;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * This class simulates a simple, sharable write-only device.
  * 
@@ -12,11 +18,27 @@ public class ConsoleDevice implements Device, Runnable {
 	private int m_maxLatency = 1000;   // maximum latency in ns
 	private int m_minLatency = 500;    // minimum latnecy in ns
 	private int m_Id = -999;           // the OS assigned device ID
-	private boolean m_request = false; // is the device currently processing a
-									   // request?
+	private volatile boolean m_request = false; // is the device currently
+												// processing a request?
+	private volatile Thread m_worker = null; // the thread running this device
+	private volatile boolean m_running = true; // false once the device is stopped
 	private int m_addr = 0;            // address to write to
 	private int m_data = 0;            // data associated with the current request
 	private InterruptController m_IC;  // reference to the interrupt controller
+	private SimClock m_clock = null;   // virtual clock in discrete event mode
+	private Random m_random = null;    // seeded source of latencies for m_clock
+	private long m_dueAt = 0;          // when the request completes on m_clock
+	private boolean m_echo = true;     // print the data that is written?
+	
+	/**
+	 * finishes the current request when it is due on the virtual clock
+	 */
+	private Runnable m_completion = new Runnable() {
+		@Override
+		public void run() {
+			complete();
+		}
+	};
 	
 	/**
 	 * This constructor uses the default values for latency)
@@ -42,6 +64,48 @@ public class ConsoleDevice implements Device, Runnable {
 		m_IC = ic;
 	}// ctor
 	
+	/**
+	 * setClock
+	 * 
+	 * switches this device to discrete event mode. Requests complete when the
+	 * virtual clock reaches them (latencies are then counted in cycles)
+	 * rather than on this device's own thread, which should not be started.
+	 * 
+	 * @param clock
+	 *            the virtual clock
+	 * @param seed
+	 *            the seed for the random latencies so that runs repeat
+	 */
+	public void setClock(SimClock clock, long seed) {
+		m_clock = clock;
+		m_random = new Random(seed);
+	}
+	
+	/**
+	 * setEcho
+	 * 
+	 * @param echo
+	 *            if false the data written to this device is not printed
+	 *            (e.g., when many simulations run at once)
+	 */
+	public void setEcho(boolean echo) {
+		m_echo = echo;
+	}
+	
+	/**
+	 * stop
+	 * 
+	 * makes this device's thread return from run (once it has finished the
+	 * current request)
+	 */
+	public void stop() {
+		m_running = false;
+		Thread worker = m_worker;
+		if (worker != null) {
+			LockSupport.unpark(worker);
+		}
+	}
+	
 	/**
 	 * getId
 	 * 
@@ -132,14 +196,103 @@ public class ConsoleDevice implements Device, Runnable {
 		m_addr = addr;
 		m_data = data;
 		m_request = true;
+		
+		// In discrete event mode the completion is an event on the clock,
+		// otherwise wake the device's thread
+		if (m_clock != null) {
+			int latency = nextLatency();
+			m_dueAt = m_clock.getTime() + latency;
+			m_clock.schedule(latency, m_completion);
+		} else {
+			Thread worker = m_worker;
+			if (worker != null) {
+				LockSupport.unpark(worker);
+			}
+		}
+	}
+	
+	/**
+	 * nextLatency
+	 * 
+	 * @return a random latency between the minimum and maximum latency (the
+	 *         minimum if they are the same)
+	 */
+	private int nextLatency() {
+		double r = (m_random != null) ? m_random.nextDouble() : Math.random();
+		int rn = (int) (r * 2147483647); // random #
+		if (m_maxLatency == m_minLatency) {
+			return m_minLatency;
+		}
+		return (rn % (m_maxLatency - m_minLatency)) + m_minLatency;
 	}
 	
+	/**
+	 * complete
+	 * 
+	 * prints the requested data and notifies the CPU
+	 */
+	private void complete() {
+		// print the data
+		if (m_echo) {
+			System.out.println("\nCONSOLE: " + m_data);
+		}
+		
+		// Make the device available for another request before notifying
+		// the CPU (which may make one straight away)
+		int addr = m_addr;
+		m_request = false;
+		
+		// Notify the CPU of completed operation
+		m_IC.putData(InterruptController.INT_WRITE_DONE, m_Id, addr, -999);
+	}
+	
+	/**
+	 * saveState
+	 * 
+	 * writes the current request (including the data being written) with
+	 * the time left until it completes, and the state of the random
+	 * latencies
+	 */
+	@Override
+	public void saveState(DataOutput out) throws IOException {
+		out.writeBoolean(m_request);
+		out.writeInt(m_addr);
+		out.writeInt(m_data);
+		out.writeLong((m_request && m_clock != null) ? m_dueAt - m_clock.getTime() : -1);
+		Snapshot.writeRandom(out, m_random);
+	}// saveState
+	
+	/**
+	 * restoreState
+	 * 
+	 * reads the state written by saveState. In discrete event mode a request
+	 * that was in progress is put back on the clock.
+	 */
+	@Override
+	public void restoreState(DataInput in) throws IOException {
+		m_request = in.readBoolean();
+		m_addr = in.readInt();
+		m_data = in.readInt();
+		long remaining = in.readLong();
+		Random random = Snapshot.readRandom(in);
+		if (m_clock != null) {
+			if (random != null) {
+				m_random = random;
+			}
+			if (m_request && remaining >= 0) {
+				m_dueAt = m_clock.getTime() + remaining;
+				m_clock.schedule(remaining, m_completion);
+			}
+		}
+	}// restoreState
+	
 	/**
 	 * run
 	 * 
-	 * This method represents the device + controller. It watches for requests
-	 * (via m_request and m_data) and handles them. It also inserts a random
-	 * latency to simulate the amount of time required.
+	 * This method represents the device + controller. It waits (parked, so
+	 * that it uses no host CPU) until write submits a request and then
+	 * handles it. It also inserts a random latency to simulate the amount of
+	 * time required.
 	 * 
 	 * (I have no idea whether the default latency setting (500-1000 ns) is at
 	 * all realistic and, of course, the time spent calling System.out.println
@@ -148,31 +301,27 @@ public class ConsoleDevice implements Device, Runnable {
 	 */
 	@Override
 	public void run() {
-		// Device runs until program ends
-		while (true) {
-			// While there is no request to process, yield CPU to another thread
-			while (!m_request) {
-				Thread.yield();
+		m_worker = Thread.currentThread();
+		
+		// Device runs until it is stopped
+		while (m_running) {
+			// Sleep until there is a request to process
+			while (!m_request && m_running) {
+				LockSupport.park(this);
+			}
+			if (!m_running) {
+				break;
 			}
 			
 			// We've received a request. Sleep to simulate the latency
 			try {
-				int rn = (int) (Math.random() * 2147483647); // random #
-				int latency = (rn % (m_maxLatency - m_minLatency))
-						+ m_minLatency;
+				int latency = nextLatency();
 				Thread.sleep(latency / 1000, latency % 1000);
 			}
 			catch (InterruptedException e) {
 			} // should never happen
 			
-			// print the data
-			System.out.println("\nCONSOLE: " + m_data);
-			
-			// Notify the CPU of completed operation
-			m_IC.putData(InterruptController.INT_WRITE_DONE, m_Id, m_addr, -999);
-			
-			// Make the device available for another request
-			m_request = false;
+			complete();
 		}// while
 	}// run
 	
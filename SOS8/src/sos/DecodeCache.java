@@ -0,0 +1,312 @@
+package sos;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * This class simulates a decoded instruction cache that sits between the MMU
+ * and RAM.  Instructions are stored by the physical address they were fetched
+ * from and grouped by physical frame so that the CPU can skip the RAM reads
+ * needed to fetch an instruction it has already seen.
+ *
+ * The cache is kept coherent by RAM: every write to RAM invalidates any cached
+ * instruction that overlaps the written word, so self-modifying code and
+ * programs that are reloaded into a frame are always fetched fresh.
+ *
+ * @see MMU
+ * @see RAM
+ * @see CPU#INSTRSIZE
+ */
+public class DecodeCache
+{
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the number of bits in the offset of a physical address within a frame
+     */
+    private int m_offsetSize = 0;
+
+    /**
+     * contains a 1 in every bit that corresponds to the offset of a physical
+     * address within its frame
+     */
+    private int m_offsetMask = 0;
+
+    /**
+     * the decoded instructions indexed by frame and then by offset.  A frame
+     * that has never had an instruction fetched from it is null.  An
+     * instruction's array is kept when it is discarded and refilled the next
+     * time that address is fetched so that the cache only allocates the
+     * first time it sees an address.
+     */
+    private int[][][] m_frames = null;
+
+    /**
+     * whether each instruction in m_frames is currently cached (indexed the
+     * same way)
+     */
+    private boolean[][] m_valid = null;
+
+    /**
+     * one counter per frame that is incremented every time a cached
+     * instruction in that frame is discarded.  Anything built from the cached
+     * instructions of a frame (e.g., a compiled block) is stale once the
+     * frame's generation changes.
+     */
+    private int[] m_generations = null;
+
+    /**
+     * whether fetches should be satisfied from the cache at all
+     */
+    private boolean m_enabled = true;
+
+    /**
+     * statistics for tuning
+     */
+    private int m_hits = 0;
+    private int m_misses = 0;
+    private int m_invalidations = 0;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param ramSize    the number of words in physical RAM
+     * @param offsetSize the number of bits in the offset of a frame (this
+     *                   must match the MMU's page size)
+     */
+    public DecodeCache(int ramSize, int offsetSize)
+    {
+        m_offsetSize = offsetSize;
+        m_offsetMask = (1 << offsetSize) - 1;
+        int numFrames = (ramSize + m_offsetMask) >> m_offsetSize;
+        m_frames = new int[numFrames][][];
+        m_valid = new boolean[numFrames][];
+        m_generations = new int[numFrames];
+    }//ctor
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public boolean isEnabled()  { return m_enabled; }
+    public int getHits()        { return m_hits; }
+    public int getMisses()      { return m_misses; }
+    public int getInvalidations() { return m_invalidations; }
+    public int getOffsetSize()  { return m_offsetSize; }
+    public int getNumFrames()   { return m_frames.length; }
+
+    /**
+     * getGeneration
+     *
+     * @param frameNum a physical frame number
+     * @return the number of times a cached instruction in the given frame has
+     *         been discarded
+     */
+    public int getGeneration(int frameNum)
+    {
+        return m_generations[frameNum];
+    }
+
+    /**
+     * setEnabled
+     *
+     * turns the cache on or off.  Turning it off also empties it.
+     */
+    public void setEnabled(boolean enabled)
+    {
+        m_enabled = enabled;
+        flush();
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * lookup
+     *
+     * @param physAddr the physical address of the instruction
+     * @return the decoded instruction at that address or null if it is not
+     *         in the cache.  The caller must not modify the returned array.
+     */
+    public int[] lookup(int physAddr)
+    {
+        if (!m_enabled) return null;
+
+        int frameNum = physAddr >> m_offsetSize;
+        boolean[] valid = m_valid[frameNum];
+        if ((valid != null) && valid[physAddr & m_offsetMask])
+        {
+            m_hits++;
+            return m_frames[frameNum][physAddr & m_offsetMask];
+        }
+
+        m_misses++;
+        return null;
+    }//lookup
+
+    /**
+     * insert
+     *
+     * records a freshly fetched instruction.  It is copied so the caller
+     * may reuse its array.
+     *
+     * @param physAddr the physical address the instruction was fetched from
+     * @param instr    the instruction (opcode followed by arguments)
+     */
+    public void insert(int physAddr, int[] instr)
+    {
+        if (!m_enabled) return;
+
+        int frameNum = physAddr >> m_offsetSize;
+        int offset = physAddr & m_offsetMask;
+        if (m_frames[frameNum] == null)
+        {
+            m_frames[frameNum] = new int[m_offsetMask + 1][];
+            m_valid[frameNum] = new boolean[m_offsetMask + 1];
+        }
+        int[] cached = m_frames[frameNum][offset];
+        if ((cached == null) || (cached.length != instr.length))
+        {
+            m_frames[frameNum][offset] = instr.clone();
+        }
+        else
+        {
+            System.arraycopy(instr, 0, cached, 0, instr.length);
+        }
+        m_valid[frameNum][offset] = true;
+    }//insert
+
+    /**
+     * invalidate
+     *
+     * is called by RAM whenever a word is written.  Any cached instruction
+     * that contains the given word is discarded.
+     *
+     * @param physAddr the physical address that was written
+     */
+    public void invalidate(int physAddr)
+    {
+        //An instruction beginning at any of the INSTRSIZE addresses at or
+        //below physAddr contains the written word
+        for(int start = physAddr - CPU.INSTRSIZE + 1; start <= physAddr; start++)
+        {
+            if (start < 0) continue;
+
+            int frameNum = start >> m_offsetSize;
+            boolean[] valid = m_valid[frameNum];
+            if ((valid != null) && valid[start & m_offsetMask])
+            {
+                valid[start & m_offsetMask] = false;
+                m_generations[frameNum]++;
+                m_invalidations++;
+            }
+        }
+    }//invalidate
+
+    /**
+     * invalidateRange
+     *
+     * is called by RAM whenever a block of words is written at once
+     *
+     * @param physAddr the first physical address that was written
+     * @param length   the number of words that were written
+     */
+    public void invalidateRange(int physAddr, int length)
+    {
+        for(int addr = physAddr; addr < physAddr + length; addr++)
+        {
+            invalidate(addr);
+        }
+    }//invalidateRange
+
+    /**
+     * flush
+     *
+     * discards every cached instruction
+     */
+    public void flush()
+    {
+        for(int i = 0; i < m_frames.length; i++)
+        {
+            m_frames[i] = null;
+            m_valid[i] = null;
+            m_generations[i]++;
+        }
+    }//flush
+
+    /**
+     * saveState
+     *
+     * writes every cached instruction (with the address it was fetched
+     * from) and the counters.  A restored machine must find the same
+     * instructions cached since a miss costs it a RAM fetch.
+     *
+     * @see Snapshot
+     */
+    public void saveState(DataOutput out) throws IOException
+    {
+        int count = 0;
+        for (boolean[] valid : m_valid)
+        {
+            if (valid == null) continue;
+            for (boolean v : valid)
+            {
+                if (v) count++;
+            }
+        }
+
+        out.writeInt(count);
+        for(int frameNum = 0; frameNum < m_frames.length; frameNum++)
+        {
+            boolean[] valid = m_valid[frameNum];
+            if (valid == null) continue;
+            for(int offset = 0; offset < valid.length; offset++)
+            {
+                if (valid[offset])
+                {
+                    out.writeInt((frameNum << m_offsetSize) | offset);
+                    Snapshot.writeInts(out, m_frames[frameNum][offset]);
+                }
+            }
+        }
+        out.writeInt(m_hits);
+        out.writeInt(m_misses);
+        out.writeInt(m_invalidations);
+    }//saveState
+
+    /**
+     * restoreState
+     *
+     * reads the state written by {@link #saveState}.  Everything cached
+     * before is discarded.
+     */
+    public void restoreState(DataInput in) throws IOException
+    {
+        flush();
+        int count = in.readInt();
+        for(int i = 0; i < count; i++)
+        {
+            int physAddr = in.readInt();
+            int[] instr = new int[in.readInt()];
+            for(int j = 0; j < instr.length; j++)
+            {
+                instr[j] = in.readInt();
+            }
+            if ((physAddr < 0) || ((physAddr >> m_offsetSize) >= m_frames.length))
+            {
+                throw new IOException("Snapshot has an instruction cached at " + physAddr);
+            }
+            insert(physAddr, instr);
+        }
+        m_hits = in.readInt();
+        m_misses = in.readInt();
+        m_invalidations = in.readInt();
+    }//restoreState
+
+}//class DecodeCache
@@ -1,5 +1,9 @@
 package sos;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * This interface defines the necessary methods for creating a simulated device
  * driver for the SOS simulation.  
@@ -76,4 +80,24 @@ public interface Device
      */
     public void write(int addr, int data);
     
+    /**
+     * saveState
+     *
+     * writes everything the device needs to carry on exactly where it is in
+     * a restored machine: any request in progress and the state of its
+     * random data and latencies
+     *
+     * @see Snapshot
+     */
+    public void saveState(DataOutput out) throws IOException;
+    
+    /**
+     * restoreState
+     *
+     * reads the state written by {@link #saveState} into a device of the
+     * same kind.  In discrete event mode the clock must already have been
+     * restored.
+     */
+    public void restoreState(DataInput in) throws IOException;
+    
 };//interface Device
@@ -0,0 +1,113 @@
+package sos;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class creates the threads that run the simulated devices (@see
+ * ConsoleDevice#run and KeyboardDevice#run).  Since a device's thread is
+ * parked whenever the device is idle it can be a virtual thread, so that a
+ * simulation with many devices does not need a host thread for each one.
+ * Virtual threads are only available on newer JVMs, so they are looked up
+ * reflectively and ordinary threads are used when they are missing.
+ *
+ * @see Sim
+ */
+public class DeviceThreadFactory implements ThreadFactory
+{
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * creates unstarted virtual threads (null if ordinary threads are used)
+     */
+    private Object m_builder = null;
+    private Method m_unstarted = null;
+
+    /**
+     * handles exceptions thrown by the device threads (may be null)
+     */
+    private Thread.UncaughtExceptionHandler m_handler = null;
+
+    /**
+     * the number of threads created (used to name them)
+     */
+    private int m_numThreads = 0;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param virtual if true (and the JVM supports them) the threads are
+     *                virtual threads
+     * @param handler handles exceptions thrown by the threads (may be null)
+     */
+    public DeviceThreadFactory(boolean virtual, Thread.UncaughtExceptionHandler handler)
+    {
+        m_handler = handler;
+        if (!virtual) return;
+
+        try
+        {
+            m_builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            m_unstarted = Class.forName("java.lang.Thread$Builder")
+                .getMethod("unstarted", Runnable.class);
+        }
+        catch (Exception e)
+        {
+            //This JVM doesn't have virtual threads
+            m_builder = null;
+            m_unstarted = null;
+        }
+    }//ctor
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * @return true if this factory creates virtual threads
+     */
+    public boolean isVirtual()
+    {
+        return m_builder != null;
+    }
+
+    /**
+     * newThread
+     *
+     * @param r the device (or anything else) for the thread to run
+     * @return a new unstarted thread
+     */
+    @Override
+    public Thread newThread(Runnable r)
+    {
+        Thread t = null;
+        if (m_builder != null)
+        {
+            try
+            {
+                t = (Thread) m_unstarted.invoke(m_builder, r);
+            }
+            catch (Exception e)
+            {
+                System.out.println("ERROR: Could not create a virtual thread: " + e);
+            }
+        }
+        if (t == null)
+        {
+            t = new Thread(r);
+        }
+
+        m_numThreads++;
+        t.setName("device-" + m_numThreads);
+        if (m_handler != null)
+        {
+            t.setUncaughtExceptionHandler(m_handler);
+        }
+        return t;
+    }//newThread
+
+}//class DeviceThreadFactory
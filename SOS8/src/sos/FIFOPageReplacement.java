@@ -0,0 +1,50 @@
+package sos;
+
+/**
+ * This page replacement policy evicts the page that has been in RAM the
+ * longest, regardless of how recently it was used.
+ *
+ * @see PageReplacementPolicy
+ */
+public class FIFOPageReplacement implements PageReplacementPolicy
+{
+    /**
+     * the frames that hold a page in the order their pages were loaded.  This
+     * is a circular queue starting at m_head.
+     */
+    private int[] m_loadOrder = null;
+    private int m_head = 0;
+    private int m_count = 0;
+
+    public void init(MMU mmu, int[] framePages)
+    {
+        m_loadOrder = new int[framePages.length];
+        m_head = 0;
+        m_count = 0;
+    }
+
+    public void pageLoaded(int frame)
+    {
+        m_loadOrder[(m_head + m_count) % m_loadOrder.length] = frame;
+        m_count++;
+    }
+
+    public void sample()
+    {
+        //Use is irrelevant to this policy
+    }
+
+    public int selectVictim()
+    {
+        int frame = m_loadOrder[m_head];
+        m_head = (m_head + 1) % m_loadOrder.length;
+        m_count--;
+        return frame;
+    }
+
+    public String getName()
+    {
+        return "FIFO";
+    }
+
+}//class FIFOPageReplacement
@@ -0,0 +1,39 @@
+package sos;
+
+/**
+ * This exception is thrown by the OS (or the hardware) when the simulated
+ * machine halts, either because every process has exited or because of a
+ * fatal error.  It unwinds out of {@link CPU#run} so that whoever is running
+ * the simulation can collect its results without the JVM exiting.
+ *
+ * @see Simulation
+ */
+public class HaltException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * the machine's exit status (SOS.SYSCALL_EXIT if every process exited,
+     * -1 after a fatal error)
+     */
+    private int m_status = 0;
+
+    /**
+     * @param status the machine's exit status
+     * @param reason why the machine halted
+     */
+    public HaltException(int status, String reason)
+    {
+        super(reason);
+        m_status = status;
+    }
+
+    /**
+     * @return the machine's exit status
+     */
+    public int getStatus()
+    {
+        return m_status;
+    }
+
+}//class HaltException
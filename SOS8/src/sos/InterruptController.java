@@ -1,109 +1,228 @@
 package sos;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * This class represents the CPU's interrupt controller. More abstractly is the
  * container object between a producer (device(s)) and consumer (CPU).
- * 
- * Adapted from an example in the Concurrent Programming Tutorial written by Sun
- * Microsystems Inc.
- * 
+ *
+ * Pending interrupts are kept in a bounded ring buffer so that several
+ * devices can post completions at once without waiting for the CPU or for
+ * each other. Any number of device threads may post but only the CPU takes
+ * interrupts out. No locks are used: each slot has a sequence number that
+ * says whether it is free for the producer that claimed it or full and
+ * waiting for the CPU.
+ *
  * @see Device
  * @see CPU
- * 
+ *
  * HW5 Authors: Joseph Devlin, John Olennikov
- * 
+ *
  */
 public class InterruptController {
 	// ======================================================================
 	// Constants
 	// ----------------------------------------------------------------------
-	
+
 	// Each interrupt that this controller handles has a unique ID
 	public static final int INT_READ_DONE = 100;
 	public static final int INT_WRITE_DONE = 101;
-	
+
+	// These constants define what a device does when the buffer is full
+	public static final int OVERFLOW_WAIT = 0; // wait for the CPU to make room
+	public static final int OVERFLOW_DROP = 1; // discard the new interrupt
+
+	// the default number of interrupts that can be pending
+	public static final int DEFAULT_CAPACITY = 16;
+
+	// the number of ints in each interrupt record
+	private static final int RECORD_SIZE = 4;
+
 	// ======================================================================
 	// Variables
 	// ----------------------------------------------------------------------
-	private int m_operation = 0; // What interrupt is to be generated?
-	private int m_devNum = 0; // the id of the device that has data
-	private int m_addr = 0; // the address where data was read/wrote
-	private int m_data = 0; // the data
-	private boolean m_empty = true; // whether or not there is an interrupt
-	
+	private int m_capacity = 0; // number of slots (a power of 2)
+	private int m_mask = 0; // m_capacity - 1
+	private int m_overflow = OVERFLOW_WAIT; // what to do when full
+
+	/**
+	 * the records of the pending interrupts (operation, device number,
+	 * address and data for each slot)
+	 */
+	private int[] m_records = null;
+
+	/**
+	 * each slot's sequence number. Slot i is free for the producer posting
+	 * interrupt number n when its sequence is n and holds interrupt n for
+	 * the CPU when its sequence is n + 1.
+	 */
+	private AtomicLongArray m_sequences = null;
+
+	/**
+	 * the number of the next interrupt to be posted (shared by producers)
+	 */
+	private AtomicLong m_tail = new AtomicLong(0);
+
+	/**
+	 * the number of the next interrupt the CPU will take (only used by the
+	 * CPU)
+	 */
+	private long m_head = 0;
+
+	// statistics
+	private volatile int m_peakOccupancy = 0;
+	private AtomicLong m_numDropped = new AtomicLong(0);
+
 	// ======================================================================
 	// Methods
 	// ----------------------------------------------------------------------
-	
+
 	/**
-	 * the constructor does nothing
-	 * 
+	 * This constructor uses the default capacity and makes devices wait when
+	 * the buffer is full
 	 */
 	public InterruptController() {
+		this(DEFAULT_CAPACITY, OVERFLOW_WAIT);
 	}
-	
+
+	/**
+	 * @param capacity
+	 *            the number of interrupts that can be pending. If this is not
+	 *            a power of 2 it will be adjusted to the next higher power of 2.
+	 * @param overflow
+	 *            what a device does when the buffer is full (one of the
+	 *            OVERFLOW constants)
+	 */
+	public InterruptController(int capacity, int overflow) {
+		m_capacity = 1;
+		while (m_capacity < capacity) {
+			m_capacity *= 2;
+		}
+		m_mask = m_capacity - 1;
+		m_overflow = overflow;
+
+		m_records = new int[m_capacity * RECORD_SIZE];
+		m_sequences = new AtomicLongArray(m_capacity);
+		for (int i = 0; i < m_capacity; i++) {
+			m_sequences.set(i, i);
+		}
+	}// ctor
+
 	/**
-	 * Is there data available to take?
-	 * 
+	 * @return the number of interrupts that can be pending
+	 */
+	public int getCapacity() {
+		return m_capacity;
+	}
+
+	/**
+	 * @return the greatest number of interrupts that have been pending at once
+	 */
+	public int getPeakOccupancy() {
+		return m_peakOccupancy;
+	}
+
+	/**
+	 * @return the number of interrupts discarded because the buffer was full
+	 */
+	public long getNumDropped() {
+		return m_numDropped.get();
+	}
+
+	/**
+	 * Is there data available to take? This is a single volatile read so the
+	 * CPU can afford to call it after every instruction. (Only the CPU may
+	 * call it.)
+	 *
 	 */
 	public boolean isEmpty() {
-		return m_empty;
+		return m_sequences.get((int) m_head & m_mask) != m_head + 1;
 	}
-	
+
 	/**
 	 * getData
-	 * 
-	 * is used by the CPU to retrieve the data associated with the interrupt.
+	 *
+	 * is used by the CPU to take the oldest pending interrupt into a slot it
+	 * owns so that no allocation is required. This never waits.
+	 *
+	 * @param slot
+	 *            an array of at least 4 ints that receives the operation,
+	 *            device number, address and data (in that order)
+	 * @return true if an interrupt was taken -OR- false if none is pending
 	 */
-	public synchronized int[] getData() {
-		// Loop until putData() is called and m_empty is set to false
-		while (m_empty) {
-			try {
-				wait();
-			}
-			catch (InterruptedException e) {
-			} // should never happen
+	public boolean getData(int[] slot) {
+		long head = m_head;
+		int index = (int) head & m_mask;
+		if (m_sequences.get(index) != head + 1) {
+			return false;
 		}
-		
-		// Fill an array with the device number and data
-		int[] retVal = new int[4];
-		retVal[0] = m_operation;
-		retVal[1] = m_devNum;
-		retVal[2] = m_addr;
-		retVal[3] = m_data;
-		
-		// Make the interrupt controller available for other devices
-		m_empty = true;
-		notifyAll();
-		
-		return retVal;
-		
+
+		// Record the peak occupancy (including this interrupt)
+		int occupancy = (int) (m_tail.get() - head);
+		if (occupancy > m_peakOccupancy) {
+			m_peakOccupancy = occupancy;
+		}
+
+		int r = index * RECORD_SIZE;
+		slot[0] = m_records[r];
+		slot[1] = m_records[r + 1];
+		slot[2] = m_records[r + 2];
+		slot[3] = m_records[r + 3];
+
+		// Hand the slot back to the producers for the next lap of the ring
+		m_sequences.set(index, head + m_capacity);
+		m_head = head + 1;
+		return true;
+
 	}// getData
-	
+
 	/**
 	 * putData
-	 * 
-	 * is used by a device to signal that it has data for the CPU.
+	 *
+	 * is used by a device to signal that it has data for the CPU. It only
+	 * waits if the buffer is full and the overflow policy is OVERFLOW_WAIT.
+	 *
+	 * @return true if the interrupt was posted -OR- false if it was dropped
 	 */
-	public synchronized void putData(int operation, int devNum, int addr,
-			int data) {
-		// Loop until getData() is called and m_empty is set to true
-		while (!m_empty) {
-			try {
-				wait();
+	public boolean putData(int operation, int devNum, int addr, int data) {
+		// Claim the next slot
+		long tail = m_tail.get();
+		int index;
+		while (true) {
+			index = (int) tail & m_mask;
+			long diff = m_sequences.get(index) - tail;
+			if (diff == 0) {
+				if (m_tail.compareAndSet(tail, tail + 1)) {
+					break;
+				}
+				tail = m_tail.get();
 			}
-			catch (InterruptedException e) {
-			} // should never happen
-		}
-		
-		// Make the data on the bus available to the CPU
-		m_empty = false;
-		m_devNum = devNum;
-		m_operation = operation;
-		m_addr = addr;
-		m_data = data;
-		notifyAll();
-		
+			else if (diff < 0) {
+				// The buffer is full
+				if (m_overflow == OVERFLOW_DROP) {
+					m_numDropped.incrementAndGet();
+					return false;
+				}
+				Thread.yield();
+				tail = m_tail.get();
+			}
+			else {
+				// Another device claimed this slot first
+				tail = m_tail.get();
+			}
+		}// while
+
+		// Fill in the record and then publish it to the CPU
+		int r = index * RECORD_SIZE;
+		m_records[r] = operation;
+		m_records[r + 1] = devNum;
+		m_records[r + 2] = addr;
+		m_records[r + 3] = data;
+		m_sequences.set(index, tail + 1);
+
+		return true;
+
 	}// putData
-	
+
 };// class InterruptController
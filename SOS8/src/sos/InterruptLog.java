@@ -0,0 +1,465 @@
+package sos;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class records everything about a run that depends on the devices so
+ * that the run can be replayed exactly.  Device data is random and device
+ * latencies depend on the host, so two runs of the same simulation never
+ * match; but given the same seed the CPU and OS are deterministic apart from
+ * two inputs:
+ *
+ *   - the interrupts the CPU takes: when (the number of instructions retired
+ *     so far), their type, device, address and data
+ *   - the answers the devices give when the OS asks whether they are
+ *     available
+ *
+ * In record mode the CPU logs each interrupt as it takes it and the devices
+ * (wrapped by {@link #wrap}) log their answers.  In replay mode no device
+ * runs at all: the CPU injects each logged interrupt into the interrupt
+ * controller when it reaches the instruction it was taken at, and the
+ * wrapped devices give the logged answers.  Replay has no threads and no
+ * sleeps, so it runs as fast as the interpreter can.  Neither a recording
+ * nor a replay runs compiled blocks (@see CPU#setInterruptLog), so a log
+ * can be replayed with or without tracing, probes or verbose output
+ * whatever the recording had.
+ *
+ * A replay must use the same options (scheduler, memory sizes, etc.) as the
+ * recording.  If it strays from the log anyway it is halted with an error
+ * rather than being left to wait forever for a device.
+ *
+ * @see CPU#setInterruptLog
+ * @see Simulation#setRecordFile
+ * @see Simulation#setReplayFile
+ */
+public class InterruptLog
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    public static final byte[] MAGIC = { 'S', 'O', 'S', 'I', 'L', 'O', 'G' };
+    public static final int VERSION = 1;
+
+    // These constants define the kinds of entry
+    public static final int INTERRUPT = 0;      // type, device, address, data
+    public static final int AVAILABLE = 1;      // device, 1 if available else 0
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * true if this log is being replayed rather than recorded
+     */
+    private boolean m_replaying = false;
+
+    /**
+     * the seed of the OS's and scheduler's random choices
+     */
+    private long m_seed = 0;
+
+    /**
+     * the entries (the instruction each happened at, its kind and up to
+     * four values)
+     */
+    private long[] m_positions = new long[INITIAL_CAPACITY];
+    private int[] m_kinds = new int[INITIAL_CAPACITY];
+    private int[] m_values = new int[INITIAL_CAPACITY * 4];
+    private int m_size = 0;
+
+    /**
+     * the number of instructions retired by the end of the recording
+     */
+    private long m_endPosition = -1;
+
+    /**
+     * the next interrupt and the next answer to replay (each kind is
+     * replayed in its own order)
+     */
+    private int m_nextInterrupt = 0;
+    private int m_nextAnswer = 0;
+
+    /**
+     * the CPU whose instruction count positions the entries
+     */
+    private CPU m_CPU = null;
+
+    /**
+     * the number of interrupts recorded (or replayed)
+     */
+    private long m_numInterrupts = 0;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * creates an empty log to record a run in
+     *
+     * @param seed the seed the run's random choices are made with
+     */
+    public InterruptLog(long seed)
+    {
+        m_seed = seed;
+    }
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public boolean isReplaying()                { return m_replaying; }
+    public long getSeed()                       { return m_seed; }
+    public int size()                           { return m_size; }
+    public long getNumInterrupts()              { return m_numInterrupts; }
+    public long getEndPosition()                { return m_endPosition; }
+
+    /**
+     * setCPU
+     *
+     * is called by the CPU when this log is installed
+     */
+    void setCPU(CPU cpu)
+    {
+        m_CPU = cpu;
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * add
+     *
+     * appends an entry to the log
+     */
+    private void add(long position, int kind, int a, int b, int c, int d)
+    {
+        if (m_size == m_kinds.length)
+        {
+            int n = m_size * 2;
+            m_positions = Arrays.copyOf(m_positions, n);
+            m_kinds = Arrays.copyOf(m_kinds, n);
+            m_values = Arrays.copyOf(m_values, n * 4);
+        }
+        m_positions[m_size] = position;
+        m_kinds[m_size] = kind;
+        int v = m_size * 4;
+        m_values[v] = a;
+        m_values[v + 1] = b;
+        m_values[v + 2] = c;
+        m_values[v + 3] = d;
+        m_size++;
+    }//add
+
+    /**
+     * interruptTaken
+     *
+     * is called by the CPU whenever it takes an interrupt from the
+     * interrupt controller.  While recording the interrupt is logged.
+     *
+     * @param position the number of instructions retired so far
+     * @param intData  the interrupt's type, device, address and data
+     */
+    public void interruptTaken(long position, int[] intData)
+    {
+        if (m_replaying) return;
+
+        add(position, INTERRUPT, intData[0], intData[1], intData[2], intData[3]);
+        m_numInterrupts++;
+    }//interruptTaken
+
+    /**
+     * inject
+     *
+     * is called by the CPU while replaying once it has retired as many
+     * instructions as the position of the next entry.  The interrupts that
+     * were taken at this point are put on the interrupt controller so the
+     * CPU takes them just as it did when they were recorded.
+     *
+     * @param position the number of instructions retired so far
+     * @param ic       the interrupt controller
+     * @return the position at which this must be called next
+     * @throws HaltException if the replay has strayed from the log
+     */
+    public long inject(long position, InterruptController ic)
+    {
+        m_nextInterrupt = skipTo(m_nextInterrupt, INTERRUPT);
+        while ((m_nextInterrupt < m_size) && (m_positions[m_nextInterrupt] == position))
+        {
+            int v = m_nextInterrupt * 4;
+            ic.putData(m_values[v], m_values[v + 1], m_values[v + 2], m_values[v + 3]);
+            m_numInterrupts++;
+            m_nextInterrupt = skipTo(m_nextInterrupt + 1, INTERRUPT);
+        }
+
+        if (m_nextInterrupt < m_size)
+        {
+            if (m_positions[m_nextInterrupt] < position)
+            {
+                throw diverged(position);
+            }
+            return m_positions[m_nextInterrupt];
+        }
+
+        //Once the log runs out the OS should halt at the recorded end
+        if (position > m_endPosition)
+        {
+            throw diverged(position);
+        }
+        return m_endPosition + 1;
+    }//inject
+
+    /**
+     * nextPosition
+     *
+     * @return the position of the next entry to replay (@see #inject)
+     */
+    public long nextPosition()
+    {
+        m_nextInterrupt = skipTo(m_nextInterrupt, INTERRUPT);
+        return (m_nextInterrupt < m_size) ? m_positions[m_nextInterrupt]
+                                          : m_endPosition + 1;
+    }
+
+    /**
+     * skipTo
+     *
+     * @param i    an entry
+     * @param kind the kind of entry wanted
+     * @return the first entry of that kind from i on -OR- size() if none
+     */
+    private int skipTo(int i, int kind)
+    {
+        while ((i < m_size) && (m_kinds[i] != kind))
+        {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * isAvailable
+     *
+     * records (or replays) a device's answer to whether it is available
+     *
+     * @param device the device being asked
+     * @return its answer
+     * @throws HaltException if the replay has strayed from the log
+     */
+    private boolean isAvailable(Device device)
+    {
+        long position = m_CPU.getNumInstructions();
+        if (!m_replaying)
+        {
+            boolean available = device.isAvailable();
+            add(position, AVAILABLE, device.getId(), available ? 1 : 0, 0, 0);
+            return available;
+        }
+
+        int i = skipTo(m_nextAnswer, AVAILABLE);
+        if ((i >= m_size) || (m_positions[i] != position)
+            || (m_values[i * 4] != device.getId()))
+        {
+            throw diverged(position);
+        }
+        m_nextAnswer = i + 1;
+        return m_values[i * 4 + 1] != 0;
+    }//isAvailable
+
+    /**
+     * diverged
+     *
+     * @return the exception that halts a replay that has strayed from the
+     *         log
+     */
+    private HaltException diverged(long position)
+    {
+        return new HaltException(-1, "Replay diverged from the log at instruction "
+                                 + position);
+    }//diverged
+
+    /**
+     * wrap
+     *
+     * @param device a device
+     * @return a device for the OS to use in its place.  While recording it
+     *         logs the device's answers; while replaying it gives the logged
+     *         answers and never asks the device to do anything.
+     */
+    public Device wrap(Device device)
+    {
+        return new LoggedDevice(device);
+    }//wrap
+
+    /**
+     * finish
+     *
+     * ends a recording
+     *
+     * @param position the number of instructions retired by the end of the
+     *                 run
+     */
+    public void finish(long position)
+    {
+        m_endPosition = position;
+    }//finish
+
+    /**
+     * save
+     *
+     * writes a finished recording to a file
+     *
+     * @param file the file to write
+     * @throws IOException if it can't be written
+     */
+    public void save(File file) throws IOException
+    {
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(m_seed);
+            out.writeLong(m_endPosition);
+            out.writeInt(m_size);
+            for (int i = 0; i < m_size; i++)
+            {
+                out.writeLong(m_positions[i]);
+                out.writeByte(m_kinds[i]);
+                int values = (m_kinds[i] == INTERRUPT) ? 4 : 2;
+                for (int v = 0; v < values; v++)
+                {
+                    out.writeInt(m_values[i * 4 + v]);
+                }
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }//save
+
+    /**
+     * load
+     *
+     * reads a recording to replay
+     *
+     * @param file a file written by {@link #save}
+     * @return the log, ready to replay
+     * @throws IOException if the file can't be read or is not a log
+     */
+    public static InterruptLog load(File file) throws IOException
+    {
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC))
+            {
+                throw new IOException(file + " is not an interrupt log");
+            }
+            int version = in.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException(file + " is interrupt log version " + version
+                                      + " (expected " + VERSION + ")");
+            }
+
+            InterruptLog log = new InterruptLog(in.readLong());
+            log.m_endPosition = in.readLong();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++)
+            {
+                long position = in.readLong();
+                int kind = in.readByte();
+                if (kind == INTERRUPT)
+                {
+                    log.add(position, kind, in.readInt(), in.readInt(),
+                            in.readInt(), in.readInt());
+                }
+                else
+                {
+                    log.add(position, kind, in.readInt(), in.readInt(), 0, 0);
+                }
+            }
+            log.m_replaying = true;
+            return log;
+        }
+        finally
+        {
+            in.close();
+        }
+    }//load
+
+    //======================================================================
+    // Nested Classes
+    //----------------------------------------------------------------------
+
+    /**
+     * class LoggedDevice
+     *
+     * stands in for a device so that its answers can be recorded or
+     * replayed (@see #wrap)
+     */
+    private class LoggedDevice implements Device
+    {
+        private Device m_device = null;
+
+        public LoggedDevice(Device device)
+        {
+            m_device = device;
+        }
+
+        public int getId()                      { return m_device.getId(); }
+        public void setId(int id)               { m_device.setId(id); }
+        public boolean isSharable()             { return m_device.isSharable(); }
+        public boolean isReadable()             { return m_device.isReadable(); }
+        public boolean isWriteable()            { return m_device.isWriteable(); }
+
+        public void saveState(DataOutput out) throws IOException
+        {
+            m_device.saveState(out);
+        }
+
+        public void restoreState(DataInput in) throws IOException
+        {
+            m_device.restoreState(in);
+        }
+
+        public boolean isAvailable()
+        {
+            return InterruptLog.this.isAvailable(m_device);
+        }
+
+        public int read(int addr)
+        {
+            //While replaying the completion comes from the log
+            return m_replaying ? -9999 : m_device.read(addr);
+        }
+
+        public void write(int addr, int data)
+        {
+            if (!m_replaying)
+            {
+                m_device.write(addr, data);
+            }
+        }
+    }//class LoggedDevice
+
+}//class InterruptLog
@@ -1,5 +1,11 @@
 package sos;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * This class simulates a simple, non-sharable read-only device. It always
  * returns a random number to the CPU via the data bus.
@@ -10,12 +16,29 @@ package sos;
  */
 public class KeyboardDevice implements Device, Runnable {
 	private int m_Id = -1;             // The OS assigned device ID
-	private boolean m_request = false; // is device currently processing a request?
+	private volatile boolean m_request = false; // is device currently
+												// processing a request?
+	private volatile Thread m_worker = null; // the thread running this device
+	private volatile boolean m_running = true; // false once the device is stopped
 	private int m_addr = 0;            // address to read from
 	private int m_maxLatency = 10000;  // maximum latency in ns
 	private int m_minLatency = 500;    // minimum latnecy in ns
 	private InterruptController m_IC = null; // reference to the interrupt
 											 // controller
+	private SimClock m_clock = null;   // virtual clock in discrete event mode
+	private Random m_random = null;    // seeded source of data for m_clock
+	private int m_data = 0;            // the data for the current request
+	private long m_dueAt = 0;          // when the request completes on m_clock
+	
+	/**
+	 * finishes the current request when it is due on the virtual clock
+	 */
+	private Runnable m_completion = new Runnable() {
+		@Override
+		public void run() {
+			complete();
+		}
+	};
 	
 	/**
 	 * Verbose mode generates helpful debugging printlns
@@ -46,6 +69,38 @@ public class KeyboardDevice implements Device, Runnable {
 		m_IC = ic;
 	}// ctor
 	
+	/**
+	 * setClock
+	 * 
+	 * switches this device to discrete event mode. Requests complete when the
+	 * virtual clock reaches them (latencies are then counted in cycles)
+	 * rather than on this device's own thread, which should not be started.
+	 * 
+	 * @param clock
+	 *            the virtual clock
+	 * @param seed
+	 *            the seed for the random data and latencies so that runs
+	 *            repeat
+	 */
+	public void setClock(SimClock clock, long seed) {
+		m_clock = clock;
+		m_random = new Random(seed);
+	}
+	
+	/**
+	 * stop
+	 * 
+	 * makes this device's thread return from run (once it has finished the
+	 * current request)
+	 */
+	public void stop() {
+		m_running = false;
+		Thread worker = m_worker;
+		if (worker != null) {
+			LockSupport.unpark(worker);
+		}
+	}
+	
 	/**
 	 * getId
 	 * 
@@ -120,9 +175,67 @@ public class KeyboardDevice implements Device, Runnable {
 		m_addr = addr;
 		m_request = true;
 		
+		// In discrete event mode the completion is an event on the clock,
+		// otherwise wake the device's thread
+		if (m_clock != null) {
+			m_data = nextData();
+			int latency = latencyFor(m_data);
+			m_dueAt = m_clock.getTime() + latency;
+			m_clock.schedule(latency, m_completion);
+		} else {
+			Thread worker = m_worker;
+			if (worker != null) {
+				LockSupport.unpark(worker);
+			}
+		}
+		
 		return -9999;           // no longer used
 	}// read
 	
+	/**
+	 * nextData
+	 * 
+	 * @return a random multiple of 1000
+	 */
+	private int nextData() {
+		double r = (m_random != null) ? m_random.nextDouble() : Math.random();
+		return (int) (r * 999999) * 1000;
+	}
+	
+	/**
+	 * latencyFor
+	 * 
+	 * @return the latency of a read that produces the given data (the
+	 *         minimum latency if it is the same as the maximum)
+	 */
+	private int latencyFor(int data) {
+		if (m_maxLatency == m_minLatency) {
+			return m_minLatency;
+		}
+		return (data % (m_maxLatency - m_minLatency)) + m_minLatency;
+	}
+	
+	/**
+	 * complete
+	 * 
+	 * puts the data for the current request on the data bus
+	 */
+	private void complete() {
+		// Notify the interrupt controller of the available data
+		if (m_verbose) {
+			System.out.println("Keyboard puts '" + m_data
+					+ "' on the data bus.");
+		}
+		
+		// Make the device available for another request before notifying
+		// the CPU (which may make one straight away)
+		int addr = m_addr;
+		int data = m_data;
+		m_request = false;
+		
+		m_IC.putData(InterruptController.INT_READ_DONE, m_Id, addr, data);
+	}
+	
 	/**
 	 * write
 	 * 
@@ -133,45 +246,81 @@ public class KeyboardDevice implements Device, Runnable {
 		// This method should never be called
 	}
 	
+	/**
+	 * saveState
+	 * 
+	 * writes the current request (including the data it will return) with
+	 * the time left until it completes, and the state of the random data
+	 * and latencies
+	 */
+	@Override
+	public void saveState(DataOutput out) throws IOException {
+		out.writeBoolean(m_request);
+		out.writeInt(m_addr);
+		out.writeInt(m_data);
+		out.writeLong((m_request && m_clock != null) ? m_dueAt - m_clock.getTime() : -1);
+		Snapshot.writeRandom(out, m_random);
+	}// saveState
+	
+	/**
+	 * restoreState
+	 * 
+	 * reads the state written by saveState. In discrete event mode a request
+	 * that was in progress is put back on the clock.
+	 */
+	@Override
+	public void restoreState(DataInput in) throws IOException {
+		m_request = in.readBoolean();
+		m_addr = in.readInt();
+		m_data = in.readInt();
+		long remaining = in.readLong();
+		Random random = Snapshot.readRandom(in);
+		if (m_clock != null) {
+			if (random != null) {
+				m_random = random;
+			}
+			if (m_request && remaining >= 0) {
+				m_dueAt = m_clock.getTime() + remaining;
+				m_clock.schedule(remaining, m_completion);
+			}
+		}
+	}// restoreState
+	
 	/**
 	 * run
 	 * 
-	 * This method represents the device + controller. It watches for requests
-	 * (via m_request and m_data) and handles them. It also inserts a random
-	 * latency to simulate the amount of time required.
+	 * This method represents the device + controller. It waits (parked, so
+	 * that it uses no host CPU) until read submits a request and then
+	 * handles it. It also inserts a random latency to simulate the amount of
+	 * time required.
 	 * 
 	 */
 	@Override
 	public void run() {
-		// Device runs until program ends
-		while (true) {
-			// If there is no request to process, yield the CPU to another
-			// thread
-			while (!m_request) {
-				Thread.yield();
+		m_worker = Thread.currentThread();
+		
+		// Device runs until it is stopped
+		while (m_running) {
+			// Sleep until there is a request to process
+			while (!m_request && m_running) {
+				LockSupport.park(this);
+			}
+			if (!m_running) {
+				break;
 			}
 			
 			// generate a random multiple of 1000
-			int rn = (int) (Math.random() * 999999) * 1000;
+			m_data = nextData();
 			
 			// Sleep to simulate the latency
 			try {
-				int latency = (rn % (m_maxLatency - m_minLatency))
-						+ m_minLatency;
+				int latency = latencyFor(m_data);
 				Thread.sleep(latency / 1000, latency % 1000);
 			}
 			catch (InterruptedException e) {
 			} // should never happen
 			
-			// Notify the interrupt controller of the available data
-			if (m_verbose) {
-				System.out.println("Keyboard puts '" + rn
-						+ "' on the data bus.");
-			}
-			m_IC.putData(InterruptController.INT_READ_DONE, m_Id, m_addr, rn);
-			
-			// Make the device available for another request
-			m_request = false;
+			complete();
 		}// while
 	}// run
 	
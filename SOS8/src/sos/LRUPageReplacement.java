@@ -0,0 +1,87 @@
+package sos;
+
+/**
+ * This page replacement policy evicts the least recently used page.  The MMU
+ * only records that a page has been referenced (not when) so recency is
+ * measured in samples: each sample stamps every page whose referenced bit is
+ * set with the current sample number and then clears the bit.  A sample is
+ * also taken before each victim is chosen.
+ *
+ * @see PageReplacementPolicy
+ */
+public class LRUPageReplacement implements PageReplacementPolicy
+{
+    /**
+     * the MMU whose page table holds the referenced bits
+     */
+    private MMU m_MMU = null;
+
+    /**
+     * the page held in each frame (-1 if none)
+     */
+    private int[] m_framePages = null;
+
+    /**
+     * the sample at which each frame's page was last found to be referenced
+     */
+    private long[] m_lastUsed = null;
+
+    /**
+     * the number of samples taken so far
+     */
+    private long m_time = 0;
+
+    public void init(MMU mmu, int[] framePages)
+    {
+        m_MMU = mmu;
+        m_framePages = framePages;
+        m_lastUsed = new long[framePages.length];
+        m_time = 0;
+    }
+
+    public void pageLoaded(int frame)
+    {
+        m_lastUsed[frame] = ++m_time;
+    }
+
+    public void sample()
+    {
+        m_time++;
+        for(int frame = 0; frame < m_framePages.length; frame++)
+        {
+            if (m_framePages[frame] < 0) continue;
+
+            int virtAddr = m_framePages[frame] << m_MMU.getOffsetSize();
+            int status = m_MMU.getStatus(virtAddr);
+            if ((status & MMU.STATUS_REFERENCED) != 0)
+            {
+                m_lastUsed[frame] = m_time;
+                m_MMU.setStatus(virtAddr, status & ~MMU.STATUS_REFERENCED);
+            }
+        }
+    }//sample
+
+    public int selectVictim()
+    {
+        sample();
+
+        //Ties go to the lowest frame
+        int victim = -1;
+        for(int frame = 0; frame < m_framePages.length; frame++)
+        {
+            if (m_framePages[frame] < 0) continue;
+
+            if ((victim < 0) || (m_lastUsed[frame] < m_lastUsed[victim]))
+            {
+                victim = frame;
+            }
+        }
+        return victim;
+    }//selectVictim
+
+    public String getName()
+    {
+        return "LRU";
+    }
+
+}//class LRUPageReplacement
@@ -0,0 +1,264 @@
+package sos;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * This scheduler holds a lottery every time it chooses a process.  Each Ready
+ * process holds a number of tickets and its chance of winning is its share
+ * of all the tickets held.  The ticket counts are kept in a Fenwick tree so
+ * that the winner is found in O(log n) time.
+ */
+public class LotteryScheduler implements Scheduler
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+    public static final int DEFAULT_TICKETS = 100;
+    private static final int INITIAL_SLOTS = 16;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * draws the winning ticket
+     */
+    private Random m_random = null;
+
+    /**
+     * the number of tickets each process holds
+     */
+    private int m_ticketsPerProcess = DEFAULT_TICKETS;
+
+    /**
+     * the process in each slot (null if the slot is free)
+     */
+    private SOS.ProcessControlBlock[] m_procs = new SOS.ProcessControlBlock[INITIAL_SLOTS];
+
+    /**
+     * the slot of each Ready process
+     */
+    private HashMap<SOS.ProcessControlBlock, Integer> m_slots =
+        new HashMap<SOS.ProcessControlBlock, Integer>();
+
+    /**
+     * a Fenwick tree (1-based) over the tickets held in each slot
+     */
+    private int[] m_tree = new int[INITIAL_SLOTS + 1];
+
+    /**
+     * a stack of the free slots
+     */
+    private int[] m_freeSlots = new int[INITIAL_SLOTS];
+    private int m_numFree = 0;
+
+    /**
+     * the number of tickets held by all Ready processes
+     */
+    private int m_totalTickets = 0;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param seed              the seed for the drawings (so that runs repeat)
+     * @param ticketsPerProcess the number of tickets each process holds
+     */
+    public LotteryScheduler(long seed, int ticketsPerProcess)
+    {
+        m_random = new Random(seed);
+        m_ticketsPerProcess = Math.max(ticketsPerProcess, 1);
+        for(int slot = INITIAL_SLOTS - 1; slot >= 0; slot--)
+        {
+            m_freeSlots[m_numFree] = slot;
+            m_numFree++;
+        }
+    }//ctor
+
+    /**
+     * This constructor gives every process the default number of tickets
+     */
+    public LotteryScheduler(long seed)
+    {
+        this(seed, DEFAULT_TICKETS);
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * ready
+     *
+     * gives the process its tickets unless it already holds them
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void ready(SOS.ProcessControlBlock proc, int now)
+    {
+        if (m_slots.containsKey(proc)) return;
+
+        if (m_numFree == 0)
+        {
+            grow();
+        }
+        m_numFree--;
+        int slot = m_freeSlots[m_numFree];
+        m_procs[slot] = proc;
+        m_slots.put(proc, slot);
+        addTickets(slot, m_ticketsPerProcess);
+    }//ready
+
+    /**
+     * block
+     *
+     * takes the process' tickets away until it is unblocked
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void block(SOS.ProcessControlBlock proc, int now)
+    {
+        Integer slot = m_slots.remove(proc);
+        if (slot == null) return;
+
+        addTickets(slot, -m_ticketsPerProcess);
+        m_procs[slot] = null;
+        m_freeSlots[m_numFree] = slot;
+        m_numFree++;
+    }//block
+
+    /**
+     * unblock
+     *
+     * gives the process its tickets back
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void unblock(SOS.ProcessControlBlock proc, int now)
+    {
+        ready(proc, now);
+    }
+
+    /**
+     * exit
+     *
+     * takes the process' tickets away for good
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void exit(SOS.ProcessControlBlock proc, int now)
+    {
+        block(proc, now);
+    }
+
+    /**
+     * tick
+     *
+     * does nothing since every drawing is independent of past usage
+     *
+     * @param proc  the running process
+     * @param ticks the number of CPU ticks it has used
+     */
+    @Override
+    public void tick(SOS.ProcessControlBlock proc, int ticks)
+    {
+        //Every drawing is independent of past usage
+    }
+
+    /**
+     * selectNext
+     *
+     * draws a ticket at random
+     *
+     * @param now the current time in CPU ticks
+     * @return the process holding the winning ticket -OR- null if no
+     *         process holds any
+     */
+    @Override
+    public SOS.ProcessControlBlock selectNext(int now)
+    {
+        if (m_totalTickets == 0)
+        {
+            return null;
+        }
+
+        //Walk down the tree to the slot holding the winning ticket
+        int ticket = m_random.nextInt(m_totalTickets);
+        int pos = 0;
+        for(int step = Integer.highestOneBit(m_procs.length); step > 0; step >>= 1)
+        {
+            int next = pos + step;
+            if ((next <= m_procs.length) && (m_tree[next] <= ticket))
+            {
+                pos = next;
+                ticket -= m_tree[next];
+            }
+        }
+        return m_procs[pos];
+    }//selectNext
+
+    /**
+     * addTickets
+     *
+     * changes the number of tickets held in a slot
+     */
+    private void addTickets(int slot, int delta)
+    {
+        for(int i = slot + 1; i <= m_procs.length; i += i & -i)
+        {
+            m_tree[i] += delta;
+        }
+        m_totalTickets += delta;
+    }//addTickets
+
+    /**
+     * grow
+     *
+     * doubles the number of slots
+     */
+    private void grow()
+    {
+        int oldSize = m_procs.length;
+        SOS.ProcessControlBlock[] procs = m_procs;
+
+        m_procs = new SOS.ProcessControlBlock[oldSize * 2];
+        m_tree = new int[oldSize * 2 + 1];
+        m_freeSlots = new int[oldSize * 2];
+        m_totalTickets = 0;
+        for(int slot = 0; slot < oldSize; slot++)
+        {
+            m_procs[slot] = procs[slot];
+            if (procs[slot] != null)
+            {
+                addTickets(slot, m_ticketsPerProcess);
+            }
+        }
+        for(int slot = oldSize * 2 - 1; slot >= oldSize; slot--)
+        {
+            m_freeSlots[m_numFree] = slot;
+            m_numFree++;
+        }
+    }//grow
+
+    /**
+     * getName
+     *
+     * @return "Lottery"
+     */
+    @Override
+    public String getName()
+    {
+        return "Lottery";
+    }
+
+}//class LotteryScheduler
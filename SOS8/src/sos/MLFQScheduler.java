@@ -0,0 +1,268 @@
+package sos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * This scheduler is a multi-level feedback queue.  New processes start at the
+ * highest priority level and the processes at the highest non-empty level
+ * take turns.  A process that uses up its allotment of CPU time at a level
+ * moves down one level, where the allotment is twice as long.  Processes that
+ * block often (e.g., for I/O) therefore stay near the top.  Every so often
+ * all processes are moved back to the top so that none starve.
+ */
+public class MLFQScheduler implements Scheduler
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+    public static final int DEFAULT_NUM_LEVELS = 3;
+    public static final int DEFAULT_ALLOTMENT = 500;        // ticks at level 0
+    public static final int DEFAULT_BOOST_PERIOD = 20000;   // ticks
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the Ready processes at each level (level 0 is the highest priority) in
+     * the order they will be chosen
+     */
+    private ArrayList<LinkedHashSet<SOS.ProcessControlBlock>> m_levels =
+        new ArrayList<LinkedHashSet<SOS.ProcessControlBlock>>();
+
+    /**
+     * the scheduling state of every process that has not exited
+     */
+    private HashMap<SOS.ProcessControlBlock, State> m_states =
+        new HashMap<SOS.ProcessControlBlock, State>();
+
+    /**
+     * the CPU time a process may use at level 0 before it is demoted
+     */
+    private int m_allotment = DEFAULT_ALLOTMENT;
+
+    /**
+     * how often every process is moved back to level 0
+     */
+    private int m_boostPeriod = DEFAULT_BOOST_PERIOD;
+
+    /**
+     * when processes were last moved back to level 0
+     */
+    private int m_lastBoost = 0;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param numLevels   the number of priority levels
+     * @param allotment   the CPU time (in ticks) a process may use at level 0
+     *                    before it is demoted
+     * @param boostPeriod how often (in ticks) every process is moved back to
+     *                    level 0
+     */
+    public MLFQScheduler(int numLevels, int allotment, int boostPeriod)
+    {
+        for(int i = 0; i < Math.max(numLevels, 1); i++)
+        {
+            m_levels.add(new LinkedHashSet<SOS.ProcessControlBlock>());
+        }
+        m_allotment = allotment;
+        m_boostPeriod = boostPeriod;
+    }//ctor
+
+    /**
+     * This constructor uses the default levels, allotment and boost period
+     */
+    public MLFQScheduler()
+    {
+        this(DEFAULT_NUM_LEVELS, DEFAULT_ALLOTMENT, DEFAULT_BOOST_PERIOD);
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * ready
+     *
+     * queues the process at its current level (level 0 if it is new)
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void ready(SOS.ProcessControlBlock proc, int now)
+    {
+        State s = m_states.get(proc);
+        if (s == null)
+        {
+            s = new State();
+            m_states.put(proc, s);
+        }
+        m_levels.get(s.m_level).add(proc);
+    }//ready
+
+    /**
+     * block
+     *
+     * removes the process from its level's queue.  It keeps its level and
+     * the time it has used there.
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void block(SOS.ProcessControlBlock proc, int now)
+    {
+        State s = m_states.get(proc);
+        if (s != null)
+        {
+            m_levels.get(s.m_level).remove(proc);
+        }
+    }//block
+
+    /**
+     * unblock
+     *
+     * queues the process at the level it blocked at
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void unblock(SOS.ProcessControlBlock proc, int now)
+    {
+        ready(proc, now);
+    }
+
+    /**
+     * exit
+     *
+     * removes the process and forgets its level
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void exit(SOS.ProcessControlBlock proc, int now)
+    {
+        block(proc, now);
+        m_states.remove(proc);
+    }
+
+    /**
+     * tick
+     *
+     * charges the process for the CPU time it used and demotes it one level
+     * once it has used up its allotment
+     *
+     * @param proc  the running process
+     * @param ticks the number of CPU ticks it has used
+     */
+    @Override
+    public void tick(SOS.ProcessControlBlock proc, int ticks)
+    {
+        State s = m_states.get(proc);
+        if (s == null) return;
+
+        //Demote the process once it has used up its allotment
+        s.m_used += ticks;
+        if ((s.m_used >= (m_allotment << s.m_level))
+            && (s.m_level < m_levels.size() - 1))
+        {
+            if (m_levels.get(s.m_level).remove(proc))
+            {
+                m_levels.get(s.m_level + 1).add(proc);
+            }
+            s.m_level++;
+            s.m_used = 0;
+        }
+    }//tick
+
+    /**
+     * selectNext
+     *
+     * moves every process back to level 0 if the boost period is up
+     *
+     * @param now the current time in CPU ticks
+     * @return the first process at the highest level that has a Ready
+     *         process (it then moves to the back of that level) -OR- null
+     *         if none are Ready
+     */
+    @Override
+    public SOS.ProcessControlBlock selectNext(int now)
+    {
+        if (now - m_lastBoost >= m_boostPeriod)
+        {
+            boost();
+            m_lastBoost = now;
+        }
+
+        //Take turns at the highest level that has anyone Ready
+        for(int i = 0; i < m_levels.size(); i++)
+        {
+            Iterator<SOS.ProcessControlBlock> iter = m_levels.get(i).iterator();
+            if (iter.hasNext())
+            {
+                SOS.ProcessControlBlock next = iter.next();
+                iter.remove();
+                m_levels.get(i).add(next);
+                return next;
+            }
+        }
+
+        return null;
+    }//selectNext
+
+    /**
+     * boost
+     *
+     * moves every process back to level 0
+     */
+    private void boost()
+    {
+        LinkedHashSet<SOS.ProcessControlBlock> top = m_levels.get(0);
+        for(int i = 1; i < m_levels.size(); i++)
+        {
+            top.addAll(m_levels.get(i));
+            m_levels.get(i).clear();
+        }
+        for(State s : m_states.values())
+        {
+            s.m_level = 0;
+            s.m_used = 0;
+        }
+    }//boost
+
+    /**
+     * getName
+     *
+     * @return "MLFQ"
+     */
+    @Override
+    public String getName()
+    {
+        return "MLFQ";
+    }
+
+    //======================================================================
+    // Nested Classes
+    //----------------------------------------------------------------------
+
+    /**
+     * class State
+     *
+     * a process' level and the CPU time it has used there
+     */
+    private static class State
+    {
+        private int m_level = 0;
+        private int m_used = 0;
+    }//class State
+
+}//class MLFQScheduler
@@ -1,5 +1,8 @@
 package sos;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -26,6 +29,15 @@ public class MMU
     public static final int DEFAULT_PAGE_SIZE = 256; //8 bits
     public static final int MINIMUM_PAGE_SIZE = 64;  //6 bits
 
+    // These constants define the bits in the status of a page table entry
+    public static final int STATUS_NOT_PRESENT = 1; // page is not in a frame
+    public static final int STATUS_REFERENCED  = 2; // page has been accessed
+    public static final int STATUS_DIRTY       = 4; // page has been written
+
+    // The status bits the MMU sets for each kind of access
+    private static final int ACCESS_READ  = STATUS_REFERENCED;
+    private static final int ACCESS_WRITE = STATUS_REFERENCED | STATUS_DIRTY;
+
     //======================================================================
     // Member Variables
     //----------------------------------------------------------------------
@@ -88,6 +100,23 @@ public class MMU
      */
     private CPU.TrapHandler m_TH = null;
 
+    /**
+     * caches instructions that have already been fetched so that they do not
+     * have to be read from RAM again
+     */
+    private DecodeCache m_decodeCache = null;
+
+    /**
+     * caches recently used page table entries
+     */
+    private TLB m_TLB = new TLB();
+
+    /**
+     * the number of times a page table entry has been read from RAM (i.e.,
+     * TLB misses plus re-reads after page faults)
+     */
+    private long m_numPageTableReads = 0;
+
     //======================================================================
     // Constructors
     //----------------------------------------------------------------------
@@ -148,6 +177,11 @@ public class MMU
         m_numPages = size / m_pageSize;
         m_size = m_numPages * m_pageSize;
 
+        //Create a decoded instruction cache with one slot per physical frame
+        //and ask the RAM to keep it coherent
+        m_decodeCache = new DecodeCache(m_RAM.getSize(), m_offsetSize);
+        m_RAM.registerDecodeCache(m_decodeCache);
+
     }//ctor
 
     /**
@@ -235,6 +269,51 @@ public class MMU
         return m_pageMask;
     }
 
+    /**
+     * getTLB
+     *
+     * @return the translation lookaside buffer (for its hit/miss/flush
+     *         counters)
+     */
+    public TLB getTLB()
+    {
+        return m_TLB;
+    }
+
+    /**
+     * configureTLB
+     *
+     * replaces the translation lookaside buffer with an empty one of the
+     * given shape
+     *
+     * @param numSets       the number of sets (a power of 2)
+     * @param associativity the number of entries in each set
+     * @param policy        TLB.POLICY_LRU or TLB.POLICY_RANDOM
+     */
+    public void configureTLB(int numSets, int associativity, int policy)
+    {
+        m_TLB = new TLB(numSets, associativity, policy);
+    }
+
+    /**
+     * getDecodeCache
+     *
+     */
+    public DecodeCache getDecodeCache()
+    {
+        return m_decodeCache;
+    }
+
+    /**
+     * getNumPageTableReads
+     *
+     * @return the number of times a page table entry has been read from RAM
+     */
+    public long getNumPageTableReads()
+    {
+        return m_numPageTableReads;
+    }
+
     //======================================================================
     // Methods
     //----------------------------------------------------------------------
@@ -293,23 +372,122 @@ public class MMU
         //Construct the new value for this page table entry and write it to RAM
         int newEntry = (oldEntry & m_pageMask) + newStatus;
         m_RAM.write(page, newEntry);
+        m_TLB.invalidate(page);
     }//setStatus
 
+    /**
+     * invalidateTLB
+     *
+     * must be called by the OS whenever it changes a single page table entry
+     *
+     * @param virtAddr    any virtual address in the page whose entry changed
+     */
+    public void invalidateTLB(int virtAddr)
+    {
+        m_TLB.invalidate((virtAddr & m_pageMask) >> m_offsetSize);
+    }//invalidateTLB
+
+    /**
+     * flushTLB
+     *
+     * must be called by the OS whenever it changes many page table entries
+     * at once
+     */
+    public void flushTLB()
+    {
+        m_TLB.flush();
+    }//flushTLB
+
+    /**
+     * saveState
+     *
+     * writes this MMU's counters, its TLB and its decoded instruction cache
+     * (the page table itself is in RAM).  The caches are saved since what
+     * they hold decides how many cycles are spent waiting on RAM.
+     *
+     * @see Snapshot
+     */
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeLong(m_numPageTableReads);
+        m_TLB.saveState(out);
+        m_decodeCache.saveState(out);
+    }//saveState
+
+    /**
+     * restoreState
+     *
+     * reads the state written by {@link #saveState} into an MMU with a TLB
+     * of the same size.  RAM must already have been restored.
+     */
+    public void restoreState(DataInput in) throws IOException
+    {
+        m_numPageTableReads = in.readLong();
+        m_TLB.restoreState(in);
+        m_decodeCache.restoreState(in);
+    }//restoreState
+
 
     
     /**
+     * The referenced and dirty bits of the page's entry are set as a side
+     * effect.  The page table is only written when one of them changes, which
+     * is at most twice between resets by the OS.
+     *
      * @param virtAddr the address to be translated into a phsyical address
+     * @param access   the status bits to set in the page's entry (ACCESS_READ
+     *                 or ACCESS_WRITE)
      * @return the physical address associated with the given virtual address
      */
-    private int translate(int virtAddr)
+    private int translate(int virtAddr, int access)
     {
-    	//%%%%TODO: #6 HW 8
         int pageNum = (virtAddr & m_pageMask) >> m_offsetSize;
-        int physBase = m_RAM.read(pageNum);
-        int physAddr = (physBase | m_pageMask);
+
+        //Only read the page table on a TLB miss
+        int entry = m_TLB.lookup(pageNum);
+        if (entry == TLB.MISS)
+        {
+            entry = m_RAM.read(pageNum);
+            m_numPageTableReads++;
+
+            //If the page isn't in RAM the OS must bring it in before the
+            //access can continue
+            while ((entry & STATUS_NOT_PRESENT) != 0)
+            {
+                m_TH.interruptPageFault(virtAddr);
+                entry = m_RAM.read(pageNum);
+                m_numPageTableReads++;
+            }
+            if ((entry & access) != access)
+            {
+                entry |= access;
+                m_RAM.write(pageNum, entry);
+            }
+            m_TLB.insert(pageNum, entry);
+        }
+        else if ((entry & access) != access)
+        {
+            //The cached entry must be kept in step with the page table
+            entry |= access;
+            m_RAM.write(pageNum, entry);
+            m_TLB.insert(pageNum, entry);
+        }
+
+        int physAddr = (entry & m_pageMask) | (virtAddr & m_offsetMask);
         return physAddr;
     }//translate
 
+    /**
+     * getPhysicalAddress
+     *
+     * @param virtAddr the address to be translated into a phsyical address
+     * @return the physical address associated with the given virtual address
+     */
+    public int getPhysicalAddress(int virtAddr)
+    {
+        return translate(virtAddr, ACCESS_READ);
+    }//getPhysicalAddress
+
     /**
      * write
      *
@@ -322,7 +500,7 @@ public class MMU
     public void write(int virtAddr, int data)
     {
         //Perform the write
-        int physAddr = translate(virtAddr);
+        int physAddr = translate(virtAddr, ACCESS_WRITE);
         m_RAM.write(physAddr, data);
     }//write
 
@@ -337,33 +515,44 @@ public class MMU
      */
     public int read(int virtAddr)
     {
-        int physAddr = translate(virtAddr);
+        int physAddr = translate(virtAddr, ACCESS_READ);
         return m_RAM.read(physAddr);
     }//read
 
     /**
      * fetch
      * 
-     * retrieves an entire program instruction from the simulated RAM.  
+     * retrieves an entire program instruction without allocating.  On a
+     * decoded instruction cache hit the cached instruction is returned
+     * directly; otherwise the instruction is read from RAM into the given
+     * buffer and copied into the cache, which only allocates the first time
+     * it caches an address.
      *
      * @param pc    the virtual address to load the instruction from (program
      *              counter)
+     * @param buf   a caller owned array of at least CPU.INSTRSIZE ints
      *
-     * @return      an array of int containing the instruction.  The first entry
-     *              in the array is the opcode followed by the arguments in order.
+     * @return      either buf or a cached instruction.  Neither may be
+     *              modified by the caller until the next fetch.
      *
      * @see CPU#INSTRSIZE
      */
-    public int[] fetch(int pc)
+    public int[] fetch(int pc, int[] buf)
     {
-        int physPC  = translate(pc);
-        int instr[] = new int[CPU.INSTRSIZE];
-        for(int i = 0; i < CPU.INSTRSIZE; i++)
+        int physPC  = translate(pc, ACCESS_READ);
+        int instr[] = m_decodeCache.lookup(physPC);
+        if (instr != null)
+        {
+            return instr;
+        }
+
+        m_RAM.fetch(physPC, buf);
+        if (m_decodeCache.isEnabled())
         {
-            instr[i] = m_RAM.read(physPC + i);
+            m_decodeCache.insert(physPC, buf);
         }
 
-        return instr;
+        return buf;
         
     }//fetch
 
@@ -0,0 +1,63 @@
+package sos;
+
+/**
+ * This interface defines the methods the OS uses to decide which page to
+ * evict when a page fault occurs and every frame is in use.
+ *
+ * A policy learns about pages through the frames they are loaded into and
+ * may examine (and reset) the referenced and dirty bits that the MMU keeps in
+ * each page's status.
+ *
+ * @see SOS#interruptPageFault
+ * @see MMU#STATUS_REFERENCED
+ * @see MMU#STATUS_DIRTY
+ */
+public interface PageReplacementPolicy
+{
+    /**
+     * init
+     *
+     * is called once by the OS before any page is loaded
+     *
+     * @param mmu        the MMU whose page table holds the status bits
+     * @param framePages the page held in each frame (-1 if the frame holds
+     *                   no page).  This array is owned by the OS and must not
+     *                   be modified.
+     */
+    public void init(MMU mmu, int[] framePages);
+
+    /**
+     * pageLoaded
+     *
+     * is called after a page has been loaded into a frame
+     *
+     * @param frame the frame number
+     */
+    public void pageLoaded(int frame);
+
+    /**
+     * sample
+     *
+     * is called periodically (e.g., on each clock interrupt) so that the
+     * policy can record which pages have been referenced recently
+     */
+    public void sample();
+
+    /**
+     * selectVictim
+     *
+     * chooses the frame whose page is to be evicted.  The policy forgets the
+     * frame until a page is loaded into it again.
+     *
+     * @return the frame number of the victim
+     */
+    public int selectVictim();
+
+    /**
+     * getName
+     *
+     * @return a short name for the policy (e.g., for reports)
+     */
+    public String getName();
+
+};//interface PageReplacementPolicy
@@ -0,0 +1,253 @@
+package sos;
+
+import java.io.PrintStream;
+
+/**
+ * This class records events from the simulator's hot paths (instruction
+ * fetch and execution, traps, context switches, memory allocation and
+ * interrupts) into preallocated ring buffers so that tracing a run doesn't
+ * slow it down by printing.  Once the buffers are full the oldest events
+ * are overwritten, but every event is still counted.
+ *
+ * Each event is a type, the CPU tick it happened at and two integers whose
+ * meaning depends on the type (see the type constants).
+ *
+ * Probes cost nothing when they are not installed: the CPU checks for them
+ * once when it starts running and uses an instrumented copy of its run loop
+ * only if they are there, and the OS only checks on paths that are already
+ * slow (@see CPU#setProbes).  Events are recorded on the CPU's thread so no
+ * synchronization is needed.
+ *
+ * @see CPU
+ * @see SOS
+ */
+public class Probes
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    // These constants define the types of event (and which bit of the mask
+    // turns each one on)
+    public static final int FETCH = 0;          // a = PC, b = opcode
+    public static final int EXECUTE = 1;        // a = opcode, b = PC afterwards
+    public static final int TRAP = 2;           // a = system call, b = process id
+    public static final int CONTEXT_SWITCH = 3; // a = old process id (-1 if none), b = new process id
+    public static final int ALLOC = 4;          // a = size, b = address (-1 if it failed)
+    public static final int INTERRUPT = 5;      // a = interrupt type (0 for the clock), b = device id
+    public static final int NUM_TYPES = 6;
+
+    /**
+     * the names of the event types (indexed by the constants above)
+     */
+    public static final String[] NAMES = { "fetch", "execute", "trap",
+                                           "switch", "alloc", "interrupt" };
+
+    /**
+     * a mask that turns on every type of event
+     */
+    public static final int ALL = (1 << NUM_TYPES) - 1;
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * which types of event are recorded (bit n is type n)
+     */
+    private int m_mask = 0;
+
+    /**
+     * the ring buffers (one entry per event)
+     */
+    private int[] m_types = null;
+    private int[] m_ticks = null;
+    private int[] m_a = null;
+    private int[] m_b = null;
+
+    /**
+     * the capacity of the buffers minus one (the capacity is a power of 2)
+     */
+    private int m_indexMask = 0;
+
+    /**
+     * the number of events recorded in total and of each type
+     */
+    private long m_numRecorded = 0;
+    private long[] m_counts = new long[NUM_TYPES];
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param capacity the number of events that are kept.  If this is not a
+     *                 power of 2 it will be adjusted to the next higher power
+     *                 of 2.
+     * @param mask     which types of event to record (e.g., ALL or
+     *                 (1 << TRAP) | (1 << INTERRUPT))
+     */
+    public Probes(int capacity, int mask)
+    {
+        int size = 1;
+        while (size < capacity)
+        {
+            size *= 2;
+        }
+        m_indexMask = size - 1;
+        m_types = new int[size];
+        m_ticks = new int[size];
+        m_a = new int[size];
+        m_b = new int[size];
+        m_mask = mask & ALL;
+    }//ctor
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public int getMask()                    { return m_mask; }
+    public int getCapacity()                { return m_indexMask + 1; }
+    public long getNumRecorded()            { return m_numRecorded; }
+    public long getCount(int type)          { return m_counts[type]; }
+
+    /**
+     * @return the number of events still in the buffers
+     */
+    public int size()
+    {
+        return (int) Math.min(m_numRecorded, m_indexMask + 1);
+    }
+
+    /**
+     * @return true if events of the given type are recorded
+     */
+    public boolean isEnabled(int type)
+    {
+        return (m_mask & (1 << type)) != 0;
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * record
+     *
+     * adds an event to the buffers (if its type is turned on)
+     *
+     * @param type one of the type constants
+     * @param tick the CPU tick the event happened at
+     * @param a    the event's first value (see the type constants)
+     * @param b    the event's second value
+     */
+    public void record(int type, int tick, int a, int b)
+    {
+        if ((m_mask & (1 << type)) == 0) return;
+
+        int i = (int) m_numRecorded & m_indexMask;
+        m_types[i] = type;
+        m_ticks[i] = tick;
+        m_a[i] = a;
+        m_b[i] = b;
+        m_numRecorded++;
+        m_counts[type]++;
+    }//record
+
+    /**
+     * get
+     *
+     * @param n     which of the events in the buffers to get (0 is the
+     *              oldest)
+     * @param event filled with the event's type, tick, a and b
+     */
+    public void get(int n, int[] event)
+    {
+        int i = (int) (m_numRecorded - size() + n) & m_indexMask;
+        event[0] = m_types[i];
+        event[1] = m_ticks[i];
+        event[2] = m_a[i];
+        event[3] = m_b[i];
+    }//get
+
+    /**
+     * clear
+     *
+     * discards every event and resets the counts
+     */
+    public void clear()
+    {
+        m_numRecorded = 0;
+        for (int type = 0; type < NUM_TYPES; type++)
+        {
+            m_counts[type] = 0;
+        }
+    }//clear
+
+    /**
+     * printCounts
+     *
+     * prints how many events of each type were recorded
+     *
+     * @param out where to print them
+     */
+    public void printCounts(PrintStream out)
+    {
+        String counts = "Probes:";
+        for (int type = 0; type < NUM_TYPES; type++)
+        {
+            if (isEnabled(type)) counts += " " + NAMES[type] + " " + m_counts[type];
+        }
+        out.println(counts + " (" + size() + " kept)");
+    }//printCounts
+
+    /**
+     * dump
+     *
+     * prints the events in the buffers (oldest first), one per line
+     *
+     * @param out where to print them
+     */
+    public void dump(PrintStream out)
+    {
+        int[] event = new int[4];
+        for (int n = 0; n < size(); n++)
+        {
+            get(n, event);
+            out.println(event[1] + "\t" + NAMES[event[0]] + "\t" + event[2]
+                        + "\t" + event[3]);
+        }
+    }//dump
+
+    /**
+     * parseMask
+     *
+     * @param list a comma separated list of event type names (or "all")
+     * @return the mask that turns on those types -OR- -1 if a name is not
+     *         recognized
+     */
+    public static int parseMask(String list)
+    {
+        int mask = 0;
+        for (String name : list.split(","))
+        {
+            if (name.equals("all"))
+            {
+                mask |= ALL;
+                continue;
+            }
+
+            int type = 0;
+            while ((type < NUM_TYPES) && !NAMES[type].equals(name))
+            {
+                type++;
+            }
+            if (type == NUM_TYPES) return -1;
+            mask |= 1 << type;
+        }
+        return mask;
+    }//parseMask
+
+}//class Probes
@@ -666,6 +666,23 @@ public class Program
         
     }//print
 
+    /**
+     * load
+     *
+     * replaces this program with one that has already been assembled (e.g.,
+     * by {@link #export})
+     *
+     * @param code the assembled program
+     */
+    public void load(int[] code)
+    {
+        m_prog = new Vector<Integer>(code.length);
+        for(int word : code)
+        {
+            m_prog.add(word);
+        }
+    }//load
+
     /**
      * export
      *
@@ -1,8 +1,15 @@
 package sos;
 
+import java.nio.IntBuffer;
+
 /**
  * This class simulates a random access memory for the CPU class.
  * 
+ * The memory is kept in pages of PAGE_SIZE words (which have nothing to do
+ * with the MMU's pages) so that a RAM can share its contents with others
+ * copy-on-write: after {@link #share} neither RAM copies a page until it
+ * writes to it. This is what lets a whole simulation be forked cheaply.
+ * 
  * @see CPU
  * @see SOS
  * @see Program
@@ -10,6 +17,19 @@ package sos;
  * 
  */
 public class RAM {
+	// constants
+	/**
+	 * The size of a page of this RAM (as a power of 2)
+	 **/
+	public static final int PAGE_SHIFT = 8;
+	public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	/**
+	 * Every page starts as this one (its contents are never changed)
+	 **/
+	private static final int[] ZERO_PAGE = new int[PAGE_SIZE];
+
 	// member veriables
 	/**
 	 * The size of the RAM (expressed as a number of integers)
@@ -17,9 +37,21 @@ public class RAM {
 	private int m_size = 0;
 
 	/**
-	 * This array contains the simulated RAM itself
+	 * These arrays contain the simulated RAM itself, a page each
 	 **/
-	private int m_mem[] = null;
+	private int m_pages[][] = null;
+
+	/**
+	 * true for each page that may be shared with another RAM or is still
+	 * ZERO_PAGE (it must be copied before it is written)
+	 **/
+	private boolean m_shared[] = null;
+
+	/**
+	 * the number of shared pages that have been copied so far (a page that
+	 * is still ZERO_PAGE is given a new array instead, which doesn't count)
+	 **/
+	private int m_numPageCopies = 0;
 
 	/**
 	 * This describes how long it takes the simulated RAM to retrieve a given
@@ -27,6 +59,23 @@ public class RAM {
 	 **/
 	private int m_latency;
 
+	/**
+	 * The decoded instruction cache that must be told about every write so
+	 * that it never returns a stale instruction (null if there is none).
+	 **/
+	private DecodeCache m_decodeCache = null;
+
+	/**
+	 * In discrete event mode this is the virtual clock that RAM latency is
+	 * charged to instead of sleeping (null in real time mode).
+	 **/
+	private SimClock m_clock = null;
+
+	/**
+	 * the number of simulated cycles charged to m_clock for each access
+	 **/
+	private int m_latencyCycles = 0;
+
 	/**
 	 * the constructor does nothing special
 	 * 
@@ -37,9 +86,19 @@ public class RAM {
 	 */
 	public RAM(int size, int latency) {
 		m_size = size;
-		m_mem = new int[m_size];
-		for (int i = 0; i < m_size; i++) {
-			m_mem[i] = 0;
+		int numPages = (m_size + PAGE_MASK) >> PAGE_SHIFT;
+		m_pages = new int[numPages][];
+		m_shared = new boolean[numPages];
+		for (int i = 0; i < numPages; i++) {
+			// A partial last page gets an array of its own so that
+			// addresses past the end are still out of bounds
+			int length = Math.min(PAGE_SIZE, m_size - (i << PAGE_SHIFT));
+			if (length == PAGE_SIZE) {
+				m_pages[i] = ZERO_PAGE;
+				m_shared[i] = true;
+			} else {
+				m_pages[i] = new int[length];
+			}
 		}
 		m_latency = latency;
 	}// ctor
@@ -64,21 +123,87 @@ public class RAM {
 		return m_latency;
 	}
 
+	/**
+	 * getNumPageCopies
+	 * 
+	 * @return the number of pages shared with another RAM (@see #share)
+	 *         that this RAM has had to copy
+	 * 
+	 */
+	public int getNumPageCopies() {
+		return m_numPageCopies;
+	}
+
+	/**
+	 * registerDecodeCache
+	 * 
+	 * allows the MMU to attach a decoded instruction cache that will be
+	 * invalidated whenever this RAM is written
+	 * 
+	 * @param dc
+	 *            the cache to keep coherent with this RAM
+	 */
+	public void registerDecodeCache(DecodeCache dc) {
+		m_decodeCache = dc;
+	}
+
+	/**
+	 * setClock
+	 * 
+	 * switches this RAM to discrete event mode. Each access is charged to
+	 * the given clock instead of sleeping for m_latency nanoseconds.
+	 * 
+	 * @param clock
+	 *            the virtual clock (null returns to real time mode)
+	 * @param latencyCycles
+	 *            the number of simulated cycles each access takes
+	 */
+	public void setClock(SimClock clock, int latencyCycles) {
+		m_clock = clock;
+		m_latencyCycles = latencyCycles;
+	}
+
 	/**
 	 * fetch
 	 * 
-	 * retrieves an entire instruction from the simulated RAM.
+	 * retrieves an entire instruction from the simulated RAM into a caller
+	 * owned buffer so that no allocation is required. The latency is that
+	 * of reading each word of the instruction.
+	 * 
+	 * @param pc
+	 *            the address of the instruction
+	 * @param buf
+	 *            an array of at least CPU.INSTRSIZE ints to fill
 	 * 
 	 * @see CPU#INSTRSIZE
 	 */
-	public int[] fetch(int pc) {
-		int instr[] = new int[CPU.INSTRSIZE];
-		for (int i = 0; i < CPU.INSTRSIZE; i++) {
-			instr[i] = m_mem[pc + i];
+	public void fetch(int pc, int[] buf) {
+		// Simulate RAM latency
+		if (m_clock != null) {
+			m_clock.advance(m_latencyCycles * CPU.INSTRSIZE);
+		}
+		else if (m_latency > 0) {
+			try {
+				for (int i = 0; i < CPU.INSTRSIZE; i++) {
+					Thread.sleep(0, m_latency);
+				}
+			} catch (InterruptedException ie) {
+				/* do nothing */
+			}
 		}
 
-		return instr;
-
+		int[] page = m_pages[pc >> PAGE_SHIFT];
+		int offset = pc & PAGE_MASK;
+		if (offset + CPU.INSTRSIZE <= page.length) {
+			for (int i = 0; i < CPU.INSTRSIZE; i++) {
+				buf[i] = page[offset + i];
+			}
+		} else {
+			// The instruction straddles two pages
+			for (int i = 0; i < CPU.INSTRSIZE; i++) {
+				buf[i] = m_pages[(pc + i) >> PAGE_SHIFT][(pc + i) & PAGE_MASK];
+			}
+		}
 	}// fetch
 
 	/**
@@ -92,7 +217,10 @@ public class RAM {
 	 */
 	public int read(int addr) {
 		// Simulate RAM latency
-		if (m_latency > 0) {
+		if (m_clock != null) {
+			m_clock.advance(m_latencyCycles);
+		}
+		else if (m_latency > 0) {
 			try {
 				Thread.sleep(0, m_latency);
 			} catch (InterruptedException ie) {
@@ -100,9 +228,87 @@ public class RAM {
 			}
 		}
 
-		return m_mem[addr];
+		return m_pages[addr >> PAGE_SHIFT][addr & PAGE_MASK];
 	}// read
 
+	/**
+	 * readBlock
+	 * 
+	 * loads a contiguous block of integers (e.g., a whole frame) from the
+	 * simulated RAM in a single access
+	 * 
+	 * @param addr
+	 *            the first location to retrieve from
+	 * @param buf
+	 *            the array to fill (its length is the size of the block)
+	 */
+	public void readBlock(int addr, int[] buf) {
+		// Simulate RAM latency (once for the whole block)
+		if (m_clock != null) {
+			m_clock.advance(m_latencyCycles);
+		}
+		else if (m_latency > 0) {
+			try {
+				Thread.sleep(0, m_latency);
+			} catch (InterruptedException ie) {
+				/* do nothing */
+			}
+		}
+
+		int done = 0;
+		while (done < buf.length) {
+			int a = addr + done;
+			int[] page = m_pages[a >> PAGE_SHIFT];
+			int offset = a & PAGE_MASK;
+			int n = Math.min(buf.length - done, page.length - offset);
+			System.arraycopy(page, offset, buf, done, n);
+			done += n;
+		}
+	}// readBlock
+
+	/**
+	 * writeBlock
+	 * 
+	 * saves a contiguous block of integers (e.g., a whole frame) to the
+	 * simulated RAM in a single access
+	 * 
+	 * @param addr
+	 *            the first location to write to
+	 * @param buf
+	 *            the values to write (its length is the size of the block)
+	 */
+	public void writeBlock(int addr, int[] buf) {
+		// Simulate RAM latency (once for the whole block)
+		if (m_clock != null) {
+			m_clock.advance(m_latencyCycles);
+		}
+		else if (m_latency > 0) {
+			try {
+				Thread.sleep(0, m_latency);
+			} catch (InterruptedException ie) {
+				/* do nothing */
+			}
+		}
+
+		int done = 0;
+		while (done < buf.length) {
+			int a = addr + done;
+			int p = a >> PAGE_SHIFT;
+			if (m_shared[p]) {
+				copyPage(p);
+			}
+			int offset = a & PAGE_MASK;
+			int n = Math.min(buf.length - done, m_pages[p].length - offset);
+			System.arraycopy(buf, done, m_pages[p], offset, n);
+			done += n;
+		}
+
+		// Keep any cached instructions in the block coherent
+		if (m_decodeCache != null) {
+			m_decodeCache.invalidateRange(addr, buf.length);
+		}
+	}// writeBlock
+
 	/**
 	 * write
 	 * 
@@ -115,7 +321,10 @@ public class RAM {
 	 */
 	public void write(int addr, int val) {
 		// Simulate RAM latency
-		if (m_latency > 0) {
+		if (m_clock != null) {
+			m_clock.advance(m_latencyCycles);
+		}
+		else if (m_latency > 0) {
 			try {
 				Thread.sleep(0, m_latency);
 			} catch (InterruptedException ie) {
@@ -123,7 +332,105 @@ public class RAM {
 			}
 		}
 
-		m_mem[addr] = val;
+		int p = addr >> PAGE_SHIFT;
+		if (m_shared[p]) {
+			copyPage(p);
+		}
+		m_pages[p][addr & PAGE_MASK] = val;
+
+		// Keep any cached copy of an instruction at this address coherent
+		if (m_decodeCache != null) {
+			m_decodeCache.invalidate(addr);
+		}
 	}// write
 
+	/**
+	 * save
+	 * 
+	 * copies every word of this RAM into a buffer (@see Snapshot)
+	 * 
+	 * @param dest
+	 *            a buffer with room for getSize() ints
+	 */
+	public void save(IntBuffer dest) {
+		for (int[] page : m_pages) {
+			dest.put(page);
+		}
+	}// save
+
+	/**
+	 * restore
+	 * 
+	 * replaces every word of this RAM with the contents of a buffer (@see
+	 * Snapshot). Every decoded instruction is discarded.
+	 * 
+	 * @param src
+	 *            a buffer holding getSize() ints
+	 */
+	public void restore(IntBuffer src) {
+		for (int p = 0; p < m_pages.length; p++) {
+			// Every page is replaced so shared ones are not copied first
+			if (m_shared[p]) {
+				m_pages[p] = new int[m_pages[p].length];
+				m_shared[p] = false;
+			}
+			src.get(m_pages[p]);
+		}
+		if (m_decodeCache != null) {
+			m_decodeCache.flush();
+		}
+	}// restore
+
+	/**
+	 * share
+	 * 
+	 * replaces the contents of this RAM with those of another of the same
+	 * size without copying them. The two RAMs share every page until one of
+	 * them writes to it. Once shared, a page is never written in place so
+	 * the RAMs can be used on different threads (as long as each is used on
+	 * only one). Every decoded instruction is discarded.
+	 * 
+	 * Unless every page of the source is already shared, this must be
+	 * called on the thread that uses the source RAM.
+	 * 
+	 * @param source
+	 *            the RAM whose contents are shared
+	 */
+	public void share(RAM source) {
+		if (source.m_size != m_size) {
+			throw new IllegalArgumentException("Can't share a RAM of "
+					+ source.m_size + " words with one of " + m_size);
+		}
+		for (int p = 0; p < m_pages.length; p++) {
+			if (!source.m_shared[p]) {
+				source.m_shared[p] = true;
+			}
+			m_pages[p] = source.m_pages[p];
+			m_shared[p] = true;
+		}
+		if (m_decodeCache != null) {
+			m_decodeCache.flush();
+		}
+	}// share
+
+	/**
+	 * copyPage
+	 * 
+	 * gives this RAM a copy of its own of a shared page so that it can be
+	 * written. A page that has never been written by anyone just needs a new
+	 * array of zeros.
+	 * 
+	 * @param p
+	 *            the page
+	 */
+	private void copyPage(int p) {
+		if (m_pages[p] == ZERO_PAGE) {
+			m_pages[p] = new int[PAGE_SIZE];
+		} else {
+			m_pages[p] = m_pages[p].clone();
+			m_numPageCopies++;
+		}
+		m_shared[p] = false;
+	}// copyPage
+
 };
@@ -0,0 +1,434 @@
+package sos;
+
+/**
+ * This class holds the processes that are ready to run and finds the one with
+ * the highest starvation-aware priority.  A process' priority at time t is
+ *
+ *      (t - lastReadyTime) / numReady
+ *
+ * (a process that has never been made ready has top priority).  Since every
+ * priority grows at its own rate the order of the processes changes as time
+ * passes, so an ordinary heap can't be used.  Instead this is a kinetic
+ * tournament tree: each internal node holds the winner of its two children
+ * plus the time at which that result will next change.  Finding the highest
+ * priority only revisits the nodes whose result has changed since the last
+ * query, and adding, removing or updating a process only recomputes the
+ * nodes on its path to the root.  Both take O(log n) time (amortized over
+ * the changes in order) no matter how many processes there are.
+ *
+ * Each entry is identified by the handle returned when it was added.
+ *
+ * @see StarvationScheduler
+ */
+public class ReadyQueue<E>
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    /**
+     * the initial number of entries
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * the failure time of a result that never changes
+     */
+    private static final long NEVER = Long.MAX_VALUE;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the number of leaves in the tree (always a power of 2).  Node 1 is the
+     * root, the children of node n are 2n and 2n+1 and the leaf for handle h
+     * is node m_capacity + h.
+     */
+    private int m_capacity = 0;
+
+    /**
+     * the number of entries
+     */
+    private int m_size = 0;
+
+    /**
+     * each entry's element, lastReadyTime, numReady and tie breaking key
+     * (indexed by handle)
+     */
+    private Object[] m_elements = null;
+    private long[] m_lastReady = null;
+    private long[] m_numReady = null;
+    private int[] m_keys = null;
+
+    /**
+     * a stack of the handles that are not in use
+     */
+    private int[] m_freeHandles = null;
+    private int m_numFree = 0;
+
+    /**
+     * the winning handle at each node (-1 if the subtree is empty)
+     */
+    private int[] m_winners = null;
+
+    /**
+     * the time at which each node's winner will be beaten by the loser
+     */
+    private long[] m_failures = null;
+
+    /**
+     * the earliest failure time of any node in each subtree
+     */
+    private long[] m_expires = null;
+
+    /**
+     * the time the tree is currently correct for
+     */
+    private long m_now = 0;
+
+    /**
+     * the number of times a node's winner had to be recomputed because time
+     * passed (for tuning)
+     */
+    private long m_numEvents = 0;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * creates an empty queue
+     */
+    public ReadyQueue()
+    {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public int size()               { return m_size; }
+    public boolean isEmpty()        { return m_size == 0; }
+    public long getNumEvents()      { return m_numEvents; }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * add
+     *
+     * @param element     the element to add
+     * @param lastReady   the time the element was last made ready
+     * @param numReady    the number of times it has been made ready
+     * @param key         breaks ties between equal priorities (lowest wins)
+     * @param now         the current time
+     * @return the element's handle
+     */
+    public int add(E element, long lastReady, long numReady, int key, long now)
+    {
+        if (m_numFree == 0)
+        {
+            grow(now);
+        }
+        advance(now);
+
+        m_numFree--;
+        int handle = m_freeHandles[m_numFree];
+        m_elements[handle] = element;
+        m_keys[handle] = key;
+        m_size++;
+        set(handle, lastReady, numReady);
+
+        return handle;
+    }//add
+
+    /**
+     * update
+     *
+     * changes an entry's priority
+     *
+     * @param handle    the handle returned when the entry was added
+     * @param lastReady the time the element was last made ready
+     * @param numReady  the number of times it has been made ready
+     * @param now       the current time
+     */
+    public void update(int handle, long lastReady, long numReady, long now)
+    {
+        advance(now);
+        set(handle, lastReady, numReady);
+    }//update
+
+    /**
+     * remove
+     *
+     * @param handle the handle returned when the entry was added.  It must
+     *               not be used again.
+     * @param now    the current time
+     */
+    public void remove(int handle, long now)
+    {
+        advance(now);
+
+        m_elements[handle] = null;
+        m_freeHandles[m_numFree] = handle;
+        m_numFree++;
+        m_size--;
+
+        int node = m_capacity + handle;
+        m_winners[node] = -1;
+        for(node >>= 1; node >= 1; node >>= 1)
+        {
+            recompute(node);
+        }
+    }//remove
+
+    /**
+     * peek
+     *
+     * @param now the current time
+     * @return the element with the highest priority -OR- null if the queue
+     *         is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E peek(long now)
+    {
+        advance(now);
+
+        int winner = m_winners[1];
+        return (winner < 0) ? null : (E) m_elements[winner];
+    }//peek
+
+    /**
+     * set
+     *
+     * stores an entry's priority and recomputes its path to the root.  The
+     * tree must already be correct for m_now.
+     */
+    private void set(int handle, long lastReady, long numReady)
+    {
+        m_lastReady[handle] = lastReady;
+        m_numReady[handle] = numReady;
+
+        int node = m_capacity + handle;
+        m_winners[node] = handle;
+        for(node >>= 1; node >= 1; node >>= 1)
+        {
+            recompute(node);
+        }
+    }//set
+
+    /**
+     * advance
+     *
+     * brings the tree up to date for a given time by recomputing every node
+     * whose winner has changed since m_now
+     */
+    private void advance(long now)
+    {
+        if (now < m_now)
+        {
+            //Time has gone backward (e.g., the machine was restored) so
+            //nothing that has been computed can be trusted
+            m_now = now;
+            rebuild();
+            return;
+        }
+
+        m_now = now;
+        advance(1);
+    }//advance
+
+    /**
+     * advance
+     *
+     * recomputes the nodes in a subtree whose results have expired
+     */
+    private void advance(int node)
+    {
+        if ((m_expires[node] > m_now) || (node >= m_capacity))
+        {
+            return;
+        }
+
+        advance(2 * node);
+        advance(2 * node + 1);
+        recompute(node);
+        m_numEvents++;
+    }//advance
+
+    /**
+     * recompute
+     *
+     * finds the winner of a node for m_now (its children must already be
+     * correct) and when that will next change
+     */
+    private void recompute(int node)
+    {
+        int left = m_winners[2 * node];
+        int right = m_winners[2 * node + 1];
+
+        if ((left < 0) || (right < 0))
+        {
+            m_winners[node] = (left < 0) ? right : left;
+            m_failures[node] = NEVER;
+        }
+        else if (beats(left, right))
+        {
+            m_winners[node] = left;
+            m_failures[node] = overtakes(right, left);
+        }
+        else
+        {
+            m_winners[node] = right;
+            m_failures[node] = overtakes(left, right);
+        }
+
+        m_expires[node] = Math.min(m_failures[node],
+                                   Math.min(m_expires[2 * node], m_expires[2 * node + 1]));
+    }//recompute
+
+    /**
+     * beats
+     *
+     * @return true if entry a has a higher priority than entry b at m_now
+     */
+    private boolean beats(int a, int b)
+    {
+        long na = m_numReady[a];
+        long nb = m_numReady[b];
+
+        //An entry that has never been ready has top priority
+        if ((na == 0) || (nb == 0))
+        {
+            if ((na == 0) && (nb == 0))
+            {
+                return m_keys[a] < m_keys[b];
+            }
+            return (na == 0);
+        }
+
+        //Compare (now - La) / na with (now - Lb) / nb without dividing
+        long pa = (m_now - m_lastReady[a]) * nb;
+        long pb = (m_now - m_lastReady[b]) * na;
+        if (pa != pb)
+        {
+            return pa > pb;
+        }
+        return m_keys[a] < m_keys[b];
+    }//beats
+
+    /**
+     * overtakes
+     *
+     * @param loser  an entry that has a lower priority than winner at m_now
+     * @param winner an entry that has a higher priority than loser at m_now
+     * @return the first time after m_now at which loser will beat winner
+     *         -OR- NEVER
+     */
+    private long overtakes(int loser, int winner)
+    {
+        long nl = m_numReady[loser];
+        long nw = m_numReady[winner];
+
+        //The loser can only catch up if its priority grows faster
+        if ((nl == 0) || (nw == 0) || (nl >= nw))
+        {
+            return NEVER;
+        }
+
+        //The loser is ahead once t * (nw - nl) > Ll * nw - Lw * nl
+        long x = m_lastReady[loser] * nw - m_lastReady[winner] * nl;
+        long d = nw - nl;
+        long t = x / d;
+        if ((x % d != 0) && (x < 0))
+        {
+            t--;    //round toward negative infinity
+        }
+        if ((t * d != x) || (m_keys[loser] > m_keys[winner]))
+        {
+            t++;    //a tie at t goes to the winner
+        }
+        return Math.max(t, m_now + 1);
+    }//overtakes
+
+    /**
+     * grow
+     *
+     * doubles the number of entries the tree can hold
+     */
+    private void grow(long now)
+    {
+        int oldCapacity = m_capacity;
+        Object[] elements = m_elements;
+        long[] lastReady = m_lastReady;
+        long[] numReady = m_numReady;
+        int[] keys = m_keys;
+        int[] winners = m_winners;
+
+        allocate(oldCapacity * 2);
+        System.arraycopy(elements, 0, m_elements, 0, oldCapacity);
+        System.arraycopy(lastReady, 0, m_lastReady, 0, oldCapacity);
+        System.arraycopy(numReady, 0, m_numReady, 0, oldCapacity);
+        System.arraycopy(keys, 0, m_keys, 0, oldCapacity);
+        System.arraycopy(winners, oldCapacity, m_winners, m_capacity, oldCapacity);
+
+        //Only the new handles are free (since the old ones were all in use)
+        m_numFree = 0;
+        for(int handle = m_capacity - 1; handle >= oldCapacity; handle--)
+        {
+            m_freeHandles[m_numFree] = handle;
+            m_numFree++;
+        }
+
+        m_now = Math.max(m_now, now);
+        rebuild();
+    }//grow
+
+    /**
+     * allocate
+     *
+     * creates an empty tree with a given number of leaves
+     */
+    private void allocate(int capacity)
+    {
+        m_capacity = capacity;
+        m_elements = new Object[capacity];
+        m_lastReady = new long[capacity];
+        m_numReady = new long[capacity];
+        m_keys = new int[capacity];
+        m_freeHandles = new int[capacity];
+        m_winners = new int[2 * capacity];
+        m_failures = new long[2 * capacity];
+        m_expires = new long[2 * capacity];
+
+        m_numFree = 0;
+        for(int handle = capacity - 1; handle >= 0; handle--)
+        {
+            m_freeHandles[m_numFree] = handle;
+            m_numFree++;
+        }
+        for(int node = 0; node < 2 * capacity; node++)
+        {
+            m_winners[node] = -1;
+            m_failures[node] = NEVER;
+            m_expires[node] = NEVER;
+        }
+    }//allocate
+
+    /**
+     * rebuild
+     *
+     * recomputes every internal node for m_now
+     */
+    private void rebuild()
+    {
+        for(int node = m_capacity - 1; node >= 1; node--)
+        {
+            recompute(node);
+        }
+    }//rebuild
+
+}//class ReadyQueue
@@ -0,0 +1,122 @@
+package sos;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * This scheduler runs the Ready processes in turn.  Each time a process is
+ * chosen it moves to the back of the line.
+ */
+public class RoundRobinScheduler implements Scheduler
+{
+    /**
+     * the Ready processes in the order they will be chosen
+     */
+    private LinkedHashSet<SOS.ProcessControlBlock> m_queue =
+        new LinkedHashSet<SOS.ProcessControlBlock>();
+
+    /**
+     * ready
+     *
+     * puts the process at the back of the line unless it is already in it
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void ready(SOS.ProcessControlBlock proc, int now)
+    {
+        //A process that is already in line keeps its place
+        m_queue.add(proc);
+    }
+
+    /**
+     * block
+     *
+     * takes the process out of line
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void block(SOS.ProcessControlBlock proc, int now)
+    {
+        m_queue.remove(proc);
+    }
+
+    /**
+     * unblock
+     *
+     * puts the process at the back of the line
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void unblock(SOS.ProcessControlBlock proc, int now)
+    {
+        m_queue.add(proc);
+    }
+
+    /**
+     * exit
+     *
+     * takes the process out of line for good
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void exit(SOS.ProcessControlBlock proc, int now)
+    {
+        m_queue.remove(proc);
+    }
+
+    /**
+     * tick
+     *
+     * does nothing since every turn counts the same
+     *
+     * @param proc  the running process
+     * @param ticks the number of CPU ticks it has used
+     */
+    @Override
+    public void tick(SOS.ProcessControlBlock proc, int ticks)
+    {
+        //Every turn is the same regardless of how long it lasted
+    }
+
+    /**
+     * selectNext
+     *
+     * @param now the current time in CPU ticks
+     * @return the process at the front of the line (which then moves to
+     *         the back) -OR- null if the line is empty
+     */
+    @Override
+    public SOS.ProcessControlBlock selectNext(int now)
+    {
+        Iterator<SOS.ProcessControlBlock> iter = m_queue.iterator();
+        if (!iter.hasNext())
+        {
+            return null;
+        }
+
+        SOS.ProcessControlBlock next = iter.next();
+        iter.remove();
+        m_queue.add(next);
+        return next;
+    }//selectNext
+
+    /**
+     * getName
+     *
+     * @return "RoundRobin"
+     */
+    @Override
+    public String getName()
+    {
+        return "RoundRobin";
+    }
+
+}//class RoundRobinScheduler
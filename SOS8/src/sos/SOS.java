@@ -1,6 +1,12 @@
 package sos;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.ListIterator;
 import java.util.Random;
 import java.util.Vector;
@@ -39,6 +45,10 @@ public class SOS implements CPU.TrapHandler
                                                    * exit
                                                    */
 
+    // The names of the system calls (indexed by the constants above)
+    private static final String[] SYSCALL_NAMES = { "exit", "output", "getpid",
+            "open", "close", "read", "write", "exec", "yield", "coredump" };
+
     // Success code that gets pushed onto stack after a successful system call
     public static final int SUCCESS = 0;
 
@@ -53,15 +63,35 @@ public class SOS implements CPU.TrapHandler
     /** This process is used as the idle process' id */
     public static final int IDLE_PROC_ID = 999;
 
+    /** The idle process' program (@see #createIdleProcess) */
+    private static final int[] IDLE_PROGRAM =
+    { 0, 0, 0, 0, // SET r0=0
+            0, 0, 0, 0, // SET r0=0 (repeated instruction to account for
+            // vagaries in student implementation of the CPU
+            // class)
+            10, 0, 0, 0, // PUSH r0
+            15, 0, 0, 0 }; // TRAP
+
+    // These constants define how processes are moved when memory is compacted
+    public static final int COMPACT_COPY = 0; /* copy every word */
+    public static final int COMPACT_REMAP = 1; /* rewrite page table entries */
+
+    // These constants define the default time slice (in CPU ticks) and the
+    // range it adapts within
+    public static final int DEFAULT_QUANTUM = 20 * CPU.CLOCK_FREQ;
+    public static final int DEFAULT_MIN_QUANTUM = 10 * CPU.CLOCK_FREQ;
+    public static final int DEFAULT_MAX_QUANTUM = 80 * CPU.CLOCK_FREQ;
+
     // ======================================================================
     // Member variables
     // ----------------------------------------------------------------------
 
     /**
      * This flag causes the SOS to print lots of potentially helpful status
-     * messages
+     * messages.  Callers of debugPrint should test it first when building the
+     * message is not free.
      **/
-    public static boolean m_verbose = true;
+    public static boolean m_verbose = false;
 
     /**
      * ID number for next process to be loaded
@@ -83,6 +113,12 @@ public class SOS implements CPU.TrapHandler
      */
     private ProcessControlBlock m_currProcess = null;
 
+    /**
+     * the control block of the last idle process to exit, which the next one
+     * reuses -OR- null
+     */
+    private ProcessControlBlock m_spareIdleProcess = null;
+
     /**
      * All the devices recognized by the OS
      */
@@ -97,17 +133,152 @@ public class SOS implements CPU.TrapHandler
      * List of all processes that are currently load into RAM
      */
     private Vector<ProcessControlBlock> m_processes = null;
-    
+
+    /**
+     * decides which of the processes that are not blocked (including the
+     * running process) runs next
+     */
+    private Scheduler m_scheduler = null;
+
+    /**
+     * when the running process was last charged for its CPU time
+     */
+    private int m_dispatchTime = 0;
+
+    /**
+     * the number of times the CPU has switched to a different process
+     */
+    private int m_numContextSwitches = 0;
+
+    /**
+     * the time slice a new process starts with and the range that a process'
+     * slice adapts within.  A process that uses its whole slice (CPU bound)
+     * has its slice doubled so that it is switched out less often, and one
+     * that blocks before its slice is up (I/O bound) has its slice halved.  A
+     * quantum of 0 turns the timer off.
+     */
+    private int m_quantum = DEFAULT_QUANTUM;
+    private int m_minQuantum = DEFAULT_MIN_QUANTUM;
+    private int m_maxQuantum = DEFAULT_MAX_QUANTUM;
+
+    /**
+     * the number of clock interrupts raised by the timer
+     */
+    private int m_numTimerInterrupts = 0;
+
+    /**
+     * the number of system calls of each type (indexed by the SYSCALL
+     * constants)
+     */
+    private long[] m_numSystemCalls = new long[SYSCALL_NAMES.length];
+
     /**
-     * List of all blocks of RAM not allocated to a process
+     * the number of memory blocks allocated to processes, freed by them and
+     * requested but not available
      */
-    private Vector<MemBlock> m_freeList = null;
+    private int m_numAllocations = 0;
+    private int m_numFrees = 0;
+    private int m_numAllocFailures = 0;
+
+    /**
+     * if true the scheduling, paging and compaction statistics are printed
+     * when the machine halts
+     */
+    private boolean m_printStats = true;
+
+    /**
+     * if true the values that processes send to the output device are
+     * printed
+     */
+    private boolean m_printOutput = true;
+
+    /**
+     * keeps track of the blocks of RAM not allocated to a process
+     */
+    private BuddyAllocator m_allocator = null;
     
     /**
      * reference to memory management unit
      */
     private MMU m_MMU = null;
 
+    /**
+     * the source of the OS's random choices (e.g., which program to Exec).
+     * Seed it with {@link #setRandomSeed} for a repeatable run.
+     */
+    private Random m_random = new Random();
+
+    /**
+     * the backing store for demand paging (null if every page is mapped to a
+     * frame up front)
+     */
+    private SwapDevice m_swap = null;
+
+    /**
+     * the first frame above the page table
+     */
+    private int m_firstFrame = 0;
+
+    /**
+     * the page held in each frame (-1 if the frame is free or holds the page
+     * table)
+     */
+    private int[] m_framePages = null;
+
+    /**
+     * the process whose block holds each (virtual) page -OR- null if no
+     * process owns it
+     */
+    private ProcessControlBlock[] m_pageOwners = null;
+
+    /**
+     * a stack of the frames that hold no page
+     */
+    private int[] m_freeFrames = null;
+    private int m_numFreeFrames = 0;
+
+    /**
+     * chooses which page to evict when there are no free frames
+     */
+    private PageReplacementPolicy m_pagePolicy = new FIFOPageReplacement();
+
+    /**
+     * the number of pages that have a frame when there is no swap device
+     */
+    private int m_mappedPages = 0;
+
+    /**
+     * used to copy a page between a frame and the swap device
+     */
+    private int[] m_pageBuffer = null;
+
+    /**
+     * paging statistics for the whole system.  Evictions and writebacks are
+     * only charged to a process if one owns the page (see getPageOwner).
+     */
+    private int m_numPageFaults = 0;
+    private int m_numEvictions = 0;
+    private int m_numWritebacks = 0;
+
+    /**
+     * the processes that have exited (kept for the paging report)
+     */
+    private Vector<ProcessControlBlock> m_finishedProcesses = null;
+
+    /**
+     * how processes are moved when memory is compacted (one of the COMPACT
+     * constants)
+     */
+    private int m_compactionMode = COMPACT_REMAP;
+
+    /**
+     * compaction statistics.  Words moved counts every word copied in RAM or
+     * on the swap device.
+     */
+    private int m_numCompactions = 0;
+    private int m_wordsMoved = 0;
+    private int m_entriesRemapped = 0;
+
     /*
      * ======================================================================
      * Constructors & Debugging
@@ -115,29 +286,161 @@ public class SOS implements CPU.TrapHandler
      */
 
     /**
-     * The constructor does nothing special
+     * This constructor maps every page to a frame up front (so virtual memory
+     * is limited to the size of RAM)
      */
     public SOS(CPU c, RAM r, MMU mmu)
+    {
+        this(c, r, mmu, null);
+    }// SOS ctor
+
+    /**
+     * The constructor does nothing special
+     *
+     * @param swap  the backing store for demand paging -OR- null to map every
+     *              page to a frame up front
+     */
+    public SOS(CPU c, RAM r, MMU mmu, SwapDevice swap)
+    {
+        this(c, r, mmu, swap, new StarvationScheduler());
+    }// SOS ctor
+
+    /**
+     * @param swap      the backing store for demand paging -OR- null to map
+     *                  every page to a frame up front
+     * @param scheduler decides which process runs next
+     */
+    public SOS(CPU c, RAM r, MMU mmu, SwapDevice swap, Scheduler scheduler)
     {
         // Init member list
         m_CPU = c;
         m_RAM = r;
         m_MMU = mmu;
+        m_swap = swap;
         //Initialize vectors
         m_programs = new Vector<Program>();
         m_processes = new Vector<ProcessControlBlock>();
-        m_freeList = new Vector<MemBlock>();
+        m_finishedProcesses = new Vector<ProcessControlBlock>();
+        m_scheduler = scheduler;
        
-        // OS becomes the trap handler
+        // OS becomes the trap handler (including for page faults)
         m_CPU.registerTrapHandler(this);
+        m_MMU.registerTrapHandler(this);
         // Keeps track off all the devices recognized by OS
         m_devices = new Vector<DeviceInfo>();
-        //TODO #10a HW 8 should NOT assume initial amount of free memory = size of total virtual memory (m_MMU or m_RAM?)
-        // Initializes to all available RAM (exception being page table)
-        m_freeList.add(new MemBlock(m_MMU.getNumPages(), m_MMU.getSize()));
         initPageTable();
+        m_pageOwners = new ProcessControlBlock[m_MMU.getNumPages()];
+
+        // Initializes to all available virtual memory (exception being the
+        // pages below the top of the page table).  With demand paging that
+        // is all of virtual memory; otherwise only the pages that got a frame.
+        // Blocks are whole pages so that they can be remapped.
+        int memSize = m_MMU.getSize();
+        if (m_swap == null)
+        {
+            memSize = m_mappedPages * m_MMU.getPageSize();
+        }
+        int origin = m_firstFrame * m_MMU.getPageSize();
+        m_allocator = new BuddyAllocator(origin, memSize - origin,
+                                         m_MMU.getPageSize());
     }// SOS ctor
 
+    /**
+     * setRandomSeed
+     *
+     * makes the OS's random choices repeatable
+     *
+     * @param seed the seed for all of the OS's random choices
+     */
+    public void setRandomSeed(long seed)
+    {
+        m_random = new Random(seed);
+    }
+
+    /**
+     * setCompactionMode
+     *
+     * @param mode how processes are moved when memory is compacted (one of
+     *             the COMPACT constants)
+     */
+    public void setCompactionMode(int mode)
+    {
+        m_compactionMode = mode;
+    }
+
+    /**
+     * getTimeQuantum
+     *
+     * @return the time slice a new process starts with (0 if the timer is
+     *         off)
+     */
+    public int getTimeQuantum()
+    {
+        return m_quantum;
+    }
+
+    /**
+     * setTimeQuantum
+     *
+     * sets the time slice that every process gets.  The slice does not adapt.
+     *
+     * @param quantum the number of CPU ticks a process may run before it is
+     *                preempted (0 turns preemption off)
+     */
+    public void setTimeQuantum(int quantum)
+    {
+        setTimeQuantum(quantum, quantum, quantum);
+    }
+
+    /**
+     * setTimeQuantum
+     *
+     * sets the time slice that a new process starts with and the range that
+     * it adapts within as the process proves to be CPU or I/O bound
+     *
+     * @param quantum the initial number of CPU ticks a process may run before
+     *                it is preempted (0 turns preemption off)
+     * @param min     the shortest slice
+     * @param max     the longest slice
+     */
+    public void setTimeQuantum(int quantum, int min, int max)
+    {
+        m_quantum = quantum;
+        m_minQuantum = Math.min(min, quantum);
+        m_maxQuantum = Math.max(max, quantum);
+        for (ProcessControlBlock pi : m_processes)
+        {
+            pi.quantum = quantum;
+        }
+        if (m_currProcess != null)
+        {
+            startQuantum();
+        }
+    }//setTimeQuantum
+
+    /**
+     * setPageReplacementPolicy
+     *
+     * changes how the page to evict is chosen when there are no free frames
+     *
+     * @param policy the new policy.  It is told about every page that is
+     *               already in a frame.
+     */
+    public void setPageReplacementPolicy(PageReplacementPolicy policy)
+    {
+        m_pagePolicy = policy;
+        m_pagePolicy.init(m_MMU, m_framePages);
+        if (m_swap == null) return;
+
+        for(int frame = m_firstFrame; frame < m_framePages.length; frame++)
+        {
+            if (m_framePages[frame] >= 0)
+            {
+                m_pagePolicy.pageLoaded(frame);
+            }
+        }
+    }//setPageReplacementPolicy
+
     /**
      * Does a System.out.print as long as m_verbose is true
      **/
@@ -284,64 +587,315 @@ public class SOS implements CPU.TrapHandler
      */
     private int allocBlock(int size)
     {
-    	//TODO #8 HW 8 (No changes made to this method yet, maybe none needed??)
-    	int totalMem = 0;
-    	for(MemBlock m : m_freeList)
-    	{
-    		//If perfect fit found, allocate block
-    		if(m.getSize() == size)
-    		{
-    			m_freeList.remove(m);
-    			return m.getAddr();
-    		}
-    		//If greater, allocate block, add new
-    		// MemBlock with size equal to the difference
-    		else if(m.getSize() > size)
-    		 {
-    			 m_freeList.remove(m);
-    			 m_freeList.add(new MemBlock(m.getAddr() + size, m.getSize() - size));
-    			 return m.getAddr();
-    		 }
-    		//If smaller, add size to total fragmented memory
-    		 else
-    		 {
-    			 totalMem += m.getSize();
-    		 }
-    	}
-    	//Not enough memory available
-    	if(totalMem < size)
-    	{
-    		return -1;
-    	}
-    	//Total memory greater than size, defragment and 
-    	// allocate as necessary
-    	else
-    	{
-    		return(defragmentAndAllocate(size));
-    	}
+        int addr = m_allocator.alloc(size);
+
+        //If there is enough free memory but no block is large enough,
+        //defragment and try again
+        if ((addr == -1) && m_allocator.fitsAfterCompaction(size))
+        {
+            addr = defragmentAndAllocate(size);
+        }
+
+        if (addr == -1)
+        {
+            m_numAllocFailures++;
+        }
+        else
+        {
+            m_numAllocations++;
+        }
+
+        Probes probes = m_CPU.getProbes();
+        if (probes != null)
+        {
+            probes.record(Probes.ALLOC, m_CPU.getTicks(), size, addr);
+        }
+        return addr;
     }//allocBlock
     
     /**
      * Completely defragments memory and allocates the memory as needed
      *  by allocBlock
      * @param size is the block size we are allocating (from allocBlock)
-     * @return the address to allocate the process to (from allocBlock)
+     * @return the address to allocate the process to (from allocBlock) -OR-
+     *         -1 if there is still no block large enough
      */
     private int defragmentAndAllocate(int size)
     {
-    	Collections.sort(m_processes);
-    	//TODO #10b HW 8
-    	int nextBase = m_MMU.getNumPages();
-    	for (ProcessControlBlock pi:m_processes)
-    	{
-    		pi.move(nextBase);
-    		nextBase = pi.getRegisterValue(CPU.LIM);
-    	}// for
-    	m_freeList.removeAllElements();
-    	m_freeList.add(new MemBlock(nextBase + size, m_MMU.getSize() - nextBase - size));
-    	return nextBase;
+        //Pack the largest blocks in first so that every block's address
+        //stays a multiple of its size
+        Vector<ProcessControlBlock> bySize = new Vector<ProcessControlBlock>(m_processes);
+        Collections.sort(bySize, new Comparator<ProcessControlBlock>() {
+            public int compare(ProcessControlBlock p1, ProcessControlBlock p2)
+            {
+                if (p1.blockSize != p2.blockSize)
+                {
+                    return p2.blockSize - p1.blockSize;
+                }
+                return p1.blockAddr - p2.blockAddr;
+            }
+        });
+
+        int[] newBases = new int[bySize.size()];
+        int nextBase = m_allocator.getOrigin();
+        for (int i = 0; i < bySize.size(); i++)
+        {
+            newBases[i] = nextBase;
+            nextBase += bySize.get(i).blockSize;
+        }
+
+        //Blocks are always whole pages so they can be moved by remapping
+        if (m_compactionMode == COMPACT_REMAP)
+        {
+            remapBlocks(bySize, newBases);
+        }
+        else
+        {
+            copyBlocks(bySize, newBases);
+        }
+        m_numCompactions++;
+
+        m_allocator.reset();
+        for (int i = 0; i < bySize.size(); i++)
+        {
+            ProcessControlBlock pi = bySize.get(i);
+            m_allocator.reserve(newBases[i], pi.blockSize);
+            if (pi.blockAddr == newBases[i]) continue;
+
+            if (m_verbose)
+            {
+                debugPrintln("Process " + pi.getProcessId() + " moved from "
+                             + pi.blockAddr + " to " + newBases[i]);
+            }
+            pi.relocate(newBases[i]);
+        }// for
+
+        //The blocks may have swapped places so every page gets a new owner
+        Arrays.fill(m_pageOwners, null);
+        for (ProcessControlBlock pi : bySize)
+        {
+            setPageOwner(pi, pi);
+        }
+
+        return m_allocator.alloc(size);
     }//defragmentAndAllocate
 
+    /**
+     * copyBlocks
+     *
+     * copies the memory blocks of some processes to new addresses word by
+     * word.  A process' new block may overlap another process' old one so
+     * every process that moves is copied out before any is copied back in.
+     * The processes are not relocated.
+     *
+     * @param procs    the processes to move
+     * @param newBases the new address of each process' block
+     */
+    private void copyBlocks(Vector<ProcessControlBlock> procs, int[] newBases)
+    {
+        int[][] images = new int[procs.size()][];
+        for (int i = 0; i < procs.size(); i++)
+        {
+            ProcessControlBlock pi = procs.get(i);
+            if (pi.blockAddr == newBases[i]) continue;
+
+            images[i] = new int[pi.blockSize];
+            for (int j = 0; j < pi.blockSize; j++)
+            {
+                images[i][j] = m_MMU.read(pi.blockAddr + j);
+            }
+        }
+
+        for (int i = 0; i < procs.size(); i++)
+        {
+            if (images[i] == null) continue;
+
+            for (int j = 0; j < images[i].length; j++)
+            {
+                m_MMU.write(newBases[i] + j, images[i][j]);
+            }
+            m_wordsMoved += images[i].length;
+        }
+    }//copyBlocks
+
+    /**
+     * remapBlocks
+     *
+     * moves the memory blocks of some processes to new (page aligned)
+     * addresses by rewriting the page table so that each new page refers to
+     * the frame the old page was in.  No data is copied in RAM.  The pages
+     * that are given up take over the frames of the pages that are taken so
+     * every frame stays in use.
+     *
+     * A page that has been swapped out has no frame so its swap slot is
+     * copied instead.  A clean page in RAM is marked dirty since the swap
+     * slot of its new page does not hold a copy of it.
+     *
+     * The processes are not relocated.
+     *
+     * @param procs    the processes to move
+     * @param newBases the new address of each process' block
+     */
+    private void remapBlocks(Vector<ProcessControlBlock> procs, int[] newBases)
+    {
+        int numPages = m_MMU.getNumPages();
+        int offsetSize = m_MMU.getOffsetSize();
+
+        //Work on a copy of the page table so that entries can be permuted
+        int[] table = new int[numPages];
+        for (int page = 0; page < numPages; page++)
+        {
+            table[page] = m_RAM.read(page);
+        }
+        int[] newTable = table.clone();
+
+        //Each moving page takes its old page's entry (and swap slot)
+        boolean[] given = new boolean[numPages];
+        boolean[] taken = new boolean[numPages];
+        int[][] slots = new int[numPages][];
+        for (int i = 0; i < procs.size(); i++)
+        {
+            ProcessControlBlock pi = procs.get(i);
+            if (pi.blockAddr == newBases[i]) continue;
+
+            int oldPage = pi.blockAddr >> offsetSize;
+            int newPage = newBases[i] >> offsetSize;
+            int count = pi.blockSize >> offsetSize;
+            for (int k = 0; k < count; k++)
+            {
+                int entry = table[oldPage + k];
+                if ((entry & MMU.STATUS_NOT_PRESENT) != 0)
+                {
+                    if (m_swap != null)
+                    {
+                        slots[newPage + k] = new int[m_MMU.getPageSize()];
+                        m_swap.readPage(oldPage + k, slots[newPage + k]);
+                    }
+                }
+                else if (m_swap != null)
+                {
+                    entry |= MMU.STATUS_DIRTY;
+                }
+                newTable[newPage + k] = entry;
+                given[oldPage + k] = true;
+                taken[newPage + k] = true;
+            }
+        }// for
+
+        //Pages that were given up and not taken back get the entries of the
+        //pages that were taken but not given up
+        int from = 0;
+        for (int page = 0; page < numPages; page++)
+        {
+            if (!given[page] || taken[page]) continue;
+
+            while (!taken[from] || given[from])
+            {
+                from++;
+            }
+            newTable[page] = table[from];
+            from++;
+        }
+
+        //Write back whatever changed
+        for (int page = 0; page < numPages; page++)
+        {
+            if (slots[page] != null)
+            {
+                m_swap.writePage(page, slots[page]);
+                m_wordsMoved += slots[page].length;
+            }
+            if (newTable[page] != table[page])
+            {
+                m_RAM.write(page, newTable[page]);
+                m_entriesRemapped++;
+            }
+            if ((newTable[page] & MMU.STATUS_NOT_PRESENT) == 0)
+            {
+                m_framePages[(newTable[page] & m_MMU.getPageMask()) >> offsetSize] = page;
+            }
+        }
+        m_MMU.flushTLB();
+    }//remapBlocks
+
+    /**
+     * getNumCompactions
+     *
+     * @return the number of times memory has been compacted
+     */
+    public int getNumCompactions()
+    {
+        return m_numCompactions;
+    }
+
+    /**
+     * getNumAllocations
+     *
+     * @return the number of memory blocks allocated to processes
+     */
+    public int getNumAllocations()
+    {
+        return m_numAllocations;
+    }
+
+    /**
+     * getNumFrees
+     *
+     * @return the number of memory blocks freed by processes that exited
+     */
+    public int getNumFrees()
+    {
+        return m_numFrees;
+    }
+
+    /**
+     * getNumAllocFailures
+     *
+     * @return the number of memory blocks that could not be allocated (even
+     *         after compaction)
+     */
+    public int getNumAllocFailures()
+    {
+        return m_numAllocFailures;
+    }
+
+    /**
+     * getWordsMoved
+     *
+     * @return the number of words copied (in RAM or on the swap device) to
+     *         move processes so far
+     */
+    public int getWordsMoved()
+    {
+        return m_wordsMoved;
+    }
+
+    /**
+     * getEntriesRemapped
+     *
+     * @return the number of page table entries rewritten to move processes
+     *         so far
+     */
+    public int getEntriesRemapped()
+    {
+        return m_entriesRemapped;
+    }
+
+    /**
+     * printCompactionStats
+     *
+     * prints how much work was done to move processes and the final state of
+     * free memory
+     */
+    public void printCompactionStats()
+    {
+        System.out.println("\nCompactions: " + m_numCompactions
+                + " (" + ((m_compactionMode == COMPACT_REMAP) ? "remap" : "copy")
+                + ") words moved: " + m_wordsMoved
+                + " entries remapped: " + m_entriesRemapped);
+        System.out.println(" " + m_allocator.getFragmentationReport());
+    }//printCompactionStats
+
     
     /**
      * Frees the memory block associated with the currently running
@@ -349,44 +903,19 @@ public class SOS implements CPU.TrapHandler
      */
     private void freeCurrProcessMemBlock()
     {
-    	int baseAddr = m_currProcess.getRegisterValue(CPU.BASE);
-    	int procSize = m_currProcess.getRegisterValue(CPU.LIM) - baseAddr; 
-        m_freeList.add(new MemBlock(baseAddr, procSize));    
-        memoryCheck();
+        m_allocator.free(m_currProcess.blockAddr);
+        m_numFrees++;
     }//freeCurrProcessMemBlock
     
-    /**
-     * Checks for contiguous memory blocks and merges any that are 
-     * found
-     */
-    private void memoryCheck()
-    {
-    	Collections.sort(m_freeList);
-    	for(int i = 0;i < m_freeList.size()-1;i++)
-    	{
-    		MemBlock m1 = m_freeList.get(i);
-    		MemBlock m2 = m_freeList.get(i+1);
-    		int toCheck = m1.getAddr() + m1.getSize();
-    		//
-    		if(toCheck == m2.getAddr())
-    		{
-    			m_freeList.remove(m1);
-    			m_freeList.remove(m2);
-    			m_freeList.add(i, new MemBlock(m1.getAddr(), m1.getSize() + m2.getSize()));
-    			i--;
-    		}
-    	}
-    }
-    
     /**
      * printMemAlloc                 *DEBUGGING*
      *
-     * outputs the contents of m_freeList and m_processes to the console and
+     * outputs the free blocks and m_processes to the console and
      * performs a fragmentation analysis.  It also prints the value in
      * RAM at the BASE and LIMIT registers.  This is useful for
      * tracking down errors related to moving process in RAM.
      *
-     * SIDE EFFECT:  The contents of m_freeList and m_processes are sorted.
+     * SIDE EFFECT:  The contents of m_processes are sorted.
      *
      */
     private void printMemAlloc()
@@ -399,12 +928,17 @@ public class SOS implements CPU.TrapHandler
         
         //Sort the lists by address
         Collections.sort(m_processes);
-        Collections.sort(m_freeList);
+        Vector<MemBlock> freeList = new Vector<MemBlock>();
+        int[] free = m_allocator.getFreeBlocks();
+        for (int i = 0; i < free.length; i += 2)
+        {
+            freeList.add(new MemBlock(free[i], free[i + 1]));
+        }
 
         //Initialize references to the first entry in each list
         MemBlock m = null;
         ProcessControlBlock pi = null;
-        ListIterator<MemBlock> iterFree = m_freeList.listIterator();
+        ListIterator<MemBlock> iterFree = freeList.listIterator();
         ListIterator<ProcessControlBlock> iterProc = m_processes.listIterator();
         if (iterFree.hasNext()) m = iterFree.next();
         if (iterProc.hasNext()) pi = iterProc.next();
@@ -417,14 +951,14 @@ public class SOS implements CPU.TrapHandler
             //them an address equivalent to +infinity
             int pAddr = Integer.MAX_VALUE;
             int mAddr = Integer.MAX_VALUE;
-            if (pi != null)  pAddr = pi.getRegisterValue(CPU.BASE);
+            if (pi != null)  pAddr = pi.blockAddr;
             if (m != null)  mAddr = m.getAddr();
 
             //If the process has the lowest address then print it and get the
             //next process
             if ( mAddr > pAddr )
             {
-                int size = pi.getRegisterValue(CPU.LIM) - pi.getRegisterValue(CPU.BASE);
+                int size = pi.blockSize;
                 System.out.print(" Process " + pi.processId +  " (addr=" + pAddr + " size=" + size + " words");
                 System.out.print(" / " + (size / m_MMU.getPageSize()) + " pages)" );
                 System.out.print(" @BASE=" + m_MMU.read(pi.getRegisterValue(CPU.BASE))
@@ -454,35 +988,417 @@ public class SOS implements CPU.TrapHandler
                 }
             }//else
         }//while
+
+        System.out.println(" " + m_allocator.getFragmentationReport());
             
         //Print a footer
         System.out.println("-----------------------------------------------------------------");
-        
-    }//printMemAlloc
+        
+    }//printMemAlloc
+
+    
+    /*======================================================================
+     * Virtual Memory Methods
+     *----------------------------------------------------------------------
+     */
+
+   
+    /**
+     * Initializes the page table to the bottom of RAM.  Frames start at the
+     * first frame boundary above the page table.
+     *
+     * With demand paging every page starts out not present and is loaded
+     * from the swap device the first time it is touched.  Otherwise each page
+     * is mapped to the next free frame until RAM runs out (any remaining pages
+     * are not present and can't be used).
+     */
+    private void initPageTable()
+    {
+        int pageSize = m_MMU.getPageSize();
+        int numFrames = m_MMU.getNumFrames();
+        m_firstFrame = (m_MMU.getNumPages() + pageSize - 1) / pageSize;
+        m_framePages = new int[numFrames];
+        m_freeFrames = new int[numFrames];
+        m_pageBuffer = new int[pageSize];
+
+        //Every frame above the page table starts out free.  They are stacked
+        //so that the lowest frame is handed out first.
+        m_numFreeFrames = 0;
+        for(int frame = numFrames - 1; frame >= 0; frame--)
+        {
+            m_framePages[frame] = -1;
+            if (frame >= m_firstFrame)
+            {
+                m_freeFrames[m_numFreeFrames] = frame;
+                m_numFreeFrames++;
+            }
+        }
+
+        m_mappedPages = 0;
+        for(int page = 0; page < m_MMU.getNumPages(); page++)
+        {
+            if ((m_swap == null) && (m_numFreeFrames > 0))
+            {
+                m_numFreeFrames--;
+                int frame = m_freeFrames[m_numFreeFrames];
+                m_framePages[frame] = page;
+                m_RAM.write(page, frame * pageSize);
+                m_mappedPages++;
+            }
+            else
+            {
+                m_RAM.write(page, MMU.STATUS_NOT_PRESENT);
+            }
+        }
+        m_MMU.flushTLB();
+        m_pagePolicy.init(m_MMU, m_framePages);
+    }//initPageTable
+
+    /**
+     * evictFrame
+     *
+     * makes room for a page by evicting the page chosen by the page
+     * replacement policy.  The page is only written out to the swap device if
+     * it has been modified since it was loaded (the swap device still holds a
+     * good copy otherwise).
+     *
+     * @return the frame that is now free
+     */
+    private int evictFrame()
+    {
+        int frame = m_pagePolicy.selectVictim();
+        int victim = m_framePages[frame];
+        ProcessControlBlock owner = getPageOwner(victim);
+
+        //Copy a dirty page out in one go
+        int entry = m_RAM.read(victim);
+        if ((entry & MMU.STATUS_DIRTY) != 0)
+        {
+            m_RAM.readBlock(frame * m_MMU.getPageSize(), m_pageBuffer);
+            m_swap.writePage(victim, m_pageBuffer);
+            m_numWritebacks++;
+            if (owner != null)
+            {
+                owner.numWritebacks++;
+            }
+        }
+
+        //Mark the page not present
+        m_RAM.write(victim, MMU.STATUS_NOT_PRESENT);
+        m_MMU.invalidateTLB(victim << m_MMU.getOffsetSize());
+        m_framePages[frame] = -1;
+        m_numEvictions++;
+        if (owner != null)
+        {
+            owner.numEvictions++;
+        }
+
+        return frame;
+    }//evictFrame
+
+    /**
+     * getPageOwner
+     *
+     * @param page a page number
+     * @return the process whose address space contains the page -OR- null if
+     *         it belongs to no process (e.g., it is still being loaded)
+     */
+    private ProcessControlBlock getPageOwner(int page)
+    {
+        return m_pageOwners[page];
+    }//getPageOwner
+
+    /**
+     * setPageOwner
+     *
+     * records who owns the pages of a process' block.  This must be called
+     * whenever a process is added or removed or its block moves.
+     *
+     * @param pi    the process
+     * @param owner the new owner of its pages (pi or null)
+     */
+    private void setPageOwner(ProcessControlBlock pi, ProcessControlBlock owner)
+    {
+        int offsetSize = m_MMU.getOffsetSize();
+        int first = pi.blockAddr >> offsetSize;
+        int last = (pi.blockAddr + pi.blockSize - 1) >> offsetSize;
+        for (int page = first; page <= last; page++)
+        {
+            m_pageOwners[page] = owner;
+        }
+    }//setPageOwner
+
+    /**
+     * getNumPageFaults
+     *
+     * @return the number of page faults handled so far
+     */
+    public int getNumPageFaults()
+    {
+        return m_numPageFaults;
+    }
+
+    /**
+     * getNumEvictions
+     *
+     * @return the number of pages evicted from RAM so far
+     */
+    public int getNumEvictions()
+    {
+        return m_numEvictions;
+    }
+
+    /**
+     * getNumWritebacks
+     *
+     * @return the number of evicted pages that had to be written out to the
+     *         swap device so far
+     */
+    public int getNumWritebacks()
+    {
+        return m_numWritebacks;
+    }
+
+    /**
+     * printSchedulingStats
+     *
+     * prints the throughput of the scheduler and how long processes starved
+     * while they were Ready
+     */
+    public void printSchedulingStats()
+    {
+        int count = m_finishedProcesses.size();
+        for (ProcessControlBlock pi : m_processes)
+        {
+            if (pi.getProcessId() != IDLE_PROC_ID) count++;
+        }
+        int maxStarve = getMaxStarveTime();
+
+        int ticks = m_CPU.getTicks();
+        System.out.println("\n----------========== Scheduling ("
+                + m_scheduler.getName() + ") ==========----------");
+        System.out.println("Processes: " + count + " finished: "
+                + m_finishedProcesses.size() + " ticks: " + ticks
+                + " context switches: " + m_numContextSwitches
+                + " timer interrupts: " + m_numTimerInterrupts);
+        System.out.println("Throughput: "
+                + ((ticks > 0) ? (m_finishedProcesses.size() * 1000.0 / ticks) : 0.0)
+                + " processes per 1000 ticks");
+        System.out.println("Max Starve Time: " + maxStarve + " Avg Starve Time: "
+                + getAvgStarveTime());
+        InterruptController ic = m_CPU.getInterruptController();
+        System.out.println("Interrupts: " + m_CPU.getNumInterrupts()
+                + " write batches: " + m_CPU.getNumWriteBatches()
+                + " pending peak: " + ic.getPeakOccupancy() + " of "
+                + ic.getCapacity() + " dropped: " + ic.getNumDropped());
+        System.out.println("-----------------------------------------------------------------");
+    }//printSchedulingStats
+
+    /**
+     * getMaxStarveTime
+     *
+     * @return the longest time any process (other than the idle process)
+     *         has waited in the Ready state
+     */
+    public int getMaxStarveTime()
+    {
+        int maxStarve = 0;
+        for (ProcessControlBlock pi : m_finishedProcesses)
+        {
+            maxStarve = Math.max(maxStarve, pi.maxStarve);
+        }
+        for (ProcessControlBlock pi : m_processes)
+        {
+            if (pi.getProcessId() == IDLE_PROC_ID) continue;
+            maxStarve = Math.max(maxStarve, pi.maxStarve);
+        }
+        return maxStarve;
+    }//getMaxStarveTime
+
+    /**
+     * getAvgStarveTime
+     *
+     * @return the average over every process (other than the idle process)
+     *         of its average time waiting in the Ready state
+     */
+    public double getAvgStarveTime()
+    {
+        double total = 0.0;
+        int count = 0;
+        for (ProcessControlBlock pi : m_finishedProcesses)
+        {
+            total += pi.avgStarve;
+            count++;
+        }
+        for (ProcessControlBlock pi : m_processes)
+        {
+            if (pi.getProcessId() == IDLE_PROC_ID) continue;
+            total += pi.avgStarve;
+            count++;
+        }
+        return (count > 0) ? (total / count) : 0.0;
+    }//getAvgStarveTime
+
+    /**
+     * getNumContextSwitches
+     *
+     * @return the number of times the CPU has switched to a different process
+     */
+    public int getNumContextSwitches()
+    {
+        return m_numContextSwitches;
+    }
+
+    /**
+     * getNumFinishedProcesses
+     *
+     * @return the number of processes (not counting the idle process) that
+     *         have exited
+     */
+    public int getNumFinishedProcesses()
+    {
+        return m_finishedProcesses.size();
+    }
+
+    /**
+     * getProcessHistory
+     *
+     * @return every process that has run (other than the idle process):
+     *         those that have exited followed by those that are still alive
+     */
+    Vector<ProcessControlBlock> getProcessHistory()
+    {
+        Vector<ProcessControlBlock> all = new Vector<ProcessControlBlock>(m_finishedProcesses);
+        for (ProcessControlBlock pi : m_processes)
+        {
+            if (pi.getProcessId() != IDLE_PROC_ID) all.add(pi);
+        }
+        return all;
+    }//getProcessHistory
+
+    /**
+     * getNumSystemCalls
+     *
+     * @param type one of the SYSCALL constants
+     * @return the number of system calls of the given type
+     */
+    public long getNumSystemCalls(int type)
+    {
+        return m_numSystemCalls[type];
+    }
+
+    /**
+     * getNumSystemCalls
+     *
+     * @return the number of system calls of every type
+     */
+    public long getNumSystemCalls()
+    {
+        long total = 0;
+        for (long n : m_numSystemCalls)
+        {
+            total += n;
+        }
+        return total;
+    }//getNumSystemCalls
+
+    /**
+     * printKernelStats
+     *
+     * prints where the machine spent its time: instructions retired,
+     * interrupts and system calls by type, memory management and a breakdown
+     * by process
+     */
+    public void printKernelStats()
+    {
+        System.out.println("\n----------========== Kernel ==========----------");
+        System.out.println("Instructions: " + m_CPU.getNumInstructions()
+                + " ticks: " + m_CPU.getTicks()
+                + " context switches: " + m_numContextSwitches);
+        System.out.println("Interrupts: read " + m_CPU.getNumReadInterrupts()
+                + " write " + m_CPU.getNumWriteInterrupts()
+                + " clock " + m_numTimerInterrupts
+                + " page fault " + m_numPageFaults);
+        String calls = "System calls:";
+        for (int i = 0; i < m_numSystemCalls.length; i++)
+        {
+            calls += " " + SYSCALL_NAMES[i] + " " + m_numSystemCalls[i];
+        }
+        System.out.println(calls);
+        System.out.println("Memory: allocations " + m_numAllocations
+                + " frees " + m_numFrees + " failures " + m_numAllocFailures
+                + " compactions " + m_numCompactions
+                + " page table reads " + m_MMU.getNumPageTableReads());
+
+        System.out.println("PID\tTicks\tIn\tOut\tSyscalls\tFaults");
+        for (ProcessControlBlock pi : getProcessHistory())
+        {
+            System.out.println("" + pi.getProcessId() + "\t" + pi.cpuTicks
+                    + "\t" + pi.numRestores + "\t" + pi.numSaves
+                    + "\t" + pi.numSystemCalls + "\t\t" + pi.numPageFaults);
+        }
+        System.out.println("-----------------------------------------------------------------");
+    }//printKernelStats
 
-    
-    /*======================================================================
-     * Virtual Memory Methods
-     *----------------------------------------------------------------------
+    /**
+     * setPrintStats
+     *
+     * @param print if true (the default) the statistics are printed when the
+     *              machine halts
      */
+    public void setPrintStats(boolean print)
+    {
+        m_printStats = print;
+    }
 
-   
     /**
-     * Initializes the page table to the bottom of RAM.
-     * Each page (number) initially corresponds to the same frame (number).
+     * setPrintOutput
+     *
+     * @param print if true (the default) the values processes send to the
+     *              output device are printed
      */
-    private void initPageTable()
+    public void setPrintOutput(boolean print)
     {
-    	//TODO #7 HW 8
-    	//Create page table at RAM location 0, so frames start
-    	// right above the top of the page table.
-        int frameLocation = m_MMU.getNumPages();
-        for(int page = 0; page < m_MMU.getNumPages(); page++)
+        m_printOutput = print;
+    }
+
+    /**
+     * getNumTimerInterrupts
+     *
+     * @return the number of times a process has been preempted by the timer
+     */
+    public int getNumTimerInterrupts()
+    {
+        return m_numTimerInterrupts;
+    }
+
+    /**
+     * printPagingStats
+     *
+     * prints the page faults, evictions and dirty writebacks of every process
+     * that has run and of the system as a whole
+     */
+    public void printPagingStats()
+    {
+        if (m_swap == null) return;
+
+        System.out.println("\n----------========== Paging ("
+                + m_pagePolicy.getName() + ", "
+                + (m_framePages.length - m_firstFrame)
+                + " frames) ==========----------");
+        System.out.println("PID\tFaults\tEvicted\tWritebacks");
+
+        Vector<ProcessControlBlock> all = new Vector<ProcessControlBlock>(m_finishedProcesses);
+        all.addAll(m_processes);
+        for (ProcessControlBlock pi : all)
         {
-        	m_RAM.write(page, frameLocation);
-        	frameLocation += m_MMU.getPageSize();
+            System.out.println("" + pi.getProcessId() + "\t" + pi.numPageFaults
+                    + "\t" + pi.numEvictions + "\t" + pi.numWritebacks);
         }
-    }//initPageTable
+        System.out.println("total\t" + m_numPageFaults + "\t"
+                + m_numEvictions + "\t" + m_numWritebacks);
+        System.out.println("-----------------------------------------------------------------");
+    }//printPagingStats
 
 
     /**
@@ -505,7 +1421,16 @@ public class SOS implements CPU.TrapHandler
             int status = entry & m_MMU.getStatusMask();
             int frame = entry & m_MMU.getPageMask();
 
-            System.out.println("" + i + "-->" + frame);
+            if ((status & MMU.STATUS_NOT_PRESENT) != 0)
+            {
+                System.out.println("" + i + "-->(not present)");
+            }
+            else
+            {
+                System.out.println("" + i + "-->" + frame
+                        + (((status & MMU.STATUS_REFERENCED) != 0) ? " R" : "")
+                        + (((status & MMU.STATUS_DIRTY) != 0) ? " D" : ""));
+            }
         }
         
         //Print a footer
@@ -602,6 +1527,9 @@ public class SOS implements CPU.TrapHandler
      */
     private void printProcessTable()
     {
+        //If verbose mode is off, do nothing
+        if (!m_verbose) return;
+
         debugPrintln("");
         debugPrintln("Process Table (" + m_processes.size() + " processes)");
         debugPrintln("======================================================================");
@@ -622,77 +1550,53 @@ public class SOS implements CPU.TrapHandler
     public void removeCurrentProcess()
     {
     	freeCurrProcessMemBlock();
+        chargeCurrentProcess();
         m_processes.remove(m_currProcess);
+        setPageOwner(m_currProcess, null);
+        m_currProcess.dequeue();
+        if (m_currProcess.getProcessId() != IDLE_PROC_ID)
+        {
+            m_finishedProcesses.add(m_currProcess);
+        }
+        else
+        {
+            m_spareIdleProcess = m_currProcess;
+        }
         m_currProcess = null;
         scheduleNewProcess();
     }// removeCurrentProcess
 
-    /**
-     * getRandomProcess
-     * 
-     * selects a non-Blocked process at random from the ProcessTable.
-     * 
-     * @return a reference to the ProcessControlBlock struct of the selected
-     *         process -OR- null if no non-blocked process exists
-     */
-    ProcessControlBlock getRandomProcess()
-    {
-        // Calculate a random offset into the m_processes list
-        int offset = ((int) (Math.random() * 2147483647)) % m_processes.size();
-
-        
-        
-        // Iterate until a non-blocked process is found
-        ProcessControlBlock newProc = null;
-        for (int i = 0; i < m_processes.size(); i++)
-        {
-            newProc = m_processes.get((i + offset) % m_processes.size());
-            if (!newProc.isBlocked())
-            {
-                return newProc;
-            }
-        }// for
-
-        return null; // no processes are Ready
-    }// getRandomProcess
-
     /**
      * getNextProcess
      *      
-     * selects a non-Blocked process from the ProcessTable giving higher
-     * priority to those which have idled the longest and have been
-     * chosen to run the least amount of times (low numReady result).
+     * selects a non-Blocked process from the ProcessTable using the
+     * scheduler the OS was created with
      * 
-     * @return the ProcessControlBlock of the next process to run
+     * @return the ProcessControlBlock of the next process to run -OR- null if
+     *         no processes are Ready
      * 
      */
     ProcessControlBlock getNextProcess()
     {    
-        ProcessControlBlock newProc = null;
-        double highestPriority = -1;
-        for (ProcessControlBlock pi:m_processes)
-        {
-            // Assign priority based on ratio idle time to the number of times the process
-            //  has entered the ready state
-            double timeIdle = (m_CPU.getTicks() - pi.lastReadyTime);
-            double priority = (double) timeIdle/pi.getNumReady();
-            if (priority > highestPriority)
-            {
-                if (!pi.isBlocked())
-                {
-                    highestPriority = priority;
-                    newProc=pi;
-                }
-            }
-        }// for
-        
-        //No ready process found
-        if (highestPriority < 0)
+        return m_scheduler.selectNext(m_CPU.getTicks());
+    }// getNextProcess
+
+    /**
+     * chargeCurrentProcess
+     * 
+     * tells the scheduler how much CPU time the running process has used
+     * since it was last charged
+     */
+    private void chargeCurrentProcess()
+    {
+        int now = m_CPU.getTicks();
+        if (m_currProcess != null)
         {
-            return null; // no processes are Ready
+            m_scheduler.tick(m_currProcess, now - m_dispatchTime);
+            m_currProcess.cpuTicks += now - m_dispatchTime;
         }
-        return newProc;
-    }// getRandomProcess
+        m_dispatchTime = now;
+    }// chargeCurrentProcess
     
     /**
      * createIdleProcess
@@ -703,13 +1607,7 @@ public class SOS implements CPU.TrapHandler
      */
     public void createIdleProcess()
     {
-        int progArr[] =
-        { 0, 0, 0, 0, // SET r0=0
-                0, 0, 0, 0, // SET r0=0 (repeated instruction to account for
-                // vagaries in student implementation of the CPU
-                // class)
-                10, 0, 0, 0, // PUSH r0
-                15, 0, 0, 0 }; // TRAP
+        int progArr[] = IDLE_PROGRAM;
         
         //TODO #9 HW 8
         //Make the allocated address space an exact multiple of the MMU's page size
@@ -723,7 +1621,7 @@ public class SOS implements CPU.TrapHandler
         if(baseAddr == -1)
         {
         	System.out.println("Could not allocate block of size " + blockSize + ". Exiting.");
-        	System.exit(-1);
+        	throw new HaltException(-1, "Could not allocate the idle process");
         }
 
         // Load the program into RAM
@@ -745,9 +1643,27 @@ public class SOS implements CPU.TrapHandler
         m_CPU.setBASE(baseAddr);
         m_CPU.setLIM(baseAddr + blockSize + 20);
 
-        // Save the relevant info as a new entry in m_processes
-        m_currProcess = new ProcessControlBlock(IDLE_PROC_ID);
+        // Save the relevant info as a new entry in m_processes (reusing the
+        // last idle process' control block so that idling allocates nothing)
+        if (m_spareIdleProcess != null)
+        {
+            m_currProcess = m_spareIdleProcess;
+            m_spareIdleProcess = null;
+            m_currProcess.reset();
+        }
+        else
+        {
+            m_currProcess = new ProcessControlBlock(IDLE_PROC_ID);
+        }
+        m_currProcess.blockAddr = baseAddr;
+        m_currProcess.blockSize = blockSize;
         m_processes.add(m_currProcess);
+        setPageOwner(m_currProcess, m_currProcess);
+        m_scheduler.ready(m_currProcess, m_CPU.getTicks());
+
+        // Nothing can happen until a device finishes so (in discrete event
+        // mode) skip straight to that point
+        m_CPU.skipToNextEvent();
     }// createIdleProcess
 
     /**
@@ -755,10 +1671,11 @@ public class SOS implements CPU.TrapHandler
      * 
      * select a process to unblock that might be waiting to perform a given
      * action on a given device. This is a helper method for system calls and
-     * interrupts that deal with devices.
+     * interrupts that deal with devices. If several processes are waiting
+     * for the same thing the one that has waited longest is selected.
      * 
      * @param dev
-     *            the Device that the process must be waiting for
+     *            the device that the process must be waiting for
      * @param op
      *            the operation that the process wants to perform on the device.
      *            Use the SYSCALL constants for this value.
@@ -768,19 +1685,9 @@ public class SOS implements CPU.TrapHandler
      * 
      * @return the process to unblock -OR- null if none match the given criteria
      */
-    public ProcessControlBlock selectBlockedProcess(Device dev, int op, int addr)
+    ProcessControlBlock selectBlockedProcess(DeviceInfo dev, int op, int addr)
     {
-        ProcessControlBlock selected = null;
-        for (ProcessControlBlock pi : m_processes)
-        {
-            if (pi.isBlockedForDevice(dev, op, addr))
-            {
-                selected = pi;
-                break;
-            }
-        }// for
-
-        return selected;
+        return dev.firstWaiter(op, addr);
     }// selectBlockedProcess
 
     /**
@@ -793,21 +1700,33 @@ public class SOS implements CPU.TrapHandler
     public void scheduleNewProcess()
     {
 
-        // If no more processes exist, exit
+        // If no more processes exist, halt the machine
         if (m_processes.size() <= 0)
         {
-            System.exit(SYSCALL_EXIT);
+            if (m_printStats)
+            {
+                printSchedulingStats();
+                printPagingStats();
+                printCompactionStats();
+                printKernelStats();
+            }
+            throw new HaltException(SYSCALL_EXIT, "All processes have exited");
         }
 
-        // Get a new "unblocked" process with non-random scheduling algorithm
+ 
+        // Get a new "unblocked" process from the scheduler
+        chargeCurrentProcess();
         ProcessControlBlock temp = getNextProcess();
-
-        // Get a new "unblocked" process with random scheduling algorithm (left in for testing ease)
-        //ProcessControlBlock temp = getRandomProcess();
         
-        // If the currently running process is returned, continue
+        // If the currently running process is returned, continue (with a
+        // new time slice if the old one is used up)
         if (temp != null && m_currProcess != null && m_currProcess.equals(temp))
         {
+            m_currProcess.resume();
+            if (!m_CPU.isTimerArmed())
+            {
+                startQuantum();
+            }
             return;
         }
         
@@ -815,6 +1734,21 @@ public class SOS implements CPU.TrapHandler
         if (temp != null)
         {
 
+            Probes probes = m_CPU.getProbes();
+            if (probes != null)
+            {
+                probes.record(Probes.CONTEXT_SWITCH, m_CPU.getTicks(),
+                              (m_currProcess == null) ? -1 : m_currProcess.getProcessId(),
+                              temp.getProcessId());
+            }
+            TraceWriter trace = m_CPU.getTrace();
+            if (trace != null)
+            {
+                trace.contextSwitch(m_CPU.getTicks(),
+                                    (m_currProcess == null) ? -1 : m_currProcess.getProcessId(),
+                                    temp.getProcessId());
+            }
+
             // save gen regs, SP, and 1PC into PCB
             if (m_currProcess != null)
             {
@@ -825,6 +1759,7 @@ public class SOS implements CPU.TrapHandler
             temp.restore(m_CPU);
 
             m_currProcess = temp;
+            m_numContextSwitches++;
         }
         // If all processes are blocked
         else if (m_processes.size() > 0)
@@ -833,8 +1768,23 @@ public class SOS implements CPU.TrapHandler
             createIdleProcess();
         }
 
+        if (m_currProcess != null)
+        {
+            startQuantum();
+        }
+
     }// scheduleNewProcess
 
+    /**
+     * startQuantum
+     *
+     * arms the CPU's timer with the running process' time slice
+     */
+    private void startQuantum()
+    {
+        m_CPU.setTimer(m_currProcess.quantum);
+    }// startQuantum
+
     /**
      * 
      * createProcess
@@ -898,10 +1848,14 @@ public class SOS implements CPU.TrapHandler
 
         // Create new process and increment process ID counter
         ProcessControlBlock tempProc = new ProcessControlBlock(m_nextProcessID);
+        tempProc.blockAddr = addr;
+        tempProc.blockSize = blockSize;
         m_nextProcessID += 1;
         m_processes.add(tempProc);
+        setPageOwner(tempProc, tempProc);
         m_currProcess = tempProc;
         m_currProcess.save(m_CPU);
+        startQuantum();
         printMemAlloc();
         return true;
 
@@ -947,9 +1901,57 @@ public class SOS implements CPU.TrapHandler
     public void interruptIllegalMemoryAccess(int addr)
     {
         System.out.println("Illegal Memory Access @" + addr);
-        System.exit(0);
+        throw new HaltException(-1, "Illegal Memory Access @" + addr);
     }
 
+    /**
+     * interruptPageFault
+     * 
+     * loads a page that is not present from the swap device, evicting another
+     * page first if there are no free frames
+     * 
+     * @param virtAddr
+     *            the virtual address that was accessed
+     */
+    @Override
+    public void interruptPageFault(int virtAddr)
+    {
+        int page = (virtAddr & m_MMU.getPageMask()) >> m_MMU.getOffsetSize();
+        if (m_swap == null)
+        {
+            System.out.println("Page fault @" + virtAddr + " (page " + page
+                    + ") but there is no swap device");
+            throw new HaltException(-1, "Page fault without a swap device");
+        }
+        m_numPageFaults++;
+        ProcessControlBlock owner = getPageOwner(page);
+        if (owner != null)
+        {
+            owner.numPageFaults++;
+        }
+
+        // Find a frame for the page
+        int frame;
+        if (m_numFreeFrames > 0)
+        {
+            m_numFreeFrames--;
+            frame = m_freeFrames[m_numFreeFrames];
+        }
+        else
+        {
+            frame = evictFrame();
+        }
+
+        // Copy the page in as one block and point the page table at it
+        int frameAddr = frame * m_MMU.getPageSize();
+        m_swap.readPage(page, m_pageBuffer);
+        m_RAM.writeBlock(frameAddr, m_pageBuffer);
+        m_RAM.write(page, frameAddr);
+        m_MMU.invalidateTLB(virtAddr);
+        m_framePages[frame] = page;
+        m_pagePolicy.pageLoaded(frame);
+    }// interruptPageFault
+
     /**
      * interruptClock
      * 
@@ -959,7 +1961,23 @@ public class SOS implements CPU.TrapHandler
     public void interruptClock()
     {
         SOS.debugPrintln("Clock Interrupt!");
+        m_numTimerInterrupts++;
+        m_pagePolicy.sample();
+
+        // The running process goes back to Ready so that the scheduler
+        // weighs it against the processes that have been waiting
+        ProcessControlBlock preempted = m_currProcess;
+        if (preempted != null)
+        {
+            preempted.preempt();
+        }
         scheduleNewProcess();
+
+        // If it was switched out it used its whole slice so it is CPU bound
+        if ((preempted != null) && (preempted != m_currProcess))
+        {
+            preempted.quantum = Math.min(preempted.quantum * 2, m_maxQuantum);
+        }
     }
 
     /**
@@ -971,7 +1989,7 @@ public class SOS implements CPU.TrapHandler
     public void interruptDivideByZero()
     {
         System.out.println("Can't Divide by Zero");
-        System.exit(0);
+        throw new HaltException(-1, "Can't Divide by Zero");
     }
 
     /**
@@ -984,7 +2002,7 @@ public class SOS implements CPU.TrapHandler
     public void interruptIllegalInstruction(int[] instr)
     {
         System.out.println("Illegal Instruction" + instr);
-        System.exit(0);
+        throw new HaltException(-1, "Illegal Instruction");
     }
 
     /**
@@ -1003,8 +2021,8 @@ public class SOS implements CPU.TrapHandler
     public void interruptIOReadComplete(int devID, int addr, int data)
     {
         // Find the blocked process waiting for data from I/O device
-        ProcessControlBlock pcb = selectBlockedProcess(getDeviceInfo(devID)
-                .getDevice(), SYSCALL_READ, addr);
+        ProcessControlBlock pcb = selectBlockedProcess(getDeviceInfo(devID),
+                SYSCALL_READ, addr);
 
         // Move process from waiting to ready state
         pcb.unblock();
@@ -1032,8 +2050,8 @@ public class SOS implements CPU.TrapHandler
     public void interruptIOWriteComplete(int devID, int addr)
     {
         // Find the blocked process waiting for write complete by I/O device
-        ProcessControlBlock pcb = selectBlockedProcess(getDeviceInfo(devID)
-                .getDevice(), SYSCALL_WRITE, addr);
+        ProcessControlBlock pcb = selectBlockedProcess(getDeviceInfo(devID),
+                SYSCALL_WRITE, addr);
 
         if (pcb == null)
             System.out.println("Write interrupt but no blocked devices");
@@ -1045,6 +2063,33 @@ public class SOS implements CPU.TrapHandler
         pushToProcess(SUCCESS, pcb);
     }
 
+    /**
+     * 
+     * interruptIOWritesComplete
+     * 
+     * is called when the CPU delivers several coalesced write completions
+     * from the same device at once
+     * 
+     * @param devID
+     *            the id of device that wrote the data
+     * @param addrs
+     *            the address of each write in the order they completed
+     * @param count
+     *            the number of entries of addrs that are used
+     */
+    @Override
+    public void interruptIOWritesComplete(int devID, int[] addrs, int count)
+    {
+        DeviceInfo dev = getDeviceInfo(devID);
+        for (int i = 0; i < count; i++)
+        {
+            ProcessControlBlock pcb = selectBlockedProcess(dev, SYSCALL_WRITE,
+                    addrs[i]);
+            pcb.unblock();
+            pushToProcess(SUCCESS, pcb);
+        }
+    }
+
     /*
      * ======================================================================
      * System Calls
@@ -1060,7 +2105,29 @@ public class SOS implements CPU.TrapHandler
     @Override
     public void systemCall()
     {
-        switch (pop())
+        int type = pop();
+        if ((type >= 0) && (type < m_numSystemCalls.length))
+        {
+            m_numSystemCalls[type]++;
+        }
+        if (m_currProcess != null)
+        {
+            m_currProcess.numSystemCalls++;
+        }
+        Probes probes = m_CPU.getProbes();
+        if (probes != null)
+        {
+            probes.record(Probes.TRAP, m_CPU.getTicks(), type,
+                          (m_currProcess == null) ? -1 : m_currProcess.getProcessId());
+        }
+        TraceWriter trace = m_CPU.getTrace();
+        if (trace != null)
+        {
+            trace.systemCall(m_CPU.getTicks(), type,
+                             (m_currProcess == null) ? -1 : m_currProcess.getProcessId());
+        }
+
+        switch (type)
         {
         case SYSCALL_EXIT:
             sysCallExitHandler();
@@ -1109,7 +2176,11 @@ public class SOS implements CPU.TrapHandler
     private void sysCallOutputHandler()
     {
         // Print out the last stack entry
-        System.out.println("OUTPUT:" + pop());
+        int value = pop();
+        if (m_printOutput)
+        {
+            System.out.println("OUTPUT:" + value);
+        }
     }
 
     /**
@@ -1161,8 +2232,12 @@ public class SOS implements CPU.TrapHandler
         {
 
             // Add process to list of processes that need to open device
-            dev.addProcess(m_currProcess);
-            m_currProcess.block(m_CPU, dev.getDevice(), SYSCALL_OPEN, 1234);
+            // (unless it was added the last time it had to wait)
+            if (!dev.containsProcess(m_currProcess))
+            {
+                dev.addProcess(m_currProcess);
+            }
+            m_currProcess.block(m_CPU, dev, SYSCALL_OPEN, 1234);
 
             // Push current information back to stack to repeat this operation
             // after the process becomes unblocked
@@ -1172,10 +2247,14 @@ public class SOS implements CPU.TrapHandler
 
             scheduleNewProcess();
         }
-        // successfully open the device
+        // successfully open the device (a process that had to wait was
+        // already added when it did)
         else
         {
-            dev.addProcess(m_currProcess);
+            if (!dev.containsProcess(m_currProcess))
+            {
+                dev.addProcess(m_currProcess);
+            }
             push(SUCCESS);
         }
     }
@@ -1207,7 +2286,7 @@ public class SOS implements CPU.TrapHandler
             // Remove process from open processes vector in the device
             dev.removeProcess(m_currProcess);
 
-            proc = selectBlockedProcess(dev.getDevice(), SYSCALL_OPEN, 1234);
+            proc = selectBlockedProcess(dev, SYSCALL_OPEN, 1234);
 
             if (proc != null)
             {
@@ -1267,7 +2346,7 @@ public class SOS implements CPU.TrapHandler
         {
             dev.getDevice().write(address, val);
             // Block device for I/O
-            m_currProcess.block(m_CPU, dev.getDevice(), SYSCALL_WRITE, address);
+            m_currProcess.block(m_CPU, dev, SYSCALL_WRITE, address);
             scheduleNewProcess();
         }
     }
@@ -1321,7 +2400,7 @@ public class SOS implements CPU.TrapHandler
             dev.getDevice().read(address);
 
             // Block device and wait for I/O completion
-            m_currProcess.block(m_CPU, dev.getDevice(), SYSCALL_READ, address);
+            m_currProcess.block(m_CPU, dev, SYSCALL_READ, address);
             scheduleNewProcess();
         }
     }
@@ -1342,7 +2421,7 @@ public class SOS implements CPU.TrapHandler
         if (m_programs.size() == 0)
         {
             System.err.println("ERROR!  syscallExec has no programs to run.");
-            System.exit(-1);
+            throw new HaltException(-1, "syscallExec has no programs to run");
         }
 
         // find out which program has been called the least and record how many
@@ -1366,8 +2445,7 @@ public class SOS implements CPU.TrapHandler
         }
 
         // Select a random program from the candidates list
-        Random rand = new Random();
-        int pn = rand.nextInt(m_programs.size());
+        int pn = m_random.nextInt(m_programs.size());
         Program prog = cands.get(pn);
 
         // Determine the address space size using the default if available.
@@ -1375,28 +2453,296 @@ public class SOS implements CPU.TrapHandler
         int allocSize = prog.getDefaultAllocSize();
         if (allocSize <= 0)
         {
-            allocSize = prog.getSize() * 2;
+            allocSize = prog.getSize() * 2;
+        }
+
+        // Load the program into RAM
+        if(createProcess(prog, allocSize))
+        {
+        	//m_CPU.setPC(m_CPU.getPC() - CPU.INSTRSIZE);
+        }
+        
+
+    }// syscallExec
+
+    /**
+     * syscallYield
+     * 
+     * a process tells the OS that it can sleep for a while and the OS schedules
+     * a new process to run instead
+     */
+    private void syscallYield()
+    {
+        scheduleNewProcess();
+    }// syscallYield
+
+    /*
+     * ======================================================================
+     * Snapshots
+     * ----------------------------------------------------------------------
+     */
+
+    /**
+     * isQuiescent
+     *
+     * @return true if no process is waiting for a device (so no I/O is in
+     *         progress and the OS can be saved)
+     */
+    public boolean isQuiescent()
+    {
+        for (ProcessControlBlock pi : m_processes)
+        {
+            if (pi.isBlocked()) return false;
+        }
+        return true;
+    }// isQuiescent
+
+    /**
+     * saveState
+     *
+     * writes everything the OS knows: the process table (including the
+     * processes that have exited), the frame table, the free list, which
+     * processes have each device open, the registered programs, the time
+     * slices, the state of the random choices and the statistics.  No
+     * process may be blocked
+     * (@see #isQuiescent).
+     *
+     * @see Snapshot
+     */
+    public void saveState(DataOutput out) throws IOException
+    {
+        out.writeInt(m_nextProcessID);
+        out.writeInt(m_dispatchTime);
+        out.writeInt(m_quantum);
+        out.writeInt(m_minQuantum);
+        out.writeInt(m_maxQuantum);
+        out.writeInt(m_numContextSwitches);
+        out.writeInt(m_numTimerInterrupts);
+        out.writeInt(m_numSystemCalls.length);
+        for (long n : m_numSystemCalls)
+        {
+            out.writeLong(n);
+        }
+        out.writeInt(m_numAllocations);
+        out.writeInt(m_numFrees);
+        out.writeInt(m_numAllocFailures);
+        out.writeInt(m_numPageFaults);
+        out.writeInt(m_numEvictions);
+        out.writeInt(m_numWritebacks);
+        out.writeInt(m_numCompactions);
+        out.writeInt(m_wordsMoved);
+        out.writeInt(m_entriesRemapped);
+
+        Snapshot.writeRandom(out, m_random);
+
+        // Memory
+        Snapshot.writeInts(out, m_framePages);
+        Snapshot.writeInts(out, m_freeFrames);
+        out.writeInt(m_numFreeFrames);
+        out.writeInt(m_mappedPages);
+        m_allocator.saveState(out);
+
+        // Processes
+        out.writeInt(m_processes.size());
+        for (ProcessControlBlock pi : m_processes)
+        {
+            pi.saveState(out);
+        }
+        out.writeInt((m_currProcess == null) ? -1 : m_currProcess.getProcessId());
+        out.writeInt(m_finishedProcesses.size());
+        for (ProcessControlBlock pi : m_finishedProcesses)
+        {
+            pi.saveState(out);
+        }
+
+        // Devices
+        out.writeInt(m_devices.size());
+        for (DeviceInfo dev : m_devices)
+        {
+            out.writeInt(dev.getId());
+            out.writeInt(dev.procs.size());
+            for (ProcessControlBlock pi : dev.procs)
+            {
+                out.writeInt(pi.getProcessId());
+            }
+        }
+
+        // Programs
+        out.writeInt(m_programs.size());
+        for (Program prog : m_programs)
+        {
+            int[] code = prog.export();
+            Snapshot.writeInts(out, (code == null) ? new int[0] : code);
+            out.writeInt(prog.getDefaultAllocSize());
+            out.writeInt(prog.callCount);
+        }
+    }// saveState
+
+    /**
+     * restoreState
+     *
+     * reads the state written by {@link #saveState} into an OS that has
+     * just been created (with the same devices registered) on a machine
+     * whose RAM and swap device have already been restored.
+     *
+     * The scheduler and the page replacement policy are not saved.  They
+     * are told about every process (in the order the processes were last
+     * made ready) and every page in a frame as though they had just been
+     * installed, so either can be different from the one that was saved.
+     *
+     * @throws IOException if the state is of a different machine
+     */
+    public void restoreState(DataInput in) throws IOException
+    {
+        if (!m_processes.isEmpty() || !m_programs.isEmpty())
+        {
+            throw new IllegalStateException("The OS must be restored before it loads anything");
+        }
+
+        m_nextProcessID = in.readInt();
+        m_dispatchTime = in.readInt();
+        m_quantum = in.readInt();
+        m_minQuantum = in.readInt();
+        m_maxQuantum = in.readInt();
+        m_numContextSwitches = in.readInt();
+        m_numTimerInterrupts = in.readInt();
+        if (in.readInt() != m_numSystemCalls.length)
+        {
+            throw new IOException("Snapshot has a different set of system calls");
+        }
+        for (int i = 0; i < m_numSystemCalls.length; i++)
+        {
+            m_numSystemCalls[i] = in.readLong();
+        }
+        m_numAllocations = in.readInt();
+        m_numFrees = in.readInt();
+        m_numAllocFailures = in.readInt();
+        m_numPageFaults = in.readInt();
+        m_numEvictions = in.readInt();
+        m_numWritebacks = in.readInt();
+        m_numCompactions = in.readInt();
+        m_wordsMoved = in.readInt();
+        m_entriesRemapped = in.readInt();
+
+        m_random = Snapshot.readRandom(in);
+
+        // Memory
+        Snapshot.readInts(in, m_framePages);
+        Snapshot.readInts(in, m_freeFrames);
+        m_numFreeFrames = in.readInt();
+        m_mappedPages = in.readInt();
+        m_allocator.restoreState(in);
+
+        // Processes
+        HashMap<Integer, ProcessControlBlock> byId = new HashMap<Integer, ProcessControlBlock>();
+        int numProcesses = in.readInt();
+        for (int i = 0; i < numProcesses; i++)
+        {
+            ProcessControlBlock pi = new ProcessControlBlock(0);
+            pi.restoreState(in);
+            m_processes.add(pi);
+            setPageOwner(pi, pi);
+            byId.put(pi.getProcessId(), pi);
+        }
+        int currPid = in.readInt();
+        m_currProcess = (currPid < 0) ? null : byId.get(currPid);
+        int numFinished = in.readInt();
+        for (int i = 0; i < numFinished; i++)
+        {
+            ProcessControlBlock pi = new ProcessControlBlock(0);
+            pi.restoreState(in);
+            m_finishedProcesses.add(pi);
+        }
+
+        // Devices
+        int numDevices = in.readInt();
+        for (int i = 0; i < numDevices; i++)
+        {
+            int id = in.readInt();
+            DeviceInfo dev = getDeviceInfo(id);
+            if (dev == null)
+            {
+                throw new IOException("Snapshot has device " + id + " but it is not registered");
+            }
+            int numOpen = in.readInt();
+            for (int j = 0; j < numOpen; j++)
+            {
+                ProcessControlBlock pi = byId.get(in.readInt());
+                if (pi != null)
+                {
+                    dev.addProcess(pi);
+                }
+            }
+        }
+
+        // Programs
+        int numPrograms = in.readInt();
+        for (int i = 0; i < numPrograms; i++)
+        {
+            int[] code = new int[in.readInt()];
+            for (int j = 0; j < code.length; j++)
+            {
+                code[j] = in.readInt();
+            }
+            Program prog = new Program();
+            prog.load(code);
+            prog.setDefaultAllocSize(in.readInt());
+            prog.callCount = in.readInt();
+            m_programs.add(prog);
         }
 
-        // Load the program into RAM
-        if(createProcess(prog, allocSize))
+        // Rebuild the policies' bookkeeping
+        setPageReplacementPolicy(m_pagePolicy);
+        Vector<ProcessControlBlock> ready = new Vector<ProcessControlBlock>(m_processes);
+        Collections.sort(ready, new Comparator<ProcessControlBlock>()
         {
-        	//m_CPU.setPC(m_CPU.getPC() - CPU.INSTRSIZE);
+            public int compare(ProcessControlBlock a, ProcessControlBlock b)
+            {
+                return a.lastReadyTime - b.lastReadyTime;
+            }
+        });
+        for (ProcessControlBlock pi : ready)
+        {
+            m_scheduler.ready(pi, Math.max(pi.lastReadyTime, 0));
         }
-        
+    }// restoreState
 
-    }// syscallExec
+    /**
+     * saveDevices
+     *
+     * writes the state of every registered device (@see Device#saveState)
+     *
+     * @see Snapshot
+     */
+    public void saveDevices(DataOutput out) throws IOException
+    {
+        out.writeInt(m_devices.size());
+        for (DeviceInfo dev : m_devices)
+        {
+            out.writeInt(dev.getId());
+            dev.getDevice().saveState(out);
+        }
+    }// saveDevices
 
     /**
-     * syscallYield
-     * 
-     * a process tells the OS that it can sleep for a while and the OS schedules
-     * a new process to run instead
+     * restoreDevices
+     *
+     * reads the state written by {@link #saveDevices} into the same devices
      */
-    private void syscallYield()
+    public void restoreDevices(DataInput in) throws IOException
     {
-        scheduleNewProcess();
-    }// syscallYield
+        int numDevices = in.readInt();
+        for (int i = 0; i < numDevices; i++)
+        {
+            int id = in.readInt();
+            DeviceInfo dev = getDeviceInfo(id);
+            if (dev == null)
+            {
+                throw new IOException("Snapshot has device " + id + " but it is not registered");
+            }
+            dev.getDevice().restoreState(in);
+        }
+    }// restoreDevices
 
     /*
      * ======================================================================
@@ -1409,7 +2755,7 @@ public class SOS implements CPU.TrapHandler
      * 
      * This class contains information about a currently active process.
      */
-    private class ProcessControlBlock implements
+    class ProcessControlBlock implements
     Comparable<ProcessControlBlock>
     {
         /**
@@ -1428,6 +2774,12 @@ public class SOS implements CPU.TrapHandler
          */
         private Device blockedForDevice = null;
 
+        /**
+         * If this process is blocked this is the registered device whose wait
+         * queue it is in
+         */
+        private DeviceInfo blockedForInfo = null;
+
         /**
          * If this process is blocked a reference to the type of I/O operation
          * is stored here (use the SYSCALL constants defined in SOS)
@@ -1440,6 +2792,20 @@ public class SOS implements CPU.TrapHandler
          */
         private int blockedForAddr = -1;
 
+        /**
+         * If this process is blocked these are the processes before and after
+         * it in its device wait queue (null at either end of the queue)
+         */
+        private ProcessControlBlock prevWaiter = null;
+        private ProcessControlBlock nextWaiter = null;
+
+        /**
+         * where the scheduler keeps this process in its own structures (e.g.,
+         * its handle in a ready queue) -OR- -1 if it isn't in them.  This
+         * lets a scheduler find a process without a map lookup.
+         */
+        private int schedulerSlot = -1;
+
         /**
          * the time it takes to load and save registers, specified as a number
          * of CPU ticks
@@ -1468,6 +2834,41 @@ public class SOS implements CPU.TrapHandler
          */
         private double avgStarve = 0;
 
+        /**
+         * the memory block allocated to this process
+         */
+        private int blockAddr = -1;
+        private int blockSize = 0;
+
+        /**
+         * paging statistics for the pages in this process' address space
+         */
+        private int numPageFaults = 0;
+        private int numEvictions = 0;
+        private int numWritebacks = 0;
+
+        /**
+         * kernel statistics for this process: the CPU ticks it has been
+         * charged for, how many times its registers have been saved and
+         * restored (i.e., switched out and in) and its system calls
+         */
+        private int cpuTicks = 0;
+        private int numSaves = 0;
+        private int numRestores = 0;
+        private int numSystemCalls = 0;
+
+        /**
+         * the number of CPU ticks this process may run before the timer
+         * preempts it (@see SOS#setTimeQuantum)
+         */
+        private int quantum = m_quantum;
+
+        /**
+         * true from when the timer preempts this process until it is
+         * switched out or chosen again (@see #preempt)
+         */
+        private boolean preempted = false;
+
         /**
          * constructor
          * 
@@ -1480,6 +2881,39 @@ public class SOS implements CPU.TrapHandler
             this.processId = pid;
         }
 
+        /**
+         * reset
+         *
+         * puts a process that has been removed back in the state a new
+         * process with its id starts in (keeping its register array, which
+         * is filled before it is read) so that it can be reused
+         */
+        public void reset()
+        {
+            blockedForDevice = null;
+            blockedForInfo = null;
+            blockedForOperation = -1;
+            blockedForAddr = -1;
+            prevWaiter = null;
+            nextWaiter = null;
+            schedulerSlot = -1;
+            lastReadyTime = -1;
+            numReady = 0;
+            maxStarve = -1;
+            avgStarve = 0;
+            blockAddr = -1;
+            blockSize = 0;
+            numPageFaults = 0;
+            numEvictions = 0;
+            numWritebacks = 0;
+            cpuTicks = 0;
+            numSaves = 0;
+            numRestores = 0;
+            numSystemCalls = 0;
+            quantum = m_quantum;
+            preempted = false;
+        }// reset
+
         /**
          * @return the current process' id
          */
@@ -1488,6 +2922,23 @@ public class SOS implements CPU.TrapHandler
             return this.processId;
         }
 
+        /**
+         * @return where the scheduler keeps this process -OR- -1
+         */
+        public int getSchedulerSlot()
+        {
+            return schedulerSlot;
+        }
+
+        /**
+         * @param slot where the scheduler keeps this process -OR- -1 once it
+         *             no longer does
+         */
+        public void setSchedulerSlot(int slot)
+        {
+            schedulerSlot = slot;
+        }
+
         /**
          * @return the last time this process was put in the Ready state
          */
@@ -1506,6 +2957,48 @@ public class SOS implements CPU.TrapHandler
         {
             return numReady;
         }
+
+        /**
+         * @return the number of CPU ticks this process has been charged for
+         */
+        public int getCpuTicks()
+        {
+            return cpuTicks;
+        }
+
+        /**
+         * @return the number of times this process has been switched out
+         *         (its registers saved)
+         */
+        public int getNumSaves()
+        {
+            return numSaves;
+        }
+
+        /**
+         * @return the number of times this process has been switched in (its
+         *         registers restored)
+         */
+        public int getNumRestores()
+        {
+            return numRestores;
+        }
+
+        /**
+         * @return the number of system calls this process has made
+         */
+        public int getNumSystemCalls()
+        {
+            return numSystemCalls;
+        }
+
+        /**
+         * @return the number of page faults in this process' address space
+         */
+        public int getNumPageFaults()
+        {
+            return numPageFaults;
+        }
         
         /**
          * save
@@ -1520,10 +3013,14 @@ public class SOS implements CPU.TrapHandler
             // A context switch is expensive. We simulate that here by
             // adding ticks to m_CPU
             m_CPU.addTicks(SAVE_LOAD_TIME);
+            numSaves++;
 
-            // Save the registers
+            // Save the registers (reusing the array from the last save)
             int[] regs = cpu.getRegisters();
-            this.registers = new int[CPU.NUMREG];
+            if (this.registers == null)
+            {
+                this.registers = new int[CPU.NUMREG];
+            }
             for (int i = 0; i < CPU.NUMREG; i++)
             {
                 this.registers[i] = regs[i];
@@ -1534,11 +3031,50 @@ public class SOS implements CPU.TrapHandler
             // out of the Running state, record the current system time for
             // calculating starve times for this process. If this method is
             // being called for a Block, we'll adjust lastReadyTime in the
-            // unblock method.
+            // unblock method.  A preempted process was already made Ready.
+            if (!preempted)
+            {
+                numReady++;
+                lastReadyTime = m_CPU.getTicks();
+                if (!isBlocked())
+                {
+                    m_scheduler.ready(this, m_CPU.getTicks());
+                }
+            }
+            preempted = false;
+
+        }// save
+
+        /**
+         * preempt
+         * 
+         * moves this process from the Running state to the Ready state when
+         * the timer goes off so that the scheduler can choose between it and
+         * the other Ready processes.  If it is switched out, save won't make
+         * it Ready again; if it is chosen again, resume must be called.
+         */
+        public void preempt()
+        {
             numReady++;
             lastReadyTime = m_CPU.getTicks();
+            m_scheduler.ready(this, lastReadyTime);
+            preempted = true;
+        }// preempt
 
-        }// save
+        /**
+         * resume
+         * 
+         * keeps this process running after it was preempted and then chosen
+         * again (without a context switch)
+         */
+        public void resume()
+        {
+            if (preempted)
+            {
+                recordStarveTime();
+                preempted = false;
+            }
+        }// resume
 
         /**
          * restore
@@ -1554,6 +3090,7 @@ public class SOS implements CPU.TrapHandler
             // A context switch is expensive. We simluate that here by
             // adding ticks to m_CPU
             m_CPU.addTicks(SAVE_LOAD_TIME);
+            numRestores++;
 
             // Restore the register values
             int[] regs = cpu.getRegisters();
@@ -1562,7 +3099,17 @@ public class SOS implements CPU.TrapHandler
                 regs[i] = this.registers[i];
             }
 
-            // Record the starve time statistics
+            recordStarveTime();
+        }// restore
+
+        /**
+         * recordStarveTime
+         * 
+         * adds the time since this process last became Ready to its starve
+         * time statistics
+         */
+        private void recordStarveTime()
+        {
             int starveTime = m_CPU.getTicks() - lastReadyTime;
             if (starveTime > maxStarve)
             {
@@ -1571,7 +3118,7 @@ public class SOS implements CPU.TrapHandler
             double d_numReady = (double) numReady;
             avgStarve = avgStarve * (d_numReady - 1.0) / d_numReady;
             avgStarve = avgStarve + (starveTime * (1.0 / d_numReady));
-        }// restore
+        }// recordStarveTime
 
         /**
          * unblock
@@ -1582,7 +3129,9 @@ public class SOS implements CPU.TrapHandler
          */
         public void unblock()
         {
-            // Reset the info about the block
+            // Leave the device's wait queue and reset the info about the block
+            blockedForInfo.removeWaiter(this, blockedForOperation, blockedForAddr);
+            blockedForInfo = null;
             blockedForDevice = null;
             blockedForOperation = -1;
             blockedForAddr = -1;
@@ -1592,6 +3141,7 @@ public class SOS implements CPU.TrapHandler
             // from the Blocked state to the Ready state, record the current
             // system time for calculating starve times for this process.
             lastReadyTime = m_CPU.getTicks();
+            m_scheduler.unblock(this, m_CPU.getTicks());
 
         }// unblock
 
@@ -1605,7 +3155,7 @@ public class SOS implements CPU.TrapHandler
          * @param cpu
          *            the CPU that the process is running on
          * @param dev
-         *            the Device that the process must wait for
+         *            the device that the process must wait for
          * @param op
          *            the operation that the process is performing on the
          *            device. Use the SYSCALL constants for this value.
@@ -1613,14 +3163,99 @@ public class SOS implements CPU.TrapHandler
          *            the address the process is reading from. If the operation
          *            is a Write or Open then this value can be anything
          */
-        public void block(CPU cpu, Device dev, int op, int addr)
+        public void block(CPU cpu, DeviceInfo dev, int op, int addr)
         {
-            blockedForDevice = dev;
+            blockedForInfo = dev;
+            blockedForDevice = dev.getDevice();
             blockedForOperation = op;
             blockedForAddr = addr;
+            dev.addWaiter(this, op, addr);
+            m_scheduler.block(this, m_CPU.getTicks());
+
+            // Giving up the CPU before the timer goes off means the process
+            // is I/O bound
+            if (m_CPU.isTimerArmed())
+            {
+                quantum = Math.max(quantum / 2, m_minQuantum);
+            }
 
         }// block
 
+        /**
+         * dequeue
+         * 
+         * removes this process from the scheduler and any device's wait queue
+         * (e.g., because it has exited)
+         */
+        public void dequeue()
+        {
+            m_scheduler.exit(this, m_CPU.getTicks());
+            if (blockedForInfo != null)
+            {
+                blockedForInfo.removeWaiter(this, blockedForOperation, blockedForAddr);
+            }
+        }// dequeue
+
+        /**
+         * saveState
+         * 
+         * writes this process' registers, memory block, statistics and time
+         * slice. The process must not be blocked.
+         */
+        public void saveState(DataOutput out) throws IOException
+        {
+            out.writeInt(processId);
+            out.writeBoolean(registers != null);
+            if (registers != null)
+            {
+                Snapshot.writeInts(out, registers);
+            }
+            out.writeInt(lastReadyTime);
+            out.writeInt(numReady);
+            out.writeInt(maxStarve);
+            out.writeDouble(avgStarve);
+            out.writeInt(blockAddr);
+            out.writeInt(blockSize);
+            out.writeInt(numPageFaults);
+            out.writeInt(numEvictions);
+            out.writeInt(numWritebacks);
+            out.writeInt(cpuTicks);
+            out.writeInt(numSaves);
+            out.writeInt(numRestores);
+            out.writeInt(numSystemCalls);
+            out.writeInt(quantum);
+        }// saveState
+
+        /**
+         * restoreState
+         * 
+         * reads the state written by {@link #saveState}
+         */
+        public void restoreState(DataInput in) throws IOException
+        {
+            processId = in.readInt();
+            registers = null;
+            if (in.readBoolean())
+            {
+                registers = new int[CPU.NUMREG];
+                Snapshot.readInts(in, registers);
+            }
+            lastReadyTime = in.readInt();
+            numReady = in.readInt();
+            maxStarve = in.readInt();
+            avgStarve = in.readDouble();
+            blockAddr = in.readInt();
+            blockSize = in.readInt();
+            numPageFaults = in.readInt();
+            numEvictions = in.readInt();
+            numWritebacks = in.readInt();
+            cpuTicks = in.readInt();
+            numSaves = in.readInt();
+            numRestores = in.readInt();
+            numSystemCalls = in.readInt();
+            quantum = in.readInt();
+        }// restoreState
+
         /**
          * isBlocked
          * 
@@ -1668,13 +3303,13 @@ public class SOS implements CPU.TrapHandler
         /**
          * compareTo
          * 
-         * compares this to another ProcessControlBlock object based on the BASE
-         * addr register. Read about Java's Collections class for info on how
-         * this method can be quite useful to you.
+         * compares this to another ProcessControlBlock object based on the
+         * address of its memory block. Read about Java's Collections class for
+         * info on how this method can be quite useful to you.
          */
         public int compareTo(ProcessControlBlock pi)
         {
-            return this.registers[CPU.BASE] - pi.registers[CPU.BASE];
+            return this.blockAddr - pi.blockAddr;
         }
 
         /**
@@ -1751,75 +3386,89 @@ public class SOS implements CPU.TrapHandler
         
         
         /**
+         * relocate
+         *
+         * records that this process' block now begins at a new address and
+         * adjusts its registers (and the CPU's if it is the current process)
+         * to match.  The caller is responsible for the block's contents.
+         *
+         * @param newBase the new base (virtual) address of the block
+         */
+        public void relocate(int newBase)
+        {
+            int delta = newBase - this.blockAddr;
+            this.blockAddr = newBase;
+
+            if (this == m_currProcess)
+            {
+                m_CPU.setBASE(m_CPU.getBASE() + delta);
+                m_CPU.setLIM(m_CPU.getLIM() + delta);
+                m_CPU.setSP(m_CPU.getSP() + delta);
+                m_CPU.setPC(m_CPU.getPC() + delta);
+            }
+            if (this.registers != null)
+            {
+                this.registers[CPU.BASE] += delta;
+                this.registers[CPU.LIM] += delta;
+                this.registers[CPU.SP] += delta;
+                this.registers[CPU.PC] += delta;
+            }
+        }//relocate
+
+        /**
+         * move
+         *
+         * copies this process' block to a new address and relocates the
+         * process.  The caller is responsible for making sure that no other
+         * process is using the new block.
+         *
          * @param newBase the new base (virtual) address this process is to be moved to
          * @return true if this process was moved, false if not
          */
         public boolean move(int newBase)
         {
-        	//TODO #8 HW 8
-        	if(newBase > m_MMU.getSize() || newBase < 0)
-        	{
-        		return false;
-        	}
-        	//Get new page number to move to
-        	int page = 0;
-        	int oldBase = this.getRegisterValue(CPU.BASE);
-        	for(int i = 0; i < m_MMU.getSize(); i += m_MMU.getPageSize())
-        	{
-        		if(newBase > i && newBase < i + m_MMU.getPageSize())
-        		{
-        			m_RAM.write(page, m_MMU.read(oldBase));
-        		}
-        		else
-        		{
-        			page++;
-        		}
-        	}
-        	debugPrintln("Process + " + this.getProcessId() + " moved from " + oldBase + " to " + newBase + ".");
-        	return true;
-        	
-        	
-        	
-        	
-        	//TODO UNNECESSARY CODE NOW!
-        	
-        	/*int oldLim = this.getRegisterValue(CPU.LIM);
-        	int oldStack = this.getRegisterValue(CPU.SP);
-        	int oldCount = this.getRegisterValue(CPU.PC);
-        	int change = newBase - oldBase;
-        	int dataLocation = newBase;
-        	//Adjust the process' register values & move it
-        	for(int i = oldBase;i < oldLim; i++, dataLocation++)
-        	{
-        		int data = m_MMU.read(i);
-        		//Invalid memory location
-        		if(dataLocation < 0 || dataLocation >= m_MMU.getSize())
-        		{
-        			return false;
-        		}
-        		//TODO NO COPY TO PHYSICAL RAM
-        		//m_MMU.write(dataLocation, data);
-        	}
-
-        	//If current process adjust CPU registers as well
-        	if(this == m_currProcess)
-        	{
-        		m_CPU.setBASE(newBase);
-        		m_CPU.setLIM(change + oldLim);
-        		m_CPU.setSP(change + oldStack);
-        		m_CPU.setPC(change + oldCount);
-        		save(m_CPU);
-        	}
-        	//Not current process, set registers
-        	else
-        	{
-        		this.setRegisterValue(CPU.BASE, newBase);
-        		this.setRegisterValue(CPU.LIM, change + oldLim);
-        		this.setRegisterValue(CPU.SP, change + oldStack);
-        		this.setRegisterValue(CPU.PC, change + oldCount);
-        	}
-        	debugPrintln("Process " + this.getProcessId() + " moved from " + oldBase + " to " + newBase);
-        	return true;*/
+            if ((newBase < 0) || (newBase + this.blockSize > m_MMU.getSize()))
+            {
+                return false;
+            }
+
+            //Whole pages can simply be remapped
+            int oldBase = this.blockAddr;
+            if ((m_compactionMode == COMPACT_REMAP)
+                && ((oldBase & m_MMU.getOffsetMask()) == 0)
+                && ((newBase & m_MMU.getOffsetMask()) == 0)
+                && ((this.blockSize & m_MMU.getOffsetMask()) == 0))
+            {
+                Vector<ProcessControlBlock> procs = new Vector<ProcessControlBlock>();
+                procs.add(this);
+                remapBlocks(procs, new int[] { newBase });
+            }
+
+            //Otherwise copy in the direction that never overwrites a word of
+            //the old block before it has been read
+            else if (newBase < oldBase)
+            {
+                for (int i = 0; i < this.blockSize; i++)
+                {
+                    m_MMU.write(newBase + i, m_MMU.read(oldBase + i));
+                }
+                m_wordsMoved += this.blockSize;
+            }
+            else
+            {
+                for (int i = this.blockSize - 1; i >= 0; i--)
+                {
+                    m_MMU.write(newBase + i, m_MMU.read(oldBase + i));
+                }
+                m_wordsMoved += this.blockSize;
+            }
+
+            relocate(newBase);
+            if (m_verbose)
+            {
+                debugPrintln("Process " + this.getProcessId() + " moved from " + oldBase + " to " + newBase);
+            }
+            return true;
         }//move
         
 
@@ -1844,14 +3493,7 @@ public class SOS implements CPU.TrapHandler
                 {
                     result = result + "WRITE @" + blockedForAddr;
                 }
-                for (DeviceInfo di : m_devices)
-                {
-                    if (di.getDevice() == blockedForDevice)
-                    {
-                        result = result + " on device #" + di.getId();
-                        break;
-                    }
-                }
+                result = result + " on device #" + blockedForInfo.getId();
                 result = result + ": ";
             } else if (this == m_currProcess)
             {
@@ -1896,12 +3538,27 @@ public class SOS implements CPU.TrapHandler
      */
     private class DeviceInfo
     {
+        /** the initial number of slots in the wait queue table (a power of 2) */
+        private static final int WAIT_TABLE_SIZE = 8;
+
         /** every device has a unique id */
         private int id;
         /** a reference to the device driver for this device */
         private Device device;
         /** a list of processes that have opened this device */
         private Vector<ProcessControlBlock> procs;
+        /**
+         * the processes blocked on this device in the order they blocked,
+         * with a separate queue for each operation and address.  Each queue
+         * is a list linked through the processes' prevWaiter and nextWaiter
+         * and is found in an open addressing hash table by its key (see
+         * {@link #waitKey}).  A slot whose head is null is empty.
+         */
+        private long[] waitKeys;
+        private ProcessControlBlock[] waitHeads;
+        private ProcessControlBlock[] waitTails;
+        /** the number of non-empty wait queues */
+        private int numWaitQueues;
 
         /**
          * constructor
@@ -1917,6 +3574,10 @@ public class SOS implements CPU.TrapHandler
             this.id = initID;
             this.device = d;
             this.procs = new Vector<ProcessControlBlock>();
+            this.waitKeys = new long[WAIT_TABLE_SIZE];
+            this.waitHeads = new ProcessControlBlock[WAIT_TABLE_SIZE];
+            this.waitTails = new ProcessControlBlock[WAIT_TABLE_SIZE];
+            this.numWaitQueues = 0;
         }
 
         /** @return the device's id */
@@ -1955,6 +3616,173 @@ public class SOS implements CPU.TrapHandler
             return procs.size() == 0;
         }
 
+        /**
+         * @return the key of the wait queue for an operation and address.
+         *         Processes waiting to open the device share one queue no
+         *         matter what address they give.
+         */
+        private long waitKey(int op, int addr)
+        {
+            if (op == SYSCALL_OPEN)
+            {
+                addr = 0;
+            }
+            return ((long) op << 32) | (addr & 0xFFFFFFFFL);
+        }
+
+        /** @return the slot a key hashes to in a table of a given size */
+        private int waitHash(long key, int length)
+        {
+            int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & (length - 1);
+        }
+
+        /**
+         * @return the slot holding the queue with a given key -OR- the empty
+         *         slot where it belongs
+         */
+        private int findWaitSlot(long key)
+        {
+            int mask = waitHeads.length - 1;
+            int i = waitHash(key, waitHeads.length);
+            while ((waitHeads[i] != null) && (waitKeys[i] != key))
+            {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /** Add a process to the back of a wait queue */
+        public void addWaiter(ProcessControlBlock pi, int op, int addr)
+        {
+            long key = waitKey(op, addr);
+            int i = findWaitSlot(key);
+            pi.nextWaiter = null;
+            if (waitHeads[i] == null)
+            {
+                pi.prevWaiter = null;
+                waitKeys[i] = key;
+                waitHeads[i] = pi;
+                waitTails[i] = pi;
+                numWaitQueues++;
+                if (numWaitQueues * 2 > waitHeads.length)
+                {
+                    growWaitTable();
+                }
+            }
+            else
+            {
+                pi.prevWaiter = waitTails[i];
+                waitTails[i].nextWaiter = pi;
+                waitTails[i] = pi;
+            }
+        }
+
+        /**
+         * @return the process that has waited longest for an operation on an
+         *         address -OR- null
+         */
+        public ProcessControlBlock firstWaiter(int op, int addr)
+        {
+            return waitHeads[findWaitSlot(waitKey(op, addr))];
+        }
+
+        /**
+         * Remove a process from its wait queue.  The queue only has to be
+         * looked up if the process is at either end of it.
+         */
+        public void removeWaiter(ProcessControlBlock pi, int op, int addr)
+        {
+            ProcessControlBlock prev = pi.prevWaiter;
+            ProcessControlBlock next = pi.nextWaiter;
+            pi.prevWaiter = null;
+            pi.nextWaiter = null;
+            if ((prev != null) && (next != null))
+            {
+                prev.nextWaiter = next;
+                next.prevWaiter = prev;
+                return;
+            }
+
+            int i = findWaitSlot(waitKey(op, addr));
+            if (prev != null)
+            {
+                prev.nextWaiter = null;
+                waitTails[i] = prev;
+            }
+            else if (waitHeads[i] == pi)
+            {
+                waitHeads[i] = next;
+                if (next != null)
+                {
+                    next.prevWaiter = null;
+                }
+                else
+                {
+                    waitTails[i] = null;
+                    removeWaitSlot(i);
+                }
+            }
+        }
+
+        /**
+         * empties a slot and moves any later queues that collided with it
+         * back so that every queue can still be found from its hash slot
+         */
+        private void removeWaitSlot(int i)
+        {
+            int mask = waitHeads.length - 1;
+            waitHeads[i] = null;
+            waitTails[i] = null;
+            numWaitQueues--;
+
+            int j = i;
+            while (true)
+            {
+                j = (j + 1) & mask;
+                if (waitHeads[j] == null)
+                {
+                    return;
+                }
+
+                // The queue in slot j can fill the gap unless its hash slot
+                // lies cyclically in (i, j]
+                int home = waitHash(waitKeys[j], waitHeads.length);
+                boolean between = (i <= j) ? ((i < home) && (home <= j))
+                                           : ((i < home) || (home <= j));
+                if (!between)
+                {
+                    waitKeys[i] = waitKeys[j];
+                    waitHeads[i] = waitHeads[j];
+                    waitTails[i] = waitTails[j];
+                    waitHeads[j] = null;
+                    waitTails[j] = null;
+                    i = j;
+                }
+            }
+        }
+
+        /** doubles the size of the wait queue table */
+        private void growWaitTable()
+        {
+            long[] oldKeys = waitKeys;
+            ProcessControlBlock[] oldHeads = waitHeads;
+            ProcessControlBlock[] oldTails = waitTails;
+            waitKeys = new long[oldKeys.length * 2];
+            waitHeads = new ProcessControlBlock[oldKeys.length * 2];
+            waitTails = new ProcessControlBlock[oldKeys.length * 2];
+            for (int j = 0; j < oldHeads.length; j++)
+            {
+                if (oldHeads[j] != null)
+                {
+                    int i = findWaitSlot(oldKeys[j]);
+                    waitKeys[i] = oldKeys[j];
+                    waitHeads[i] = oldHeads[j];
+                    waitTails[i] = oldTails[j];
+                }
+            }
+        }
+
     }// class DeviceInfo
     
     /**
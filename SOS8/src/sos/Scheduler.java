@@ -0,0 +1,98 @@
+package sos;
+
+/**
+ * This interface defines the methods the OS uses to decide which process to
+ * run next.  The OS tells the scheduler about every change in a process'
+ * state and then asks it to choose a process whenever the CPU must be given
+ * to someone.
+ *
+ * The running process is still considered Ready by the scheduler (the OS
+ * simply keeps running it if it is chosen again) until it blocks or exits.
+ *
+ * @see SOS#scheduleNewProcess
+ */
+public interface Scheduler
+{
+    /**
+     * ready
+     *
+     * is called when a process is created and whenever the running process
+     * is switched out without blocking (e.g., when the timer preempts it).
+     * By then the OS has already updated the process' last ready time and
+     * ready count, so a policy that orders processes by them must reorder
+     * this one.  It may be called for a process that the scheduler already
+     * considers Ready; the process must then not be added twice.
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    public void ready(SOS.ProcessControlBlock proc, int now);
+
+    /**
+     * block
+     *
+     * is called when a process starts waiting for a device.  The process
+     * must not be chosen until it is unblocked.
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    public void block(SOS.ProcessControlBlock proc, int now);
+
+    /**
+     * unblock
+     *
+     * is called when a blocked process becomes Ready again
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    public void unblock(SOS.ProcessControlBlock proc, int now);
+
+    /**
+     * exit
+     *
+     * is called when a process exits.  The scheduler must forget it.
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    public void exit(SOS.ProcessControlBlock proc, int now);
+
+    /**
+     * tick
+     *
+     * charges the running process for the CPU time it has used since it was
+     * last charged.  This is called before every scheduling decision.
+     *
+     * @param proc  the running process
+     * @param ticks the number of CPU ticks it has used
+     */
+    public void tick(SOS.ProcessControlBlock proc, int ticks);
+
+    /**
+     * selectNext
+     *
+     * chooses the process that gets the CPU.  The OS calls this whenever it
+     * must make a decision (a process blocked or exited, or the timer went
+     * off), after charging the running process with {@link #tick}.  The
+     * chosen process stays Ready: the scheduler must not forget it unless
+     * it is later blocked or exits.  The running process may be chosen
+     * again, in which case the OS keeps running it without a context
+     * switch.  A policy that takes turns may treat each call as the start
+     * of the chosen process' turn.
+     *
+     * @param now the current time in CPU ticks
+     * @return the Ready process that should run next -OR- null if there are
+     *         none (never a blocked process)
+     */
+    public SOS.ProcessControlBlock selectNext(int now);
+
+    /**
+     * getName
+     *
+     * @return a short name for the policy (e.g., for reports)
+     */
+    public String getName();
+
+};//interface Scheduler
@@ -1,12 +1,14 @@
 package sos;
 
+import java.io.File;
 import java.util.*;
 
 /**
- * This class sets up the SOS simulation by creating the RAM, CPU and SOS
- * objects, loading appropriate programs, and calling {@link CPU#run} method on
- * the CPU.
+ * This class sets up the SOS simulation from the command line and runs it
+ * (@see Simulation, which creates the RAM, CPU and SOS objects, loads
+ * appropriate programs, and calls the {@link CPU#run} method on the CPU).
  *
+ * @see Simulation
  * @see RAM
  * @see CPU
  * @see SOS
@@ -19,63 +21,19 @@ public class Sim
      *----------------------------------------------------------------------
      */
     
-    /**
-     * ExitCatcher
-     *
-     * is a security manager that prevents threads from calling System.exit().
-     * This allows Sim.java to properly time the simulation.
-     *
-     */
-    static class ExitCatcher extends SecurityManager
-    {
-        private boolean m_caught = false;
-
-        public ExitCatcher()
-        {
-            super();
-        }
-
-        public boolean isExitCaught()
-        {
-            return m_caught;
-        }
-
-        public void checkExit(int status)
-        {
-            super.checkExit(status);
-            if (!m_caught)
-            {
-                m_caught = true;
-                throw new SecurityException();
-            }
-        }
-        
-        public void checkRead(String file) 
-        {
-        	//do nothing
-        }
-    }//ExitCatcher
-
     /**
      * DoNothingHandler
      *
-     * needed to "handle" uncaught exceptions thrown by the device and CPU
-     * threads (simulation will just end)
+     * needed to "handle" uncaught exceptions thrown by the device threads
+     * (the device will just stop)
      */
     static class DoNothingHandler implements Thread.UncaughtExceptionHandler
     {
         public void uncaughtException(Thread t, Throwable th)
         {
-            if (th instanceof SecurityException)
-            {
-                //do nothing (what, you thought I was kidding?)
-            }
-            else
-            {
-                //Report other exceptions to the user
-                System.out.println("Exception in Current Thread:");
-                th.printStackTrace();
-            }
+            //Report the exception to the user
+            System.out.println("Exception in Current Thread:");
+            th.printStackTrace();
         }
     }//DoNothingHandler
 
@@ -83,9 +41,8 @@ public class Sim
      * Member Variables
      *----------------------------------------------------------------------
      */
-    private static ExitCatcher m_EC = new ExitCatcher();
     private static DoNothingHandler m_DNH = new DoNothingHandler();
-    
+
     /*======================================================================-
      * Methods
      *----------------------------------------------------------------------
@@ -100,164 +57,369 @@ public class Sim
      */
     public static void runAllocTest()
     {
-        //Create the simulated hardware and OS
-        RAM ram = new RAM(4096, 0);
-        MMU mmu = new MMU(ram, 4096, 64);
-        InterruptController ic = new InterruptController();
-        KeyboardDevice kd = new KeyboardDevice(ic);
-        kd.setId(0);
-        ConsoleDevice cd = new ConsoleDevice(ic);
-        cd.setId(1);
-        CPU cpu = new CPU(ram, ic, mmu);
-        SOS os  = new SOS(cpu, ram, mmu);
-
-        //Register the device drivers with the OS
-        os.registerDevice(kd, 0);
-        os.registerDevice(cd, 1);
+        Simulation sim = new Simulation();
+        sim.setDeviceThreads(new DeviceThreadFactory(false, m_DNH));
+        report(sim.run());
+    }
 
-        //Load the program into RAM
-        Program prog = new Program();
-        if (prog.load("quickspawn20.asm", false) != 0)
+    /**
+     * configure
+     *
+     * creates a simulation of the memory fragmentation test as described by
+     * the command line arguments (@see #main)
+     *
+     * @param args the command line arguments
+     * @return the simulation -OR- null if an argument is bad
+     */
+    public static Simulation configure(String[] args)
+    {
+        Simulation sim = new Simulation();
+        List<String> argList = Arrays.asList(args);
+        sim.setDiscreteEvent(argList.contains("-des"));
+        sim.setDeviceThreads(new DeviceThreadFactory(argList.contains("-vthreads"),
+                                                     m_DNH));
+        for (String arg : args)
         {
-            System.out.println("ERROR: Could not load quickspawn20.asm");
-            return;
+            if (arg.startsWith("-coalesce="))
+            {
+                sim.setCoalesce(Integer.parseInt(arg.substring("-coalesce=".length())));
+            }
+            if (arg.startsWith("-quantum="))
+            {
+                sim.setQuantum(Integer.parseInt(arg.substring("-quantum=".length())));
+            }
+            if (arg.startsWith("-sched="))
+            {
+                String name = arg.substring("-sched=".length());
+                if (Simulation.createScheduler(name, 0) == null)
+                {
+                    System.out.println("ERROR: Unknown scheduler " + arg);
+                    return null;
+                }
+                sim.setSchedulerName(name);
+            }
+            if (arg.startsWith("-keyboard=") || arg.startsWith("-console="))
+            {
+                //-keyboard=<min>,<max> or -console=<min>,<max>
+                String[] range = arg.substring(arg.indexOf('=') + 1).split(",");
+                if (range.length != 2)
+                {
+                    System.out.println("ERROR: Expected " + arg.substring(0, arg.indexOf('='))
+                                       + "=<min>,<max>");
+                    return null;
+                }
+                int min = Integer.parseInt(range[0]);
+                int max = Integer.parseInt(range[1]);
+                if (arg.startsWith("-keyboard="))
+                {
+                    sim.setKeyboardLatency(min, max);
+                }
+                else
+                {
+                    sim.setConsoleLatency(min, max);
+                }
+            }
+            if (arg.startsWith("-trace="))
+            {
+                sim.setTraceFile(new File(arg.substring("-trace=".length())));
+            }
+            if (arg.startsWith("-snapshot="))
+            {
+                //-snapshot=<file>@<instructions>
+                String value = arg.substring("-snapshot=".length());
+                int at = value.lastIndexOf('@');
+                if (at < 0)
+                {
+                    System.out.println("ERROR: Expected -snapshot=<file>@<instructions>");
+                    return null;
+                }
+                sim.setSnapshot(new File(value.substring(0, at)),
+                                Long.parseLong(value.substring(at + 1)));
+            }
+            if (arg.startsWith("-restore="))
+            {
+                sim.setRestoreFile(new File(arg.substring("-restore=".length())));
+            }
+            if (arg.startsWith("-record="))
+            {
+                sim.setRecordFile(new File(arg.substring("-record=".length())));
+            }
+            if (arg.startsWith("-replay="))
+            {
+                sim.setReplayFile(new File(arg.substring("-replay=".length())));
+            }
+            if (arg.startsWith("-probes="))
+            {
+                int mask = Probes.parseMask(arg.substring("-probes=".length()));
+                if (mask < 0)
+                {
+                    System.out.println("ERROR: Unknown probe in " + arg);
+                    return null;
+                }
+                sim.setProbes(new Probes(Probes.DEFAULT_CAPACITY, mask));
+            }
         }
-        os.createProcess(prog,  1200);
+        return sim;
+    }//configure
 
-        //Register other programs for Exec system calls.  These processes have
-        //been designed to encourage memory fragmentation
-        prog = new Program();
-        if (prog.load("quickspawn1a.asm", false) != 0)
+    /**
+     * report
+     *
+     * tells the user why a simulation halted if it wasn't because every
+     * process exited
+     *
+     * @param result the results of the simulation
+     */
+    private static void report(Simulation.Result result)
+    {
+        if (result.isNormalHalt()) return;
+
+        System.out.println("SIMULATION HALTED: " + result.getReason());
+        if (result.getError() != null)
         {
-            System.out.println("ERROR: Could not load quickspawn1a.asm");
-            return;
+            result.getError().printStackTrace();
         }
-        os.addProgram(prog);
-        prog = new Program();
-        if (prog.load("quickspawn1b.asm", false) != 0)
+    }//report
+
+    /**
+     * runMany
+     *
+     * runs several copies of a simulation at once, each with its own seed,
+     * and prints a summary of their results
+     *
+     * @param args the command line arguments describing each simulation
+     * @param runs the number of simulations
+     */
+    public static void runMany(String[] args, int runs)
+    {
+        //Verbose output from many machines at once would be unreadable
+        SOS.m_verbose = false;
+
+        List<Simulation> sims = new ArrayList<Simulation>();
+        for (int i = 0; i < runs; i++)
         {
-            System.out.println("ERROR: Could not load quickspawn1b.asm");
-            return;
+            Simulation sim = configure(args);
+            if (sim == null) return;
+            sim.setName("sim-" + i);
+            sim.setSeed(Simulation.DES_SEED + i);
+            sim.setQuiet(true);
+            if (sim.getTraceFile() != null)
+            {
+                //Each simulation needs a trace of its own
+                sim.setTraceFile(new File(sim.getTraceFile().getPath() + "." + i));
+            }
+            if (sim.getRecordFile() != null)
+            {
+                sim.setRecordFile(new File(sim.getRecordFile().getPath() + "." + i));
+            }
+            if (sim.getSnapshotFile() != null)
+            {
+                sim.setSnapshot(new File(sim.getSnapshotFile().getPath() + "." + i),
+                                sim.getSnapshotAt());
+            }
+            sims.add(sim);
         }
-        os.addProgram(prog);
-        prog = new Program();
-        if (prog.load("quickspawn1c.asm", false) != 0)
+
+        SimulationRunner runner =
+            new SimulationRunner(Arrays.asList(args).contains("-vthreads"));
+        long startTime = System.currentTimeMillis();
+        try
         {
-            System.out.println("ERROR: Could not load quickspawn1c.asm");
-            return;
+            List<Simulation.Result> results = runner.runAll(sims);
+            long endTime = System.currentTimeMillis();
+            for (Simulation.Result r : results)
+            {
+                System.out.println(r);
+            }
+            System.out.println(SimulationRunner.summarize(results, endTime - startTime));
         }
-        os.addProgram(prog);
-        prog = new Program();
-        if (prog.load("quickspawn1d.asm", false) != 0)
+        catch (InterruptedException ie)
         {
-            System.out.println("ERROR: Could not load quickspawn1d.asm");
-            return;
+            System.out.println("Interrupted!");
         }
-        os.addProgram(prog);
-        prog = new Program();
-        if (prog.load("quickspawn1e.asm", false) != 0)
+        finally
         {
-            System.out.println("ERROR: Could not load quickspawn1e.asm");
-            return;
+            runner.shutdown();
         }
-        os.addProgram(prog);
-        prog = new Program();
-        if (prog.load("thinker.asm", false) != 0)
+    }//runMany
+
+    /**
+     * runForked
+     *
+     * runs a simulation that forks others once it has run some instructions
+     * (@see Simulation#setFork) and prints a summary of all of their
+     * results.  Each "-child=<options>" argument describes one fork: its
+     * options are those of the command line without their dashes,
+     * separated by colons (e.g., -child=sched=lottery:quantum=20), and they
+     * are added to the parent's.
+     *
+     * @param args         the command line arguments
+     * @param instructions the number of instructions the parent runs before
+     *                     it forks
+     */
+    public static void runForked(String[] args, long instructions)
+    {
+        //Verbose output from many machines at once would be unreadable
+        SOS.m_verbose = false;
+
+        Simulation sim = configure(args);
+        if (sim == null) return;
+        sim.setName("parent");
+        sim.setQuiet(true);
+
+        List<Simulation> forks = new ArrayList<Simulation>();
+        for (String arg : args)
         {
-            System.out.println("ERROR: Could not load thinker.asm");
-            return;
+            if (!arg.startsWith("-child=")) continue;
+
+            List<String> childArgs = new ArrayList<String>(Arrays.asList(args));
+            for (String option : arg.substring("-child=".length()).split(":"))
+            {
+                childArgs.add("-" + option);
+            }
+            Simulation child = configure(childArgs.toArray(new String[childArgs.size()]));
+            if (child == null) return;
+            String name = "fork-" + forks.size();
+            child.setName(name);
+            child.setQuiet(true);
+
+            //A fork starts from its parent so it can't restore, record or
+            //replay, and it needs files of its own
+            child.setRestoreFile(null);
+            child.setRecordFile(null);
+            child.setReplayFile(null);
+            if (child.getTraceFile() != null)
+            {
+                child.setTraceFile(new File(child.getTraceFile().getPath() + "." + name));
+            }
+            if (child.getSnapshotFile() != null)
+            {
+                child.setSnapshot(new File(child.getSnapshotFile().getPath() + "." + name),
+                                  child.getSnapshotAt());
+            }
+            forks.add(child);
         }
-        os.addProgram(prog);
-        prog = new Program();
-        if (prog.load("bigthinker.asm", false) != 0)
+        if (forks.isEmpty())
         {
-            System.out.println("ERROR: Could not load bigthinker.asm");
+            System.out.println("ERROR: -fork needs at least one -child=<options>");
             return;
         }
-        os.addProgram(prog);
 
-        //Start up the devices
-        Thread t = new Thread(cd);
-        t.setUncaughtExceptionHandler(m_DNH);
-        t.start();
-        t = new Thread(kd);
-        t.setUncaughtExceptionHandler(m_DNH);
-        t.start();
-        
-        //Run the simulation
-        t = new Thread(cpu);
-        t.setUncaughtExceptionHandler(m_DNH);
-        t.start();
-
-        //Wait until System.exit() is called
-        while(!m_EC.isExitCaught())
+        SimulationRunner runner =
+            new SimulationRunner(Arrays.asList(args).contains("-vthreads"));
+        sim.setFork(instructions, forks, runner);
+        long startTime = System.currentTimeMillis();
+        try
         {
-            try
+            Simulation.Result result = sim.run();
+            long endTime = System.currentTimeMillis();
+            if (result.getForkInstruction() < 0)
             {
-                t.join(1000);
+                System.out.println("The parent halted before it could fork");
             }
-            catch(InterruptedException ie)
+            else
             {
-                System.out.println("Interrupted!");
-                return;
+                System.out.println("Forked " + forks.size() + " simulations at instruction "
+                                   + result.getForkInstruction());
             }
-        }//while
 
-    }//runAllocTest
+            List<Simulation.Result> results = new ArrayList<Simulation.Result>();
+            results.add(result);
+            results.addAll(result.getForkResults());
+            for (Simulation.Result r : results)
+            {
+                System.out.println(r);
+            }
+            System.out.println(SimulationRunner.summarize(results, endTime - startTime));
+        }
+        finally
+        {
+            runner.shutdown();
+        }
+    }//runForked
 
     /**
      * main
      *
      * This function makes the simulation go.
      *
+     * @param args pass "-des" to run in discrete event mode,
+     *             "-sched=<name>" to choose the scheduling policy (see
+     *             {@link Simulation#createScheduler}), "-quantum=<ticks>" to
+     *             use a fixed time slice, "-coalesce=<ticks>" to batch
+     *             interrupts, "-vthreads" to run the devices (and the
+     *             simulations) on virtual threads, "-runs=<n>" to run n
+     *             simulations at once, "-verbose" to print the OS's debugging
+     *             output, "-probes=<fetch,execute,trap,switch,alloc,
+     *             interrupt|all>" to trace those events (the last of them
+     *             are printed at the end), "-trace=<file>" to write an
+     *             execution trace (@see TraceReader) and "-record=<file>" or
+     *             "-replay=<file>" to record the interrupts of a run or
+     *             replay them (@see InterruptLog),
+     *             "-snapshot=<file>@<instructions>" to save the machine once
+     *             it has run that many instructions and "-restore=<file>" to
+     *             start from a saved machine (@see Snapshot),
+     *             "-keyboard=<min>,<max>" and "-console=<min>,<max>" to set
+     *             the devices' latencies and "-fork=<instructions>" with one
+     *             or more "-child=<options>" to fork simulations with other
+     *             options from this one (@see #runForked)
      */
     public static void main(String[] args)
     {
-        //Start catching System.exit
-        System.setSecurityManager(m_EC);
-
-        //Delay for any threads that might be winding down
-        //Do a timed run
-        long startTime = System.currentTimeMillis();
-        long endTime = System.currentTimeMillis();
-        try
-        {
-            //***********Run the simulation************
-            runAllocTest();
-
-            //Record the ending time
-            endTime = System.currentTimeMillis();
-
-            //Delay for any other threads that might be winding down
-            Thread.sleep(1000);
-        }
-        catch(SecurityException se)
-        {
-            endTime = System.currentTimeMillis();
-            se.printStackTrace();
-        }
-        catch(Exception e)
+        if (Arrays.asList(args).contains("-verbose"))
         {
-            endTime = System.currentTimeMillis();
-            System.out.println("EXCEPTION THROWN DURING SIMULATION:");
-            e.printStackTrace();
+            SOS.m_verbose = true;
         }
 
-        //If System.exit was not called by any thread then bypass that
-        //protection now
-        if (! m_EC.isExitCaught())
+        for (String arg : args)
         {
-            try{ System.exit(-42); } catch (SecurityException se) { }
+            if (arg.startsWith("-runs="))
+            {
+                runMany(args, Integer.parseInt(arg.substring("-runs=".length())));
+                return;
+            }
+            if (arg.startsWith("-fork="))
+            {
+                runForked(args, Long.parseLong(arg.substring("-fork=".length())));
+                return;
+            }
         }
 
+        Simulation sim = configure(args);
+        if (sim == null) return;
+
+        //Do a timed run
+        long startTime = System.currentTimeMillis();
+        Simulation.Result result = sim.run();
+        long endTime = System.currentTimeMillis();
+        report(result);
+
         //Print the final timing info for the user
         System.out.println("");
         System.out.println("");
         System.out.println("END OF SIMULATION");
         System.out.println("Total Simulation Time: " + (endTime - startTime) + "ms");
+        System.out.println("Instructions: " + result.getNumInstructions()
+                           + " Simulated MIPS: " + result.getMips());
+        if (sim.getProbes() != null)
+        {
+            sim.getProbes().dump(System.out);
+            sim.getProbes().printCounts(System.out);
+        }
+        if (result.getSnapshotBytes() > 0)
+        {
+            System.out.println("Snapshot: " + result.getSnapshotBytes()
+                               + " bytes at instruction "
+                               + result.getSnapshotInstruction() + " saved to "
+                               + sim.getSnapshotFile());
+        }
+        if (sim.getTraceFile() != null)
+        {
+            System.out.println("Trace: " + result.getNumTraceRecords()
+                               + " records, " + result.getNumTraceBytes()
+                               + " bytes written to " + sim.getTraceFile());
+        }
 
-        System.exit(0);
-        
     }//main
     
 };//class Sim
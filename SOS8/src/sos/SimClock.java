@@ -0,0 +1,192 @@
+package sos;
+
+import java.util.PriorityQueue;
+
+/**
+ * This class is the virtual clock used when the simulation runs in discrete
+ * event mode.  Instead of sleeping for real time, the hardware charges
+ * simulated cycles to this clock: the CPU charges its ticks, RAM charges its
+ * access latency and devices schedule their completions as events that fire
+ * once the clock reaches them.  A run in this mode is as fast as the host
+ * allows and always produces the same tick counts.
+ *
+ * The clock's time is the CPU's tick count plus every cycle spent waiting on
+ * RAM or idling until the next device event.
+ *
+ * @see CPU#setClock
+ * @see RAM#setClock
+ */
+public class SimClock
+{
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the current simulated time (in cycles)
+     */
+    private long m_now = 0;
+
+    /**
+     * the number of events ever scheduled.  This breaks ties between events
+     * that are due at the same time so that they fire in the order they were
+     * scheduled.
+     */
+    private long m_nextSeq = 0;
+
+    /**
+     * the pending events ordered by the time they are due
+     */
+    private PriorityQueue<Event> m_events = new PriorityQueue<Event>();
+
+    /**
+     * events that have fired, linked through m_next, for schedule to reuse
+     * so that a steady stream of device requests allocates nothing
+     */
+    private Event m_free = null;
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * getTime
+     *
+     * @return the current simulated time in cycles
+     */
+    public long getTime()
+    {
+        return m_now;
+    }
+
+    /**
+     * advance
+     *
+     * moves the clock forward
+     *
+     * @param cycles the number of cycles that have elapsed
+     */
+    public void advance(long cycles)
+    {
+        m_now += cycles;
+    }
+
+    /**
+     * hasEvents
+     *
+     * @return true if any events are pending
+     */
+    public boolean hasEvents()
+    {
+        return !m_events.isEmpty();
+    }
+
+    /**
+     * schedule
+     *
+     * arranges for an action to be performed once a given number of cycles
+     * have elapsed
+     *
+     * @param delay  the number of cycles from now that the action is due
+     * @param action the action to perform
+     */
+    public void schedule(long delay, Runnable action)
+    {
+        Event e = m_free;
+        if (e == null)
+        {
+            e = new Event();
+        }
+        else
+        {
+            m_free = e.m_next;
+            e.m_next = null;
+        }
+        e.m_time = m_now + delay;
+        e.m_seq = m_nextSeq;
+        e.m_action = action;
+        m_events.add(e);
+        m_nextSeq++;
+    }//schedule
+
+    /**
+     * fireNext
+     *
+     * performs the earliest pending action if it is due
+     *
+     * @return true if an action was performed
+     */
+    public boolean fireNext()
+    {
+        Event e = m_events.peek();
+        if ((e == null) || (e.m_time > m_now))
+        {
+            return false;
+        }
+
+        m_events.poll();
+        Runnable action = e.m_action;
+        e.m_action = null;
+        e.m_next = m_free;
+        m_free = e;
+        action.run();
+        return true;
+    }//fireNext
+
+    /**
+     * advanceToNextEvent
+     *
+     * is used when there is nothing to do but wait for a device.  The clock
+     * jumps straight to the time the next event is due.
+     */
+    public void advanceToNextEvent()
+    {
+        Event e = m_events.peek();
+        if ((e != null) && (e.m_time > m_now))
+        {
+            m_now = e.m_time;
+        }
+    }//advanceToNextEvent
+
+    //======================================================================
+    // Nested Classes
+    //----------------------------------------------------------------------
+
+    /**
+     * class Event
+     *
+     * an action that is due at a given simulated time
+     */
+    private static class Event implements Comparable<Event>
+    {
+        /** when the event is due */
+        private long m_time;
+        /** the order in which the event was scheduled */
+        private long m_seq;
+        /** what to do when the event is due */
+        private Runnable m_action;
+        /** the next unused event (@see SimClock#m_free) */
+        private Event m_next;
+
+        /**
+         * compareTo
+         *
+         * orders events by their due time and then by when they were
+         * scheduled
+         */
+        public int compareTo(Event e)
+        {
+            if (m_time != e.m_time)
+            {
+                return (m_time < e.m_time) ? -1 : 1;
+            }
+            if (m_seq != e.m_seq)
+            {
+                return (m_seq < e.m_seq) ? -1 : 1;
+            }
+            return 0;
+        }
+
+    }//class Event
+
+}//class SimClock
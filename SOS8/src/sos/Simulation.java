@@ -0,0 +1,928 @@
+package sos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class is one complete simulated machine (RAM, MMU, CPU, devices and
+ * SOS) together with the programs it runs.  Nothing it uses is shared with
+ * other simulations, so any number of them can run at once in the same JVM
+ * (@see SimulationRunner).  Running a simulation returns its results once
+ * the OS halts the machine instead of exiting the JVM.
+ *
+ * The default workload is the memory fragmentation test: quickspawn20.asm
+ * spawns processes from the quickspawn1*.asm and thinker programs.
+ *
+ * @see Sim
+ * @see HaltException
+ */
+public class Simulation implements Callable<Simulation.Result>
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    /**
+     * the default size of the simulated machine (in words)
+     */
+    public static final int DEFAULT_RAM_SIZE = 4096;
+    public static final int DEFAULT_VIRT_SIZE = 4096;
+    public static final int DEFAULT_PAGE_SIZE = 64;
+
+    /**
+     * the number of simulated cycles a RAM access takes in discrete event mode
+     */
+    public static final int DES_RAM_LATENCY = 1;
+
+    /**
+     * the default seed for every random choice made in discrete event mode
+     */
+    public static final long DES_SEED = 42;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * identifies this simulation in its results
+     */
+    private String m_name = "sim";
+
+    /**
+     * if true the simulation runs on a virtual clock (see {@link SimClock})
+     * and repeats exactly from run to run.  Otherwise the hardware sleeps
+     * for real time latencies.
+     */
+    private boolean m_discreteEvent = false;
+
+    /**
+     * the seed for the random choices made in discrete event mode
+     */
+    private long m_seed = DES_SEED;
+
+    /**
+     * the name of the scheduling policy (@see #createScheduler)
+     */
+    private String m_schedulerName = "starvation";
+
+    /**
+     * the fixed time slice in ticks (0 turns preemption off) -OR- -1 for the
+     * OS's default adaptive slice
+     */
+    private int m_quantum = -1;
+
+    /**
+     * the window in ticks for coalescing write completions while draining
+     * every pending interrupt at once -OR- -1 to take interrupts one at a
+     * time
+     */
+    private int m_coalesce = -1;
+
+    /**
+     * the number of words of RAM and of virtual memory and the size of a
+     * page (@see MMU#MMU(RAM, int, int))
+     */
+    private int m_ramSize = DEFAULT_RAM_SIZE;
+    private int m_virtSize = DEFAULT_VIRT_SIZE;
+    private int m_pageSize = DEFAULT_PAGE_SIZE;
+
+    /**
+     * the minimum and maximum latency of each device (in nanoseconds in real
+     * time mode and in cycles in discrete event mode).  The defaults are the
+     * devices' own.
+     */
+    private int m_keyboardMinLatency = 500;
+    private int m_keyboardMaxLatency = 10000;
+    private int m_consoleMinLatency = 500;
+    private int m_consoleMaxLatency = 1000;
+
+    /**
+     * if true the OS's statistics and the console's output are not printed
+     */
+    private boolean m_quiet = false;
+
+    /**
+     * creates the threads the devices run on in real time mode
+     */
+    private ThreadFactory m_deviceThreads = new DeviceThreadFactory(false, null);
+
+    /**
+     * records the machine's events (null if tracing is off)
+     */
+    private Probes m_probes = null;
+
+    /**
+     * the file an execution trace is written to (null if none is)
+     */
+    private File m_traceFile = null;
+
+    /**
+     * the file the interrupts are recorded to -OR- replayed from (null if
+     * they are not)
+     */
+    private File m_recordFile = null;
+    private File m_replayFile = null;
+
+    /**
+     * where (and after how many instructions) a snapshot of the machine is
+     * saved -OR- null if none is, and the snapshot to start from -OR- null
+     * to boot normally
+     */
+    private File m_snapshotFile = null;
+    private long m_snapshotAt = 0;
+    private File m_restoreFile = null;
+
+    /**
+     * the simulations forked from this one once it has run m_forkAt
+     * instructions (null if none are) and the runner they run on
+     */
+    private List<Simulation> m_forks = null;
+    private long m_forkAt = 0;
+    private SimulationRunner m_forkRunner = null;
+
+    /**
+     * the machine this simulation was forked from (null if it boots
+     * normally)
+     */
+    private Snapshot m_origin = null;
+
+    /**
+     * the program that is loaded at startup, the size of its address space
+     * and the programs that can be started by the Exec system call
+     */
+    private String m_bootProgram = "quickspawn20.asm";
+    private int m_bootAllocSize = 1200;
+    private String[] m_programs = { "quickspawn1a.asm", "quickspawn1b.asm",
+                                    "quickspawn1c.asm", "quickspawn1d.asm",
+                                    "quickspawn1e.asm", "thinker.asm",
+                                    "bigthinker.asm" };
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public String getName()                         { return m_name; }
+    public void setName(String name)                { m_name = name; }
+    public boolean isDiscreteEvent()                { return m_discreteEvent; }
+    public void setDiscreteEvent(boolean des)       { m_discreteEvent = des; }
+    public long getSeed()                           { return m_seed; }
+    public void setSeed(long seed)                  { m_seed = seed; }
+    public String getSchedulerName()                { return m_schedulerName; }
+    public void setSchedulerName(String name)       { m_schedulerName = name; }
+    public int getQuantum()                         { return m_quantum; }
+    public void setQuantum(int quantum)             { m_quantum = quantum; }
+    public int getCoalesce()                        { return m_coalesce; }
+    public void setCoalesce(int window)             { m_coalesce = window; }
+    public boolean isQuiet()                        { return m_quiet; }
+    public void setQuiet(boolean quiet)             { m_quiet = quiet; }
+    public void setDeviceThreads(ThreadFactory f)   { m_deviceThreads = f; }
+    public Probes getProbes()                       { return m_probes; }
+    public void setProbes(Probes probes)            { m_probes = probes; }
+    public File getTraceFile()                      { return m_traceFile; }
+    public void setTraceFile(File file)             { m_traceFile = file; }
+    public File getRecordFile()                     { return m_recordFile; }
+    public File getReplayFile()                     { return m_replayFile; }
+
+    /**
+     * setRecordFile
+     *
+     * records the interrupts this simulation takes (and the seed of its
+     * random choices) so that it can be replayed exactly (@see
+     * InterruptLog)
+     *
+     * @param file the file to write the log to -OR- null not to record
+     */
+    public void setRecordFile(File file)
+    {
+        m_recordFile = file;
+    }
+
+    /**
+     * setSnapshot
+     *
+     * saves the whole machine (@see Snapshot) at the first point after the
+     * given number of instructions where no I/O is in progress.  The run
+     * then carries on.
+     *
+     * @param file         the file to save it to -OR- null not to save one
+     * @param instructions the number of instructions to run first
+     */
+    public void setSnapshot(File file, long instructions)
+    {
+        m_snapshotFile = file;
+        m_snapshotAt = instructions;
+    }
+
+    public File getSnapshotFile()                   { return m_snapshotFile; }
+    public long getSnapshotAt()                     { return m_snapshotAt; }
+    public File getRestoreFile()                    { return m_restoreFile; }
+
+    /**
+     * setRestoreFile
+     *
+     * starts the simulation from a snapshot instead of loading the boot
+     * program.  The memory sizes must be the ones the snapshot was taken
+     * with but the scheduler, time quantum and device latencies may differ.
+     *
+     * @param file the snapshot -OR- null to boot normally
+     */
+    public void setRestoreFile(File file)
+    {
+        m_restoreFile = file;
+    }
+
+    /**
+     * setFork
+     *
+     * forks other simulations from this one at the first point after the
+     * given number of instructions where no I/O is in progress.  Each one
+     * starts as a copy of this machine (sharing its RAM copy-on-write) but
+     * with its own scheduler, time quantum and device latencies, and runs
+     * on the runner while this one carries on.  Their memory sizes must be
+     * the same as this one's.  Their results are returned with this
+     * simulation's (@see Result#getForkResults).
+     *
+     * @param instructions the number of instructions to run first
+     * @param forks        the simulations to start -OR- null for none
+     * @param runner       runs them
+     */
+    public void setFork(long instructions, List<Simulation> forks,
+                        SimulationRunner runner)
+    {
+        m_forkAt = instructions;
+        m_forks = forks;
+        m_forkRunner = runner;
+    }
+
+    /**
+     * setReplayFile
+     *
+     * replays the interrupts recorded by an earlier run instead of running
+     * the devices.  The simulation must be configured as it was for that run
+     * (the seed comes from the log).  Discrete event mode is ignored since
+     * there are no device events to drive.
+     *
+     * @param file the log to replay -OR- null to run the devices
+     */
+    public void setReplayFile(File file)
+    {
+        m_replayFile = file;
+    }
+    public int getRamSize()                         { return m_ramSize; }
+    public int getVirtSize()                        { return m_virtSize; }
+    public int getPageSize()                        { return m_pageSize; }
+    public int getBootAllocSize()                   { return m_bootAllocSize; }
+    public int getKeyboardMinLatency()              { return m_keyboardMinLatency; }
+    public int getKeyboardMaxLatency()              { return m_keyboardMaxLatency; }
+    public int getConsoleMinLatency()               { return m_consoleMinLatency; }
+    public int getConsoleMaxLatency()               { return m_consoleMaxLatency; }
+
+    /**
+     * setMemory
+     *
+     * @param ramSize  the number of words of RAM
+     * @param virtSize the number of words of virtual memory
+     * @param pageSize the number of words in a page
+     */
+    public void setMemory(int ramSize, int virtSize, int pageSize)
+    {
+        m_ramSize = ramSize;
+        m_virtSize = virtSize;
+        m_pageSize = pageSize;
+    }
+
+    /**
+     * setKeyboardLatency
+     *
+     * @param min the keyboard's minimum latency
+     * @param max the keyboard's maximum latency
+     */
+    public void setKeyboardLatency(int min, int max)
+    {
+        m_keyboardMinLatency = min;
+        m_keyboardMaxLatency = max;
+    }
+
+    /**
+     * setConsoleLatency
+     *
+     * @param min the console's minimum latency
+     * @param max the console's maximum latency
+     */
+    public void setConsoleLatency(int min, int max)
+    {
+        m_consoleMinLatency = min;
+        m_consoleMaxLatency = max;
+    }
+
+    /**
+     * setBootAllocSize
+     *
+     * @param allocSize the size of the boot program's address space
+     */
+    public void setBootAllocSize(int allocSize)
+    {
+        m_bootAllocSize = allocSize;
+    }
+
+    /**
+     * setWorkload
+     *
+     * @param boot      the program that is loaded at startup
+     * @param allocSize the size of its address space
+     * @param programs  the programs that can be started by the Exec system
+     *                  call
+     */
+    public void setWorkload(String boot, int allocSize, String... programs)
+    {
+        m_bootProgram = boot;
+        m_bootAllocSize = allocSize;
+        m_programs = programs.clone();
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * createScheduler
+     *
+     * @param name the name of a scheduling policy: "starvation" (the
+     *             default), "rr", "mlfq", "lottery" or "cfs"
+     * @param seed the seed for policies that make random choices
+     * @return a new scheduler for that policy -OR- null if the name is not
+     *         recognized
+     */
+    public static Scheduler createScheduler(String name, long seed)
+    {
+        if (name.equals("starvation"))  return new StarvationScheduler();
+        if (name.equals("rr"))          return new RoundRobinScheduler();
+        if (name.equals("mlfq"))        return new MLFQScheduler();
+        if (name.equals("lottery"))     return new LotteryScheduler(seed);
+        if (name.equals("cfs"))         return new CFSScheduler();
+        return null;
+    }//createScheduler
+
+    /**
+     * call
+     *
+     * runs the simulation (so that it can be given to an ExecutorService)
+     */
+    @Override
+    public Result call()
+    {
+        return run();
+    }
+
+    /**
+     * run
+     *
+     * builds the machine, loads the programs and runs the CPU on the calling
+     * thread until the OS halts it
+     *
+     * @return the results of the run
+     */
+    public Result run()
+    {
+        long startTime = System.currentTimeMillis();
+        Result result = new Result(m_name);
+
+        //A replay makes the same random choices as the run it recorded
+        InterruptLog log = null;
+        long seed = m_seed;
+        if (m_replayFile != null)
+        {
+            try
+            {
+                log = InterruptLog.load(m_replayFile);
+            }
+            catch (IOException e)
+            {
+                return result.fail("Could not load " + m_replayFile + ": " + e);
+            }
+            seed = log.getSeed();
+        }
+        else if (m_recordFile != null)
+        {
+            log = new InterruptLog(seed);
+        }
+
+        Scheduler scheduler = createScheduler(m_schedulerName, seed);
+        if (scheduler == null)
+        {
+            return result.fail("Unknown scheduler " + m_schedulerName);
+        }
+
+        //Create the simulated hardware and OS
+        RAM ram = new RAM(m_ramSize, 0);
+        MMU mmu = new MMU(ram, m_virtSize, m_pageSize);
+        InterruptController ic = new InterruptController();
+        KeyboardDevice kd = new KeyboardDevice(ic, m_keyboardMinLatency,
+                                               m_keyboardMaxLatency);
+        kd.setId(0);
+        ConsoleDevice cd = new ConsoleDevice(ic, m_consoleMinLatency,
+                                             m_consoleMaxLatency);
+        cd.setId(1);
+        cd.setEcho(!m_quiet);
+        CPU cpu = new CPU(ram, ic, mmu);
+        cpu.setProbes(m_probes);
+        TraceWriter trace = null;
+        if (m_traceFile != null)
+        {
+            try
+            {
+                trace = new TraceWriter(m_traceFile);
+            }
+            catch (IOException e)
+            {
+                return result.fail("Could not create trace " + m_traceFile + ": " + e);
+            }
+            cpu.setTrace(trace);
+        }
+        if (m_coalesce >= 0)
+        {
+            cpu.setInterruptBatching(true, m_coalesce);
+        }
+
+        //Pages that don't fit in RAM (including those displaced by the page
+        //table) are kept on a swap device
+        SwapDevice swap = null;
+        try
+        {
+            swap = new SwapDevice(mmu.getNumPages(), mmu.getPageSize());
+        }
+        catch (IOException e)
+        {
+            if (trace != null) trace.close();
+            return result.fail("Could not create swap device: " + e);
+        }
+        SOS os = new SOS(cpu, ram, mmu, swap, scheduler);
+        os.setPrintStats(!m_quiet);
+        os.setPrintOutput(!m_quiet);
+        if (m_quantum >= 0)
+        {
+            os.setTimeQuantum(m_quantum);
+        }
+
+        //In discrete event mode everything runs on one virtual clock with
+        //fixed seeds so that every run is identical
+        SimClock clock = null;
+        if (m_discreteEvent && (m_replayFile == null))
+        {
+            clock = new SimClock();
+            cpu.setClock(clock);
+            ram.setClock(clock, DES_RAM_LATENCY);
+            kd.setClock(clock, seed);
+            cd.setClock(clock, seed + 1);
+            os.setRandomSeed(seed);
+        }
+
+        //Register the device drivers with the OS (through the log if the
+        //devices' behavior is being recorded or replayed)
+        if (log != null)
+        {
+            os.setRandomSeed(seed);
+            cpu.setInterruptLog(log);
+            os.registerDevice(log.wrap(kd), 0);
+            os.registerDevice(log.wrap(cd), 1);
+        }
+        else
+        {
+            os.registerDevice(kd, 0);
+            os.registerDevice(cd, 1);
+        }
+
+        Checkpoints checkpoints = null;
+        try
+        {
+            if ((m_origin != null) || (m_restoreFile != null))
+            {
+                //Pick up where the snapshot (or the simulation this was
+                //forked from) left off with this simulation's time quantum
+                //if it has a different one
+                try
+                {
+                    if (m_origin != null)
+                    {
+                        m_origin.restore(ram, mmu, cpu, os, swap);
+                    }
+                    else
+                    {
+                        Snapshot.restore(m_restoreFile, ram, mmu, cpu, os, swap);
+                    }
+                }
+                catch (IOException e)
+                {
+                    return result.fail("Could not restore "
+                                       + ((m_origin != null) ? "the fork" : m_restoreFile)
+                                       + ": " + e);
+                }
+                if ((m_quantum >= 0) && (m_quantum != os.getTimeQuantum()))
+                {
+                    os.setTimeQuantum(m_quantum);
+                }
+            }
+            else
+            {
+                //Load the boot program into RAM and register the others for
+                //Exec system calls
+                Program prog = load(m_bootProgram);
+                if (prog == null)
+                {
+                    return result.fail("Could not load " + m_bootProgram);
+                }
+                if (!os.createProcess(prog, m_bootAllocSize))
+                {
+                    return result.fail("Could not allocate " + m_bootProgram);
+                }
+                for (String name : m_programs)
+                {
+                    prog = load(name);
+                    if (prog == null)
+                    {
+                        return result.fail("Could not load " + name);
+                    }
+                    os.addProgram(prog);
+                }
+            }
+            if ((m_snapshotFile != null) || (m_forks != null))
+            {
+                checkpoints = new Checkpoints(ram, mmu, cpu, os, swap, result);
+                cpu.setCheckpoint(checkpoints.next(), checkpoints);
+            }
+
+            //Start up the devices (in discrete event mode they are driven by
+            //the clock instead and in a replay they don't run at all)
+            if ((clock == null) && (m_replayFile == null))
+            {
+                m_deviceThreads.newThread(cd).start();
+                m_deviceThreads.newThread(kd).start();
+            }
+
+            //Run until the OS halts the machine
+            cpu.run();
+            result.m_status = -1;
+            result.m_reason = "The CPU ran off the end of a program";
+        }
+        catch (HaltException e)
+        {
+            result.m_status = e.getStatus();
+            result.m_reason = e.getMessage();
+        }
+        catch (RuntimeException e)
+        {
+            result.m_status = -1;
+            result.m_reason = "Exception: " + e;
+            result.m_error = e;
+        }
+        finally
+        {
+            kd.stop();
+            cd.stop();
+            swap.close();
+            if (trace != null)
+            {
+                trace.close();
+                result.m_numTraceRecords = trace.getNumRecords();
+                result.m_numTraceBytes = trace.getNumBytes();
+            }
+        }
+
+        //Save the recording
+        if ((log != null) && !log.isReplaying())
+        {
+            log.finish(cpu.getNumInstructions());
+            try
+            {
+                log.save(m_recordFile);
+            }
+            catch (IOException e)
+            {
+                System.out.println("ERROR: Could not save " + m_recordFile + ": " + e);
+            }
+        }
+
+        //Collect the results
+        result.m_ticks = cpu.getTicks();
+        result.m_numInstructions = cpu.getNumInstructions();
+        result.m_numInterrupts = cpu.getNumInterrupts();
+        result.m_numSystemCalls = os.getNumSystemCalls();
+        result.m_numAllocations = os.getNumAllocations();
+        result.m_numFrees = os.getNumFrees();
+        result.m_numPageTableReads = mmu.getNumPageTableReads();
+        result.m_numFinished = os.getNumFinishedProcesses();
+        result.m_numContextSwitches = os.getNumContextSwitches();
+        result.m_numTimerInterrupts = os.getNumTimerInterrupts();
+        result.m_numPageFaults = os.getNumPageFaults();
+        result.m_numEvictions = os.getNumEvictions();
+        result.m_numWritebacks = os.getNumWritebacks();
+        result.m_numCompactions = os.getNumCompactions();
+        result.m_maxStarve = os.getMaxStarveTime();
+        result.m_avgStarve = os.getAvgStarveTime();
+        result.m_numPageCopies = ram.getNumPageCopies();
+        result.m_wallMillis = System.currentTimeMillis() - startTime;
+
+        //Wait for the simulations forked from this one
+        if (checkpoints != null)
+        {
+            try
+            {
+                for (int i = 0; i < checkpoints.m_futures.size(); i++)
+                {
+                    result.m_forkResults.add(
+                        SimulationRunner.getResult(m_forks.get(i),
+                                                   checkpoints.m_futures.get(i)));
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return result;
+    }//run
+
+    /**
+     * load
+     *
+     * @param name the name of an assembly file
+     * @return the assembled program -OR- null if it could not be loaded
+     */
+    private Program load(String name)
+    {
+        Program prog = new Program();
+        if (prog.load(name, false) != 0)
+        {
+            System.out.println("ERROR: Could not load " + name);
+            return null;
+        }
+        return prog;
+    }//load
+
+    //======================================================================
+    // Nested Classes
+    //----------------------------------------------------------------------
+
+    /**
+     * class Result
+     *
+     * what happened during a run of a simulation
+     */
+    public static class Result
+    {
+        private String m_name;
+        private int m_status = -1;
+        private String m_reason = null;
+        private Throwable m_error = null;
+        private int m_ticks = 0;
+        private long m_numInstructions = 0;
+        private long m_numInterrupts = 0;
+        private long m_numSystemCalls = 0;
+        private int m_numAllocations = 0;
+        private int m_numFrees = 0;
+        private long m_numPageTableReads = 0;
+        private int m_numFinished = 0;
+        private int m_numContextSwitches = 0;
+        private int m_numTimerInterrupts = 0;
+        private int m_numPageFaults = 0;
+        private int m_numEvictions = 0;
+        private int m_numWritebacks = 0;
+        private int m_numCompactions = 0;
+        private int m_maxStarve = 0;
+        private double m_avgStarve = 0.0;
+        private long m_wallMillis = 0;
+        private long m_snapshotInstruction = -1;
+        private long m_snapshotBytes = 0;
+        private long m_forkInstruction = -1;
+        private List<Result> m_forkResults = new ArrayList<Result>();
+        private int m_numPageCopies = 0;
+        private long m_numTraceRecords = 0;
+        private long m_numTraceBytes = 0;
+
+        /**
+         * @param name the name of the simulation
+         */
+        Result(String name)
+        {
+            m_name = name;
+        }
+
+        /**
+         * fail
+         *
+         * records that the simulation could not be run
+         *
+         * @param reason why not
+         * @return this result
+         */
+        Result fail(String reason)
+        {
+            m_status = -1;
+            m_reason = reason;
+            return this;
+        }
+
+        /**
+         * fail
+         *
+         * records that the simulation threw an unexpected error
+         *
+         * @param error what was thrown
+         * @return this result
+         */
+        Result fail(Throwable error)
+        {
+            m_error = error;
+            return fail("Exception: " + error);
+        }
+
+        public String getName()             { return m_name; }
+        public int getStatus()              { return m_status; }
+        public String getReason()           { return m_reason; }
+        public Throwable getError()         { return m_error; }
+        public int getTicks()               { return m_ticks; }
+        public long getNumInstructions()    { return m_numInstructions; }
+        public long getNumInterrupts()      { return m_numInterrupts; }
+        public long getNumSystemCalls()     { return m_numSystemCalls; }
+        public int getNumAllocations()      { return m_numAllocations; }
+        public int getNumFrees()            { return m_numFrees; }
+        public long getNumPageTableReads()  { return m_numPageTableReads; }
+        public int getNumFinished()         { return m_numFinished; }
+        public int getNumContextSwitches()  { return m_numContextSwitches; }
+        public int getNumTimerInterrupts()  { return m_numTimerInterrupts; }
+        public int getNumPageFaults()       { return m_numPageFaults; }
+        public int getNumEvictions()        { return m_numEvictions; }
+        public int getNumWritebacks()       { return m_numWritebacks; }
+        public int getNumCompactions()      { return m_numCompactions; }
+        public int getMaxStarve()           { return m_maxStarve; }
+        public double getAvgStarve()        { return m_avgStarve; }
+        public long getWallMillis()         { return m_wallMillis; }
+        public long getSnapshotInstruction() { return m_snapshotInstruction; }
+        public long getSnapshotBytes()      { return m_snapshotBytes; }
+        public long getForkInstruction()    { return m_forkInstruction; }
+        public int getNumPageCopies()       { return m_numPageCopies; }
+
+        /**
+         * @return the results of the simulations forked from this one (@see
+         *         #setFork)
+         */
+        public List<Result> getForkResults()
+        {
+            return Collections.unmodifiableList(m_forkResults);
+        }
+        public long getNumTraceRecords()    { return m_numTraceRecords; }
+        public long getNumTraceBytes()      { return m_numTraceBytes; }
+
+        /**
+         * @return the simulated instructions retired per second of host time
+         *         (in millions)
+         */
+        public double getMips()
+        {
+            return m_numInstructions / (Math.max(m_wallMillis, 1) * 1000.0);
+        }
+
+        /**
+         * @return true if the machine halted because every process exited
+         */
+        public boolean isNormalHalt()
+        {
+            return (m_status == SOS.SYSCALL_EXIT) && (m_error == null);
+        }
+
+        /**
+         * @return a one line summary of the run
+         */
+        @Override
+        public String toString()
+        {
+            return m_name + ": " + m_reason + " (status " + m_status + ")"
+                + " ticks=" + m_ticks + " instructions=" + m_numInstructions
+                + " finished=" + m_numFinished
+                + " switches=" + m_numContextSwitches
+                + " preemptions=" + m_numTimerInterrupts
+                + " faults=" + m_numPageFaults
+                + " compactions=" + m_numCompactions
+                + " pagecopies=" + m_numPageCopies
+                + " wall=" + m_wallMillis + "ms";
+        }
+
+    }//class Result
+
+    /**
+     * class Checkpoints
+     *
+     * saves the machine (@see #setSnapshot) and forks it (@see #setFork) at
+     * the first point where no I/O is in progress once the CPU has run the
+     * instructions requested for each
+     */
+    private class Checkpoints implements CPU.CheckpointHandler
+    {
+        private RAM m_RAM = null;
+        private MMU m_MMU = null;
+        private CPU m_CPU = null;
+        private SOS m_OS = null;
+        private SwapDevice m_swap = null;
+        private Result m_result = null;
+
+        /**
+         * the runs of the forked simulations (in the same order as m_forks)
+         */
+        private List<Future<Result>> m_futures = new ArrayList<Future<Result>>();
+
+        public Checkpoints(RAM ram, MMU mmu, CPU cpu, SOS os, SwapDevice swap,
+                           Result result)
+        {
+            m_RAM = ram;
+            m_MMU = mmu;
+            m_CPU = cpu;
+            m_OS = os;
+            m_swap = swap;
+            m_result = result;
+        }
+
+        /**
+         * @return the number of instructions at which the next checkpoint
+         *         is due -OR- Long.MAX_VALUE if there are none left
+         */
+        public long next()
+        {
+            long next = Long.MAX_VALUE;
+            if ((m_snapshotFile != null) && (m_result.m_snapshotInstruction < 0))
+            {
+                next = Math.min(next, m_snapshotAt);
+            }
+            if ((m_forks != null) && (m_result.m_forkInstruction < 0))
+            {
+                next = Math.min(next, m_forkAt);
+            }
+            return next;
+        }
+
+        public boolean checkpoint()
+        {
+            if (!Snapshot.isQuiescent(m_CPU, m_OS)) return false;
+
+            long position = m_CPU.getNumInstructions();
+            if ((m_snapshotFile != null) && (m_result.m_snapshotInstruction < 0)
+                && (position >= m_snapshotAt))
+            {
+                try
+                {
+                    m_result.m_snapshotBytes = Snapshot.save(m_snapshotFile, m_RAM, m_MMU,
+                                                             m_CPU, m_OS, m_swap);
+                }
+                catch (IOException e)
+                {
+                    System.out.println("ERROR: Could not save " + m_snapshotFile + ": " + e);
+                }
+                m_result.m_snapshotInstruction = position;
+            }
+            if ((m_forks != null) && (m_result.m_forkInstruction < 0)
+                && (position >= m_forkAt))
+            {
+                fork();
+                m_result.m_forkInstruction = position;
+            }
+
+            //Wait for whichever checkpoint is left
+            long next = next();
+            if (next != Long.MAX_VALUE)
+            {
+                m_CPU.setCheckpoint(next, this);
+            }
+            return true;
+        }
+
+        /**
+         * fork
+         *
+         * starts the forked simulations from a copy of this machine
+         */
+        private void fork()
+        {
+            Snapshot origin = null;
+            try
+            {
+                origin = Snapshot.capture(m_RAM, m_MMU, m_CPU, m_OS, m_swap);
+            }
+            catch (IOException e)
+            {
+                System.out.println("ERROR: Could not fork " + m_name + ": " + e);
+                return;
+            }
+            for (Simulation sim : m_forks)
+            {
+                sim.m_origin = origin;
+                m_futures.add(m_forkRunner.submit(sim));
+            }
+        }//fork
+    }//class Checkpoints
+
+}//class Simulation
@@ -0,0 +1,205 @@
+package sos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs many independent simulations at once and summarizes their
+ * results.  Each simulation runs on a thread of its own from an
+ * ExecutorService: either a fork/join pool with one thread per host core or,
+ * on JVMs that have them, a virtual thread per simulation.
+ *
+ * @see Simulation
+ */
+public class SimulationRunner
+{
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * runs the simulations
+     */
+    private ExecutorService m_executor = null;
+
+    /**
+     * true if m_executor starts a virtual thread for each simulation
+     */
+    private boolean m_virtual = false;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param executor runs the simulations.  The caller is responsible for
+     *                 shutting it down.
+     */
+    public SimulationRunner(ExecutorService executor)
+    {
+        m_executor = executor;
+    }
+
+    /**
+     * @param virtualThreads if true (and the JVM supports them) each
+     *                       simulation runs on a virtual thread, otherwise
+     *                       they share a fork/join pool
+     */
+    public SimulationRunner(boolean virtualThreads)
+    {
+        if (virtualThreads)
+        {
+            m_executor = newVirtualThreadExecutor();
+            m_virtual = (m_executor != null);
+        }
+        if (m_executor == null)
+        {
+            m_executor = new ForkJoinPool();
+        }
+    }//ctor
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * newVirtualThreadExecutor
+     *
+     * @return an executor that starts a virtual thread for each task -OR-
+     *         null if this JVM doesn't have virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }//newVirtualThreadExecutor
+
+    /**
+     * @return true if each simulation runs on a virtual thread
+     */
+    public boolean isVirtual()
+    {
+        return m_virtual;
+    }
+
+    /**
+     * runAll
+     *
+     * runs simulations concurrently and waits for all of them to finish
+     *
+     * @param sims the simulations to run
+     * @return the result of each simulation (in the same order)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Simulation.Result> runAll(List<Simulation> sims)
+        throws InterruptedException
+    {
+        List<Future<Simulation.Result>> futures = m_executor.invokeAll(sims);
+
+        List<Simulation.Result> results = new ArrayList<Simulation.Result>();
+        for (int i = 0; i < sims.size(); i++)
+        {
+            results.add(getResult(sims.get(i), futures.get(i)));
+        }
+        return results;
+    }//runAll
+
+    /**
+     * submit
+     *
+     * starts a simulation without waiting for it
+     *
+     * @param sim the simulation to run
+     * @return its run (@see #getResult)
+     */
+    public Future<Simulation.Result> submit(Simulation sim)
+    {
+        return m_executor.submit(sim);
+    }//submit
+
+    /**
+     * getResult
+     *
+     * waits for a simulation to finish
+     *
+     * @param sim    the simulation
+     * @param future its run
+     * @return its result
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static Simulation.Result getResult(Simulation sim,
+                                              Future<Simulation.Result> future)
+        throws InterruptedException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            return new Simulation.Result(sim.getName()).fail(e.getCause());
+        }
+    }//getResult
+
+    /**
+     * shutdown
+     *
+     * stops the executor once the simulations it is running have finished
+     */
+    public void shutdown()
+    {
+        m_executor.shutdown();
+    }
+
+    /**
+     * summarize
+     *
+     * @param results    the results of a batch of simulations
+     * @param wallMillis how long the whole batch took
+     * @return a few lines of totals and averages
+     */
+    public static String summarize(List<Simulation.Result> results, long wallMillis)
+    {
+        int halted = 0;
+        long ticks = 0;
+        long minTicks = Long.MAX_VALUE;
+        long maxTicks = 0;
+        long finished = 0;
+        long switches = 0;
+        long faults = 0;
+        for (Simulation.Result r : results)
+        {
+            if (r.isNormalHalt()) halted++;
+            ticks += r.getTicks();
+            minTicks = Math.min(minTicks, r.getTicks());
+            maxTicks = Math.max(maxTicks, r.getTicks());
+            finished += r.getNumFinished();
+            switches += r.getNumContextSwitches();
+            faults += r.getNumPageFaults();
+        }
+
+        int n = Math.max(results.size(), 1);
+        double seconds = Math.max(wallMillis, 1) / 1000.0;
+        return "Simulations: " + results.size() + " halted normally: " + halted
+            + "\nTicks: avg " + (ticks / n) + " min "
+            + ((results.size() > 0) ? minTicks : 0) + " max " + maxTicks
+            + "\nPer simulation: " + (finished / (double) n) + " processes "
+            + (switches / (double) n) + " context switches "
+            + (faults / (double) n) + " page faults"
+            + "\nThroughput: " + (results.size() / seconds) + " simulations/s "
+            + (ticks / seconds) + " ticks/s";
+    }//summarize
+
+}//class SimulationRunner
@@ -0,0 +1,598 @@
+package sos;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class saves the whole state of a simulated machine to a file and
+ * restores it into a newly built machine of the same size, so that a long
+ * warm-up only has to be run once and every experiment can start from its
+ * end.
+ *
+ * The file is written and read through memory mappings.  It begins with a
+ * header that gives the layout version and a table of sections (each with
+ * an id, offset and length) so that newer versions can add sections:
+ *
+ *   CONFIG  the sizes of RAM, virtual memory, a page and the swap device
+ *   CPU     the registers, ticks, timer and counters (@see CPU#saveState)
+ *   MMU     the MMU's counters (the page table itself is in RAM)
+ *   OS      the process table, frame table, free list, open devices and
+ *           registered programs (@see SOS#saveState)
+ *   CLOCK   the virtual time in discrete event mode (-1 otherwise)
+ *   DEVICES each device's request and random state (@see Device#saveState)
+ *   RAM     every word of RAM
+ *   SWAP    every page slot of the swap device
+ *
+ * RAM and the swap device are by far the largest sections, and each one is
+ * restored with a single bulk copy from the mapping.
+ *
+ * A snapshot can only be taken while no I/O is in progress (@see
+ * #isQuiescent) since the processes waiting for a device and the
+ * interrupts on the bus can't be saved.  The devices' own state is saved
+ * so that a restored machine gets the same data and latencies from them as
+ * the original would have.
+ *
+ * A snapshot can also be kept in memory (@see #capture) and restored into
+ * any number of machines at once.  Its RAM is not copied: every machine
+ * restored from it shares the pages copy-on-write (@see RAM#share).  This is
+ * how a simulation is forked.
+ *
+ * @see Simulation#setSnapshot
+ * @see Simulation#setRestoreFile
+ * @see Simulation#setFork
+ */
+public class Snapshot
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    public static final byte[] MAGIC = { 'S', 'O', 'S', 'S', 'N', 'A', 'P', 0 };
+    public static final int VERSION = 2;
+
+    // These constants identify the sections
+    public static final int CONFIG = 0;
+    public static final int CPU_STATE = 1;
+    public static final int MMU_STATE = 2;
+    public static final int OS_STATE = 3;
+    public static final int CLOCK = 4;
+    public static final int DEVICES = 5;
+    public static final int RAM_CONTENTS = 6;
+    public static final int SWAP_CONTENTS = 7;
+    public static final int NUM_SECTIONS = 8;
+
+    /**
+     * the size of a section table entry (id, offset and length)
+     */
+    private static final int ENTRY_SIZE = 4 + 8 + 8;
+
+    /**
+     * sections start on a page boundary of the host
+     */
+    private static final int ALIGNMENT = 4096;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the small sections of a snapshot kept in memory (RAM_CONTENTS and
+     * SWAP_CONTENTS are null)
+     */
+    private byte[][] m_sections = null;
+
+    /**
+     * the machine's RAM (shared copy-on-write) and swap slots (null if it
+     * has no swap device)
+     */
+    private RAM m_RAM = null;
+    private int[] m_swap = null;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * snapshots in memory are made by {@link #capture}
+     */
+    private Snapshot()
+    {
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * isQuiescent
+     *
+     * @return true if no I/O is in progress so that the machine can be saved
+     */
+    public static boolean isQuiescent(CPU cpu, SOS os)
+    {
+        SimClock clock = cpu.getClock();
+        return cpu.isQuiescent() && os.isQuiescent()
+            && ((clock == null) || !clock.hasEvents());
+    }//isQuiescent
+
+    /**
+     * save
+     *
+     * writes the state of a machine to a file.  The machine must be
+     * quiescent (@see #isQuiescent).
+     *
+     * @param file the file to write (it is replaced if it exists)
+     * @param ram  the machine's RAM
+     * @param mmu  its MMU
+     * @param cpu  its CPU
+     * @param os   its OS
+     * @param swap its swap device -OR- null if it has none
+     * @return the size of the file in bytes
+     * @throws IOException if the file can't be written
+     */
+    public static long save(File file, RAM ram, MMU mmu, CPU cpu, SOS os,
+                            SwapDevice swap) throws IOException
+    {
+        //The small sections are gathered first so that the layout is known
+        byte[][] small = saveSections(ram, mmu, cpu, os, swap);
+
+        long[] lengths = new long[NUM_SECTIONS];
+        for (int id = 0; id < RAM_CONTENTS; id++)
+        {
+            lengths[id] = small[id].length;
+        }
+        lengths[RAM_CONTENTS] = 4L * ram.getSize();
+        lengths[SWAP_CONTENTS] = (swap == null) ? 0
+            : 4L * swap.getNumPages() * swap.getPageSize();
+
+        long[] offsets = new long[NUM_SECTIONS];
+        long end = MAGIC.length + 8 + (NUM_SECTIONS * ENTRY_SIZE);
+        for (int id = 0; id < NUM_SECTIONS; id++)
+        {
+            offsets[id] = align(end);
+            end = offsets[id] + lengths[id];
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            raf.setLength(0);
+            raf.setLength(end);
+            FileChannel channel = raf.getChannel();
+
+            //The header
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, offsets[0]);
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(NUM_SECTIONS);
+            for (int id = 0; id < NUM_SECTIONS; id++)
+            {
+                header.putInt(id);
+                header.putLong(offsets[id]);
+                header.putLong(lengths[id]);
+            }
+
+            //The sections
+            for (int id = 0; id < RAM_CONTENTS; id++)
+            {
+                channel.map(FileChannel.MapMode.READ_WRITE, offsets[id], lengths[id])
+                    .put(small[id]);
+            }
+            ram.save(channel.map(FileChannel.MapMode.READ_WRITE,
+                                 offsets[RAM_CONTENTS], lengths[RAM_CONTENTS]).asIntBuffer());
+            if (swap != null)
+            {
+                swap.save(channel.map(FileChannel.MapMode.READ_WRITE,
+                                      offsets[SWAP_CONTENTS], lengths[SWAP_CONTENTS]).asIntBuffer());
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+        return end;
+    }//save
+
+    /**
+     * restore
+     *
+     * loads the state saved by {@link #save} into a machine that has just
+     * been built (with its devices registered but no processes or programs
+     * loaded) and is the same size as the one that was saved
+     *
+     * @param file the snapshot
+     * @param ram  the machine's RAM
+     * @param mmu  its MMU
+     * @param cpu  its CPU
+     * @param os   its OS
+     * @param swap its swap device -OR- null if it has none
+     * @throws IOException if the file can't be read, is not a snapshot or is
+     *                     of a different machine
+     */
+    public static void restore(File file, RAM ram, MMU mmu, CPU cpu, SOS os,
+                               SwapDevice swap) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            long headerSize = MAGIC.length + 8;
+            if (fileSize < headerSize)
+            {
+                throw new IOException(file + " is not a snapshot");
+            }
+
+            //The header
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+            {
+                throw new IOException(file + " is not a snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION)
+            {
+                throw new IOException(file + " is snapshot version " + version
+                                      + " (expected " + VERSION + ")");
+            }
+            int numEntries = header.getInt();
+            if ((numEntries < 0) || (headerSize + (long) numEntries * ENTRY_SIZE > fileSize))
+            {
+                throw new IOException(file + " is corrupt");
+            }
+
+            //The section table (sections this version doesn't know about are
+            //skipped)
+            long[] offsets = new long[NUM_SECTIONS];
+            long[] lengths = new long[NUM_SECTIONS];
+            Arrays.fill(offsets, -1);
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, headerSize,
+                                           (long) numEntries * ENTRY_SIZE);
+            for (int i = 0; i < numEntries; i++)
+            {
+                int id = table.getInt();
+                long offset = table.getLong();
+                long length = table.getLong();
+                if ((offset < 0) || (length < 0) || (offset + length > fileSize))
+                {
+                    throw new IOException(file + " is corrupt");
+                }
+                if ((id >= 0) && (id < NUM_SECTIONS))
+                {
+                    offsets[id] = offset;
+                    lengths[id] = length;
+                }
+            }
+            for (int id = 0; id < NUM_SECTIONS; id++)
+            {
+                if (offsets[id] < 0)
+                {
+                    throw new IOException(file + " is missing section " + id);
+                }
+            }
+
+            checkConfig(section(channel, offsets[CONFIG], lengths[CONFIG]),
+                        file.toString(), ram, mmu, swap);
+
+            //Memory is copied in bulk and then the rest is rebuilt on top of it
+            ram.restore(channel.map(FileChannel.MapMode.READ_ONLY,
+                                    offsets[RAM_CONTENTS], lengths[RAM_CONTENTS]).asIntBuffer());
+            if (swap != null)
+            {
+                swap.restore(channel.map(FileChannel.MapMode.READ_ONLY,
+                                         offsets[SWAP_CONTENTS], lengths[SWAP_CONTENTS]).asIntBuffer());
+            }
+            restoreSections(section(channel, offsets[MMU_STATE], lengths[MMU_STATE]),
+                            section(channel, offsets[CPU_STATE], lengths[CPU_STATE]),
+                            section(channel, offsets[OS_STATE], lengths[OS_STATE]),
+                            section(channel, offsets[CLOCK], lengths[CLOCK]),
+                            section(channel, offsets[DEVICES], lengths[DEVICES]),
+                            mmu, cpu, os);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }//restore
+
+    /**
+     * capture
+     *
+     * takes a snapshot of a machine without writing it to a file.  Its RAM
+     * is not copied but shared (so the machine copies each page before it
+     * next writes it).  The machine must be quiescent (@see #isQuiescent)
+     * and this must be called on its thread.
+     *
+     * @param ram  the machine's RAM
+     * @param mmu  its MMU
+     * @param cpu  its CPU
+     * @param os   its OS
+     * @param swap its swap device -OR- null if it has none
+     * @return the snapshot
+     * @throws IOException if the state can't be saved
+     */
+    public static Snapshot capture(RAM ram, MMU mmu, CPU cpu, SOS os,
+                                   SwapDevice swap) throws IOException
+    {
+        Snapshot snapshot = new Snapshot();
+        snapshot.m_sections = saveSections(ram, mmu, cpu, os, swap);
+        snapshot.m_RAM = new RAM(ram.getSize(), 0);
+        snapshot.m_RAM.share(ram);
+        if (swap != null)
+        {
+            snapshot.m_swap = new int[swap.getNumPages() * swap.getPageSize()];
+            swap.save(IntBuffer.wrap(snapshot.m_swap));
+        }
+        return snapshot;
+    }//capture
+
+    /**
+     * restore
+     *
+     * loads a snapshot taken by {@link #capture} into a machine that has
+     * just been built (@see #restore(File, RAM, MMU, CPU, SOS, SwapDevice)).
+     * Any number of machines can be restored from the same snapshot, each
+     * on its own thread.
+     *
+     * @param ram  the machine's RAM
+     * @param mmu  its MMU
+     * @param cpu  its CPU
+     * @param os   its OS
+     * @param swap its swap device -OR- null if it has none
+     * @throws IOException if the machine is not the same size as the one
+     *                     that was captured
+     */
+    public void restore(RAM ram, MMU mmu, CPU cpu, SOS os, SwapDevice swap)
+        throws IOException
+    {
+        checkConfig(stream(m_sections[CONFIG]), "The snapshot", ram, mmu, swap);
+
+        ram.share(m_RAM);
+        if (swap != null)
+        {
+            swap.restore(IntBuffer.wrap(m_swap));
+        }
+        restoreSections(stream(m_sections[MMU_STATE]), stream(m_sections[CPU_STATE]),
+                        stream(m_sections[OS_STATE]), stream(m_sections[CLOCK]),
+                        stream(m_sections[DEVICES]), mmu, cpu, os);
+    }//restore
+
+    /**
+     * saveSections
+     *
+     * @return the contents of the small sections of a quiescent machine's
+     *         snapshot (indexed by section id; the others are null)
+     */
+    private static byte[][] saveSections(RAM ram, MMU mmu, CPU cpu, SOS os,
+                                         SwapDevice swap) throws IOException
+    {
+        if (!isQuiescent(cpu, os))
+        {
+            throw new IllegalStateException("The machine can't be saved while I/O is in progress");
+        }
+
+        byte[][] small = new byte[NUM_SECTIONS][];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ram.getSize());
+        out.writeInt(mmu.getSize());
+        out.writeInt(mmu.getPageSize());
+        out.writeInt((swap == null) ? -1 : swap.getNumPages());
+        small[CONFIG] = takeBytes(out, bytes);
+        cpu.saveState(out);
+        small[CPU_STATE] = takeBytes(out, bytes);
+        mmu.saveState(out);
+        small[MMU_STATE] = takeBytes(out, bytes);
+        os.saveState(out);
+        small[OS_STATE] = takeBytes(out, bytes);
+        out.writeLong((cpu.getClock() == null) ? -1 : cpu.getClock().getTime());
+        small[CLOCK] = takeBytes(out, bytes);
+        os.saveDevices(out);
+        small[DEVICES] = takeBytes(out, bytes);
+        return small;
+    }//saveSections
+
+    /**
+     * checkConfig
+     *
+     * makes sure a machine is the same size as the one in a snapshot
+     *
+     * @param in     the snapshot's CONFIG section
+     * @param source what the snapshot is (for the error message)
+     * @throws IOException if the sizes don't match
+     */
+    private static void checkConfig(DataInput in, String source, RAM ram, MMU mmu,
+                                    SwapDevice swap) throws IOException
+    {
+        int ramSize = in.readInt();
+        int virtSize = in.readInt();
+        int pageSize = in.readInt();
+        int swapPages = in.readInt();
+        if ((ramSize != ram.getSize()) || (virtSize != mmu.getSize())
+            || (pageSize != mmu.getPageSize())
+            || (swapPages != ((swap == null) ? -1 : swap.getNumPages())))
+        {
+            throw new IOException(source + " is of a machine with " + ramSize
+                                  + " words of RAM, " + virtSize
+                                  + " of virtual memory and " + pageSize
+                                  + " word pages");
+        }
+    }//checkConfig
+
+    /**
+     * restoreSections
+     *
+     * rebuilds the MMU, CPU, OS, clock and devices on top of restored memory
+     */
+    private static void restoreSections(DataInput mmuIn, DataInput cpuIn,
+                                        DataInput osIn, DataInput clockIn,
+                                        DataInput devicesIn, MMU mmu, CPU cpu,
+                                        SOS os) throws IOException
+    {
+        mmu.restoreState(mmuIn);
+        cpu.restoreState(cpuIn);
+        os.restoreState(osIn);
+
+        long time = clockIn.readLong();
+        SimClock clock = cpu.getClock();
+        if ((clock != null) && (time >= 0))
+        {
+            clock.advance(time - clock.getTime());
+        }
+
+        //A device puts a request in progress back on the restored clock
+        os.restoreDevices(devicesIn);
+    }//restoreSections
+
+    /**
+     * takeBytes
+     *
+     * @return the bytes written to a stream since the last call (which are
+     *         then discarded)
+     */
+    private static byte[] takeBytes(DataOutputStream out, ByteArrayOutputStream bytes)
+        throws IOException
+    {
+        out.flush();
+        byte[] result = bytes.toByteArray();
+        bytes.reset();
+        return result;
+    }//takeBytes
+
+    /**
+     * align
+     *
+     * @return the first section boundary at or after an offset
+     */
+    private static long align(long offset)
+    {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * section
+     *
+     * @return a stream that reads one of the small sections
+     */
+    private static DataInput section(FileChannel channel, long offset, long length)
+        throws IOException
+    {
+        byte[] bytes = new byte[(int) length];
+        channel.map(FileChannel.MapMode.READ_ONLY, offset, length).get(bytes);
+        return stream(bytes);
+    }//section
+
+    /**
+     * stream
+     *
+     * @return a stream that reads a section held in memory
+     */
+    private static DataInput stream(byte[] bytes)
+    {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * writeInts
+     *
+     * writes an array of ints (preceded by its length)
+     */
+    public static void writeInts(DataOutput out, int[] values) throws IOException
+    {
+        out.writeInt(values.length);
+        for (int v : values)
+        {
+            out.writeInt(v);
+        }
+    }//writeInts
+
+    /**
+     * readInts
+     *
+     * reads an array written by {@link #writeInts} into an existing array of
+     * the same length
+     *
+     * @throws IOException if the lengths don't match
+     */
+    public static void readInts(DataInput in, int[] values) throws IOException
+    {
+        int length = in.readInt();
+        if (length != values.length)
+        {
+            throw new IOException("Snapshot has " + length + " values where "
+                                  + values.length + " were expected");
+        }
+        for (int i = 0; i < length; i++)
+        {
+            values[i] = in.readInt();
+        }
+    }//readInts
+
+    /**
+     * writeRandom
+     *
+     * writes the state of a random number generator (which can only be
+     * copied exactly by serializing it)
+     *
+     * @param random the generator -OR- null
+     */
+    public static void writeRandom(DataOutput out, Random random) throws IOException
+    {
+        if (random == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objOut = new ObjectOutputStream(bytes);
+        objOut.writeObject(random);
+        objOut.close();
+        out.writeInt(bytes.size());
+        out.write(bytes.toByteArray());
+    }//writeRandom
+
+    /**
+     * readRandom
+     *
+     * @return a generator in the state written by {@link #writeRandom}
+     *         -OR- null if null was written
+     * @throws IOException if the state is corrupt
+     */
+    public static Random readRandom(DataInput in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        try
+        {
+            ObjectInputStream objIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            return (Random) objIn.readObject();
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IOException("Snapshot has a bad random state: " + e);
+        }
+    }//readRandom
+
+}//class Snapshot
@@ -0,0 +1,132 @@
+package sos;
+
+/**
+ * This scheduler gives higher priority to processes which have idled the
+ * longest and have been chosen to run the least amount of times.  A
+ * process' priority is the ratio of the time since it last became Ready to
+ * the number of times it has been Ready.  This is the OS's default policy.
+ *
+ * @see ReadyQueue
+ */
+public class StarvationScheduler implements Scheduler
+{
+    /**
+     * the Ready processes ordered by priority
+     */
+    private ReadyQueue<SOS.ProcessControlBlock> m_readyQueue =
+        new ReadyQueue<SOS.ProcessControlBlock>();
+
+    /**
+     * ready
+     *
+     * adds the process to the ready queue or, if it is already there,
+     * moves it to match its new last ready time and ready count.  A Ready
+     * process' handle in m_readyQueue is kept in its scheduler slot.
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void ready(SOS.ProcessControlBlock proc, int now)
+    {
+        int handle = proc.getSchedulerSlot();
+        if (handle >= 0)
+        {
+            m_readyQueue.update(handle, proc.getLastReadyTime(),
+                                proc.getNumReady(), now);
+        }
+        else
+        {
+            proc.setSchedulerSlot(m_readyQueue.add(proc, proc.getLastReadyTime(),
+                                                   proc.getNumReady(),
+                                                   proc.getProcessId(), now));
+        }
+    }//ready
+
+    /**
+     * block
+     *
+     * removes the process from the ready queue until it is unblocked
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void block(SOS.ProcessControlBlock proc, int now)
+    {
+        exit(proc, now);
+    }
+
+    /**
+     * unblock
+     *
+     * puts the process back in the ready queue
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void unblock(SOS.ProcessControlBlock proc, int now)
+    {
+        ready(proc, now);
+    }
+
+    /**
+     * exit
+     *
+     * removes the process from the ready queue for good
+     *
+     * @param proc the process
+     * @param now  the current time in CPU ticks
+     */
+    @Override
+    public void exit(SOS.ProcessControlBlock proc, int now)
+    {
+        int handle = proc.getSchedulerSlot();
+        if (handle >= 0)
+        {
+            proc.setSchedulerSlot(-1);
+            m_readyQueue.remove(handle, now);
+        }
+    }//exit
+
+    /**
+     * tick
+     *
+     * does nothing since priority only depends on when a process became
+     * Ready
+     *
+     * @param proc  the running process
+     * @param ticks the number of CPU ticks it has used
+     */
+    @Override
+    public void tick(SOS.ProcessControlBlock proc, int ticks)
+    {
+        //Priority only depends on when a process became Ready
+    }
+
+    /**
+     * selectNext
+     *
+     * @param now the current time in CPU ticks
+     * @return the process that has waited longest relative to the number
+     *         of times it has been Ready -OR- null if none are
+     */
+    @Override
+    public SOS.ProcessControlBlock selectNext(int now)
+    {
+        return m_readyQueue.peek(now);
+    }
+
+    /**
+     * getName
+     *
+     * @return "Starvation"
+     */
+    @Override
+    public String getName()
+    {
+        return "Starvation";
+    }
+
+}//class StarvationScheduler
@@ -0,0 +1,196 @@
+package sos;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class simulates the backing store used for demand paging.  It holds
+ * one page sized slot for every page of virtual memory and is backed by a
+ * memory mapped host file, so a page is moved in or out with a single bulk
+ * copy.
+ *
+ * Unlike the devices in {@link Device} this device is used directly (and
+ * synchronously) by the OS's page fault handler rather than by processes.
+ *
+ * @see SOS#interruptPageFault
+ * @see MMU
+ */
+public class SwapDevice
+{
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the number of words in a page (and therefore in a slot)
+     */
+    private int m_pageSize = 0;
+
+    /**
+     * the number of page slots
+     */
+    private int m_numPages = 0;
+
+    /**
+     * the host file that backs this device
+     */
+    private RandomAccessFile m_file = null;
+
+    /**
+     * the name of the host file and whether it is a temporary file (which
+     * is deleted when the device is closed)
+     */
+    private File m_hostFile = null;
+    private boolean m_temporary = false;
+
+    /**
+     * the host file mapped into memory
+     */
+    private MappedByteBuffer m_map = null;
+
+    /**
+     * an int view of m_map (slot n begins at index n * m_pageSize)
+     */
+    private IntBuffer m_slots = null;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param file     the host file to back the device with.  Its previous
+     *                 contents are discarded.
+     * @param numPages the number of pages of virtual memory to hold
+     * @param pageSize the number of words in a page
+     * @throws IOException if the file can't be created or mapped
+     */
+    public SwapDevice(File file, int numPages, int pageSize) throws IOException
+    {
+        m_numPages = numPages;
+        m_pageSize = pageSize;
+
+        //Map a zero filled file with room for every page
+        long bytes = (long) numPages * pageSize * 4;
+        m_hostFile = file;
+        m_file = new RandomAccessFile(file, "rw");
+        m_file.setLength(0);
+        m_file.setLength(bytes);
+        m_map = m_file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        m_slots = m_map.asIntBuffer();
+    }//ctor
+
+    /**
+     * This constructor backs the device with a temporary file that is
+     * deleted when the simulation exits.
+     *
+     * @param numPages the number of pages of virtual memory to hold
+     * @param pageSize the number of words in a page
+     * @throws IOException if the file can't be created or mapped
+     */
+    public SwapDevice(int numPages, int pageSize) throws IOException
+    {
+        this(tempFile(), numPages, pageSize);
+        m_temporary = true;
+    }
+
+    /**
+     * @return a new temporary file that will be deleted on exit
+     */
+    private static File tempFile() throws IOException
+    {
+        File f = File.createTempFile("sos", ".swap");
+        f.deleteOnExit();
+        return f;
+    }
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public int getPageSize()    { return m_pageSize; }
+    public int getNumPages()    { return m_numPages; }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * readPage
+     *
+     * copies the contents of a page's slot into a buffer
+     *
+     * @param page the page number
+     * @param buf  an array of at least one page of words to fill
+     */
+    public void readPage(int page, int[] buf)
+    {
+        m_slots.position(page * m_pageSize);
+        m_slots.get(buf, 0, m_pageSize);
+    }//readPage
+
+    /**
+     * writePage
+     *
+     * copies a page of words into a page's slot
+     *
+     * @param page the page number
+     * @param buf  an array holding at least one page of words
+     */
+    public void writePage(int page, int[] buf)
+    {
+        m_slots.position(page * m_pageSize);
+        m_slots.put(buf, 0, m_pageSize);
+    }//writePage
+
+    /**
+     * save
+     *
+     * copies every slot into a buffer (@see Snapshot)
+     *
+     * @param dest a buffer with room for every page
+     */
+    public void save(IntBuffer dest)
+    {
+        m_slots.clear();
+        dest.put(m_slots);
+    }//save
+
+    /**
+     * restore
+     *
+     * replaces every slot with the contents of a buffer (@see Snapshot)
+     *
+     * @param src a buffer holding every page
+     */
+    public void restore(IntBuffer src)
+    {
+        m_slots.clear();
+        m_slots.put(src);
+    }//restore
+
+    /**
+     * close
+     *
+     * releases the host file (and deletes it if it is temporary)
+     */
+    public void close()
+    {
+        try
+        {
+            m_file.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error closing swap file: " + e);
+        }
+        if (m_temporary)
+        {
+            m_hostFile.delete();
+        }
+    }//close
+
+}//class SwapDevice
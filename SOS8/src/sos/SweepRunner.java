@@ -0,0 +1,260 @@
+package sos;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs the memory fragmentation test (@see Simulation) at every
+ * point of a grid of machine parameters -- RAM size, virtual memory size,
+ * page size, the boot program's address space size, scheduler and device
+ * latencies -- and writes one CSV row per run.  The runs are independent so
+ * they are spread across every host core by a {@link SimulationRunner}.
+ *
+ * Usage: java sos.SweepRunner [-ram=4096,8192] [-virt=4096] [-page=32,64]
+ *        [-alloc=1200] [-sched=starvation,cfs] [-kbd=500:10000]
+ *        [-con=500:1000] [-seeds=1] [-realtime] [-vthreads] [-out=file.csv]
+ *
+ * Each option takes a comma separated list of values.  Latencies are
+ * min:max pairs.  The grid runs in discrete event mode (so results repeat)
+ * unless -realtime is given.
+ */
+public class SweepRunner
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    /**
+     * the first row of the CSV output
+     */
+    public static final String CSV_HEADER =
+        "name,ram,virt,page,alloc,scheduler,kbd_min,kbd_max,con_min,con_max,"
+        + "seed,status,ticks,wall_ms,context_switches,page_faults,"
+        + "max_starve,avg_starve,finished,reason";
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the values of each parameter to try
+     */
+    private int[] m_ramSizes = { Simulation.DEFAULT_RAM_SIZE };
+    private int[] m_virtSizes = { Simulation.DEFAULT_VIRT_SIZE };
+    private int[] m_pageSizes = { Simulation.DEFAULT_PAGE_SIZE };
+    private int[] m_allocSizes = { 1200 };
+    private String[] m_schedulers = { "starvation" };
+    private int[][] m_keyboardLatencies = { { 500, 10000 } };
+    private int[][] m_consoleLatencies = { { 500, 1000 } };
+
+    /**
+     * the number of runs at each point (each with a different seed)
+     */
+    private int m_numSeeds = 1;
+
+    /**
+     * if true every run is in discrete event mode
+     */
+    private boolean m_discreteEvent = true;
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public void setRamSizes(int... sizes)           { m_ramSizes = sizes; }
+    public void setVirtSizes(int... sizes)          { m_virtSizes = sizes; }
+    public void setPageSizes(int... sizes)          { m_pageSizes = sizes; }
+    public void setAllocSizes(int... sizes)         { m_allocSizes = sizes; }
+    public void setSchedulers(String... names)      { m_schedulers = names; }
+    public void setKeyboardLatencies(int[]... l)    { m_keyboardLatencies = l; }
+    public void setConsoleLatencies(int[]... l)     { m_consoleLatencies = l; }
+    public void setNumSeeds(int n)                  { m_numSeeds = n; }
+    public void setDiscreteEvent(boolean des)       { m_discreteEvent = des; }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * createPoints
+     *
+     * @return a quiet simulation for every combination of the parameters
+     */
+    public List<Simulation> createPoints()
+    {
+        List<Simulation> sims = new ArrayList<Simulation>();
+        for (int ram : m_ramSizes)
+        for (int virt : m_virtSizes)
+        for (int page : m_pageSizes)
+        for (int alloc : m_allocSizes)
+        for (String sched : m_schedulers)
+        for (int[] kbd : m_keyboardLatencies)
+        for (int[] con : m_consoleLatencies)
+        for (int seed = 0; seed < m_numSeeds; seed++)
+        {
+            Simulation sim = new Simulation();
+            sim.setName("run-" + sims.size());
+            sim.setMemory(ram, virt, page);
+            sim.setBootAllocSize(alloc);
+            sim.setSchedulerName(sched);
+            sim.setKeyboardLatency(kbd[0], kbd[1]);
+            sim.setConsoleLatency(con[0], con[1]);
+            sim.setSeed(Simulation.DES_SEED + seed);
+            sim.setDiscreteEvent(m_discreteEvent);
+            sim.setQuiet(true);
+            sims.add(sim);
+        }
+        return sims;
+    }//createPoints
+
+    /**
+     * run
+     *
+     * runs every point of the grid and writes the results
+     *
+     * @param runner runs the simulations
+     * @param out    receives the CSV header and one row per run
+     * @return the results in the same order as {@link #createPoints}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Simulation.Result> run(SimulationRunner runner, PrintWriter out)
+        throws InterruptedException
+    {
+        List<Simulation> sims = createPoints();
+        List<Simulation.Result> results = runner.runAll(sims);
+
+        out.println(CSV_HEADER);
+        for (int i = 0; i < sims.size(); i++)
+        {
+            out.println(csvRow(sims.get(i), results.get(i)));
+        }
+        out.flush();
+        return results;
+    }//run
+
+    /**
+     * csvRow
+     *
+     * @param sim    a simulation that has run
+     * @param result its results
+     * @return the CSV row for the run (@see #CSV_HEADER)
+     */
+    public static String csvRow(Simulation sim, Simulation.Result result)
+    {
+        String reason = (result.getReason() == null) ? "" : result.getReason();
+        return sim.getName() + "," + sim.getRamSize() + "," + sim.getVirtSize()
+            + "," + sim.getPageSize() + "," + sim.getBootAllocSize()
+            + "," + sim.getSchedulerName()
+            + "," + sim.getKeyboardMinLatency() + "," + sim.getKeyboardMaxLatency()
+            + "," + sim.getConsoleMinLatency() + "," + sim.getConsoleMaxLatency()
+            + "," + sim.getSeed() + "," + result.getStatus()
+            + "," + result.getTicks() + "," + result.getWallMillis()
+            + "," + result.getNumContextSwitches() + "," + result.getNumPageFaults()
+            + "," + result.getMaxStarve() + "," + result.getAvgStarve()
+            + "," + result.getNumFinished()
+            + ",\"" + reason.replace("\"", "\"\"") + "\"";
+    }//csvRow
+
+    /**
+     * parseInts
+     *
+     * @param list a comma separated list of integers
+     * @return the integers
+     */
+    private static int[] parseInts(String list)
+    {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+        {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }//parseInts
+
+    /**
+     * parseLatencies
+     *
+     * @param list a comma separated list of min:max pairs
+     * @return the pairs
+     */
+    private static int[][] parseLatencies(String list)
+    {
+        String[] parts = list.split(",");
+        int[][] values = new int[parts.length][];
+        for (int i = 0; i < parts.length; i++)
+        {
+            String[] pair = parts[i].split(":");
+            values[i] = new int[] { Integer.parseInt(pair[0].trim()),
+                                    Integer.parseInt(pair[1].trim()) };
+        }
+        return values;
+    }//parseLatencies
+
+    /**
+     * main
+     *
+     * runs a sweep described by the command line (see the class comment)
+     */
+    public static void main(String[] args)
+    {
+        SweepRunner sweep = new SweepRunner();
+        String outName = null;
+        boolean virtual = false;
+        for (String arg : args)
+        {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("-ram="))            sweep.setRamSizes(parseInts(value));
+            else if (arg.startsWith("-virt="))      sweep.setVirtSizes(parseInts(value));
+            else if (arg.startsWith("-page="))      sweep.setPageSizes(parseInts(value));
+            else if (arg.startsWith("-alloc="))     sweep.setAllocSizes(parseInts(value));
+            else if (arg.startsWith("-sched="))     sweep.setSchedulers(value.split(","));
+            else if (arg.startsWith("-kbd="))       sweep.setKeyboardLatencies(parseLatencies(value));
+            else if (arg.startsWith("-con="))       sweep.setConsoleLatencies(parseLatencies(value));
+            else if (arg.startsWith("-seeds="))     sweep.setNumSeeds(Integer.parseInt(value));
+            else if (arg.startsWith("-out="))       outName = value;
+            else if (arg.equals("-realtime"))       sweep.setDiscreteEvent(false);
+            else if (arg.equals("-vthreads"))       virtual = true;
+            else
+            {
+                System.out.println("ERROR: Unknown option " + arg);
+                return;
+            }
+        }
+
+        //Output from many machines at once would be unreadable
+        SOS.m_verbose = false;
+
+        SimulationRunner runner = new SimulationRunner(virtual);
+        PrintWriter out = null;
+        try
+        {
+            out = (outName == null) ? new PrintWriter(System.out)
+                                    : new PrintWriter(new FileWriter(outName));
+            long startTime = System.currentTimeMillis();
+            List<Simulation.Result> results = sweep.run(runner, out);
+            long endTime = System.currentTimeMillis();
+            System.err.println(SimulationRunner.summarize(results, endTime - startTime));
+        }
+        catch (IOException e)
+        {
+            System.out.println("ERROR: Could not write " + outName + ": " + e);
+        }
+        catch (InterruptedException e)
+        {
+            System.out.println("Interrupted!");
+        }
+        finally
+        {
+            if (out != null && outName != null)
+            {
+                out.close();
+            }
+            runner.shutdown();
+        }
+    }//main
+
+}//class SweepRunner
@@ -0,0 +1,329 @@
+package sos;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * This class simulates a set associative translation lookaside buffer.  The
+ * MMU keeps recently used page table entries here so that most address
+ * translations don't have to read the page table from RAM.
+ *
+ * The OS is responsible for telling the MMU whenever it changes a page table
+ * entry (@see MMU#invalidateTLB and MMU#flushTLB) so that stale translations
+ * are never used.
+ *
+ * @see MMU
+ */
+public class TLB
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+    public static final int DEFAULT_NUM_SETS = 16;
+    public static final int DEFAULT_ASSOCIATIVITY = 4;
+
+    // These constants define the replacement policies for a full set
+    public static final int POLICY_LRU = 0;     // evict least recently used
+    public static final int POLICY_RANDOM = 1;  // evict a random entry
+
+    /**
+     * returned by lookup when the page is not in the TLB
+     */
+    public static final int MISS = Integer.MIN_VALUE;
+
+    /**
+     * the tag of an unused slot
+     */
+    private static final int INVALID = -1;
+
+    /**
+     * the seed used for random replacement so that runs repeat
+     */
+    private static final long RANDOM_SEED = 0x5EED;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the number of sets (always a power of 2)
+     */
+    private int m_numSets = 0;
+
+    /**
+     * the number of entries in each set
+     */
+    private int m_associativity = 0;
+
+    /**
+     * the replacement policy (one of the POLICY constants)
+     */
+    private int m_policy = POLICY_LRU;
+
+    /**
+     * the page number cached in each slot (INVALID if the slot is unused).
+     * The slots of set s are s*m_associativity through
+     * (s+1)*m_associativity - 1.
+     */
+    private int[] m_pages = null;
+
+    /**
+     * the page table entry cached in each slot
+     */
+    private int[] m_entries = null;
+
+    /**
+     * when each slot was last used (for LRU replacement)
+     */
+    private long[] m_lastUsed = null;
+
+    /**
+     * counts lookups so that m_lastUsed can be ordered
+     */
+    private long m_time = 0;
+
+    /**
+     * used to choose a victim for random replacement
+     */
+    private Random m_random = new Random(RANDOM_SEED);
+
+    /**
+     * statistics for tuning
+     */
+    private long m_hits = 0;
+    private long m_misses = 0;
+    private long m_flushes = 0;
+    private long m_invalidations = 0;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param numSets       the number of sets.  If this is not a power of 2
+     *                      it will be adjusted to the next lower power of 2.
+     * @param associativity the number of entries in each set
+     * @param policy        which entry to replace in a full set (one of the
+     *                      POLICY constants)
+     */
+    public TLB(int numSets, int associativity, int policy)
+    {
+        //Adjust the number of sets to a power of 2
+        m_numSets = 1;
+        while (m_numSets * 2 <= numSets)
+        {
+            m_numSets *= 2;
+        }
+        m_associativity = Math.max(associativity, 1);
+        m_policy = policy;
+
+        int size = m_numSets * m_associativity;
+        m_pages = new int[size];
+        m_entries = new int[size];
+        m_lastUsed = new long[size];
+        flush();
+        m_flushes = 0;
+    }//ctor
+
+    /**
+     * This constructor uses the default size and LRU replacement
+     */
+    public TLB()
+    {
+        this(DEFAULT_NUM_SETS, DEFAULT_ASSOCIATIVITY, POLICY_LRU);
+    }
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public int getNumSets()         { return m_numSets; }
+    public int getAssociativity()   { return m_associativity; }
+    public int getPolicy()          { return m_policy; }
+    public long getHits()           { return m_hits; }
+    public long getMisses()         { return m_misses; }
+    public long getFlushes()        { return m_flushes; }
+    public long getInvalidations()  { return m_invalidations; }
+
+    /**
+     * getReach
+     *
+     * @param pageSize the size of a page in words
+     * @return the number of words that can be translated without a miss
+     */
+    public int getReach(int pageSize)
+    {
+        return m_numSets * m_associativity * pageSize;
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * lookup
+     *
+     * @param page the page number to translate
+     * @return the cached page table entry for the given page -OR- MISS
+     */
+    public int lookup(int page)
+    {
+        int first = (page & (m_numSets - 1)) * m_associativity;
+        for(int i = first; i < first + m_associativity; i++)
+        {
+            if (m_pages[i] == page)
+            {
+                m_hits++;
+                m_lastUsed[i] = ++m_time;
+                return m_entries[i];
+            }
+        }
+
+        m_misses++;
+        return MISS;
+    }//lookup
+
+    /**
+     * insert
+     *
+     * caches a page table entry that was just read from RAM (or updates the
+     * cached copy of one that was just changed), replacing an entry in the
+     * page's set if it is full
+     *
+     * @param page  the page number
+     * @param entry the page table entry for that page
+     */
+    public void insert(int page, int entry)
+    {
+        int first = (page & (m_numSets - 1)) * m_associativity;
+
+        //Replace the page's own entry if it is already cached, otherwise use
+        //an empty slot if there is one
+        int victim = -1;
+        for(int i = first; i < first + m_associativity; i++)
+        {
+            if (m_pages[i] == page)
+            {
+                victim = i;
+                break;
+            }
+            if ((m_pages[i] == INVALID) && (victim < 0))
+            {
+                victim = i;
+            }
+        }
+
+        //Otherwise apply the replacement policy
+        if (victim < 0)
+        {
+            if (m_policy == POLICY_RANDOM)
+            {
+                victim = first + m_random.nextInt(m_associativity);
+            }
+            else
+            {
+                victim = first;
+                for(int i = first + 1; i < first + m_associativity; i++)
+                {
+                    if (m_lastUsed[i] < m_lastUsed[victim])
+                    {
+                        victim = i;
+                    }
+                }
+            }
+        }//if
+
+        m_pages[victim] = page;
+        m_entries[victim] = entry;
+        m_lastUsed[victim] = ++m_time;
+    }//insert
+
+    /**
+     * invalidate
+     *
+     * discards the cached entry for a single page (if any)
+     *
+     * @param page the page number whose entry has changed
+     */
+    public void invalidate(int page)
+    {
+        int first = (page & (m_numSets - 1)) * m_associativity;
+        for(int i = first; i < first + m_associativity; i++)
+        {
+            if (m_pages[i] == page)
+            {
+                m_pages[i] = INVALID;
+                m_invalidations++;
+            }
+        }
+    }//invalidate
+
+    /**
+     * flush
+     *
+     * discards every cached entry
+     */
+    public void flush()
+    {
+        for(int i = 0; i < m_pages.length; i++)
+        {
+            m_pages[i] = INVALID;
+        }
+        m_flushes++;
+    }//flush
+
+    /**
+     * saveState
+     *
+     * writes every cached entry with its replacement state and the counters
+     *
+     * @see Snapshot
+     */
+    public void saveState(DataOutput out) throws IOException
+    {
+        Snapshot.writeInts(out, m_pages);
+        Snapshot.writeInts(out, m_entries);
+        out.writeInt(m_lastUsed.length);
+        for (long t : m_lastUsed)
+        {
+            out.writeLong(t);
+        }
+        out.writeLong(m_time);
+        Snapshot.writeRandom(out, m_random);
+        out.writeLong(m_hits);
+        out.writeLong(m_misses);
+        out.writeLong(m_flushes);
+        out.writeLong(m_invalidations);
+    }//saveState
+
+    /**
+     * restoreState
+     *
+     * reads the state written by {@link #saveState} into a TLB of the same
+     * size
+     *
+     * @throws IOException if the sizes don't match
+     */
+    public void restoreState(DataInput in) throws IOException
+    {
+        Snapshot.readInts(in, m_pages);
+        Snapshot.readInts(in, m_entries);
+        if (in.readInt() != m_lastUsed.length)
+        {
+            throw new IOException("Snapshot has a TLB of a different size");
+        }
+        for (int i = 0; i < m_lastUsed.length; i++)
+        {
+            m_lastUsed[i] = in.readLong();
+        }
+        m_time = in.readLong();
+        m_random = Snapshot.readRandom(in);
+        m_hits = in.readLong();
+        m_misses = in.readLong();
+        m_flushes = in.readLong();
+        m_invalidations = in.readLong();
+    }//restoreState
+
+}//class TLB
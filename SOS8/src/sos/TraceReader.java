@@ -0,0 +1,358 @@
+package sos;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * This class streams back a trace written by a {@link TraceWriter}.  The
+ * file is read through a FileChannel into a large direct buffer a chunk at a
+ * time so that traces much larger than the heap can be analyzed.
+ *
+ * Usage:
+ *     TraceReader reader = new TraceReader(file);
+ *     TraceReader.Record r = reader.getRecord();
+ *     while (reader.next())
+ *     {
+ *         ... r.type, r.tick, r.pc ...
+ *     }
+ *     reader.close();
+ *
+ * Running this class prints a summary of a trace (and optionally its first
+ * records): java sos.TraceReader trace.bin [count]
+ *
+ * @see TraceWriter
+ */
+public class TraceReader
+{
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    private FileInputStream m_stream = null;
+    private FileChannel m_channel = null;
+
+    /**
+     * a chunk of the file
+     */
+    private ByteBuffer m_buffer = null;
+
+    /**
+     * true once the whole file has been read into the buffer
+     */
+    private boolean m_eof = false;
+
+    /**
+     * the record most recently read (it is reused by every call to next)
+     */
+    private Record m_record = new Record();
+
+    /**
+     * the values that the next record's are relative to
+     */
+    private int m_nextPC = 0;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param file       a trace file
+     * @param bufferSize the number of bytes read at a time
+     * @throws IOException if the file can't be read or is not a trace
+     */
+    public TraceReader(File file, int bufferSize) throws IOException
+    {
+        m_stream = new FileInputStream(file);
+        m_channel = m_stream.getChannel();
+        m_buffer = ByteBuffer.allocateDirect(Math.max(bufferSize,
+                                                      64 * TraceWriter.MAX_RECORD_SIZE));
+        m_buffer.flip();
+        fill();
+
+        //Check the header
+        byte[] magic = new byte[TraceWriter.MAGIC.length];
+        if (m_buffer.remaining() < magic.length + 4)
+        {
+            close();
+            throw new IOException(file + " is not a trace");
+        }
+        m_buffer.get(magic);
+        int version = m_buffer.getInt();
+        if (!Arrays.equals(magic, TraceWriter.MAGIC))
+        {
+            close();
+            throw new IOException(file + " is not a trace");
+        }
+        if (version != TraceWriter.VERSION)
+        {
+            close();
+            throw new IOException(file + " is trace version " + version
+                                  + " (expected " + TraceWriter.VERSION + ")");
+        }
+    }//ctor
+
+    /**
+     * @param file a trace file
+     * @throws IOException if the file can't be read or is not a trace
+     */
+    public TraceReader(File file) throws IOException
+    {
+        this(file, TraceWriter.DEFAULT_BUFFER_SIZE);
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * @return the record that {@link #next} fills in
+     */
+    public Record getRecord()
+    {
+        return m_record;
+    }
+
+    /**
+     * next
+     *
+     * reads the next record into the one returned by {@link #getRecord}
+     *
+     * @return false if there are no more records
+     * @throws IOException if the file can't be read or is corrupt
+     */
+    public boolean next() throws IOException
+    {
+        if (m_buffer.remaining() < TraceWriter.MAX_RECORD_SIZE)
+        {
+            fill();
+        }
+        if (!m_buffer.hasRemaining())
+        {
+            return false;
+        }
+
+        Record r = m_record;
+        int tag = m_buffer.get() & 0xFF;
+        r.type = tag & TraceWriter.TYPE_MASK;
+        r.tick += getUnsigned();
+        switch (r.type)
+        {
+            case TraceWriter.INSTRUCTION:
+                r.pc = m_nextPC + getSigned();
+                r.instr[0] = (tag >> TraceWriter.OPCODE_SHIFT) & TraceWriter.OPCODE_MASK;
+                r.instr[1] = getSigned();
+                r.instr[2] = getSigned();
+                r.instr[3] = getSigned();
+                if ((tag & TraceWriter.HAS_ADDRESS) != 0)
+                {
+                    r.lastAddr += getSigned();
+                    r.addr = r.lastAddr;
+                }
+                else
+                {
+                    r.addr = -1;
+                }
+                m_nextPC = r.pc + CPU.INSTRSIZE;
+                break;
+            case TraceWriter.SYSCALL:
+            case TraceWriter.SWITCH:
+                r.a = getSigned();
+                r.b = getSigned();
+                break;
+            default:
+                r.a = getSigned();
+                r.b = getSigned();
+                r.c = getSigned();
+                r.d = getSigned();
+                break;
+        }
+        return true;
+    }//next
+
+    /**
+     * fill
+     *
+     * moves the unread bytes to the front of the buffer and reads as much
+     * more of the file as fits after them
+     */
+    private void fill() throws IOException
+    {
+        if (m_eof) return;
+
+        m_buffer.compact();
+        while (m_buffer.hasRemaining())
+        {
+            if (m_channel.read(m_buffer) < 0)
+            {
+                m_eof = true;
+                break;
+            }
+        }
+        m_buffer.flip();
+    }//fill
+
+    /**
+     * getUnsigned
+     *
+     * @return a varint (@see TraceWriter#putUnsigned)
+     * @throws IOException if the trace ends in the middle of the value
+     */
+    private int getUnsigned() throws IOException
+    {
+        int value = 0;
+        int shift = 0;
+        while (true)
+        {
+            if (!m_buffer.hasRemaining())
+            {
+                throw new IOException("Trace is truncated");
+            }
+            int b = m_buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }//getUnsigned
+
+    /**
+     * getSigned
+     *
+     * @return a signed varint (@see TraceWriter#putSigned)
+     */
+    private int getSigned() throws IOException
+    {
+        int zigzag = getUnsigned();
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }//getSigned
+
+    /**
+     * close
+     */
+    public void close()
+    {
+        try
+        {
+            m_stream.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error closing trace file: " + e);
+        }
+    }//close
+
+    /**
+     * main
+     *
+     * prints a summary of a trace: the number of records of each type and
+     * of each opcode
+     *
+     * @param args the trace file and (optionally) the number of records to
+     *             print first
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: java sos.TraceReader trace.bin [count]");
+            return;
+        }
+        long toPrint = (args.length > 1) ? Long.parseLong(args[1]) : 0;
+
+        long[] types = new long[TraceWriter.SWITCH + 1];
+        long[] opcodes = new long[TraceWriter.OPCODE_MASK + 1];
+        long memoryAccesses = 0;
+        try
+        {
+            TraceReader reader = new TraceReader(new File(args[0]));
+            Record r = reader.getRecord();
+            long n = 0;
+            while (reader.next())
+            {
+                if (n++ < toPrint) System.out.println(r);
+                types[r.type]++;
+                if (r.type == TraceWriter.INSTRUCTION)
+                {
+                    opcodes[r.instr[0]]++;
+                    if (r.addr >= 0) memoryAccesses++;
+                }
+            }
+            reader.close();
+            System.out.println("Records: " + n + " ticks: " + r.tick);
+        }
+        catch (IOException e)
+        {
+            System.out.println("ERROR: " + e);
+            return;
+        }
+
+        System.out.println("Instructions: " + types[TraceWriter.INSTRUCTION]
+                + " (memory accesses " + memoryAccesses + ") system calls: "
+                + types[TraceWriter.SYSCALL] + " interrupts: "
+                + types[TraceWriter.INTERRUPT] + " context switches: "
+                + types[TraceWriter.SWITCH]);
+        String byOpcode = "Opcodes:";
+        for (int op = 0; op < opcodes.length; op++)
+        {
+            if (opcodes[op] > 0) byOpcode += " " + op + "=" + opcodes[op];
+        }
+        System.out.println(byOpcode);
+    }//main
+
+    //======================================================================
+    // Nested Classes
+    //----------------------------------------------------------------------
+
+    /**
+     * class Record
+     *
+     * one event from the trace.  Which fields are meaningful depends on the
+     * type:
+     *     INSTRUCTION pc, instr (opcode and arguments) and addr (-1 if the
+     *                 instruction did not touch memory)
+     *     SYSCALL     a = the system call, b = the process id
+     *     INTERRUPT   a = the type, b = the device, c = the address,
+     *                 d = the data
+     *     SWITCH      a = the old process id, b = the new process id
+     */
+    public static class Record
+    {
+        public int type = 0;
+        public int tick = 0;
+        public int pc = 0;
+        public int[] instr = new int[CPU.INSTRSIZE];
+        public int addr = -1;
+        public int a = 0;
+        public int b = 0;
+        public int c = 0;
+        public int d = 0;
+
+        /**
+         * the last memory address (which the next one is relative to)
+         */
+        private int lastAddr = 0;
+
+        @Override
+        public String toString()
+        {
+            switch (type)
+            {
+                case TraceWriter.INSTRUCTION:
+                    return tick + "\tinstr\tpc=" + pc + " op=" + instr[0] + " "
+                        + instr[1] + " " + instr[2] + " " + instr[3]
+                        + ((addr >= 0) ? " addr=" + addr : "");
+                case TraceWriter.SYSCALL:
+                    return tick + "\tsyscall\tcall=" + a + " pid=" + b;
+                case TraceWriter.SWITCH:
+                    return tick + "\tswitch\t" + a + " -> " + b;
+                default:
+                    return tick + "\tinterrupt\ttype=" + a + " dev=" + b
+                        + " addr=" + c + " data=" + d;
+            }
+        }//toString
+    }//class Record
+
+}//class TraceReader
@@ -0,0 +1,347 @@
+package sos;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class records an execution trace of the simulated machine to a file:
+ * every retired instruction (its PC, opcode, operands and the memory address
+ * it touched) plus system calls, interrupts and context switches.  The trace
+ * can be read back with a {@link TraceReader}.
+ *
+ * The format is compact so that full traces fit on disk.  Each record is a
+ * tag byte followed by variable length integers (7 bits per byte) and most
+ * values are stored as the difference from the last value of their kind:
+ *
+ *   file        = header record*
+ *   header      = "SOSTRACE" version:int32 (big endian)
+ *   tag         = type (bits 0-1) | opcode (bits 2-5) | has-address (bit 6)
+ *   INSTRUCTION = tag dTick dPC arg1 arg2 arg3 [dAddr]
+ *   SYSCALL     = tag dTick call pid
+ *   INTERRUPT   = tag dTick type device addr data
+ *   SWITCH      = tag dTick oldPid newPid
+ *
+ * dTick is the (unsigned) number of ticks since the previous record, dPC is
+ * the distance from the address following the previous instruction (so it
+ * is 0 unless the previous instruction branched) and dAddr is the distance
+ * from the previous memory address.  Every other value is a signed varint.
+ *
+ * Records are gathered in a large direct buffer that is written to the
+ * file through a FileChannel whenever it fills.  If a write fails the error
+ * is reported and the rest of the trace is dropped (the simulation goes on).
+ *
+ * @see CPU#setTrace
+ * @see TraceReader
+ */
+public class TraceWriter
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    public static final byte[] MAGIC = { 'S', 'O', 'S', 'T', 'R', 'A', 'C', 'E' };
+    public static final int VERSION = 1;
+
+    // These constants define the record types
+    public static final int INSTRUCTION = 0;
+    public static final int SYSCALL = 1;
+    public static final int INTERRUPT = 2;
+    public static final int SWITCH = 3;
+
+    // These constants define the fields of the tag byte
+    public static final int TYPE_MASK = 0x3;
+    public static final int OPCODE_SHIFT = 2;
+    public static final int OPCODE_MASK = 0xF;
+    public static final int HAS_ADDRESS = 0x40;
+
+    /**
+     * the most bytes a record can take (a tag and six 5-byte varints)
+     */
+    public static final int MAX_RECORD_SIZE = 1 + (6 * 5);
+
+    public static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    private FileOutputStream m_stream = null;
+    private FileChannel m_channel = null;
+
+    /**
+     * records are gathered here until it fills
+     */
+    private ByteBuffer m_buffer = null;
+
+    /**
+     * the previous values that the next record's are relative to
+     */
+    private int m_lastTick = 0;
+    private int m_nextPC = 0;
+    private int m_lastAddr = 0;
+
+    /**
+     * the number of records of each type and bytes written so far
+     */
+    private long[] m_numRecords = new long[SWITCH + 1];
+    private long m_numBytes = 0;
+
+    /**
+     * true if the trace is closed (or could not be written)
+     */
+    private boolean m_closed = false;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param file       the file to write (it is replaced if it exists)
+     * @param bufferSize the number of bytes gathered between writes
+     * @throws IOException if the file can't be created
+     */
+    public TraceWriter(File file, int bufferSize) throws IOException
+    {
+        m_stream = new FileOutputStream(file);
+        m_channel = m_stream.getChannel();
+        m_buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, 64 * MAX_RECORD_SIZE));
+        m_buffer.put(MAGIC);
+        m_buffer.putInt(VERSION);
+    }//ctor
+
+    /**
+     * @param file the file to write (it is replaced if it exists)
+     * @throws IOException if the file can't be created
+     */
+    public TraceWriter(File file) throws IOException
+    {
+        this(file, DEFAULT_BUFFER_SIZE);
+    }
+
+    //======================================================================
+    // Accessor Methods
+    //----------------------------------------------------------------------
+
+    public long getNumRecords(int type)     { return m_numRecords[type]; }
+    public long getNumBytes()               { return m_numBytes + m_buffer.position(); }
+
+    /**
+     * @return the total number of records written
+     */
+    public long getNumRecords()
+    {
+        long total = 0;
+        for (long n : m_numRecords)
+        {
+            total += n;
+        }
+        return total;
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * instruction
+     *
+     * records a retired instruction
+     *
+     * @param tick  the CPU tick it was fetched at
+     * @param pc    its address
+     * @param instr the instruction (opcode and three arguments)
+     * @param addr  the memory address it read or wrote -OR- -1 if none
+     */
+    public void instruction(int tick, int pc, int[] instr, int addr)
+    {
+        if (!begin()) return;
+
+        int tag = INSTRUCTION | ((instr[0] & OPCODE_MASK) << OPCODE_SHIFT);
+        if (addr >= 0) tag |= HAS_ADDRESS;
+        m_buffer.put((byte) tag);
+        putTick(tick);
+        putSigned(pc - m_nextPC);
+        putSigned(instr[1]);
+        putSigned(instr[2]);
+        putSigned(instr[3]);
+        if (addr >= 0)
+        {
+            putSigned(addr - m_lastAddr);
+            m_lastAddr = addr;
+        }
+        m_nextPC = pc + CPU.INSTRSIZE;
+        m_numRecords[INSTRUCTION]++;
+    }//instruction
+
+    /**
+     * systemCall
+     *
+     * @param tick the CPU tick the call was made at
+     * @param call the system call (one of the SOS.SYSCALL constants)
+     * @param pid  the calling process' id
+     */
+    public void systemCall(int tick, int call, int pid)
+    {
+        if (!begin()) return;
+
+        m_buffer.put((byte) SYSCALL);
+        putTick(tick);
+        putSigned(call);
+        putSigned(pid);
+        m_numRecords[SYSCALL]++;
+    }//systemCall
+
+    /**
+     * interrupt
+     *
+     * @param tick   the CPU tick the interrupt was taken at
+     * @param type   the interrupt type (an InterruptController constant or 0
+     *               for the clock)
+     * @param device the id of the device that raised it (-1 for the clock)
+     * @param addr   the address the device read or wrote
+     * @param data   the data read
+     */
+    public void interrupt(int tick, int type, int device, int addr, int data)
+    {
+        if (!begin()) return;
+
+        m_buffer.put((byte) INTERRUPT);
+        putTick(tick);
+        putSigned(type);
+        putSigned(device);
+        putSigned(addr);
+        putSigned(data);
+        m_numRecords[INTERRUPT]++;
+    }//interrupt
+
+    /**
+     * contextSwitch
+     *
+     * @param tick   the CPU tick the switch happened at
+     * @param oldPid the process that was running (-1 if none)
+     * @param newPid the process that now runs
+     */
+    public void contextSwitch(int tick, int oldPid, int newPid)
+    {
+        if (!begin()) return;
+
+        m_buffer.put((byte) SWITCH);
+        putTick(tick);
+        putSigned(oldPid);
+        putSigned(newPid);
+        m_numRecords[SWITCH]++;
+    }//contextSwitch
+
+    /**
+     * begin
+     *
+     * makes room in the buffer for a record
+     *
+     * @return false if the trace is closed
+     */
+    private boolean begin()
+    {
+        if (m_closed) return false;
+        if (m_buffer.remaining() < MAX_RECORD_SIZE)
+        {
+            flush();
+        }
+        return !m_closed;
+    }//begin
+
+    /**
+     * putTick
+     *
+     * writes the number of ticks since the last record
+     */
+    private void putTick(int tick)
+    {
+        putUnsigned(tick - m_lastTick);
+        m_lastTick = tick;
+    }//putTick
+
+    /**
+     * putUnsigned
+     *
+     * writes an integer 7 bits at a time (least significant first).  The
+     * high bit of each byte is set if more bytes follow.
+     */
+    private void putUnsigned(int value)
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            m_buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        m_buffer.put((byte) value);
+    }//putUnsigned
+
+    /**
+     * putSigned
+     *
+     * writes an integer that may be negative so that small magnitudes take
+     * few bytes (0, -1, 1, -2, 2 ... become 0, 1, 2, 3, 4 ...)
+     */
+    private void putSigned(int value)
+    {
+        putUnsigned((value << 1) ^ (value >> 31));
+    }//putSigned
+
+    /**
+     * flush
+     *
+     * writes the buffered records to the file
+     */
+    public void flush()
+    {
+        if (m_closed) return;
+        try
+        {
+            m_buffer.flip();
+            while (m_buffer.hasRemaining())
+            {
+                m_numBytes += m_channel.write(m_buffer);
+            }
+            m_buffer.clear();
+        }
+        catch (IOException e)
+        {
+            System.out.println("ERROR: Could not write trace (the rest is dropped): " + e);
+            closeFile();
+        }
+    }//flush
+
+    /**
+     * close
+     *
+     * writes any buffered records and closes the file
+     */
+    public void close()
+    {
+        flush();
+        closeFile();
+    }//close
+
+    /**
+     * closeFile
+     *
+     * closes the file without writing anything more to it
+     */
+    private void closeFile()
+    {
+        if (m_closed) return;
+        m_closed = true;
+        try
+        {
+            m_stream.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error closing trace file: " + e);
+        }
+    }//closeFile
+
+}//class TraceWriter
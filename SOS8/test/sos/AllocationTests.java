@@ -0,0 +1,259 @@
+package sos;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * These tests check that a running machine allocates nothing once it is
+ * warmed up: fetching, decoding and executing instructions (interpreted and
+ * through compiled blocks), taking device and timer interrupts, handling
+ * system calls and switching between processes.  They use the JVM's count of
+ * the bytes allocated by a thread, so they need a HotSpot style JVM.
+ *
+ * The workload is a discrete event simulation of processes that each take
+ * turns opening the keyboard, reading from it and closing it, write what
+ * they read to the console and then compute long enough for the timer to go
+ * off.  None of them ever exits, so once every process has started the
+ * machine is in a steady state.
+ *
+ * Even then the JIT may still do a little one-off work on the running thread
+ * (such as resolving the constants of a method it is about to compile), so
+ * the machine is measured over successive windows until one of them
+ * allocates nothing.  Allocating in the steady state fails every window.
+ *
+ * @see TestRunner
+ */
+public class AllocationTests
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    public static final int NUM_WORKERS = 6;
+    public static final long WARMUP_INSTRUCTIONS = 3000000;
+    public static final long MEASURED_INSTRUCTIONS = 1000000;
+    public static final int MAX_WINDOWS = 10;
+    public static final long SEED = 1;
+
+    /**
+     * opens the console and then loops forever: open the keyboard, read
+     * from it, close it, write what was read to the console and count to
+     * 300
+     */
+    private static final String WORKER = "SET R4 1\n"
+                                         + "PUSH R4\n"
+                                         + "SET R0 3\n"
+                                         + "PUSH R0\n"
+                                         + "TRAP\n"
+                                         + "POP R0\n"
+                                         + ":loop\n"
+                                         + "SET R4 0\n"
+                                         + "PUSH R4\n"
+                                         + "SET R0 3\n"
+                                         + "PUSH R0\n"
+                                         + "TRAP\n"
+                                         + "POP R0\n"
+                                         + "PUSH R4\n"
+                                         + "SET R1 7\n"
+                                         + "PUSH R1\n"
+                                         + "SET R0 5\n"
+                                         + "PUSH R0\n"
+                                         + "TRAP\n"
+                                         + "POP R0\n"
+                                         + "POP R2\n"
+                                         + "PUSH R4\n"
+                                         + "SET R0 4\n"
+                                         + "PUSH R0\n"
+                                         + "TRAP\n"
+                                         + "POP R0\n"
+                                         + "SET R4 1\n"
+                                         + "PUSH R4\n"
+                                         + "SET R1 9\n"
+                                         + "PUSH R1\n"
+                                         + "PUSH R2\n"
+                                         + "SET R0 6\n"
+                                         + "PUSH R0\n"
+                                         + "TRAP\n"
+                                         + "POP R0\n"
+                                         + "SET R0 0\n"
+                                         + "SET R1 1\n"
+                                         + "SET R3 300\n"
+                                         + ":think\n"
+                                         + "ADD R0 R0 R1\n"
+                                         + "BLT R0 R3 think\n"
+                                         + "BRANCH loop\n";
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's tests to
+     */
+    public static void addTo(List<Test> all)
+    {
+        all.add(new SteadyStateTest("allocation.interpreted", false));
+        all.add(new SteadyStateTest("allocation.blocks", true));
+    }//addTo
+
+    //======================================================================
+    // Nested Classes
+    //----------------------------------------------------------------------
+
+    /**
+     * class SteadyStateTest
+     *
+     * checks that the workload allocates nothing over a window of
+     * instructions in which there are context switches and device and timer
+     * interrupts
+     */
+    private static class SteadyStateTest extends Test implements CPU.CheckpointHandler
+    {
+        private boolean m_blocks = false;
+
+        /**
+         * the thread allocation counters (looked up once since looking them
+         * up allocates)
+         */
+        private com.sun.management.ThreadMXBean m_threads = null;
+        private long m_threadId = 0;
+
+        /**
+         * the machine
+         */
+        private CPU m_CPU = null;
+        private SOS m_OS = null;
+
+        /**
+         * the bytes allocated at the start of the current window (-1 between
+         * windows) and over the last one
+         */
+        private long m_start = -1;
+        private long m_bytes = -1;
+        private int m_windows = 0;
+
+        /**
+         * the instructions run, interrupts taken, timer interrupts and
+         * context switches at the start of the current window and then over
+         * it
+         */
+        private long m_instructions = 0;
+        private long m_interrupts = 0;
+        private int m_timerInterrupts = 0;
+        private int m_contextSwitches = 0;
+
+        /**
+         * the number of times the allocation counter is read before the
+         * first window starts so that reading it has warmed up too
+         */
+        private static final int COUNTER_WARMUP_READS = 1000;
+
+        public SteadyStateTest(String name, boolean blocks)
+        {
+            super(name);
+            m_blocks = blocks;
+        }
+
+        @Override
+        public void run() throws Exception
+        {
+            m_threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            check(m_threads.isThreadAllocatedMemorySupported(),
+                  "this JVM can't count the bytes a thread allocates");
+            m_threads.setThreadAllocatedMemoryEnabled(true);
+            m_threadId = Thread.currentThread().getId();
+
+            //Build a discrete event machine as Simulation does
+            RAM ram = new RAM(Simulation.DEFAULT_RAM_SIZE, 0);
+            MMU mmu = new MMU(ram, Simulation.DEFAULT_VIRT_SIZE, Simulation.DEFAULT_PAGE_SIZE);
+            InterruptController ic = new InterruptController();
+            KeyboardDevice kd = new KeyboardDevice(ic);
+            kd.setId(0);
+            ConsoleDevice cd = new ConsoleDevice(ic);
+            cd.setId(1);
+            cd.setEcho(false);
+            m_CPU = new CPU(ram, ic, mmu);
+            m_CPU.getBlockCache().setEnabled(m_blocks);
+            m_OS = new SOS(m_CPU, ram, mmu, null, new StarvationScheduler());
+            m_OS.setPrintStats(false);
+            m_OS.setPrintOutput(false);
+
+            SimClock clock = new SimClock();
+            m_CPU.setClock(clock);
+            ram.setClock(clock, Simulation.DES_RAM_LATENCY);
+            kd.setClock(clock, SEED);
+            cd.setClock(clock, SEED + 1);
+            m_OS.setRandomSeed(SEED);
+            m_OS.registerDevice(kd, 0);
+            m_OS.registerDevice(cd, 1);
+
+            check(m_OS.createProcess(BenchMachine.assemble(TestWorkloads.spawner(NUM_WORKERS)), 256),
+                  "could not create the boot process");
+            m_OS.addProgram(BenchMachine.assemble(WORKER));
+
+            m_CPU.setCheckpoint(WARMUP_INSTRUCTIONS, this);
+            try
+            {
+                m_CPU.run();
+                check(false, "the CPU ran off the end of a program");
+            }
+            catch (HaltException e)
+            {
+                check(e.getStatus() == 0, "halted with " + e.getMessage());
+            }
+
+            check(m_interrupts > 0, "no device interrupts were measured");
+            check(m_timerInterrupts > 0, "no timer interrupts were measured");
+            check(m_contextSwitches > 0, "no context switches were measured");
+            check(m_bytes == 0, m_bytes + " bytes were allocated over " + m_instructions
+                  + " instructions, " + m_interrupts + " interrupts and "
+                  + m_contextSwitches + " context switches (in the last of "
+                  + m_windows + " windows)");
+        }
+
+        /**
+         * starts a window once the machine has warmed up and ends it after
+         * MEASURED_INSTRUCTIONS, stopping the machine once a window has
+         * allocated nothing or there have been MAX_WINDOWS of them
+         */
+        @Override
+        public boolean checkpoint()
+        {
+            if (m_start >= 0)
+            {
+                //Reading the counter may itself allocate a fixed amount, so
+                //what one more read costs is taken off the window
+                long end = m_threads.getThreadAllocatedBytes(m_threadId);
+                long overhead = m_threads.getThreadAllocatedBytes(m_threadId) - end;
+                m_bytes = end - m_start - overhead;
+                m_instructions = m_CPU.getNumInstructions() - m_instructions;
+                m_interrupts = m_CPU.getNumInterrupts() - m_interrupts;
+                m_timerInterrupts = m_OS.getNumTimerInterrupts() - m_timerInterrupts;
+                m_contextSwitches = m_OS.getNumContextSwitches() - m_contextSwitches;
+                m_windows++;
+                if (m_bytes == 0 || m_windows == MAX_WINDOWS)
+                {
+                    throw new HaltException(0, "Measured");
+                }
+            }
+            else
+            {
+                for (int i = 0; i < COUNTER_WARMUP_READS; i++)
+                {
+                    m_threads.getThreadAllocatedBytes(m_threadId);
+                }
+            }
+
+            m_instructions = m_CPU.getNumInstructions();
+            m_interrupts = m_CPU.getNumInterrupts();
+            m_timerInterrupts = m_OS.getNumTimerInterrupts();
+            m_contextSwitches = m_OS.getNumContextSwitches();
+            m_CPU.setCheckpoint(m_instructions + MEASURED_INSTRUCTIONS, this);
+            m_start = m_threads.getThreadAllocatedBytes(m_threadId);
+            return true;
+        }
+    }//class SteadyStateTest
+
+}//class AllocationTests
@@ -0,0 +1,83 @@
+package sos;
+
+import java.util.List;
+
+/**
+ * These tests run the keyboard and console with the latencies a simulation
+ * or sweep can give them.
+ *
+ * @see TestRunner
+ */
+public class DeviceTests
+{
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's tests to
+     */
+    public static void addTo(List<Test> all)
+    {
+        all.add(new LatencyTest("devices.fixedLatency", 1000, 1000));
+        all.add(new LatencyTest("devices.swappedLatency", 5000, 500));
+        all.add(new ContentionTest(300));
+    }//addTo
+
+    /**
+     * class LatencyTest
+     *
+     * checks that the workload finishes with the devices' latencies set
+     */
+    private static class LatencyTest extends Test
+    {
+        private int m_min = 0;
+        private int m_max = 0;
+
+        public LatencyTest(String name, int min, int max)
+        {
+            super(name);
+            m_min = min;
+            m_max = max;
+        }
+
+        @Override
+        public void run() throws Exception
+        {
+            Simulation sim = TestWorkloads.create(getName());
+            sim.setKeyboardLatency(m_min, m_max);
+            sim.setConsoleLatency(m_min, m_max);
+            Simulation.Result result = sim.run();
+            check(result.isNormalHalt(), "halted with " + result.getReason());
+            check(result.getNumFinished() == 21, result.getNumFinished()
+                  + " processes finished instead of 21");
+        }
+    }//class LatencyTest
+
+    /**
+     * class ContentionTest
+     *
+     * checks that every process finishes when hundreds of them wait for the
+     * keyboard and console at once
+     */
+    private static class ContentionTest extends Test
+    {
+        private int m_numProcesses = 0;
+
+        public ContentionTest(int numProcesses)
+        {
+            super("devices.contention" + numProcesses);
+            m_numProcesses = numProcesses;
+        }
+
+        @Override
+        public void run() throws Exception
+        {
+            Simulation sim = TestWorkloads.createContended(getName(), m_numProcesses);
+            sim.setMemory(65536, 131072, Simulation.DEFAULT_PAGE_SIZE);
+            Simulation.Result result = sim.run();
+            check(result.isNormalHalt(), "halted with " + result.getReason());
+            check(result.getNumFinished() == m_numProcesses + 1, result.getNumFinished()
+                  + " processes finished instead of " + (m_numProcesses + 1));
+        }
+    }//class ContentionTest
+
+}//class DeviceTests
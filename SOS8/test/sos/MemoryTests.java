@@ -0,0 +1,115 @@
+package sos;
+
+import java.util.List;
+
+/**
+ * These tests check how RAM counts the pages it copies when it is shared
+ * copy-on-write.
+ *
+ * @see TestRunner
+ * @see RAM#share
+ */
+public class MemoryTests
+{
+    private static final int RAM_SIZE = 4096;
+
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's tests to
+     */
+    public static void addTo(List<Test> all)
+    {
+        all.add(new FreshPagesTest());
+        all.add(new SharedPagesTest());
+        all.add(new UnforkedRunTest());
+    }//addTo
+
+    /**
+     * class FreshPagesTest
+     *
+     * checks that writing every page of a new RAM copies nothing
+     */
+    private static class FreshPagesTest extends Test
+    {
+        public FreshPagesTest()
+        {
+            super("memory.freshPagesAreNotCopies");
+        }
+
+        @Override
+        public void run()
+        {
+            RAM ram = new RAM(RAM_SIZE, 0);
+            for (int addr = 0; addr < RAM_SIZE; addr += RAM.PAGE_SIZE / 2)
+            {
+                ram.write(addr, addr + 1);
+            }
+            ram.writeBlock(0, new int[RAM.PAGE_SIZE * 2]);
+            check(ram.getNumPageCopies() == 0, ram.getNumPageCopies()
+                  + " page copies in a RAM that was never shared");
+            check(ram.read(RAM.PAGE_SIZE * 2) == RAM.PAGE_SIZE * 2 + 1,
+                  "a write to a fresh page was lost");
+            check(new RAM(RAM_SIZE, 0).read(RAM.PAGE_SIZE * 2) == 0,
+                  "a write to a fresh page changed another RAM");
+        }
+    }//class FreshPagesTest
+
+    /**
+     * class SharedPagesTest
+     *
+     * checks that a shared page that was written before it was shared is
+     * copied (and counted) by each RAM that writes it, while one that was
+     * never written is not counted
+     */
+    private static class SharedPagesTest extends Test
+    {
+        public SharedPagesTest()
+        {
+            super("memory.sharedPagesAreCopies");
+        }
+
+        @Override
+        public void run()
+        {
+            RAM parent = new RAM(RAM_SIZE, 0);
+            parent.write(0, 42);
+            RAM child = new RAM(RAM_SIZE, 0);
+            child.share(parent);
+
+            child.write(1, 7);
+            child.write(RAM.PAGE_SIZE, 7);
+            check(child.getNumPageCopies() == 1, child.getNumPageCopies()
+                  + " page copies in the child (expected 1)");
+            check(child.read(0) == 42, "the child lost the parent's data");
+
+            parent.write(1, 9);
+            check(parent.getNumPageCopies() == 1, parent.getNumPageCopies()
+                  + " page copies in the parent (expected 1)");
+            check(child.read(1) == 7, "the parent's write reached the child");
+        }
+    }//class SharedPagesTest
+
+    /**
+     * class UnforkedRunTest
+     *
+     * checks that a whole simulation that is never forked copies no pages
+     */
+    private static class UnforkedRunTest extends Test
+    {
+        public UnforkedRunTest()
+        {
+            super("memory.unforkedRunCopiesNothing");
+        }
+
+        @Override
+        public void run() throws Exception
+        {
+            Simulation.Result result = TestWorkloads.create(getName()).run();
+            check(result.isNormalHalt(), "halted with " + result.getReason());
+            check(result.getNumPageCopies() == 0, result.getNumPageCopies()
+                  + " page copies in a run that was never forked");
+        }
+    }//class UnforkedRunTest
+
+}//class MemoryTests
@@ -0,0 +1,92 @@
+package sos;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * These tests record a simulation's interrupts and replay them with the
+ * instruction probes switched the other way, which is what decides whether
+ * the CPU could run compiled blocks.
+ *
+ * @see TestRunner
+ * @see InterruptLog
+ */
+public class ReplayTests
+{
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's tests to
+     */
+    public static void addTo(List<Test> all)
+    {
+        all.add(new CrossModeTest("replay.probedRecordingPlainReplay", true, false));
+        all.add(new CrossModeTest("replay.plainRecordingProbedReplay", false, true));
+    }//addTo
+
+    /**
+     * probe
+     *
+     * @param sim     the simulation
+     * @param enabled true to record every fetch and execute
+     */
+    private static void probe(Simulation sim, boolean enabled)
+    {
+        if (enabled)
+        {
+            sim.setProbes(new Probes(Probes.DEFAULT_CAPACITY,
+                                     (1 << Probes.FETCH) | (1 << Probes.EXECUTE)));
+        }
+    }//probe
+
+    /**
+     * class CrossModeTest
+     *
+     * checks that a replay follows the recording exactly
+     */
+    private static class CrossModeTest extends Test
+    {
+        private boolean m_recordProbed = false;
+        private boolean m_replayProbed = false;
+
+        public CrossModeTest(String name, boolean recordProbed, boolean replayProbed)
+        {
+            super(name);
+            m_recordProbed = recordProbed;
+            m_replayProbed = replayProbed;
+        }
+
+        @Override
+        public void run() throws Exception
+        {
+            File log = File.createTempFile("sostest", ".log");
+            try
+            {
+                Simulation recording = TestWorkloads.create(getName() + ".record");
+                recording.setQuantum(100);
+                recording.setRecordFile(log);
+                probe(recording, m_recordProbed);
+                Simulation.Result recorded = recording.run();
+                check(recorded.isNormalHalt(), "recording halted with " + recorded.getReason());
+
+                Simulation replay = TestWorkloads.create(getName() + ".replay");
+                replay.setQuantum(100);
+                replay.setReplayFile(log);
+                probe(replay, m_replayProbed);
+                Simulation.Result replayed = replay.run();
+                check(replayed.isNormalHalt(), "replay halted with " + replayed.getReason());
+                check(replayed.getNumInstructions() == recorded.getNumInstructions(),
+                      "replay ran " + replayed.getNumInstructions()
+                      + " instructions instead of " + recorded.getNumInstructions());
+                check(replayed.getNumContextSwitches() == recorded.getNumContextSwitches(),
+                      "replay made " + replayed.getNumContextSwitches()
+                      + " context switches instead of " + recorded.getNumContextSwitches());
+            }
+            finally
+            {
+                log.delete();
+            }
+        }
+    }//class CrossModeTest
+
+}//class ReplayTests
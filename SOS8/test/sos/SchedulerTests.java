@@ -0,0 +1,140 @@
+package sos;
+
+import java.util.List;
+
+/**
+ * These tests check that the timer takes the CPU away from a process that
+ * never gives it up, with every scheduler.
+ *
+ * @see TestRunner
+ */
+public class SchedulerTests
+{
+    private static final String[] SCHEDULERS = { "starvation", "rr", "mlfq", "lottery", "cfs" };
+
+    /**
+     * a process that never blocks or exits
+     */
+    private static final String CPU_BOUND = "SET R1 1\n"
+                                            + ":top\n"
+                                            + "ADD R0 R0 R1\n"
+                                            + "BRANCH top\n";
+
+    private static final int QUANTUM = 100;
+    private static final long INSTRUCTIONS = 20000;
+
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's tests to
+     */
+    public static void addTo(List<Test> all)
+    {
+        for (String name : SCHEDULERS)
+        {
+            all.add(new TimerAlternatesTest(name));
+        }
+        all.add(new NoTimerTest());
+    }//addTo
+
+    /**
+     * runCPUBound
+     *
+     * runs two CPU bound processes for a while and records the context
+     * switches
+     *
+     * @param schedulerName the scheduler to use
+     * @param quantum       the time slice (0 turns the timer off)
+     * @return the probes holding the context switches
+     * @throws Exception if the machine can't be built
+     */
+    private static Probes runCPUBound(String schedulerName, int quantum) throws Exception
+    {
+        BenchMachine machine = new BenchMachine(4096, 4096, 64,
+                                                Simulation.createScheduler(schedulerName, 42));
+        machine.m_OS.setTimeQuantum(quantum);
+        machine.loadProcess(CPU_BOUND, 256);
+        machine.loadProcess(CPU_BOUND, 256);
+
+        Probes probes = new Probes(Probes.DEFAULT_CAPACITY, 1 << Probes.CONTEXT_SWITCH);
+        final CPU cpu = machine.m_CPU;
+        cpu.setProbes(probes);
+        cpu.setCheckpoint(INSTRUCTIONS, new CPU.CheckpointHandler() {
+            public boolean checkpoint()
+            {
+                throw new HaltException(0, "Done");
+            }
+        });
+        try
+        {
+            cpu.run();
+        }
+        catch (HaltException e)
+        {
+            //The checkpoint stops the CPU
+        }
+        return probes;
+    }//runCPUBound
+
+    /**
+     * class TimerAlternatesTest
+     *
+     * checks that two CPU bound processes take turns when the timer is on
+     */
+    private static class TimerAlternatesTest extends Test
+    {
+        private String m_schedulerName = null;
+
+        public TimerAlternatesTest(String schedulerName)
+        {
+            super("scheduler." + schedulerName + ".timerAlternates");
+            m_schedulerName = schedulerName;
+        }
+
+        @Override
+        public void run() throws Exception
+        {
+            Probes probes = runCPUBound(m_schedulerName, QUANTUM);
+
+            //Each process runs about a quantum's worth of instructions
+            long expected = INSTRUCTIONS / QUANTUM;
+            check(probes.size() >= expected / 2,
+                  "only " + probes.size() + " context switches (expected about "
+                  + expected + ")");
+
+            //Every switch goes from one process to the other
+            int[] event = new int[4];
+            int prev = -1;
+            for (int i = 0; i < probes.size(); i++)
+            {
+                probes.get(i, event);
+                check(event[2] != event[3], "switched from process " + event[2]
+                      + " to itself");
+                check((prev < 0) || (event[2] == prev), "switched from process "
+                      + event[2] + " but " + prev + " was running");
+                prev = event[3];
+            }
+        }
+    }//class TimerAlternatesTest
+
+    /**
+     * class NoTimerTest
+     *
+     * checks that the running process keeps the CPU when the timer is off
+     */
+    private static class NoTimerTest extends Test
+    {
+        public NoTimerTest()
+        {
+            super("scheduler.starvation.noTimer");
+        }
+
+        @Override
+        public void run() throws Exception
+        {
+            Probes probes = runCPUBound("starvation", 0);
+            check(probes.size() == 0, probes.size() + " context switches without a timer");
+        }
+    }//class NoTimerTest
+
+}//class SchedulerTests
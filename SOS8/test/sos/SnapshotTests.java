@@ -0,0 +1,90 @@
+package sos;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * These tests save a simulation part way through and check that a machine
+ * restored from the snapshot finishes exactly as the original did.
+ *
+ * @see TestRunner
+ * @see Snapshot
+ */
+public class SnapshotTests
+{
+    /**
+     * addTo
+     *
+     * @param all the list to add this group's tests to
+     */
+    public static void addTo(List<Test> all)
+    {
+        all.add(new RestoreMatchesTest(0));
+        all.add(new RestoreMatchesTest(100));
+    }//addTo
+
+    /**
+     * class RestoreMatchesTest
+     *
+     * checks that restoring and running to completion gives the same result
+     * as a run that was never interrupted, from several points in the run
+     */
+    private static class RestoreMatchesTest extends Test
+    {
+        private int m_quantum = 0;
+
+        public RestoreMatchesTest(int quantum)
+        {
+            super("snapshot.restoreMatches.quantum" + quantum);
+            m_quantum = quantum;
+        }
+
+        /**
+         * @return a run of the workload with this test's quantum
+         */
+        private Simulation create(String name) throws Exception
+        {
+            Simulation sim = TestWorkloads.create(getName() + "." + name);
+            sim.setQuantum(m_quantum);
+            return sim;
+        }
+
+        @Override
+        public void run() throws Exception
+        {
+            Simulation.Result expected = create("uninterrupted").run();
+            check(expected.isNormalHalt(), "halted with " + expected.getReason());
+
+            File file = File.createTempFile("sostest", ".snap");
+            try
+            {
+                for (int i = 1; i <= 4; i++)
+                {
+                    long at = expected.getNumInstructions() * i / 5;
+                    Simulation saving = create("save" + at);
+                    saving.setSnapshot(file, at);
+                    Simulation.Result saved = saving.run();
+                    check(saved.getSnapshotBytes() > 0, "no snapshot was taken after "
+                          + at + " instructions");
+
+                    Simulation restoring = create("restore" + at);
+                    restoring.setRestoreFile(file);
+                    Simulation.Result restored = restoring.run();
+                    String where = " restored from instruction " + saved.getSnapshotInstruction();
+                    check(restored.isNormalHalt(), "halted with " + restored.getReason() + where);
+                    check(restored.getNumInstructions() == expected.getNumInstructions(),
+                          restored.getNumInstructions() + " instructions instead of "
+                          + expected.getNumInstructions() + where);
+                    check(restored.getTicks() == expected.getTicks(),
+                          restored.getTicks() + " ticks instead of "
+                          + expected.getTicks() + where);
+                }
+            }
+            finally
+            {
+                file.delete();
+            }
+        }
+    }//class RestoreMatchesTest
+
+}//class SnapshotTests
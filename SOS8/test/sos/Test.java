@@ -0,0 +1,69 @@
+package sos;
+
+/**
+ * This class is one check run by the {@link TestRunner}.  A test builds the
+ * machine or simulation it needs, runs it and throws an exception (usually
+ * through {@link #check}) if the behavior isn't what it should be.
+ *
+ * @see TestRunner
+ */
+public abstract class Test
+{
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * identifies the test in reports (e.g., "scheduler.timerAlternates")
+     */
+    private String m_name = null;
+
+    //======================================================================
+    // Constructors
+    //----------------------------------------------------------------------
+
+    /**
+     * @param name identifies the test in reports
+     */
+    protected Test(String name)
+    {
+        m_name = name;
+    }
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * @return the test's name
+     */
+    public String getName()
+    {
+        return m_name;
+    }
+
+    /**
+     * run
+     *
+     * performs the test
+     *
+     * @throws Exception if the test fails
+     */
+    public abstract void run() throws Exception;
+
+    /**
+     * check
+     *
+     * @param condition what must be true for the test to pass
+     * @param message   describes the failure
+     * @throws AssertionError if the condition is false
+     */
+    protected static void check(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }//check
+
+}//class Test
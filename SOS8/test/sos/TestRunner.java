@@ -0,0 +1,126 @@
+package sos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs the simulator's regression tests.  It needs nothing
+ * beyond the JDK, but the tests use the benchmark machine so the bench
+ * sources must be compiled with them.
+ *
+ * Usage: java sos.TestRunner [-filter=text] [-list]
+ *
+ * -filter runs only the tests whose names contain the text.  The exit
+ * status is 1 if any test fails.
+ *
+ * @see Test
+ */
+public class TestRunner
+{
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * createAll
+     *
+     * @return every test in the suite
+     */
+    public static List<Test> createAll()
+    {
+        List<Test> all = new ArrayList<Test>();
+        SchedulerTests.addTo(all);
+        DeviceTests.addTo(all);
+        AllocationTests.addTo(all);
+        MemoryTests.addTo(all);
+        ReplayTests.addTo(all);
+        SnapshotTests.addTo(all);
+        return all;
+    }//createAll
+
+    /**
+     * runTest
+     *
+     * runs a test and reports the outcome
+     *
+     * @param test the test
+     * @return true if it passed
+     */
+    public static boolean runTest(Test test)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            test.run();
+        }
+        catch (Throwable t)
+        {
+            System.out.println("FAIL " + test.getName() + ": " + t);
+            return false;
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("ok   " + test.getName() + " (" + millis + " ms)");
+        return true;
+    }//runTest
+
+    /**
+     * main
+     *
+     * runs the tests chosen by the command line arguments
+     */
+    public static void main(String[] args)
+    {
+        String filter = "";
+        boolean listOnly = false;
+        for (String arg : args)
+        {
+            if (arg.startsWith("-filter="))
+            {
+                filter = arg.substring("-filter=".length());
+            }
+            else if (arg.equals("-list"))
+            {
+                listOnly = true;
+            }
+            else
+            {
+                System.out.println("Usage: java sos.TestRunner [-filter=text] [-list]");
+                System.exit(1);
+            }
+        }
+
+        //Keep the OS and CPU from printing as they run
+        SOS.m_verbose = false;
+        CPU.m_verbose = false;
+
+        int numRun = 0;
+        int numFailed = 0;
+        for (Test test : createAll())
+        {
+            if (!test.getName().contains(filter))
+            {
+                continue;
+            }
+            if (listOnly)
+            {
+                System.out.println(test.getName());
+                continue;
+            }
+            numRun++;
+            if (!runTest(test))
+            {
+                numFailed++;
+            }
+        }
+
+        if (!listOnly)
+        {
+            System.out.println(numRun + " tests, " + numFailed + " failed");
+        }
+        if (numFailed > 0)
+        {
+            System.exit(1);
+        }
+    }//main
+
+}//class TestRunner
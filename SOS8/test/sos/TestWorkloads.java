@@ -0,0 +1,208 @@
+package sos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * This class builds discrete event simulations for tests to run.  The
+ * workload is a boot program that spawns a mix of programs that read the
+ * keyboard, write the console and compute, so that a run takes device and
+ * timer interrupts.  The programs are written to temporary files the first
+ * time they are needed.
+ *
+ * @see TestRunner
+ */
+public class TestWorkloads
+{
+    //======================================================================
+    // Constants
+    //----------------------------------------------------------------------
+
+    /**
+     * the number of processes the workload spawns
+     */
+    private static final int NUM_SPAWNED = 20;
+
+    /**
+     * spawns the number of processes in R2
+     */
+    private static final String SPAWNER = "SET R0 0\n"
+                                          + "SET R1 1\n"
+                                          + ":loop\n"
+                                          + "SET R3 7\n"
+                                          + "PUSH R3\n"
+                                          + "TRAP\n"
+                                          + "ADD R0 R0 R1\n"
+                                          + "BLT R0 R2 loop\n";
+
+    /**
+     * opens the keyboard, reads from it, outputs what it read and closes it
+     */
+    private static final String READER = "SET R4 0\n"
+                                          + "PUSH R4\n"
+                                          + "SET R0 3\n"
+                                          + "PUSH R0\n"
+                                          + "TRAP\n"
+                                          + "POP R0\n"
+                                          + "SET R1 7\n"
+                                          + "PUSH R4\n"
+                                          + "PUSH R1\n"
+                                          + "SET R0 5\n"
+                                          + "PUSH R0\n"
+                                          + "TRAP\n"
+                                          + "POP R0\n"
+                                          + "SET R2 1\n"
+                                          + "PUSH R2\n"
+                                          + "TRAP\n"
+                                          + "PUSH R4\n"
+                                          + "SET R0 4\n"
+                                          + "PUSH R0\n"
+                                          + "TRAP\n"
+                                          + "POP R0\n";
+
+    /**
+     * opens the console, writes five values and closes it
+     */
+    private static final String WRITER = "SET R4 1\n"
+                                         + "PUSH R4\n"
+                                         + "SET R0 3\n"
+                                         + "PUSH R0\n"
+                                         + "TRAP\n"
+                                         + "POP R0\n"
+                                         + "SET R1 0\n"
+                                         + "SET R2 1\n"
+                                         + "SET R3 5\n"
+                                         + ":loop\n"
+                                         + "PUSH R4\n"
+                                         + "PUSH R1\n"
+                                         + "PUSH R1\n"
+                                         + "SET R0 6\n"
+                                         + "PUSH R0\n"
+                                         + "TRAP\n"
+                                         + "POP R0\n"
+                                         + "ADD R1 R1 R2\n"
+                                         + "BLT R1 R3 loop\n"
+                                         + "PUSH R4\n"
+                                         + "SET R0 4\n"
+                                         + "PUSH R0\n"
+                                         + "TRAP\n"
+                                         + "POP R0\n";
+
+    /**
+     * counts to a large number and outputs it
+     */
+    private static final String THINKER = "SET R0 0\n"
+                                          + "SET R1 1\n"
+                                          + "SET R2 3000\n"
+                                          + ":loop\n"
+                                          + "ADD R0 R0 R1\n"
+                                          + "BLT R0 R2 loop\n"
+                                          + "PUSH R0\n"
+                                          + "SET R3 1\n"
+                                          + "PUSH R3\n"
+                                          + "TRAP\n";
+
+    //======================================================================
+    // Member Variables
+    //----------------------------------------------------------------------
+
+    /**
+     * the files holding the programs (null until they are written)
+     */
+    private static String[] m_programs = null;
+    private static String[] m_devicePrograms = null;
+    private static HashMap<Integer, String> m_spawners = new HashMap<Integer, String>();
+
+    //======================================================================
+    // Methods
+    //----------------------------------------------------------------------
+
+    /**
+     * create
+     *
+     * @param name identifies the simulation in its results
+     * @return a quiet discrete event simulation of the workload
+     * @throws IOException if the programs can't be written
+     */
+    public static Simulation create(String name) throws IOException
+    {
+        if (m_programs == null)
+        {
+            m_programs = new String[] { write(READER), write(WRITER), write(THINKER) };
+        }
+        return create(name, NUM_SPAWNED, m_programs);
+    }//create
+
+    /**
+     * createContended
+     *
+     * @param name         identifies the simulation in its results
+     * @param numProcesses the number of processes to spawn
+     * @return a quiet discrete event simulation whose processes all read
+     *         the keyboard or write the console
+     * @throws IOException if the programs can't be written
+     */
+    public static Simulation createContended(String name, int numProcesses)
+        throws IOException
+    {
+        if (m_devicePrograms == null)
+        {
+            m_devicePrograms = new String[] { write(READER), write(WRITER) };
+        }
+        return create(name, numProcesses, m_devicePrograms);
+    }//createContended
+
+    /**
+     * create
+     *
+     * @param name         identifies the simulation in its results
+     * @param numProcesses the number of processes the boot program spawns
+     * @param programs     the programs it spawns them from
+     * @return a quiet discrete event simulation
+     * @throws IOException if the boot program can't be written
+     */
+    private static Simulation create(String name, int numProcesses, String[] programs)
+        throws IOException
+    {
+        String spawner = m_spawners.get(numProcesses);
+        if (spawner == null)
+        {
+            spawner = write(spawner(numProcesses));
+            m_spawners.put(numProcesses, spawner);
+        }
+
+        Simulation sim = new Simulation();
+        sim.setName(name);
+        sim.setQuiet(true);
+        sim.setDiscreteEvent(true);
+        sim.setWorkload(spawner, 256, programs);
+        return sim;
+    }//create
+
+    /**
+     * spawner
+     *
+     * @param numProcesses the number of processes to spawn
+     * @return pidgin assembly for a boot program that spawns them and exits
+     */
+    public static String spawner(int numProcesses)
+    {
+        return "SET R2 " + numProcesses + "\n" + SPAWNER;
+    }//spawner
+
+    /**
+     * write
+     *
+     * @param source pidgin assembly
+     * @return the path of a temporary file holding it
+     * @throws IOException if the file can't be written
+     */
+    private static String write(String source) throws IOException
+    {
+        File file = BenchMachine.writeTempFile(source);
+        file.deleteOnExit();
+        return file.getPath();
+    }//write
+
+}//class TestWorkloads